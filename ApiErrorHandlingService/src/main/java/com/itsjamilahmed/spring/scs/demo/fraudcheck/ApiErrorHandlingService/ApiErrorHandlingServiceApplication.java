@@ -5,15 +5,23 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import java.util.function.Function;
 
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.QuotaPermits;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
 public class ApiErrorHandlingServiceApplication {
 
@@ -31,6 +39,20 @@ public class ApiErrorHandlingServiceApplication {
 	static final String MEDIATOR_CORRELATION_ID_KEY = "app_fraudCheckMediator_correlationId";
 	static final String MEDIATOR_MSG_TIMESTAMP_KEY = "app_fraudCheckMediator_timestamp";
 	
+	// The output bindings, also used for releasing the quota permit of each request answered
+	static final String ERROR_RESPONSE_OUTPUT_BINDING = "sendErrorResponse-out-0";
+	static final String TIMEOUT_RESPONSE_OUTPUT_BINDING = "sendTimeoutResponse-out-0";
+	
+	// Add a per-stage breakdown of the elapsed time to the error response? (From the stage timings trail carried through the pipeline.)
+	@Value("${fraudcheck.response.latencyBreakdown:false}")
+	boolean latencyBreakdownEnabled = false;
+	
+	private final StageMetrics metrics;
+	
+	public ApiErrorHandlingServiceApplication(MeterRegistry meterRegistry) {
+		this.metrics = new StageMetrics(meterRegistry, "ApiErrorHandlingService");
+	}
+	
 	public static void main(String[] args) {
 		SpringApplication.run(ApiErrorHandlingServiceApplication.class, args);
 	}
@@ -40,9 +62,13 @@ public class ApiErrorHandlingServiceApplication {
 	//  * This service will receive an event that contains the error message as generated by any upstream service.
 	//  * The event will also contain the reply-to topic and correlation ID to be used to route the response back to the open HTTP operation
 	//  * that is awaiting a response via the PubSub+ Broker's Microgateway feature. 
-	public Function<Message<String>, Message<String>> sendErrorResponse(){
+	//  * The request's quota permit (if it holds one) is then released, it having had its final response
+	public Function<Message<String>, Message<String>> sendErrorResponse(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("sendErrorResponse");
 		return input -> {
 			
+			long startNanos = stageMetrics.received(input);
+			StageTimings.Stage stageTiming = StageTimings.start(input, "sendErrorResponse");
 			String payload = input.getPayload();
 			JSONObject jsonMessage;
 			log.info("Received error message to process: " + input.getPayload());
@@ -51,11 +77,14 @@ public class ApiErrorHandlingServiceApplication {
 			String correlationID = "";		// Helps requesting applications correlate this reply to their outstanding response
 			
 			try {
+				long parseStartNanos = System.nanoTime();
 				jsonMessage = (JSONObject) new JSONParser().parse(payload);
+				stageMetrics.parsed(parseStartNanos);
 				jsonMessage.put("status", "error");
 				
 			} catch (ParseException e) {
 				log.error("Did not receive a valid JSON formatted message for the error. " + e.toString());
+				stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 				
 				// Shouldn't really get here. The error message visible externally can be kept vague then.
 				jsonMessage = new JSONObject();
@@ -68,6 +97,11 @@ public class ApiErrorHandlingServiceApplication {
 			
 			jsonMessage.put("elapsedTimeMs", errorMessageTimestampMs - originalRequestTimestampMs); 
 			
+			if (latencyBreakdownEnabled) {
+				// Where that time went, stage by stage, as far as the request got
+				jsonMessage.put("latencyBreakdown", stageTiming.latencyBreakdown(input));
+			}
+			
 			outputTopic = input.getHeaders().getOrDefault(MEDIATOR_REPLYTO_DESTINATION_KEY, "error/fallback/topic/here").toString();
 			correlationID = input.getHeaders().getOrDefault(MEDIATOR_CORRELATION_ID_KEY, "").toString();
 			
@@ -80,6 +114,10 @@ public class ApiErrorHandlingServiceApplication {
 			
 			log.info("Sending timeout final reply message: " + output.getPayload() + " on topic: " + outputTopic + " with correlation-ID: " + correlationID);
 			
+			// The end of the pipeline for a request that failed along the way
+			releaseQuotaPermit(input, streamBridge, ERROR_RESPONSE_OUTPUT_BINDING);
+			stageMetrics.endToEnd(input, StageMetrics.OUTCOME_ERROR);
+			stageMetrics.completed(startNanos, false);
 			return output;
 		};
 	}
@@ -90,9 +128,13 @@ public class ApiErrorHandlingServiceApplication {
 	//  * (It's queue is essentially the dead-message-queue for the main queue)
 	//  * This provides an opportunity to intercept this request and respond to the external API with a cancelled response
 	//  * The API call can be retried and the caller may prefer a fast-fail versus a prolonged lack of response.
-	public Function<Message<String>, Message<String>> sendTimeoutResponse(){
+	//  * The request's quota permit (if it holds one) is then released, as for an error response
+	public Function<Message<String>, Message<String>> sendTimeoutResponse(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("sendTimeoutResponse");
 		return input -> {
 			
+			long startNanos = stageMetrics.received(input);
+			StageTimings.Stage stageTiming = StageTimings.start(input, "sendTimeoutResponse");
 			String payload = input.getPayload();
 			JSONObject jsonMessage;
 			log.info("Received timeout message to process: " + input.getPayload());
@@ -111,6 +153,11 @@ public class ApiErrorHandlingServiceApplication {
 			
 			jsonMessage.put("elapsedTimeMs", errorMessageTimestampMs - originalRequestTimestampMs); 
 			
+			if (latencyBreakdownEnabled) {
+				// Where that time went, stage by stage, as far as the request got
+				jsonMessage.put("latencyBreakdown", stageTiming.latencyBreakdown(input));
+			}
+			
 			outputTopic = input.getHeaders().getOrDefault(MEDIATOR_REPLYTO_DESTINATION_KEY, "error/fallback/topic/here").toString();
 			correlationID = input.getHeaders().getOrDefault(MEDIATOR_CORRELATION_ID_KEY, "").toString();
 			
@@ -123,8 +170,21 @@ public class ApiErrorHandlingServiceApplication {
 			
 			log.info("Sending timeout final reply message: " + output.getPayload() + " on topic: " + outputTopic + " with correlation-ID: " + correlationID);
 			
+			// The end of the pipeline for a request that was never picked up by the orchestrator (or timed out along the way)
+			releaseQuotaPermit(input, streamBridge, TIMEOUT_RESPONSE_OUTPUT_BINDING);
+			stageMetrics.endToEnd(input, StageMetrics.OUTCOME_TIMEOUT);
+			stageMetrics.completed(startNanos, false);
 			return output;
 		};
 	}
 	
+	// Release the request's permit against its partner's cap on requests in flight at the mediator, if it holds one
+	private void releaseQuotaPermit (Message<?> input, StreamBridge streamBridge, String outputBinding) {
+		
+		MessageBuilder<byte[]> release = QuotaPermits.releaseOf(input);
+		// (No StreamBridge when called directly, e.g. benchmarked)
+		if (release != null && streamBridge != null) {
+			streamBridge.send(outputBinding, release.setHeader(BinderHeaders.TARGET_DESTINATION, QuotaPermits.RELEASE_TOPIC).build());
+		}
+	}
 }
@@ -0,0 +1,51 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.ApiErrorHandlingService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The processing cost of producing the error and timeout responses for the API caller
+@State(Scope.Benchmark)
+public class ApiErrorHandlingServiceBenchmark {
+
+	private Function<Message<String>, Message<String>> sendErrorResponse;
+	private Function<Message<String>, Message<String>> sendTimeoutResponse;
+
+	private Message<String> errorEvent;
+	private Message<String> expiredRequest;
+
+	@Setup
+	public void setup () {
+
+		ApiErrorHandlingServiceApplication service = new ApiErrorHandlingServiceApplication(new SimpleMeterRegistry());
+		// No StreamBridge: the requests hold no quota permits to release
+		sendErrorResponse = service.sendErrorResponse(null);
+		sendTimeoutResponse = service.sendTimeoutResponse(null);
+
+		// As sent by the Orchestrator on a processing error
+		errorEvent = message("{\"errorMsg\":\"An internal error occurred. Please retry the operation.\"}",
+				merge(brokerHeaders("myBank/cards/fraudCheckApi/error"), orchestratorAppHeaders(true)));
+
+		// The mediated request, as moved to the dead message queue on TTL expiry
+		expiredRequest = message(fraudCheckRequestJson(true),
+				merge(brokerHeaders("myBank/cards/fraudCheckApi/status/v1/ext/zeus/onyx"), mediatorAppHeaders()));
+	}
+
+	@Benchmark
+	public Message<String> sendErrorResponse () {
+		return sendErrorResponse.apply(errorEvent);
+	}
+
+	@Benchmark
+	public Message<String> sendTimeoutResponse () {
+		return sendTimeoutResponse.apply(expiredRequest);
+	}
+}
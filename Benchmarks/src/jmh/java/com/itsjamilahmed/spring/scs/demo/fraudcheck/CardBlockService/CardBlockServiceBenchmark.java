@@ -0,0 +1,50 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.CardBlockService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The processing cost of a card block request (without the simulated delay), by payload format
+@State(Scope.Benchmark)
+public class CardBlockServiceBenchmark {
+
+	@Param({PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY})
+	String contentType;
+
+	private Function<Message<byte[]>, Message<byte[]>> blockCard;
+
+	private Message<byte[]> cardBlockRequest;
+
+	@Setup
+	public void setup () {
+
+		CardBlockServiceApplication service = new CardBlockServiceApplication(new SimpleMeterRegistry());
+		service.simulateProcessingDelayEnabled = false;
+		blockCard = service.blockCard();
+
+		// As sent by the Orchestrator
+		JSONObject request = new JSONObject();
+		request.put("cardNumber", CARD_NUMBER);
+		request.put("setCardBlockStatus", true);
+		cardBlockRequest = message(PayloadCodec.encode(request, contentType), contentType,
+				withReplyTo(merge(brokerHeaders("myBank/cards/cardService/block/req/v1/ext/zeus/onyx/9e1c4b2a-7f3d-4d8e-a2b6-c5d4e3f2a1b0"),
+						orchestratorAppHeaders(true)), "myBank/cards/fraudCheckApi/reply/cardService/block/v1"));
+	}
+
+	@Benchmark
+	public Message<byte[]> blockCard () {
+		return blockCard.apply(cardBlockRequest);
+	}
+}
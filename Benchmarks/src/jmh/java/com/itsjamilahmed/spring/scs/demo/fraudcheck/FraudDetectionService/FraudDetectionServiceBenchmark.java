@@ -0,0 +1,72 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The processing cost of a fraud status check, by payload format and transaction count,
+// scored either from the transactions sent with the request or from the card's rolling aggregates of the same transactions
+@State(Scope.Benchmark)
+public class FraudDetectionServiceBenchmark {
+
+	@Param({PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY})
+	String contentType;
+
+	@Param({"5", "50"})
+	int txnCount;
+
+	@Param({FraudDetectionServiceApplication.SCORED_FROM_TRANSACTIONS, FraudDetectionServiceApplication.SCORED_FROM_AGGREGATES})
+	String scoredFrom;
+
+	private Function<Message<byte[]>, Message<byte[]>> getFraudStatus;
+
+	private Message<byte[]> fraudStatusRequest;
+
+	@Setup
+	public void setup () {
+
+		// Scored against the default rule set
+		CardAggregatesProperties aggregatesProperties = new CardAggregatesProperties();
+		aggregatesProperties.setEnabled(FraudDetectionServiceApplication.SCORED_FROM_AGGREGATES.equals(scoredFrom));
+		FraudDetectionServiceApplication service = new FraudDetectionServiceApplication(new SimpleMeterRegistry(), new FraudRulesProperties(), aggregatesProperties,
+				new ScoredWindowsProperties(), new TransactionStreamsProperties());
+		// No StreamBridge: the benchmark requests are not streamed, so never need crediting
+		getFraudStatus = service.getFraudStatus(null);
+
+		// Each transaction as its event would have been aggregated
+		if (aggregatesProperties.isEnabled()) {
+			Consumer<Message<byte[]>> recordTransaction = service.recordTransaction();
+			for (Object txn : sampleTxns(txnCount)) {
+				((JSONObject) txn).put("cardNumber", CARD_NUMBER);
+				recordTransaction.accept(message(PayloadCodec.encode((JSONObject) txn, contentType), contentType,
+						brokerHeaders("myBank/cards/txnService/txn/v1/ext/zeus/onyx")));
+			}
+		}
+
+		// As sent by the Orchestrator
+		JSONObject request = new JSONObject();
+		request.put("cardNumber", CARD_NUMBER);
+		request.put("recentTxns", sampleTxns(txnCount));
+		fraudStatusRequest = message(PayloadCodec.encode(request, contentType), contentType,
+				withReplyTo(merge(brokerHeaders("myBank/cards/fraudService/status/req/v1/ext/zeus/onyx/5f0c7a8e-21d4-4c53-b0a6-8e2f6c1d9a43"),
+						orchestratorAppHeaders(true)), "myBank/cards/fraudCheckApi/reply/fraudService/status/v1"));
+	}
+
+	@Benchmark
+	public Message<byte[]> getFraudStatus () {
+		return getFraudStatus.apply(fraudStatusRequest);
+	}
+}
@@ -0,0 +1,50 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.MediatorService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The processing cost of mediating a valid API request, and of failing fast on an invalid one
+@State(Scope.Benchmark)
+public class MediatorServiceBenchmark {
+
+	private Function<Message<String>, Message<String>> mediate;
+
+	private Message<String> validRequest;
+	private Message<String> invalidRequest;
+
+	@Setup
+	public void setup () {
+
+		MediatorServiceApplication service = new MediatorServiceApplication(new SimpleMeterRegistry());
+		mediate = service.mediate(service.partnerQuotas(new SimpleMeterRegistry()));
+
+		// As created by the microgateway from the HTTP POST
+		Map<String, Object> headers = brokerHeaders("POST/fraudCheck");
+		headers.put(MediatorServiceApplication.SOL_REPLYTO_DESTINATION_KEY, MEDIATOR_REPLYTO_TOPIC);
+		headers.put(MediatorServiceApplication.SOL_CORRELATION_ID_KEY, "ID:fe80::42:acff:fe11:2%lo0/12345/0/1");
+		headers.put("solace_httpContentType", "application/json");
+
+		validRequest = message(fraudCheckRequestJson(true), headers);
+		invalidRequest = message("{ \"partner\": \"onyx\" }", headers);
+	}
+
+	@Benchmark
+	public Message<String> mediateValidRequest () {
+		return mediate.apply(validRequest);
+	}
+
+	@Benchmark
+	public Message<String> mediateInvalidRequest () {
+		return mediate.apply(invalidRequest);
+	}
+}
@@ -0,0 +1,86 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The processing cost of each orchestration step, for each internal payload format and a range of transaction list sizes
+@State(Scope.Benchmark)
+public class OrchestratorServiceBenchmark {
+
+	@Param({PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY})
+	String contentType;
+
+	@Param({"5", "50"})
+	int txnCount;
+
+	private Function<Message<byte[]>, Message<byte[]>> getRecentTransactions;
+	private Function<Message<byte[]>, Message<byte[]>> getFraudStatus;
+	private OrchestratorServiceApplication orchestrator;
+
+	private Message<byte[]> mediatedRequest;
+	private Message<byte[]> txnsReply;
+	private Message<byte[]> fraudStatusReply;
+
+	@Setup
+	public void setup () {
+
+		orchestrator = new OrchestratorServiceApplication(new SimpleMeterRegistry());
+		orchestrator.internalContentType = contentType;
+
+		getRecentTransactions = orchestrator.getRecentTransactions(null);
+		getFraudStatus = orchestrator.getFraudStatus(null);
+
+		// As sent by the Mediator (always JSON)
+		mediatedRequest = message(fraudCheckRequestJson(true).getBytes(StandardCharsets.UTF_8), PayloadCodec.CONTENT_TYPE_JSON,
+				merge(brokerHeaders("myBank/cards/fraudCheckApi/status/v1/ext/zeus/onyx"), mediatorAppHeaders()));
+
+		// As replied by the Transactions History service
+		JSONObject txns = new JSONObject();
+		txns.put("cardNumber", CARD_NUMBER);
+		txns.put("txns", sampleTxns(txnCount));
+		txns.put("status", "ok");
+		txnsReply = message(PayloadCodec.encode(txns, contentType), contentType,
+				merge(brokerHeaders(REPLY_TO_TOPIC_ROOT_TXN + "/ext/zeus/onyx/0b3d2cde-8d4f-4a5e-9a57-3b1bd0c9e7f1"), orchestratorAppHeaders(true)));
+
+		// As replied by the Fraud Detection service, with fraud detected so both outputs are exercised
+		JSONObject fraudStatus = new JSONObject();
+		fraudStatus.put("cardNumber", CARD_NUMBER);
+		fraudStatus.put("fraudDetected", true);
+		fraudStatus.put("status", "ok");
+		fraudStatusReply = message(PayloadCodec.encode(fraudStatus, contentType), contentType,
+				merge(brokerHeaders(REPLY_TO_TOPIC_ROOT_FRAUDCHECK + "/ext/zeus/onyx/5f0c7a8e-21d4-4c53-b0a6-8e2f6c1d9a43"), orchestratorAppHeaders(true)));
+	}
+
+	@Benchmark
+	public Message<byte[]> getRecentTransactions () {
+		return getRecentTransactions.apply(mediatedRequest);
+	}
+
+	@Benchmark
+	public Message<byte[]> getFraudStatus () {
+		return getFraudStatus.apply(txnsReply);
+	}
+
+	// The card block request and final API response, from the one parse of the verdict, as the handleFraudStatus consumer does
+	@Benchmark
+	public Object handleFraudStatus () {
+		return orchestrator.fraudStatusOutputs(fraudStatusReply);
+	}
+
+	private static final String REPLY_TO_TOPIC_ROOT_TXN = OrchestratorServiceApplication.REPLY_TO_TOPIC_ROOT_TXN;
+	private static final String REPLY_TO_TOPIC_ROOT_FRAUDCHECK = OrchestratorServiceApplication.REPLY_TO_TOPIC_ROOT_FRAUDCHECK;
+}
@@ -0,0 +1,124 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import static com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks.BenchmarkFixtures.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The processing cost of a transactions lookup, by payload format, transaction count, and which tier it is read from
+//  * Also of a lookup of the cards seen at a merchant, among SEEN_AT_CARDS cards in the last hour
+@State(Scope.Benchmark)
+public class TransactionsHistoryServiceBenchmark {
+
+	static final int SEEN_AT_CARDS = 1_000;
+	static final String SEEN_AT_MERCHANT = "terminal-0001";
+
+	@Param({PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY})
+	String contentType;
+
+	@Param({"5", "50"})
+	int txnCount;
+
+	// Which tier answers the repeated lookup: the cache of recent results, the transaction cache, or the log
+	// (With the transaction cache holding 16 transactions a card, the lookups of 50 go to the log regardless)
+	@Param({"lookupcache", "txncache", "txnlog"})
+	String readFrom;
+
+	private Function<Message<byte[]>, Message<byte[]>> getTransactions;
+
+	private Message<byte[]> txnsRequest;
+
+	private Function<Message<byte[]>, Message<byte[]>> getCardsSeenAt;
+
+	private Message<byte[]> seenAtRequest;
+
+	private TransactionsHistoryServiceApplication service;
+
+	@Setup
+	public void setup () throws IOException {
+
+		// A log of its own, with the card's transactions recorded among those of other cards
+		TransactionLogProperties logProperties = new TransactionLogProperties();
+		logProperties.setDirectory(Files.createTempDirectory("txnlog-benchmark").toString());
+		logProperties.setSegmentMb(16);
+		TransactionCacheProperties cacheProperties = new TransactionCacheProperties();
+		cacheProperties.setEnabled(!"txnlog".equals(readFrom));
+		cacheProperties.setMaxMemoryMb(16);
+		LookupCacheProperties lookupProperties = new LookupCacheProperties();
+		lookupProperties.setEnabled("lookupcache".equals(readFrom));
+		service = new TransactionsHistoryServiceApplication(new SimpleMeterRegistry(), logProperties, cacheProperties, lookupProperties, new PlaceIndexProperties(),
+				new TransactionStreamProperties());
+		// No StreamBridge: the benchmark requests are not for chunked replies
+		getTransactions = service.getTransactions(null);
+		getCardsSeenAt = service.getCardsSeenAt();
+
+		Consumer<Message<byte[]>> recordTransaction = service.recordTransaction();
+		for (Object txn : sampleTxns(txnCount)) {
+			for (int otherCard = 1; otherCard <= 10; otherCard++) {
+				JSONObject otherTxn = new JSONObject((JSONObject) txn);
+				otherTxn.put("cardNumber", String.format("1234-5678-0000-%04d", otherCard));
+				recordTransaction.accept(message(PayloadCodec.encode(otherTxn, contentType), contentType, brokerHeaders("myBank/cards/txnService/txn/v1/ext/zeus/onyx")));
+			}
+			((JSONObject) txn).put("cardNumber", CARD_NUMBER);
+			recordTransaction.accept(message(PayloadCodec.encode((JSONObject) txn, contentType), contentType, brokerHeaders("myBank/cards/txnService/txn/v1/ext/zeus/onyx")));
+		}
+
+		// Transactions of the last hour at the one merchant, for the cross-card lookup
+		DateTimeFormatter datetime = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneOffset.UTC);
+		Instant now = Instant.now();
+		for (int seenCard = 1; seenCard <= SEEN_AT_CARDS; seenCard++) {
+			JSONObject seenTxn = (JSONObject) sampleTxns(1).get(0);
+			seenTxn.put("cardNumber", String.format("4000-0000-0000-%04d", seenCard));
+			seenTxn.put("merchant", SEEN_AT_MERCHANT);
+			seenTxn.put("datetime", datetime.format(now.minusSeconds(seenCard * 3L)));
+			recordTransaction.accept(message(PayloadCodec.encode(seenTxn, contentType), contentType, brokerHeaders("myBank/cards/txnService/txn/v1/ext/zeus/onyx")));
+		}
+
+		JSONObject seenAt = new JSONObject();
+		seenAt.put("merchant", SEEN_AT_MERCHANT);
+		seenAt.put("withinMinutes", 60);
+		seenAtRequest = message(PayloadCodec.encode(seenAt, contentType), contentType,
+				withReplyTo(brokerHeaders("myBank/cards/txnService/seenAt/req/v1/analyst/6c1e2f9a-3b7d-4e58-9f0a-2d4c8b7e1a36"), "myBank/cards/analyst/reply/txnService/seenAt/v1"));
+
+		// As sent by the Orchestrator
+		JSONObject request = new JSONObject();
+		request.put("cardNumber", CARD_NUMBER);
+		request.put("txnCount", txnCount);
+		txnsRequest = message(PayloadCodec.encode(request, contentType), contentType,
+				withReplyTo(merge(brokerHeaders("myBank/cards/txnService/history/req/v1/ext/zeus/onyx/0b3d2cde-8d4f-4a5e-9a57-3b1bd0c9e7f1"),
+						orchestratorAppHeaders(true)), "myBank/cards/fraudCheckApi/reply/txnService/history/v1"));
+	}
+
+	@TearDown
+	public void tearDown () {
+		service.closeTransactionLog();
+	}
+
+	@Benchmark
+	public Message<byte[]> getTransactions () {
+		return getTransactions.apply(txnsRequest);
+	}
+
+	@Benchmark
+	public Message<byte[]> getCardsSeenAt () {
+		return getCardsSeenAt.apply(seenAtRequest);
+	}
+}
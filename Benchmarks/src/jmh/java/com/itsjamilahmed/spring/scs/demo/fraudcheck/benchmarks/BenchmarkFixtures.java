@@ -0,0 +1,114 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Realistic inputs for the function beans under benchmark
+//  * Header sets are modelled on what the Solace binder presents to each service at that point of the pipeline,
+//  * including the 'app_' headers carried forward from the earlier services.
+public final class BenchmarkFixtures {
+
+	public static final String PARTNER_NAME = "onyx";
+	public static final String CARD_NUMBER = "1234-5678-1234-5688";
+	public static final String SOURCE_PLATFORM_NAME = "ext/zeus";
+
+	// Locations with known coordinates, so the fraud rules have journeys to check
+	public static final String[] SAMPLE_LOCATIONS = {"London", "Paris", "London"};
+
+	public static final String MEDIATOR_REPLYTO_TOPIC = "_P2P/v:public-demo-broker/_rest-8c6a5bd5e0c1f24a/POST/fraudCheck";
+
+	private BenchmarkFixtures() {
+	}
+
+	// The request as sent by the API caller, via the microgateway
+	public static String fraudCheckRequestJson (boolean blockCardIfFraudulent) {
+		JSONObject request = new JSONObject();
+		request.put("partner", PARTNER_NAME);
+		request.put("cardNumber", CARD_NUMBER);
+		request.put("blockCardIfFraudulent", blockCardIfFraudulent);
+		return request.toJSONString();
+	}
+
+	// Transaction records shaped like those returned by the Transactions History service
+	public static JSONArray sampleTxns (int count) {
+		JSONArray txns = new JSONArray();
+		for (int i = count; i > 0; i--) {
+			JSONObject txn = new JSONObject();
+			txn.put("index", (long) i);
+			txn.put("merchant", "merchant-" + (i % 7));
+			txn.put("amount", String.valueOf(1000 + 37 * i));
+			txn.put("location", SAMPLE_LOCATIONS[i % SAMPLE_LOCATIONS.length]);
+			txn.put("datetime", String.format("21/05/2020 10:%02d:31", i % 60));
+			txns.add(txn);
+		}
+		return txns;
+	}
+
+	// Headers as set by the broker and binder on any consumed message
+	public static Map<String, Object> brokerHeaders (String destination) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("solace_destination", destination);
+		headers.put("solace_replicationGroupMessageId", "rmid1:3477f-a5ce52f0ad4-00000000-" + UUID.randomUUID().toString().substring(0, 8));
+		headers.put("solace_expiration", 0L);
+		headers.put("solace_discardIndication", false);
+		headers.put("solace_redelivered", false);
+		headers.put("solace_dmqEligible", true);
+		headers.put("solace_priority", -1);
+		headers.put("deliveryAttempt", 1);
+		headers.put("acknowledgmentCallback", "");
+		return headers;
+	}
+
+	// The headers added by the Mediator and carried through the whole pipeline
+	public static Map<String, Object> mediatorAppHeaders () {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("app_fraudCheckMediator_correlationId", "ID:fe80::42:acff:fe11:2%lo0/12345/0/" + UUID.randomUUID());
+		headers.put("app_fraudCheckMediator_replyTo", MEDIATOR_REPLYTO_TOPIC);
+		headers.put("app_fraudCheckMediator_timestamp", System.currentTimeMillis());
+		headers.put("app_sourcePlatform", SOURCE_PLATFORM_NAME);
+		return headers;
+	}
+
+	// ... and those added by the Orchestrator once the request has been accepted
+	public static Map<String, Object> orchestratorAppHeaders (boolean blockRequested) {
+		Map<String, Object> headers = mediatorAppHeaders();
+		headers.put("app_fraudCheckOrchestrator_isBlockRequested", blockRequested);
+		headers.put("app_fraudCheckOrchestrator_partnerName", PARTNER_NAME);
+		return headers;
+	}
+
+	public static Message<byte[]> message (byte[] payload, String contentType, Map<String, Object> headers) {
+		return MessageBuilder.withPayload(payload)
+				.copyHeaders(headers)
+				.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+				.build();
+	}
+
+	public static Message<String> message (String payload, Map<String, Object> headers) {
+		return MessageBuilder.withPayload(payload)
+				.copyHeaders(headers)
+				.setHeader(MessageHeaders.CONTENT_TYPE, "application/json")
+				.build();
+	}
+
+	// For a worker service request: the reply-to the orchestrator would have set
+	public static Map<String, Object> withReplyTo (Map<String, Object> headers, String replyToTopicRoot) {
+		headers.put("reply_to_destination", replyToTopicRoot + "/" + SOURCE_PLATFORM_NAME + "/" + PARTNER_NAME + "/" + UUID.randomUUID());
+		return headers;
+	}
+
+	public static Map<String, Object> merge (Map<String, Object> first, Map<String, Object> second) {
+		Map<String, Object> merged = new HashMap<>(first);
+		merged.putAll(second);
+		merged.remove(BinderHeaders.TARGET_DESTINATION);
+		return merged;
+	}
+}
@@ -3,18 +3,26 @@ package com.itsjamilahmed.spring.scs.demo.fraudcheck.CardBlockService;
 import java.util.function.Function;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.apache.commons.lang3.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.stream.binder.BinderHeaders;
 import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.AppHeaderPropagator;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
 public class CardBlockServiceApplication {
 
@@ -29,6 +37,17 @@ public class CardBlockServiceApplication {
 	// How to identify the headers on the inbound event that should be copied over to the outbound event?
 	static final String APP_HEADERS_KEY_PREFIX = "app_";
 	
+	// Sleep for a random period to simulate the processing delay of a real service?
+	// (e.g. Turned off when benchmarking the processing cost of the service itself.)
+	@Value("${fraudcheck.simulateProcessingDelay:true}")
+	boolean simulateProcessingDelayEnabled = true;
+	
+	private final StageMetrics metrics;
+	
+	public CardBlockServiceApplication(MeterRegistry meterRegistry) {
+		this.metrics = new StageMetrics(meterRegistry, "CardBlockService");
+	}
+	
 	public static void main(String[] args) {
 		SpringApplication.run(CardBlockServiceApplication.class, args);
 	}
@@ -37,17 +56,21 @@ public class CardBlockServiceApplication {
 	// Purpose: A simple service to block a given card number
 	//	* For these internally accessed services, error messages are sent back on the same supplied reply-to
 	//  * It is the responsibility of the requesting service to detect and implement any logic such as retry pattern
-	public Function<Message<String>, Message<String>> blockCard(){
+	public Function<Message<byte[]>, Message<byte[]>> blockCard(){
+		StageMetrics.Stage stageMetrics = metrics.stage("blockCard");
 		return input -> {
 			
-			String payload = input.getPayload();
+			long startNanos = stageMetrics.received(input);
+			StageTimings.Stage stageTiming = StageTimings.start(input, "blockCard");
 			JSONObject jsonMessageIn;
 			JSONObject jsonMessageOut;
-			log.info("Received message: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			log.info("Received message: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
 			
 			try {
 				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decode(input);
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Do some processing now to block the card from further use
 					String cardNumber = jsonMessageIn.get("cardNumber").toString();
@@ -64,11 +87,12 @@ public class CardBlockServiceApplication {
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception("Did not receive a valid JSON formatted message. " + e.toString());
 					
 				} catch (NullPointerException e) {
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+					log.error("Error processing message: NullPointerException during json access.", e);
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 					throw new Exception("Error processing message: NullPointerException during json access.");
 				}
 			} catch (Exception e) {				
@@ -76,41 +100,36 @@ public class CardBlockServiceApplication {
 				jsonMessageOut.put("status", "error");
 				jsonMessageOut.put("errorMsg", e.getMessage());
 			}
+			stageTiming.end();
 			
 			String replyTopic = input.getHeaders().get(REPLY_TO_HEADER_KEY).toString();
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
-					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic)
-					.build();
+			// Reply in the same payload format as the request
+			String contentType = PayloadCodec.contentTypeOf(input);
+			
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentType))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic);
 			
-			// Copy over all the app headers...
-			output = copyAppMessageHeaders(input, output);
+			// Copy over all the app headers, adding this stage to the timings trail...
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+					.build();
 
-			log.info("Sending response: " + output.getPayload() + " on topic: " + replyTopic);
+			log.info("Sending response: " + jsonMessageOut + " on topic: " + replyTopic);
 			
+			// Errors go back on the same reply-to topic, so are told apart by their status
+			stageMetrics.completed(startNanos, "error".equals(jsonMessageOut.get("status")));
 			return output;
 		};
 	}
 	
-	private Message<String> copyAppMessageHeaders (Message<String> fromMsg, Message<String> toMsg) {
+	private void simulateProcessingDelay () {
 		
-		// Now copy over all the app headers...
-		for (String key : fromMsg.getHeaders().keySet()) {
-			if (key.startsWith(APP_HEADERS_KEY_PREFIX)) {
-				
-				// Message is immutable so need to create new for each header?
-				// TODO: Investigate some optimisation
-				toMsg = MessageBuilder.fromMessage(toMsg)
-						.setHeader(key, fromMsg.getHeaders().get(key))
-						.build();
-			}
+		if (!simulateProcessingDelayEnabled) {
+			return;
 		}
 		
-		return toMsg; 
-	}
-	
-	private void simulateProcessingDelay () {
-		
 		long leftLimit = 1000L;
 	    long rightLimit = 3000L;
 	    long generatedRandomLong = RandomUtils.nextLong(leftLimit, rightLimit);
@@ -0,0 +1,28 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import java.util.Map;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Carry the 'app_' headers (the state transferred through the event processing pipeline) from an inbound event to the outbound event
+//  * All the prefixed headers are set on the outbound message builder in one pass over the inbound headers, so the outbound message is only built once
+public final class AppHeaderPropagator {
+
+	// How to identify the headers on the inbound event that should be copied over to the outbound event
+	public static final String APP_HEADERS_KEY_PREFIX = "app_";
+
+	private AppHeaderPropagator() {
+	}
+
+	public static <T> MessageBuilder<T> copyAppHeaders (Message<?> fromMsg, MessageBuilder<T> toMsg) {
+
+		for (Map.Entry<String, Object> header : fromMsg.getHeaders().entrySet()) {
+			if (header.getKey().startsWith(APP_HEADERS_KEY_PREFIX)) {
+				toMsg.setHeader(header.getKey(), header.getValue());
+			}
+		}
+
+		return toMsg;
+	}
+}
@@ -0,0 +1,53 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: The deadline of the original API request, carried through the pipeline so no stage works on a request its caller is no longer waiting for
+//  * Set by the mediator as an 'app_' header: when it received the request plus its timeout, in epoch milliseconds
+//  * An input past its deadline is dropped before its payload is parsed. One without a deadline (e.g. not via the mediator) never expires.
+//  * Each outbound hop gets the time remaining as its TTL, and is DMQ eligible: if still queued at the deadline, the broker moves it to its queue's DMQ
+//  *   (for the error handling service to send the caller the timeout response) rather than silently discarding it
+//  * Bar the fraud verdict, which is sent without a TTL: a card found to be fraudulent is blocked, however late the check
+public final class Deadlines {
+
+	public static final String DEADLINE_KEY = "app_fraudCheckMediator_deadline";
+	public static final String SOL_TTL_KEY = "solace_timeToLive";
+	public static final String SOL_DMQ_ELIGIBLE_KEY = "solace_dmqEligible";
+
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private Deadlines() {
+	}
+
+	public static boolean isExpired (Message<?> message) {
+		return System.currentTimeMillis() >= deadlineMs(message);
+	}
+
+	// Set the outbound message's TTL to the time left before the input's deadline, and make it DMQ eligible, if it has one
+	public static <T> MessageBuilder<T> withRemainingTtl (Message<?> input, MessageBuilder<T> output) {
+
+		long deadlineMs = deadlineMs(input);
+		if (deadlineMs != NO_DEADLINE) {
+			// A TTL of 0 would mean never expire, so at least 1ms
+			output.setHeader(SOL_TTL_KEY, Math.max(1L, deadlineMs - System.currentTimeMillis()));
+			output.setHeader(SOL_DMQ_ELIGIBLE_KEY, true);
+		}
+		return output;
+	}
+
+	public static long deadlineMs (Message<?> message) {
+
+		// A Long when set by the mediator, but could be a String depending on the route it took
+		Object deadline = message.getHeaders().get(DEADLINE_KEY);
+
+		if (deadline instanceof Number) {
+			return ((Number) deadline).longValue();
+		}
+		try {
+			return (deadline != null) ? Long.parseLong(deadline.toString()) : NO_DEADLINE;
+		} catch (NumberFormatException e) {
+			return NO_DEADLINE;
+		}
+	}
+}
@@ -0,0 +1,532 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+
+// Purpose: Encode and decode the payloads of the events exchanged between the orchestrator and the internal worker services
+//  * The format is selected by the content-type header of each event. A reply uses the same format as the request it answers.
+//  * JSON stays the format at the edge (the mediated API request, error events and the final API response)
+//  * The compact binary format avoids the JSON text for the internal hops, the transaction lists being the heaviest part.
+//  * Both formats are read straight from the byte[] payload and decode to the same json-simple objects, so the services
+//  * handle the content the same way regardless of which format was on the wire.
+//  * A list of records (e.g. the transactions) can instead be read straight into whatever the service keeps them in, via a RecordSink,
+//  * or by a service only passing it on, be left as it was encoded and written out again as is. (Binary only: JSON is parsed as normal.)
+public final class PayloadCodec {
+
+	public static final String CONTENT_TYPE_JSON = "application/json";
+	public static final String CONTENT_TYPE_BINARY = "application/vnd.mybank.fraudcheck.v1+binary";
+
+	// Binary format: a two byte preamble, then a single tagged value (the top-level object)
+	public static final byte BINARY_MAGIC = (byte) 0xFC;
+	public static final byte BINARY_VERSION = 1;
+
+	// Value tags
+	public static final byte TAG_NULL = 0;
+	public static final byte TAG_FALSE = 1;
+	public static final byte TAG_TRUE = 2;
+	public static final byte TAG_LONG = 3;		// zig-zag varint
+	public static final byte TAG_DOUBLE = 4;		// 8 bytes
+	public static final byte TAG_STRING = 5;		// varint length, then UTF-8 bytes
+	public static final byte TAG_OBJECT = 6;		// varint field count, then each field as key then tagged value
+	public static final byte TAG_ARRAY = 7;		// varint element count, then each element as a tagged value
+
+	// The schema: field names of the card request, transactions list, fraud verdict and card block events.
+	// Keys are written as their (1-based) position in this list, or as 0 followed by the name itself if not listed.
+	// Only ever append to this list, so that services on different versions can still read each other's events.
+	public static final List<String> KNOWN_FIELDS = List.of(
+			"cardNumber", "txnCount", "txns", "recentTxns", "status", "errorMsg",
+			"fraudDetected", "setCardBlockStatus", "cardBlockStatus",
+			"index", "merchant", "amount", "location", "datetime",
+			"fraudScore", "rulesTriggered", "latitude", "longitude", "ruleSetVersion", "scoredFrom",
+			"since", "cursor", "txnCursor",
+			"chunkSize", "streamId", "chunkSeq", "lastChunk", "txnsScored");
+
+	private static final Map<String, Integer> knownFieldIds = new HashMap<>();
+	static {
+		for (int i = 0; i < KNOWN_FIELDS.size(); i++) {
+			knownFieldIds.put(KNOWN_FIELDS.get(i), i + 1);
+		}
+	}
+
+	// Receives the records of a list as they are read, rather than each being decoded to a JSONObject
+	public interface RecordSink {
+
+		// The next record starts, its fields to follow
+		void startRecord ();
+
+		// A field of the current record. (Strings, booleans, and anything nested, decoded as normal.)
+		void field (String key, Object value);
+
+		default void longField (String key, long value) {
+			field(key, value);
+		}
+
+		default void doubleField (String key, double value) {
+			field(key, value);
+		}
+
+		// After the last record, whether or not the payload had the list
+		default void endRecords () {
+		}
+	}
+
+	// A value left as it was encoded in a binary payload, to be written out as is. (Decoded only if written out as JSON.)
+	public static final class Encoded implements JSONAware {
+
+		private final byte[] bytes;
+
+		private Encoded(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public String toJSONString () {
+			try {
+				return JSONValue.toJSONString(readValue(ByteBuffer.wrap(bytes), bytes));
+			} catch (ParseException e) {
+				// Only ever made from a value that has already been read through once
+				throw new IllegalStateException("Failed to decode binary value", e);
+			}
+		}
+
+		@Override
+		public String toString () {
+			return toJSONString();
+		}
+	}
+
+	private PayloadCodec() {
+	}
+
+	public static String contentTypeOf (Message<?> message) {
+
+		// The header may hold a String or a MimeType, depending on where the message came from
+		Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+
+		if (contentType != null && contentType.toString().startsWith(CONTENT_TYPE_BINARY)) {
+			return CONTENT_TYPE_BINARY;
+		}
+		return CONTENT_TYPE_JSON;
+	}
+
+	public static JSONObject decode (Message<byte[]> message) throws ParseException {
+		return decode(message, null, null, null);
+	}
+
+	// As decode(), but the list of records under any of 'recordsKeys' (at the top level) is read into the sink instead, so is not in the object returned
+	public static JSONObject decode (Message<byte[]> message, RecordSink records, String... recordsKeys) throws ParseException {
+		return decode(message, Set.of(recordsKeys), records, null);
+	}
+
+	// As decode(), but the values under any of 'passThroughKeys' (at the top level) are left Encoded, if the payload is binary
+	public static JSONObject decodePassingThrough (Message<byte[]> message, String... passThroughKeys) throws ParseException {
+		return decode(message, null, null, Set.of(passThroughKeys));
+	}
+
+	private static JSONObject decode (Message<byte[]> message, Set<String> recordsKeys, RecordSink records, Set<String> passThroughKeys) throws ParseException {
+
+		byte[] payload = message.getPayload();
+
+		if (CONTENT_TYPE_BINARY.equals(contentTypeOf(message))) {
+			return decodeBinary(payload, recordsKeys, records, passThroughKeys);
+		}
+
+		JSONObject json;
+		try {
+			json = (JSONObject) new JSONParser().parse(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			// Not expected when reading from memory
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+		}
+
+		if (records != null) {
+			// Already parsed, so just handed over the same as a binary payload's would be
+			for (String recordsKey : recordsKeys) {
+				Object list = json.remove(recordsKey);
+				if (list instanceof List) {
+					for (Object element : (List<?>) list) {
+						if (element instanceof Map) {
+							records.startRecord();
+							for (Map.Entry<?, ?> field : ((Map<?, ?>) element).entrySet()) {
+								recordField(records, field.getKey().toString(), field.getValue());
+							}
+						}
+					}
+				}
+			}
+			records.endRecords();
+		}
+		return json;
+	}
+
+	public static byte[] encode (JSONObject json, String contentType) {
+
+		if (CONTENT_TYPE_BINARY.equals(contentType)) {
+			BinaryWriter writer = new BinaryWriter(256);
+			writer.writeByte(BINARY_MAGIC);
+			writer.writeByte(BINARY_VERSION);
+			writer.writeValue(json);
+			return writer.toByteArray();
+		}
+
+		try {
+			JsonByteWriter bytes = new JsonByteWriter();
+			Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+			json.writeJSONString(writer);
+			writer.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Not expected when writing to memory
+			throw new IllegalStateException("Failed to encode JSON payload", e);
+		}
+	}
+
+	// Just for logging purposes: the payload in a readable form
+	public static String toLogString (Message<byte[]> message) {
+
+		if (CONTENT_TYPE_BINARY.equals(contentTypeOf(message))) {
+			return "[binary payload of " + message.getPayload().length + " bytes]";
+		}
+		return new String(message.getPayload(), StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject decodeBinary (byte[] payload, Set<String> recordsKeys, RecordSink records, Set<String> passThroughKeys) throws ParseException {
+
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+
+		try {
+			if (buffer.get() != BINARY_MAGIC || buffer.get() != BINARY_VERSION) {
+				throw new ParseException(0, ParseException.ERROR_UNEXPECTED_TOKEN, "binary preamble");
+			}
+
+			if (records == null && passThroughKeys == null) {
+				Object value = readValue(buffer, payload);
+				if (!(value instanceof JSONObject)) {
+					throw new ParseException(buffer.position(), ParseException.ERROR_UNEXPECTED_TOKEN, value);
+				}
+				return (JSONObject) value;
+			}
+
+			// As readValue() for the top-level object, with the fields asked for read into the sink or left encoded
+			byte tag = buffer.get();
+			if (tag != TAG_OBJECT) {
+				throw new ParseException(buffer.position() - 1, ParseException.ERROR_UNEXPECTED_TOKEN, tag);
+			}
+			int fieldCount = (int) readVarLong(buffer);
+			JSONObject object = new JSONObject();
+			for (int i = 0; i < fieldCount; i++) {
+				String key = readKey(buffer, payload);
+				if (records != null && recordsKeys.contains(key) && payload[buffer.position()] == TAG_ARRAY) {
+					readRecords(buffer, payload, records);
+				} else if (passThroughKeys != null && passThroughKeys.contains(key)) {
+					int start = buffer.position();
+					skipValue(buffer);
+					object.put(key, new Encoded(Arrays.copyOfRange(payload, start, buffer.position())));
+				} else {
+					object.put(key, readValue(buffer, payload));
+				}
+			}
+			if (records != null) {
+				records.endRecords();
+			}
+			return object;
+
+		} catch (RuntimeException e) {
+			// e.g. BufferUnderflowException on a truncated payload, or an out of range field ID
+			throw new ParseException(buffer.position(), ParseException.ERROR_UNEXPECTED_EXCEPTION, e);
+		}
+	}
+
+	// A list, with each of its elements that is an object read into the sink field by field. (Anything else in the list is skipped.)
+	private static void readRecords (ByteBuffer buffer, byte[] payload, RecordSink records) throws ParseException {
+
+		buffer.get();
+		int elementCount = (int) readVarLong(buffer);
+		for (int i = 0; i < elementCount; i++) {
+			if (payload[buffer.position()] != TAG_OBJECT) {
+				skipValue(buffer);
+				continue;
+			}
+			buffer.get();
+			records.startRecord();
+			int fieldCount = (int) readVarLong(buffer);
+			for (int j = 0; j < fieldCount; j++) {
+				String key = readKey(buffer, payload);
+				byte tag = payload[buffer.position()];
+				if (tag == TAG_LONG) {
+					buffer.get();
+					long zigZag = readVarLong(buffer);
+					records.longField(key, (zigZag >>> 1) ^ -(zigZag & 1));
+				} else if (tag == TAG_DOUBLE) {
+					buffer.get();
+					records.doubleField(key, buffer.getDouble());
+				} else {
+					records.field(key, readValue(buffer, payload));
+				}
+			}
+		}
+	}
+
+	private static void recordField (RecordSink records, String key, Object value) {
+
+		if (value instanceof Long) {
+			records.longField(key, (Long) value);
+		} else if (value instanceof Double) {
+			records.doubleField(key, (Double) value);
+		} else {
+			records.field(key, value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object readValue (ByteBuffer buffer, byte[] payload) throws ParseException {
+
+		byte tag = buffer.get();
+
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_LONG:
+			long zigZag = readVarLong(buffer);
+			return (zigZag >>> 1) ^ -(zigZag & 1);
+		case TAG_DOUBLE:
+			return buffer.getDouble();
+		case TAG_STRING:
+			return readString(buffer, payload);
+		case TAG_OBJECT:
+			int fieldCount = (int) readVarLong(buffer);
+			JSONObject object = new JSONObject();
+			for (int i = 0; i < fieldCount; i++) {
+				String key = readKey(buffer, payload);
+				object.put(key, readValue(buffer, payload));
+			}
+			return object;
+		case TAG_ARRAY:
+			int elementCount = (int) readVarLong(buffer);
+			JSONArray array = new JSONArray();
+			array.ensureCapacity(elementCount);
+			for (int i = 0; i < elementCount; i++) {
+				array.add(readValue(buffer, payload));
+			}
+			return array;
+		default:
+			throw new ParseException(buffer.position() - 1, ParseException.ERROR_UNEXPECTED_TOKEN, tag);
+		}
+	}
+
+	// Move past a value without decoding it
+	private static void skipValue (ByteBuffer buffer) throws ParseException {
+
+		byte tag = buffer.get();
+
+		switch (tag) {
+		case TAG_NULL:
+		case TAG_FALSE:
+		case TAG_TRUE:
+			break;
+		case TAG_LONG:
+			readVarLong(buffer);
+			break;
+		case TAG_DOUBLE:
+			buffer.position(buffer.position() + Double.BYTES);
+			break;
+		case TAG_STRING:
+			int length = (int) readVarLong(buffer);
+			buffer.position(buffer.position() + length);
+			break;
+		case TAG_OBJECT:
+			int fieldCount = (int) readVarLong(buffer);
+			for (int i = 0; i < fieldCount; i++) {
+				if (readVarLong(buffer) == 0) {
+					buffer.position(buffer.position() + (int) readVarLong(buffer));
+				}
+				skipValue(buffer);
+			}
+			break;
+		case TAG_ARRAY:
+			int elementCount = (int) readVarLong(buffer);
+			for (int i = 0; i < elementCount; i++) {
+				skipValue(buffer);
+			}
+			break;
+		default:
+			throw new ParseException(buffer.position() - 1, ParseException.ERROR_UNEXPECTED_TOKEN, tag);
+		}
+	}
+
+	private static String readKey (ByteBuffer buffer, byte[] payload) {
+
+		int fieldId = (int) readVarLong(buffer);
+		return (fieldId == 0) ? readString(buffer, payload) : KNOWN_FIELDS.get(fieldId - 1);
+	}
+
+	private static String readString (ByteBuffer buffer, byte[] payload) {
+
+		// Decoded straight out of the payload, with no intermediate copy
+		int length = (int) readVarLong(buffer);
+		String value = new String(payload, buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	private static long readVarLong (ByteBuffer buffer) {
+
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	// A minimal growable byte buffer, used instead of ByteArrayOutputStream to avoid its synchronisation
+	private static final class BinaryWriter {
+
+		private byte[] bytes;
+		private int count;
+
+		BinaryWriter(int initialCapacity) {
+			bytes = new byte[initialCapacity];
+		}
+
+		void writeByte (int b) {
+			ensureCapacity(1);
+			bytes[count++] = (byte) b;
+		}
+
+		void writeVarLong (long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[count++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[count++] = (byte) value;
+		}
+
+		void writeString (String value) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(utf8.length);
+			ensureCapacity(utf8.length);
+			System.arraycopy(utf8, 0, bytes, count, utf8.length);
+			count += utf8.length;
+		}
+
+		void writeValue (Object value) {
+
+			if (value == null) {
+				writeByte(TAG_NULL);
+			} else if (value instanceof Encoded) {
+				byte[] encoded = ((Encoded) value).bytes;
+				ensureCapacity(encoded.length);
+				System.arraycopy(encoded, 0, bytes, count, encoded.length);
+				count += encoded.length;
+			} else if (value instanceof Boolean) {
+				writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+			} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				long longValue = ((Number) value).longValue();
+				writeByte(TAG_LONG);
+				writeVarLong((longValue << 1) ^ (longValue >> 63));
+			} else if (value instanceof Number) {
+				writeByte(TAG_DOUBLE);
+				ensureCapacity(8);
+				long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					bytes[count++] = (byte) (bits >>> shift);
+				}
+			} else if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				writeByte(TAG_OBJECT);
+				writeVarLong(map.size());
+				for (Map.Entry<?, ?> field : map.entrySet()) {
+					String key = field.getKey().toString();
+					Integer fieldId = knownFieldIds.get(key);
+					if (fieldId != null) {
+						writeVarLong(fieldId);
+					} else {
+						writeVarLong(0);
+						writeString(key);
+					}
+					writeValue(field.getValue());
+				}
+			} else if (value instanceof List) {
+				List<?> list = (List<?>) value;
+				writeByte(TAG_ARRAY);
+				writeVarLong(list.size());
+				for (Object element : list) {
+					writeValue(element);
+				}
+			} else {
+				writeByte(TAG_STRING);
+				writeString(value.toString());
+			}
+		}
+
+		byte[] toByteArray () {
+			return Arrays.copyOf(bytes, count);
+		}
+
+		private void ensureCapacity (int extra) {
+			if (count + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+			}
+		}
+	}
+
+	// Likewise for the JSON text, just an unsynchronised OutputStream for the writer to encode into
+	private static final class JsonByteWriter extends java.io.OutputStream {
+
+		private byte[] bytes = new byte[256];
+		private int count;
+
+		@Override
+		public void write (int b) {
+			ensureCapacity(1);
+			bytes[count++] = (byte) b;
+		}
+
+		@Override
+		public void write (byte[] b, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(b, off, bytes, count, len);
+			count += len;
+		}
+
+		byte[] toByteArray () {
+			return Arrays.copyOf(bytes, count);
+		}
+
+		private void ensureCapacity (int extra) {
+			if (count + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+			}
+		}
+	}
+}
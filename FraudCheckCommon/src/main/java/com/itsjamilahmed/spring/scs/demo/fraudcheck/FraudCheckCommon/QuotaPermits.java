@@ -0,0 +1,31 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: The permit a request holds against its partner's cap on requests in flight at the mediator, freed once the request has its final API response
+//  * Set by the mediator as an 'app_' header as it admits the request, so carried through the pipeline to wherever the request ends
+//  * Whichever service sends the final response (or the error or timeout response) follows it with a release of the permit on 'RELEASE_TOPIC'
+//  *   Every mediator instance gets the releases, each freeing only the permits it holds
+//  * A permit never released (e.g. its request dropped along the way) is freed by the mediator at the request's deadline
+public final class QuotaPermits {
+
+	public static final String PERMIT_KEY = "app_fraudCheckMediator_quotaPermit";
+	public static final String RELEASE_TOPIC = "myBank/cards/fraudCheckApi/quota/release/v1";
+
+	private QuotaPermits() {
+	}
+
+	// The release of the request's permit, only carrying the permit, for the caller to send to 'RELEASE_TOPIC'. Null if it holds none.
+	public static MessageBuilder<byte[]> releaseOf (Message<?> request) {
+
+		Object permit = request.getHeaders().get(PERMIT_KEY);
+		return (permit != null) ? MessageBuilder.withPayload(new byte[0]).setHeader(PERMIT_KEY, permit.toString()) : null;
+	}
+
+	public static String permitOf (Message<?> release) {
+
+		Object permit = release.getHeaders().get(PERMIT_KEY);
+		return (permit != null) ? permit.toString() : null;
+	}
+}
@@ -0,0 +1,142 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Purpose: Micrometer instrumentation of the function beans of a service, exposed by the actuator Prometheus endpoint
+//  * Per function: processing time, payload parse time, errors by reason, and whether the output went to the normal or the error topic
+//  * Per function: the inputs dropped unprocessed, as past the deadline of the original API request
+//  * Per function: the time since the mediator received the original API request, as at when the function received its event.
+//  *   Comparing this across the stages of the pipeline gives the latency of each hop (i.e. queueing plus the previous stage's processing).
+//  * For the functions producing the final API response: the end-to-end latency, by outcome
+public final class StageMetrics {
+
+	// The time the mediator received the original API request, as carried through the pipeline
+	public static final String PIPELINE_START_TIMESTAMP_KEY = "app_fraudCheckMediator_timestamp";
+
+	public static final String METRIC_PROCESSING = "fraudcheck.stage.processing";
+	public static final String METRIC_PARSE = "fraudcheck.stage.parse";
+	public static final String METRIC_ERRORS = "fraudcheck.stage.errors";
+	public static final String METRIC_EXPIRED = "fraudcheck.stage.expired";
+	public static final String METRIC_OUTPUT = "fraudcheck.stage.output";
+	public static final String METRIC_PIPELINE_LATENCY = "fraudcheck.pipeline.latency";
+	public static final String METRIC_END_TO_END_LATENCY = "fraudcheck.e2e.latency";
+
+	// Reasons for errors common to the services, kept to a small fixed set as each is its own time series. (A service may add its own few.)
+	public static final String REASON_INVALID_PAYLOAD = "invalid_payload";
+	public static final String REASON_MISSING_FIELD = "missing_field";
+	public static final String REASON_UPSTREAM_ERROR = "upstream_error";
+
+	// Outcomes of the final API response
+	public static final String OUTCOME_OK = "ok";
+	public static final String OUTCOME_ERROR = "error";
+	public static final String OUTCOME_TIMEOUT = "timeout";
+
+	private final MeterRegistry registry;
+	private final String service;
+
+	public StageMetrics(MeterRegistry registry, String service) {
+		this.registry = registry;
+		this.service = service;
+	}
+
+	public Stage stage (String function) {
+		return new Stage(function);
+	}
+
+	// The meters of one function, held on to rather than looked up in the registry for every message
+	public final class Stage {
+
+		private final String function;
+		private final Timer processing;
+		private final Timer parse;
+		private final Timer pipelineLatency;
+		private final Counter normalOutput;
+		private final Counter errorOutput;
+		private final Counter expired;
+		private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+		private final Map<String, Timer> endToEndLatency = new ConcurrentHashMap<>();
+
+		private Stage(String function) {
+			this.function = function;
+			this.processing = timer(METRIC_PROCESSING).register(registry);
+			this.parse = timer(METRIC_PARSE).register(registry);
+			this.pipelineLatency = timer(METRIC_PIPELINE_LATENCY).register(registry);
+			this.normalOutput = Counter.builder(METRIC_OUTPUT).tags("service", service, "function", function, "output", "normal").register(registry);
+			this.errorOutput = Counter.builder(METRIC_OUTPUT).tags("service", service, "function", function, "output", "error").register(registry);
+			this.expired = Counter.builder(METRIC_EXPIRED).tags("service", service, "function", function).register(registry);
+		}
+
+		// Call on receipt of the input, returning the start time to pass to completed()
+		public long received (Message<?> input) {
+
+			long pipelineStartMs = pipelineStartMs(input);
+			if (pipelineStartMs > 0) {
+				pipelineLatency.record(System.currentTimeMillis() - pipelineStartMs, TimeUnit.MILLISECONDS);
+			}
+			return System.nanoTime();
+		}
+
+		public void parsed (long parseStartNanos) {
+			parse.record(System.nanoTime() - parseStartNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public void error (String reason) {
+			errors.computeIfAbsent(reason, key -> Counter.builder(METRIC_ERRORS)
+					.tags("service", service, "function", function, "reason", key)
+					.register(registry)).increment();
+		}
+
+		// For an input dropped unprocessed, as past the deadline of the original API request
+		public void expired () {
+			expired.increment();
+		}
+
+		public void completed (long startNanos, boolean toErrorTopic) {
+			processing.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+			(toErrorTopic ? errorOutput : normalOutput).increment();
+		}
+
+		// For an input that needed no output at all
+		public void completed (long startNanos) {
+			processing.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		}
+
+		public void endToEnd (Message<?> input, String outcome) {
+
+			long pipelineStartMs = pipelineStartMs(input);
+			if (pipelineStartMs > 0) {
+				endToEndLatency.computeIfAbsent(outcome, key -> Timer.builder(METRIC_END_TO_END_LATENCY)
+						.tags("service", service, "function", function, "outcome", key)
+						.publishPercentileHistogram()
+						.register(registry)).record(System.currentTimeMillis() - pipelineStartMs, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private Timer.Builder timer (String name) {
+			return Timer.builder(name).tags("service", service, "function", function).publishPercentileHistogram();
+		}
+	}
+
+	private static long pipelineStartMs (Message<?> input) {
+
+		// A Long when set by the mediator, but could be a String depending on the route it took
+		Object timestamp = input.getHeaders().get(PIPELINE_START_TIMESTAMP_KEY);
+
+		if (timestamp instanceof Number) {
+			return ((Number) timestamp).longValue();
+		}
+		try {
+			return (timestamp != null) ? Long.parseLong(timestamp.toString()) : 0L;
+		} catch (NumberFormatException e) {
+			return 0L;
+		}
+	}
+}
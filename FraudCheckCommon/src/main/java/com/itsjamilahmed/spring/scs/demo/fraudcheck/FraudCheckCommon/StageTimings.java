@@ -0,0 +1,114 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.springframework.messaging.Message;
+
+// Purpose: A breadcrumb trail of when each stage of the pipeline handled the request, carried forward as an 'app_' header
+//  * Each stage appends one record: the time its input was received, then when its processing started and ended and its output was published
+//  * Record format: <stage>,<receivedMs>,<startOffsetMs>,<endOffsetMs>,<publishOffsetMs> with records separated by ';'
+//  *   (The offsets are relative to the received time, to keep the header compact)
+//  * From the trail the gap between one stage publishing and the next receiving (i.e. broker queueing) can be told apart from the
+//  * processing time within each stage, without a separate tracing backend.
+//  * Times are each host's wall clock, so the queueing times are only as accurate as the clocks are in sync.
+public final class StageTimings {
+
+	public static final String STAGE_TIMINGS_KEY = "app_stageTimings";
+
+	// The timestamp header of the inbound message, set as the binder received it
+	public static final String SOL_MSG_TIMESTAMP_KEY = "timestamp";
+
+	public static final String RECORD_SEPARATOR = ";";
+	public static final String FIELD_SEPARATOR = ",";
+
+	private StageTimings() {
+	}
+
+	// Call on receipt of the input, before any processing
+	public static Stage start (Message<?> input, String stage) {
+
+		long startMs = System.currentTimeMillis();
+		Object timestamp = input.getHeaders().get(SOL_MSG_TIMESTAMP_KEY);
+
+		// Without a timestamp (e.g. a message not from a binder) take receipt as the start of processing
+		long receivedMs = (timestamp instanceof Number) ? ((Number) timestamp).longValue() : startMs;
+		return new Stage(stage, receivedMs, startMs);
+	}
+
+	// The timings of one stage handling one input
+	public static final class Stage {
+
+		private final String stage;
+		private final long receivedMs;
+		private final long startMs;
+		private long endMs;
+
+		private Stage(String stage, long receivedMs, long startMs) {
+			this.stage = stage;
+			this.receivedMs = receivedMs;
+			this.startMs = startMs;
+		}
+
+		// Call once the processing is done, before building the output
+		public void end () {
+			endMs = System.currentTimeMillis();
+		}
+
+		// The trail of the input with this stage's record appended, to set on the output as it is handed over to be published
+		public String trail (Message<?> input) {
+
+			long publishMs = System.currentTimeMillis();
+			if (endMs == 0) {
+				endMs = publishMs;
+			}
+
+			String record = stage + FIELD_SEPARATOR + receivedMs
+					+ FIELD_SEPARATOR + (startMs - receivedMs)
+					+ FIELD_SEPARATOR + (endMs - receivedMs)
+					+ FIELD_SEPARATOR + (publishMs - receivedMs);
+
+			Object inputTrail = input.getHeaders().get(STAGE_TIMINGS_KEY);
+			return (inputTrail == null || inputTrail.toString().isEmpty()) ? record : inputTrail + RECORD_SEPARATOR + record;
+		}
+
+		// Per stage of the trail so far, plus this (final) stage: the time queued before it was received, and its processing time
+		@SuppressWarnings("unchecked")
+		public JSONArray latencyBreakdown (Message<?> input) {
+
+			JSONArray breakdown = new JSONArray();
+			long previousPublishMs = 0;
+
+			Object inputTrail = input.getHeaders().get(STAGE_TIMINGS_KEY);
+			if (inputTrail != null && !inputTrail.toString().isEmpty()) {
+				for (String record : inputTrail.toString().split(RECORD_SEPARATOR)) {
+					String[] fields = record.split(FIELD_SEPARATOR);
+					try {
+						long recordReceivedMs = Long.parseLong(fields[1]);
+						breakdown.add(hop(fields[0], previousPublishMs, recordReceivedMs,
+								recordReceivedMs + Long.parseLong(fields[2]), recordReceivedMs + Long.parseLong(fields[3])));
+						previousPublishMs = recordReceivedMs + Long.parseLong(fields[4]);
+					} catch (RuntimeException e) {
+						// Not a record this version understands, so the queueing time of the next stage cannot be known either
+						previousPublishMs = 0;
+					}
+				}
+			}
+
+			breakdown.add(hop(stage, previousPublishMs, receivedMs, startMs, (endMs != 0) ? endMs : System.currentTimeMillis()));
+			return breakdown;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static JSONObject hop (String stage, long previousPublishMs, long receivedMs, long startMs, long endMs) {
+
+			JSONObject hop = new JSONObject();
+			hop.put("stage", stage);
+			if (previousPublishMs > 0) {
+				// Not known for the first stage, which received the request straight from the API
+				hop.put("queueMs", receivedMs - previousPublishMs);
+			}
+			hop.put("processingMs", endMs - startMs);
+			return hop;
+		}
+	}
+}
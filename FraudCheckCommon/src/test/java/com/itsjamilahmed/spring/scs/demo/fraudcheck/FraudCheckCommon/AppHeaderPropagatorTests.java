@@ -0,0 +1,42 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Only the 'app_' headers of the inbound event carried over to the outbound one, without overwriting its own
+class AppHeaderPropagatorTests {
+
+	@Test
+	void copiesOnlyTheAppHeaders() {
+
+		Message<String> inbound = MessageBuilder.withPayload("in")
+				.setHeader("app_fraudCheckMediator_replyTo", "reply/topic")
+				.setHeader("app_fraudCheckOrchestrator_isBlockRequested", true)
+				.setHeader("solace_destination", "inbound/topic")
+				.setHeader("reply_to_destination", "inbound/reply")
+				.build();
+
+		Message<String> outbound = AppHeaderPropagator.copyAppHeaders(inbound, MessageBuilder.withPayload("out")
+				.setHeader("reply_to_destination", "outbound/reply"))
+				.build();
+
+		assertEquals("reply/topic", outbound.getHeaders().get("app_fraudCheckMediator_replyTo"));
+		assertEquals(true, outbound.getHeaders().get("app_fraudCheckOrchestrator_isBlockRequested"));
+		assertFalse(outbound.getHeaders().containsKey("solace_destination"));
+		assertEquals("outbound/reply", outbound.getHeaders().get("reply_to_destination"));
+	}
+
+	@Test
+	void keepsAnAppHeaderTheInboundEventDoesNotHave() {
+
+		Message<String> outbound = AppHeaderPropagator.copyAppHeaders(MessageBuilder.withPayload("in").build(),
+				MessageBuilder.withPayload("out").setHeader("app_sourcePlatform", "ext"))
+				.build();
+
+		assertEquals("ext", outbound.getHeaders().get("app_sourcePlatform"));
+	}
+}
@@ -0,0 +1,57 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: An input past the deadline of its API request told apart, and the TTL of an outbound hop as the time left before it
+class DeadlinesTests {
+
+	@Test
+	void detectsAnExpiredDeadline() {
+
+		assertTrue(Deadlines.isExpired(withDeadline(System.currentTimeMillis() - 1)));
+		assertFalse(Deadlines.isExpired(withDeadline(System.currentTimeMillis() + 60_000)));
+		// As a String, should the route it took have converted it
+		assertTrue(Deadlines.isExpired(withDeadline(String.valueOf(System.currentTimeMillis() - 1))));
+	}
+
+	@Test
+	void neverExpiresWithoutADeadline() {
+
+		Message<String> input = MessageBuilder.withPayload("input").build();
+		assertFalse(Deadlines.isExpired(input));
+		assertEquals(Deadlines.NO_DEADLINE, Deadlines.deadlineMs(withDeadline("not a time")));
+
+		Message<String> output = Deadlines.withRemainingTtl(input, MessageBuilder.withPayload("output")).build();
+		assertNull(output.getHeaders().get(Deadlines.SOL_TTL_KEY));
+		assertNull(output.getHeaders().get(Deadlines.SOL_DMQ_ELIGIBLE_KEY));
+	}
+
+	@Test
+	void setsTheTimeRemainingAsTheTtl() {
+
+		Message<String> output = Deadlines.withRemainingTtl(withDeadline(System.currentTimeMillis() + 60_000), MessageBuilder.withPayload("output")).build();
+
+		long ttlMs = (Long) output.getHeaders().get(Deadlines.SOL_TTL_KEY);
+		assertTrue(ttlMs > 0 && ttlMs <= 60_000);
+		assertEquals(true, output.getHeaders().get(Deadlines.SOL_DMQ_ELIGIBLE_KEY));
+	}
+
+	@Test
+	void clampsTheTtlToAtLeastOneMillisecond() {
+
+		// A TTL of 0 would never expire
+		Message<String> output = Deadlines.withRemainingTtl(withDeadline(System.currentTimeMillis() - 1_000), MessageBuilder.withPayload("output")).build();
+		assertEquals(1L, output.getHeaders().get(Deadlines.SOL_TTL_KEY));
+	}
+
+	private static Message<String> withDeadline(Object deadline) {
+		return MessageBuilder.withPayload("input").setHeader(Deadlines.DEADLINE_KEY, deadline).build();
+	}
+}
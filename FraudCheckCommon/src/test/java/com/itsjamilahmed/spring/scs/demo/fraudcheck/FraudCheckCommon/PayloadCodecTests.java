@@ -0,0 +1,197 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Payloads decoding to what they were encoded from, in either format, and the binary format's records and pass-through values
+class PayloadCodecTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+
+	@Test
+	void roundTripsBothFormats() throws ParseException {
+
+		JSONObject payload = transactions();
+		for (String contentType : new String[] { PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY }) {
+			assertEquals(payload, decode(payload, contentType), contentType);
+		}
+	}
+
+	@Test
+	void roundTripsEdgeValues() throws ParseException {
+
+		JSONObject payload = new JSONObject();
+		payload.put("min", Long.MIN_VALUE);
+		payload.put("max", Long.MAX_VALUE);
+		payload.put("negative", -1L);
+		payload.put("fraction", -0.125);
+		payload.put("empty", "");
+		payload.put("unicode", "Café ✓ 💳");
+		payload.put("nothing", null);
+		payload.put("emptyList", new JSONArray());
+		payload.put("emptyObject", new JSONObject());
+
+		assertEquals(payload, decode(payload, PayloadCodec.CONTENT_TYPE_BINARY));
+	}
+
+	@Test
+	void writesTheBinaryFormatSmaller() {
+
+		JSONObject payload = transactions();
+		byte[] binary = PayloadCodec.encode(payload, PayloadCodec.CONTENT_TYPE_BINARY);
+		byte[] json = PayloadCodec.encode(payload, PayloadCodec.CONTENT_TYPE_JSON);
+
+		assertEquals(PayloadCodec.BINARY_MAGIC, binary[0]);
+		assertEquals(PayloadCodec.BINARY_VERSION, binary[1]);
+		assertTrue(binary.length < json.length, binary.length + " bytes vs. " + json.length);
+	}
+
+	@Test
+	void readsTheFormatFromTheContentType() {
+
+		assertEquals(PayloadCodec.CONTENT_TYPE_BINARY, PayloadCodec.contentTypeOf(message(new byte[0], PayloadCodec.CONTENT_TYPE_BINARY + ";charset=UTF-8")));
+		assertEquals(PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.contentTypeOf(message(new byte[0], PayloadCodec.CONTENT_TYPE_JSON)));
+		assertEquals(PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.contentTypeOf(MessageBuilder.withPayload(new byte[0]).build()));
+	}
+
+	@Test
+	void readsRecordsIntoASinkTheSameFromEitherFormat() throws ParseException {
+
+		JSONObject payload = transactions();
+		for (String contentType : new String[] { PayloadCodec.CONTENT_TYPE_JSON, PayloadCodec.CONTENT_TYPE_BINARY }) {
+
+			RecordingSink sink = new RecordingSink();
+			JSONObject decoded = PayloadCodec.decode(message(PayloadCodec.encode(payload, contentType), contentType), sink, "txns");
+
+			assertFalse(decoded.containsKey("txns"), contentType);
+			assertEquals(CARD, decoded.get("cardNumber"));
+			assertEquals(payload.get("txns"), sink.records, contentType);
+			assertEquals(List.of("index", "index"), sink.longFields, contentType);
+			assertEquals(List.of("amount", "amount"), sink.doubleFields, contentType);
+			assertTrue(sink.ended);
+		}
+	}
+
+	@Test
+	void writesAPassedThroughValueOutAsItWas() throws ParseException {
+
+		JSONObject payload = transactions();
+		byte[] binary = PayloadCodec.encode(payload, PayloadCodec.CONTENT_TYPE_BINARY);
+
+		JSONObject decoded = PayloadCodec.decodePassingThrough(message(binary, PayloadCodec.CONTENT_TYPE_BINARY), "txns");
+		assertInstanceOf(PayloadCodec.Encoded.class, decoded.get("txns"));
+		assertArrayEquals(binary, PayloadCodec.encode(decoded, PayloadCodec.CONTENT_TYPE_BINARY));
+
+		// Decoded after all, when written out as JSON
+		byte[] json = PayloadCodec.encode(decoded, PayloadCodec.CONTENT_TYPE_JSON);
+		assertEquals(payload, PayloadCodec.decode(message(json, PayloadCodec.CONTENT_TYPE_JSON)));
+	}
+
+	@Test
+	void rejectsAMalformedBinaryPayload() {
+
+		byte[] binary = PayloadCodec.encode(transactions(), PayloadCodec.CONTENT_TYPE_BINARY);
+
+		byte[] badPreamble = binary.clone();
+		badPreamble[1] = PayloadCodec.BINARY_VERSION + 1;
+		byte[] truncated = Arrays.copyOf(binary, binary.length - 3);
+		// An object with one field, its ID past the end of the schema
+		byte[] unknownFieldId = { PayloadCodec.BINARY_MAGIC, PayloadCodec.BINARY_VERSION, PayloadCodec.TAG_OBJECT, 1, 127, PayloadCodec.TAG_NULL };
+		byte[] notAnObject = { PayloadCodec.BINARY_MAGIC, PayloadCodec.BINARY_VERSION, PayloadCodec.TAG_TRUE };
+
+		for (byte[] payload : List.of(badPreamble, truncated, unknownFieldId, notAnObject)) {
+			assertThrows(ParseException.class, () -> PayloadCodec.decode(message(payload, PayloadCodec.CONTENT_TYPE_BINARY)));
+		}
+		assertThrows(ParseException.class, () -> PayloadCodec.decode(message(truncated, PayloadCodec.CONTENT_TYPE_BINARY), new RecordingSink(), "txns"));
+	}
+
+	// A transactions reply, with a field outside the schema as from a newer version of a service
+	private static JSONObject transactions() {
+
+		JSONArray txns = new JSONArray();
+		txns.add(txn(1, "Coffee Shop", 3.5, "London", "2024-01-01 08:15:00"));
+		txns.add(txn(2, "Électronique", 1_249.99, "Paris", "2024-01-01 17:40:00"));
+
+		JSONObject payload = new JSONObject();
+		payload.put("cardNumber", CARD);
+		payload.put("txnCount", 2L);
+		payload.put("txns", txns);
+		payload.put("status", "OK");
+		payload.put("fraudDetected", false);
+		payload.put("addedInALaterVersion", true);
+		return payload;
+	}
+
+	private static JSONObject txn(long index, String merchant, double amount, String location, String datetime) {
+
+		JSONObject txn = new JSONObject();
+		txn.put("index", index);
+		txn.put("merchant", merchant);
+		txn.put("amount", amount);
+		txn.put("location", location);
+		txn.put("datetime", datetime);
+		return txn;
+	}
+
+	private static JSONObject decode(JSONObject payload, String contentType) throws ParseException {
+		return PayloadCodec.decode(message(PayloadCodec.encode(payload, contentType), contentType));
+	}
+
+	private static Message<byte[]> message(byte[] payload, String contentType) {
+		return MessageBuilder.withPayload(payload).setHeader(MessageHeaders.CONTENT_TYPE, contentType).build();
+	}
+
+	// Rebuilds the records, noting which fields came through as primitives
+	private static final class RecordingSink implements PayloadCodec.RecordSink {
+
+		final List<Map<String, Object>> records = new ArrayList<>();
+		final List<String> longFields = new ArrayList<>();
+		final List<String> doubleFields = new ArrayList<>();
+		boolean ended;
+
+		@Override
+		public void startRecord() {
+			records.add(new LinkedHashMap<>());
+		}
+
+		@Override
+		public void field(String key, Object value) {
+			records.get(records.size() - 1).put(key, value);
+		}
+
+		@Override
+		public void longField(String key, long value) {
+			longFields.add(key);
+			field(key, value);
+		}
+
+		@Override
+		public void doubleField(String key, double value) {
+			doubleFields.add(key);
+			field(key, value);
+		}
+
+		@Override
+		public void endRecords() {
+			ended = true;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Each stage's record appended to the trail, and the trail read back as the time queued before and spent in each stage
+//  * The input's timestamp is when the message was built, so the earlier stages are recorded as a second before that
+class StageTimingsTests {
+
+	static final long EARLIER_MS = 1_000;
+
+	@Test
+	void startsTheTrailWithTheFirstStagesRecord() {
+
+		Message<String> input = input(null);
+		StageTimings.Stage stage = StageTimings.start(input, "mediator");
+		stage.end();
+		String[] fields = stage.trail(input).split(StageTimings.FIELD_SEPARATOR);
+
+		assertEquals(5, fields.length);
+		assertEquals("mediator", fields[0]);
+		assertEquals((long) input.getHeaders().getTimestamp(), Long.parseLong(fields[1]));
+		// Start, end and publish, each no earlier than the last
+		assertTrue(Long.parseLong(fields[2]) <= Long.parseLong(fields[3]));
+		assertTrue(Long.parseLong(fields[3]) <= Long.parseLong(fields[4]));
+	}
+
+	@Test
+	void appendsToTheTrailOfTheInput() {
+
+		String mediator = "mediator," + (System.currentTimeMillis() - EARLIER_MS) + ",0,2,3";
+		Message<String> input = input(mediator);
+		String[] records = StageTimings.start(input, "orchestrator").trail(input).split(StageTimings.RECORD_SEPARATOR);
+
+		assertEquals(2, records.length);
+		assertEquals(mediator, records[0]);
+		assertTrue(records[1].startsWith("orchestrator" + StageTimings.FIELD_SEPARATOR));
+	}
+
+	@Test
+	void breaksTheLatencyDownByStage() {
+
+		// Published 3ms after it was received, and received by the next stage 10ms after that
+		long receivedMs = System.currentTimeMillis() - EARLIER_MS;
+		Message<String> input = input("mediator," + receivedMs + ",0,2,3;"
+				+ "orchestrator," + (receivedMs + 13) + ",1,5,6");
+		JSONArray breakdown = StageTimings.start(input, "returnFinalResponse").latencyBreakdown(input);
+
+		assertEquals(3, breakdown.size());
+		JSONObject mediator = (JSONObject) breakdown.get(0);
+		assertEquals("mediator", mediator.get("stage"));
+		// Not known for the first stage
+		assertFalse(mediator.containsKey("queueMs"));
+		assertEquals(2L, mediator.get("processingMs"));
+
+		JSONObject orchestrator = (JSONObject) breakdown.get(1);
+		assertEquals(10L, orchestrator.get("queueMs"));
+		assertEquals(4L, orchestrator.get("processingMs"));
+
+		// Queued since the orchestrator published it, until this input was received
+		JSONObject last = (JSONObject) breakdown.get(2);
+		assertEquals("returnFinalResponse", last.get("stage"));
+		assertEquals(input.getHeaders().getTimestamp() - (receivedMs + 19), (long) last.get("queueMs"));
+	}
+
+	@Test
+	void skipsTheQueueTimeAfterARecordItCannotRead() {
+
+		long receivedMs = System.currentTimeMillis() - EARLIER_MS;
+		Message<String> input = input("mediator,unknown;orchestrator," + receivedMs + ",0,1,2");
+		JSONArray breakdown = StageTimings.start(input, "returnFinalResponse").latencyBreakdown(input);
+
+		// The unreadable record is left out, and the one after it has no queue time
+		assertEquals(2, breakdown.size());
+		assertFalse(((JSONObject) breakdown.get(0)).containsKey("queueMs"));
+		assertEquals(input.getHeaders().getTimestamp() - (receivedMs + 2), (long) ((JSONObject) breakdown.get(1)).get("queueMs"));
+	}
+
+	private static Message<String> input(String trail) {
+
+		MessageBuilder<String> builder = MessageBuilder.withPayload("input");
+		if (trail != null) {
+			builder.setHeader(StageTimings.STAGE_TIMINGS_KEY, trail);
+		}
+		return builder.build();
+	}
+}
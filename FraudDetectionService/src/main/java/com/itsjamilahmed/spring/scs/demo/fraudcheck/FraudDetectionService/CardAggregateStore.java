@@ -0,0 +1,405 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: Rolling aggregates per card, updated one transaction event at a time, so a fraud check reads a fixed amount of state per card
+//  * An open addressing hash table keyed by the card number as a long, with every field of every card in flat primitive arrays.
+//  *   No objects per card, so a million cards cost no more garbage collection work than one.
+//  * Per card: spend, largest amount and fastest travel per time bucket, the last known location and its time, and the last few transactions
+//  * The arrays are sized once from the memory budget. Once the table is full, the least recently updated of a sample of cards makes way.
+//  * Cards not updated for the idle time are swept out in the background, a chunk of the table at a time
+//  * Updates and reads take a lock, held only to change or copy out the few fields of one card
+final class CardAggregateStore {
+
+	private static final Logger log = LoggerFactory.getLogger(CardAggregateStore.class);
+
+	static final String METRIC_CARDS = "fraudcheck.aggregates.cards";
+	static final String METRIC_EVICTIONS = "fraudcheck.aggregates.evictions";
+
+	// The empty slot marker. (Card numbers with anything but digits and separators, or of all zeroes, are not tracked.)
+	static final long NO_CARD = 0L;
+
+	// Up to 19 digits fit in an unsigned long
+	static final int MAX_CARD_DIGITS = 19;
+
+	// Keep the table at most three quarters full, so the probe sequences stay short
+	static final int MAX_LOAD_PERCENT = 75;
+
+	// How many cards to compare when one has to be evicted to make way
+	static final int EVICTION_SAMPLE_SIZE = 8;
+
+	// How many slots to sweep per hold of the lock
+	static final int SWEEP_CHUNK_SLOTS = 4_096;
+
+	// Bytes per card besides the buckets and recent transactions: key, last update, last location time, latitude, longitude, latest bucket, events seen
+	static final int FIXED_BYTES_PER_CARD = 8 + 4 + 8 + 4 + 4 + 8 + 4;
+
+	private final int bucketSeconds;
+	private final int buckets;
+	private final int recentEvents;
+	private final long idleSeconds;
+	private final int mask;
+	private final int maxCards;
+
+	private final long[] keys;
+	private final int[] updatedSec;
+	private final long[] locatedEpochSeconds;
+	private final float[] latitudes;
+	private final float[] longitudes;
+	private final long[] latestBuckets;
+	private final int[] eventCounts;
+
+	// Per card, a run of 'buckets' entries indexed by the bucket number modulo 'buckets'
+	private final float[] spend;
+	private final float[] maxAmount;
+	private final float[] maxSpeedKmh;
+
+	// Per card, a ring of the last 'recentEvents' transactions
+	private final long[] recentEpochSeconds;
+	private final int[] recentMerchants;
+	private final int[] recentLocations;
+
+	// Written under the lock, but also read by the gauge
+	private volatile int size;
+
+	private final StampedLock lock = new StampedLock();
+
+	// The last update times are held as seconds since the store was created, to fit an int
+	private final long createdMs = System.currentTimeMillis();
+
+	private final Counter idleEvictions;
+	private final Counter capacityEvictions;
+
+	CardAggregateStore(CardAggregatesProperties properties, MeterRegistry meterRegistry) {
+
+		if (properties.getBucketSeconds() <= 0 || properties.getBuckets() <= 0 || properties.getRecentEvents() <= 0
+				|| properties.getMaxMemoryMb() <= 0 || properties.getIdleSeconds() <= 0) {
+			throw new IllegalArgumentException("The fraudcheck.aggregates sizes must all be positive");
+		}
+
+		this.bucketSeconds = properties.getBucketSeconds();
+		this.buckets = properties.getBuckets();
+		this.recentEvents = properties.getRecentEvents();
+		this.idleSeconds = properties.getIdleSeconds();
+
+		// The largest power of two number of slots within the memory budget
+		long bytesPerCard = bytesPerCard(buckets, recentEvents);
+		long maxSlots = Math.min(1L << 30, Integer.MAX_VALUE / Math.max(buckets, recentEvents));
+		long budgetSlots = Math.min(maxSlots, (properties.getMaxMemoryMb() * 1024L * 1024L) / bytesPerCard);
+		if (budgetSlots < 2) {
+			throw new IllegalArgumentException("fraudcheck.aggregates.maxMemoryMb is too small for even one card of " + bytesPerCard + " bytes");
+		}
+		int slots = Integer.highestOneBit((int) budgetSlots);
+		this.mask = slots - 1;
+		this.maxCards = Math.max(1, (int) ((long) slots * MAX_LOAD_PERCENT / 100));
+
+		this.keys = new long[slots];
+		this.updatedSec = new int[slots];
+		this.locatedEpochSeconds = new long[slots];
+		this.latitudes = new float[slots];
+		this.longitudes = new float[slots];
+		this.latestBuckets = new long[slots];
+		this.eventCounts = new int[slots];
+		this.spend = new float[slots * buckets];
+		this.maxAmount = new float[slots * buckets];
+		this.maxSpeedKmh = new float[slots * buckets];
+		this.recentEpochSeconds = new long[slots * recentEvents];
+		this.recentMerchants = new int[slots * recentEvents];
+		this.recentLocations = new int[slots * recentEvents];
+
+		Gauge.builder(METRIC_CARDS, this, CardAggregateStore::size).register(meterRegistry);
+		this.idleEvictions = Counter.builder(METRIC_EVICTIONS).tags("reason", "idle").register(meterRegistry);
+		this.capacityEvictions = Counter.builder(METRIC_EVICTIONS).tags("reason", "capacity").register(meterRegistry);
+
+		ScheduledExecutorService idleSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "card-aggregates-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long sweepIntervalSeconds = Math.max(1, Math.min(60, idleSeconds / 4));
+		idleSweeper.scheduleWithFixedDelay(this::sweepIdle, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+
+		log.info("Card aggregates sized for " + maxCards + " cards at " + bytesPerCard + " bytes each, covering "
+				+ ((long) buckets * bucketSeconds) + " seconds in buckets of " + bucketSeconds + " seconds");
+	}
+
+	static long bytesPerCard (int buckets, int recentEvents) {
+		return FIXED_BYTES_PER_CARD + buckets * (4L + 4L + 4L) + recentEvents * (8L + 4L + 4L);
+	}
+
+	// The digits of the card number as the key of the table (so "1234-5678-1234-5688" and "1234567812345688" are the same card),
+	// or NO_CARD if it is not one this store tracks
+	static long keyOf (Object cardNumber) {
+
+		if (!(cardNumber instanceof CharSequence)) {
+			return NO_CARD;
+		}
+		CharSequence text = (CharSequence) cardNumber;
+
+		long key = 0;
+		int digits = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '-' || c == ' ') {
+				continue;
+			}
+			if (c < '0' || c > '9' || ++digits > MAX_CARD_DIGITS) {
+				return NO_CARD;
+			}
+			// Wraps past Long.MAX_VALUE into the unsigned range, which is still one key per number
+			key = key * 10 + (c - '0');
+		}
+		return key;
+	}
+
+	// Merchants and locations are only compared for equality, so are kept as hashes. (A collision can only over-count.)
+	static int hashOf (Object value) {
+		return (value != null) ? value.hashCode() : 0;
+	}
+
+	// Fold one transaction into the aggregates of its card. Pass NaN coordinates if its location is not known.
+	void record (long key, long epochSeconds, double amount, int merchant, int location, double latitude, double longitude) {
+
+		if (key == NO_CARD) {
+			return;
+		}
+
+		long stamp = lock.writeLock();
+		try {
+			int slot = find(key);
+			if (keys[slot] == NO_CARD) {
+				if (size >= maxCards) {
+					evictLeastRecentlyUpdated();
+					slot = find(key);
+				}
+				keys[slot] = key;
+				locatedEpochSeconds[slot] = TransactionColumns.UNKNOWN_TIME;
+				latitudes[slot] = Float.NaN;
+				longitudes[slot] = Float.NaN;
+				latestBuckets[slot] = Math.floorDiv(epochSeconds, bucketSeconds);
+				size++;
+			}
+			updatedSec[slot] = nowSec();
+
+			// Move the window on to this transaction's bucket, clearing those it passes
+			long bucket = Math.floorDiv(epochSeconds, bucketSeconds);
+			long latestBucket = latestBuckets[slot];
+			if (bucket > latestBucket) {
+				for (long cleared = Math.max(latestBucket + 1, bucket - buckets + 1); cleared <= bucket; cleared++) {
+					int b = bucketIndex(slot, cleared);
+					spend[b] = 0f;
+					maxAmount[b] = 0f;
+					maxSpeedKmh[b] = 0f;
+				}
+				latestBuckets[slot] = bucket;
+			}
+
+			// Too late for its bucket, which has already been reused. It still counts towards the recent transactions.
+			boolean inWindow = bucket > latestBuckets[slot] - buckets;
+			int b = bucketIndex(slot, bucket);
+			if (inWindow) {
+				spend[b] += (float) amount;
+				maxAmount[b] = Math.max(maxAmount[b], (float) amount);
+			}
+
+			// The speed needed to get here from the last known location
+			if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+				if (!Float.isNaN(latitudes[slot])) {
+					double distanceKm = FraudRuleSet.distanceKm(latitudes[slot], longitudes[slot], latitude, longitude);
+					if (distanceKm > FraudRuleSet.MIN_TRAVEL_DISTANCE_KM && inWindow) {
+						double hours = Math.abs(epochSeconds - locatedEpochSeconds[slot]) / 3600.0;
+						float speedKmh = (hours > 0) ? (float) (distanceKm / hours) : Float.MAX_VALUE;
+						maxSpeedKmh[b] = Math.max(maxSpeedKmh[b], speedKmh);
+					}
+				}
+				if (epochSeconds >= locatedEpochSeconds[slot]) {
+					locatedEpochSeconds[slot] = epochSeconds;
+					latitudes[slot] = (float) latitude;
+					longitudes[slot] = (float) longitude;
+				}
+			}
+
+			int r = slot * recentEvents + (eventCounts[slot] % recentEvents);
+			recentEpochSeconds[r] = epochSeconds;
+			recentMerchants[r] = merchant;
+			recentLocations[r] = location;
+			eventCounts[slot] = (eventCounts[slot] == Integer.MAX_VALUE) ? recentEvents : eventCounts[slot] + 1;
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	// Copy out the aggregates of the card, if any are held
+	boolean read (long key, CardAggregates into) {
+
+		if (key == NO_CARD) {
+			return false;
+		}
+
+		long stamp = lock.readLock();
+		try {
+			int slot = find(key);
+			if (keys[slot] == NO_CARD) {
+				return false;
+			}
+
+			long latestBucket = latestBuckets[slot];
+			for (int k = 0; k < buckets; k++) {
+				int b = bucketIndex(slot, latestBucket - (buckets - 1) + k);
+				into.spend[k] = spend[b];
+				into.maxAmount[k] = maxAmount[b];
+				into.maxSpeedKmh[k] = maxSpeedKmh[b];
+			}
+
+			int count = Math.min(eventCounts[slot], recentEvents);
+			int first = eventCounts[slot] - count;
+			for (int k = 0; k < count; k++) {
+				int r = slot * recentEvents + ((first + k) % recentEvents);
+				into.recentEpochSeconds[k] = recentEpochSeconds[r];
+				into.recentMerchants[k] = recentMerchants[r];
+				into.recentLocations[k] = recentLocations[r];
+			}
+			into.recentCount = count;
+
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		into.sortRecent();
+		return true;
+	}
+
+	// A view sized for the copies of this store
+	CardAggregates newView () {
+		return new CardAggregates(bucketSeconds, buckets, recentEvents);
+	}
+
+	int size () {
+		return size;
+	}
+
+	// The slot of the key, or else the empty slot where it would go
+	private int find (long key) {
+
+		int slot = home(key);
+		while (keys[slot] != NO_CARD && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int home (long key) {
+		// Card numbers share prefixes and check digits, so mix all the bits in before masking
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int bucketIndex (int slot, long bucket) {
+		return slot * buckets + (int) Math.floorMod(bucket, (long) buckets);
+	}
+
+	private int nowSec () {
+		return (int) ((System.currentTimeMillis() - createdMs) / 1000);
+	}
+
+	private void evictLeastRecentlyUpdated () {
+
+		// Sample the occupied slots following a random one. With the table three quarters full, they are never far apart.
+		int slot = ThreadLocalRandom.current().nextInt(mask + 1);
+		int victim = -1;
+		for (int sampled = 0; sampled < EVICTION_SAMPLE_SIZE; slot = (slot + 1) & mask) {
+			if (keys[slot] != NO_CARD) {
+				if (victim < 0 || updatedSec[slot] < updatedSec[victim]) {
+					victim = slot;
+				}
+				sampled++;
+			}
+		}
+		remove(victim);
+		capacityEvictions.increment();
+	}
+
+	private void sweepIdle () {
+
+		int evicted = 0;
+		long idleBefore = nowSec() - idleSeconds;
+
+		for (int chunkStart = 0; chunkStart <= mask; chunkStart += SWEEP_CHUNK_SLOTS) {
+			long stamp = lock.writeLock();
+			try {
+				int chunkEnd = Math.min(mask + 1, chunkStart + SWEEP_CHUNK_SLOTS);
+				for (int slot = chunkStart; slot < chunkEnd; ) {
+					if (keys[slot] != NO_CARD && updatedSec[slot] < idleBefore) {
+						// A later card may shift back into this slot, so look at it again
+						remove(slot);
+						evicted++;
+					} else {
+						slot++;
+					}
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		if (evicted > 0) {
+			idleEvictions.increment(evicted);
+			log.info("Evicted the aggregates of " + evicted + " cards idle for over " + idleSeconds + " seconds");
+		}
+	}
+
+	// Delete by shifting back the following cards of the probe sequence, so no tombstones are left to lengthen later probes
+	private void remove (int slot) {
+
+		int hole = slot;
+		for (int next = (slot + 1) & mask; keys[next] != NO_CARD; next = (next + 1) & mask) {
+			// The card can move into the hole if the hole lies between its home slot and where it is now
+			if (((next - home(keys[next])) & mask) >= ((next - hole) & mask)) {
+				move(next, hole);
+				hole = next;
+			}
+		}
+		clear(hole);
+		size--;
+	}
+
+	private void move (int from, int to) {
+
+		keys[to] = keys[from];
+		updatedSec[to] = updatedSec[from];
+		locatedEpochSeconds[to] = locatedEpochSeconds[from];
+		latitudes[to] = latitudes[from];
+		longitudes[to] = longitudes[from];
+		latestBuckets[to] = latestBuckets[from];
+		eventCounts[to] = eventCounts[from];
+		System.arraycopy(spend, from * buckets, spend, to * buckets, buckets);
+		System.arraycopy(maxAmount, from * buckets, maxAmount, to * buckets, buckets);
+		System.arraycopy(maxSpeedKmh, from * buckets, maxSpeedKmh, to * buckets, buckets);
+		System.arraycopy(recentEpochSeconds, from * recentEvents, recentEpochSeconds, to * recentEvents, recentEvents);
+		System.arraycopy(recentMerchants, from * recentEvents, recentMerchants, to * recentEvents, recentEvents);
+		System.arraycopy(recentLocations, from * recentEvents, recentLocations, to * recentEvents, recentEvents);
+	}
+
+	// A new card starts from all zeroes
+	private void clear (int slot) {
+
+		keys[slot] = NO_CARD;
+		eventCounts[slot] = 0;
+		Arrays.fill(spend, slot * buckets, (slot + 1) * buckets, 0f);
+		Arrays.fill(maxAmount, slot * buckets, (slot + 1) * buckets, 0f);
+		Arrays.fill(maxSpeedKmh, slot * buckets, (slot + 1) * buckets, 0f);
+	}
+}
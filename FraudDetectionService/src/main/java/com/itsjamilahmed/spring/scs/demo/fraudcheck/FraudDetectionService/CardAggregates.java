@@ -0,0 +1,56 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+// Purpose: A copy of the rolling aggregates of one card, as read out of the CardAggregateStore for the fraud rules to evaluate
+//  * The buckets are laid out oldest first, ending with the bucket of the card's latest transaction
+//  * The recent transactions are laid out in time order (oldest first), with merchants and locations as hashes
+//  * One instance is reused per thread, so the rules run on a stable copy without holding the store's lock
+final class CardAggregates {
+
+	final int bucketSeconds;
+	final int bucketCount;
+	final float[] spend;
+	final float[] maxAmount;
+	final float[] maxSpeedKmh;
+
+	int recentCount;
+	final long[] recentEpochSeconds;
+	final int[] recentMerchants;
+	final int[] recentLocations;
+
+	CardAggregates(int bucketSeconds, int buckets, int recentEvents) {
+		this.bucketSeconds = bucketSeconds;
+		this.bucketCount = buckets;
+		this.spend = new float[buckets];
+		this.maxAmount = new float[buckets];
+		this.maxSpeedKmh = new float[buckets];
+		this.recentEpochSeconds = new long[recentEvents];
+		this.recentMerchants = new int[recentEvents];
+		this.recentLocations = new int[recentEvents];
+	}
+
+	// The number of (whole) buckets covering a rule window, capped at those kept
+	int bucketsFor (long windowSeconds) {
+		long buckets = (windowSeconds + bucketSeconds - 1) / bucketSeconds;
+		return (int) Math.max(1, Math.min(bucketCount, buckets));
+	}
+
+	// Put the recent transactions in time order, as they may have arrived out of order. (An insertion sort, as there are few.)
+	void sortRecent () {
+
+		for (int i = 1; i < recentCount; i++) {
+			long time = recentEpochSeconds[i];
+			int merchant = recentMerchants[i];
+			int location = recentLocations[i];
+			int j = i;
+			while (j > 0 && recentEpochSeconds[j - 1] > time) {
+				recentEpochSeconds[j] = recentEpochSeconds[j - 1];
+				recentMerchants[j] = recentMerchants[j - 1];
+				recentLocations[j] = recentLocations[j - 1];
+				j--;
+			}
+			recentEpochSeconds[j] = time;
+			recentMerchants[j] = merchant;
+			recentLocations[j] = location;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The sizing of the per-card rolling aggregates, kept up to date from the transaction event stream
+//  * Spend, largest amount and fastest travel are kept per time bucket, covering 'buckets' x 'bucketSeconds' of history per card
+//  * The last 'recentEvents' transactions of each card are kept too, for the merchant and location velocity rules
+//  * The store is sized to 'maxMemoryMb' up front and never grows. Cards idle for 'idleSeconds' are evicted, then the least recently updated.
+@ConfigurationProperties("fraudcheck.aggregates")
+public class CardAggregatesProperties {
+
+	// Without the aggregates every check is scored from the transactions list it carries, as before
+	private boolean enabled = true;
+
+	private int maxMemoryMb = 64;
+
+	// The rule windows are rounded up to whole buckets. Longer windows than the buckets cover are cut to what they do cover.
+	private int bucketSeconds = 3_600;
+	private int buckets = 24;
+
+	// The velocity rules can count at most this many transactions
+	private int recentEvents = 16;
+
+	private long idleSeconds = 86_400;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxMemoryMb() {
+		return maxMemoryMb;
+	}
+
+	public void setMaxMemoryMb(int maxMemoryMb) {
+		this.maxMemoryMb = maxMemoryMb;
+	}
+
+	public int getBucketSeconds() {
+		return bucketSeconds;
+	}
+
+	public void setBucketSeconds(int bucketSeconds) {
+		this.bucketSeconds = bucketSeconds;
+	}
+
+	public int getBuckets() {
+		return buckets;
+	}
+
+	public void setBuckets(int buckets) {
+		this.buckets = buckets;
+	}
+
+	public int getRecentEvents() {
+		return recentEvents;
+	}
+
+	public void setRecentEvents(int recentEvents) {
+		this.recentEvents = recentEvents;
+	}
+
+	public long getIdleSeconds() {
+		return idleSeconds;
+	}
+
+	public void setIdleSeconds(long idleSeconds) {
+		this.idleSeconds = idleSeconds;
+	}
+}
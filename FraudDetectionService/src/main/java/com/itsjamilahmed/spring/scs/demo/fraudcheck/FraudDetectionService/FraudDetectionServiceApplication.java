@@ -1,21 +1,32 @@
 package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
 
+import java.util.function.Consumer;
 import java.util.function.Function;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.apache.commons.lang3.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.AppHeaderPropagator;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.Deadlines;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
+@EnableConfigurationProperties({FraudRulesProperties.class, CardAggregatesProperties.class, ScoredWindowsProperties.class, TransactionStreamsProperties.class})
 public class FraudDetectionServiceApplication {
 
 	private static final Logger log = LoggerFactory.getLogger(FraudDetectionServiceApplication.class);
@@ -29,97 +40,375 @@ public class FraudDetectionServiceApplication {
 	// How to identify the headers on the inbound event that should be copied over to the outbound event?
 	static final String APP_HEADERS_KEY_PREFIX = "app_";
 	
+	// The transactions to analyse, as sent by the orchestrator. (Or under the name the Transactions History service returns them.)
+	static final String RECENT_TXNS_KEY = "recentTxns";
+	static final String TXNS_KEY = "txns";
+	
+	// Which the verdict was scored from: the rolling aggregates of the card, or the transactions sent with the request
+	static final String SCORED_FROM_AGGREGATES = "aggregates";
+	static final String SCORED_FROM_TRANSACTIONS = "transactions";
+	
+	// For a delta fetch: the cursor the transactions are newer than, the cursor of the newest, and how many a full fetch would have
+	static final String SINCE_KEY = "since";
+	static final String TXN_CURSOR_KEY = "txnCursor";
+	static final String TXN_COUNT_KEY = "txnCount";
+	
+	// The status of a delta fetch that could not be merged or scored from the aggregates, so the orchestrator must fetch them all
+	static final String STATUS_RESYNC = "resync";
+	
+	// For transactions streamed in chunks: the stream, the chunk's number within it, and whether it is the last
+	static final String STREAM_ID_KEY = "streamId";
+	static final String CHUNK_SEQ_KEY = "chunkSeq";
+	static final String LAST_CHUNK_KEY = "lastChunk";
+	
+	// How many of a stream's transactions the verdict was scored on, if decided before the last chunk
+	static final String TXNS_SCORED_KEY = "txnsScored";
+	
+	// Where to credit the Transactions History service with each chunk of a stream taken, for it to send more,
+	// or to ask it to stop sending the stream ('cancel' true) once the verdict is decided without the rest
+	static final String CREDIT_TOPIC_ROOT = "myBank/cards/txnService/history/credit/v1";
+	static final String CREDIT_OUTPUT_BINDING = "getFraudStatus-out-0";
+	static final String CANCEL_KEY = "cancel";
+	
+	private final StageMetrics metrics;
+	
+	// The active fraud rules: as configured at start-up, then as pushed on the rules topic
+	private final FraudRuleRegistry rules;
+	
+	// Each consumer thread decodes the transactions into its own reusable columns
+	private final ThreadLocal<TransactionColumns> transactionColumns = ThreadLocal.withInitial(TransactionColumns::new);
+	
+	// The rolling aggregates of each card, fed by the transaction events. (Null if disabled.)
+	private final CardAggregateStore aggregateStore;
+	private final ThreadLocal<CardAggregates> cardAggregates;
+	
+	// The transactions each card was last scored on, to merge delta fetches into. (Null if disabled.)
+	private final ScoredWindows scoredWindows;
+	
+	// The streams of transaction chunks being scored as they arrive
+	private final TransactionStreams transactionStreams;
+	
+	public FraudDetectionServiceApplication(MeterRegistry meterRegistry, FraudRulesProperties rulesProperties, CardAggregatesProperties aggregatesProperties,
+			ScoredWindowsProperties windowsProperties, TransactionStreamsProperties streamsProperties) {
+		this.metrics = new StageMetrics(meterRegistry, "FraudDetectionService");
+		this.rules = new FraudRuleRegistry(rulesProperties, meterRegistry);
+		log.info("Compiled " + rules.current().ruleCount() + " fraud rules as version " + rules.current().version()
+				+ ", with a fraud score threshold of " + rulesProperties.getScoreThreshold());
+		
+		this.aggregateStore = aggregatesProperties.isEnabled() ? new CardAggregateStore(aggregatesProperties, meterRegistry) : null;
+		this.cardAggregates = (aggregateStore != null) ? ThreadLocal.withInitial(aggregateStore::newView) : null;
+		this.scoredWindows = windowsProperties.isEnabled() ? new ScoredWindows(windowsProperties, meterRegistry) : null;
+		this.transactionStreams = new TransactionStreams(streamsProperties, meterRegistry);
+	}
+	
 	public static void main(String[] args) {
 		SpringApplication.run(FraudDetectionServiceApplication.class, args);
 	}
 	
 	@Bean
-	// Purpose: A simple lookup service to return the specified number of recent transactions for a given card number
+	// Purpose: Score the recent transactions of a card against the fraud rules, to decide whether the card has been used fraudulently
+	//  * Each rule that fires adds its score, with fraud detected once the total reaches the configured threshold
+	//  * Cards with rolling aggregates are scored from those, in a fixed time however long their history.
+	//  *   Otherwise (e.g. since a restart the card has had no transactions) from the transactions sent with the request.
+	//  * Those transactions may be a delta: only those newer than the cursor given back with the card's last verdict ('txnCursor')
+	//  *   They are merged into the window of transactions the card was last scored on. Without that window, the status is 'resync'.
+	//  * Or they may be a stream of chunks ('streamId', 'chunkSeq', 'lastChunk'), scored as each arrives, newest transactions first
+	//  *   Nothing is sent until the verdict is decided: once the rest of the transactions could not change it, or at the last chunk.
+	//  *   If decided early, the Transactions History service is asked to stop sending the stream, and its later chunks are dropped here.
+	//  * The verdict includes the score and which rules fired, to explain it
+	//  * A request past the deadline of the original API request is dropped unparsed. The verdict has no TTL: even a late fraud verdict reaches the orchestrator, to block the card.
 	//	* For these internally accessed services, error messages are sent back on the same supplied reply-to
 	//  * It is the responsibility of the requesting service to detect and implement any logic such as retry pattern
-	public Function<Message<String>, Message<String>> getFraudStatus(){
+	public Function<Message<byte[]>, Message<byte[]>> getFraudStatus(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("getFraudStatus");
 		return input -> {
 			
-			String payload = input.getPayload();
+			long startNanos = stageMetrics.received(input);
+			if (Deadlines.isExpired(input)) {
+				// The caller is no longer waiting, so not even worth parsing
+				stageMetrics.expired();
+				stageMetrics.completed(startNanos);
+				log.info("Dropping message past its deadline, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return null;
+			}
+			StageTimings.Stage stageTiming = StageTimings.start(input, "fraudDetection");
 			JSONObject jsonMessageIn;
 			JSONObject jsonMessageOut;
-			log.info("Received message: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			log.info("Received message: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
 			
+			// Set for a chunk of a stream whose verdict is not (or already) decided, so there is nothing to send
+			boolean noVerdict = false;
 			
 			try {
 				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+					// The same rule set throughout, even if a new version is swapped in meanwhile
+					FraudRuleSet ruleSet = rules.current();
+					
+					// The transactions are decoded straight into this thread's columns
+					TransactionColumns txnsAll = transactionColumns.get();
+					txnsAll.reset(ruleSet.gazetteer());
+					
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decode(input, txnsAll, RECENT_TXNS_KEY, TXNS_KEY);
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Do some processing now to get the fraud status of the given card and transactions record
 					String cardNumber = jsonMessageIn.get("cardNumber").toString();
-					JSONArray txnsAll = (JSONArray) jsonMessageIn.get("txns");
+					long key = CardAggregateStore.keyOf(cardNumber);
+					
+					// Bring the card's window up to date with the transactions sent, whether all of them or a delta
+					long txnCursor = longOf(jsonMessageIn.get(TXN_CURSOR_KEY), ScoredWindows.NO_CURSOR);
+					long since = longOf(jsonMessageIn.get(SINCE_KEY), ScoredWindows.NO_CURSOR);
+					
+					// Scored from the card's aggregates if it has them, rather than the transactions sent
+					CardAggregates aggregates = (aggregateStore != null) ? cardAggregates.get() : null;
+					boolean fromAggregates = aggregates != null && aggregateStore.read(key, aggregates);
+					
+					// A chunk of a stream is scored with those before it, as it is added to them. (A stream is never a delta.)
+					Object streamId = jsonMessageIn.get(STREAM_ID_KEY);
+					TransactionStreams.Progress streamed = null;
+					boolean lastChunk = Boolean.TRUE.equals(jsonMessageIn.get(LAST_CHUNK_KEY));
+					if (streamId != null) {
+						streamed = transactionStreams.accept(streamId.toString(), (int) longOf(jsonMessageIn.get(CHUNK_SEQ_KEY), 0),
+								lastChunk, txnsAll, fromAggregates ? null : ruleSet);
+						if (streamed == null) {
+							// Held until those before it arrive (or the verdict is already decided), so taken all the same
+							creditStream(streamBridge, streamId.toString(), lastChunk, false);
+							throw new NoVerdictException();
+						}
+						txnsAll = streamed.txns;
+						since = ScoredWindows.NO_CURSOR;
+					}
 					
-					simulateProcessingDelay();
+					// The window can only be held once all of a stream is in (until then, the stream has no transactions to give)
+					boolean wholeWindow = (streamed == null || streamed.complete);
+					TransactionColumns window = (since == ScoredWindows.NO_CURSOR) ? txnsAll : null;
+					if (scoredWindows != null && key != CardAggregateStore.NO_CARD && txnCursor != ScoredWindows.NO_CURSOR && wholeWindow) {
+						if (since == ScoredWindows.NO_CURSOR) {
+							// A stream's transactions are already its own copy
+							scoredWindows.put(key, txnCursor, (streamed != null) ? txnsAll : txnsAll.copy());
+						} else {
+							int txnCount = (int) longOf(jsonMessageIn.get(TXN_COUNT_KEY), ScoredWindows.MAX_WINDOW_TXNS);
+							window = scoredWindows.merge(key, since, txnCursor, txnsAll, txnCount);
+						}
+					}
+					
+					long firedRules = 0;
+					String scoredFrom = null;
+					if (fromAggregates) {
+						firedRules = ruleSet.evaluate(aggregates);
+						scoredFrom = SCORED_FROM_AGGREGATES;
+					} else if (streamed != null) {
+						// Already evaluated as the stream's chunks were added
+						firedRules = streamed.fired;
+						scoredFrom = SCORED_FROM_TRANSACTIONS;
+					} else if (window != null) {
+						firedRules = ruleSet.evaluate(window);
+						scoredFrom = SCORED_FROM_TRANSACTIONS;
+					}
+					
+					if (streamed != null) {
+						if (SCORED_FROM_TRANSACTIONS.equals(scoredFrom) && !streamed.complete && !ruleSet.isDecided(firedRules)) {
+							// Wait for the older transactions in the next chunks, crediting this one so they are sent
+							creditStream(streamBridge, streamId.toString(), lastChunk, false);
+							throw new NoVerdictException();
+						}
+						transactionStreams.decided(streamId.toString(), streamed.complete);
+						if (!streamed.complete) {
+							creditStream(streamBridge, streamId.toString(), false, true);
+						}
+					}
 					
 					// Create a new message to hold the status and send out
 					jsonMessageOut = new JSONObject();
-					jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber"));
-					jsonMessageOut.put("fraudDetected", RandomUtils.nextBoolean());
-					
-					jsonMessageOut.put("status", "ok");
+					jsonMessageOut.put("cardNumber", cardNumber);
+					if (scoredFrom == null) {
+						log.info("No window of transactions at cursor " + since + " to merge the delta fetch into. Asking for a resync.");
+						jsonMessageOut.put("status", STATUS_RESYNC);
+					} else {
+						int fraudScore = ruleSet.score(firedRules);
+						jsonMessageOut.put("fraudDetected", ruleSet.isFraud(fraudScore));
+						jsonMessageOut.put("fraudScore", fraudScore);
+						if (firedRules != 0) {
+							jsonMessageOut.put("rulesTriggered", ruleNames(ruleSet, firedRules));
+						}
+						jsonMessageOut.put("ruleSetVersion", ruleSet.version());
+						jsonMessageOut.put("scoredFrom", scoredFrom);
+						if (streamed != null && !streamed.complete) {
+							jsonMessageOut.put(TXNS_SCORED_KEY, streamed.txnCount);
+						}
+						
+						// The cursor to fetch only newer transactions from next time, if the window is held here to merge them into
+						if (window != null && scoredWindows != null && txnCursor != ScoredWindows.NO_CURSOR && wholeWindow) {
+							jsonMessageOut.put(TXN_CURSOR_KEY, txnCursor);
+						}
+						jsonMessageOut.put("status", "ok");
+					}
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception ("Did not receive a valid JSON formatted message. " + e.toString());
 				} catch (NullPointerException e) {
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+					log.error("Error processing message: NullPointerException during json access.", e);
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 					throw new Exception("Error processing message: NullPointerException during json access.");
 				}	
+			} catch (NoVerdictException e) {
+				noVerdict = true;
+				jsonMessageOut = null;
 			} catch (Exception e) {
 				jsonMessageOut = new JSONObject();
 				jsonMessageOut.put("status", "error");
 				jsonMessageOut.put("errorMsg", "Error processing message: " + e.getMessage());
 			}
+			stageTiming.end();
+			
+			if (noVerdict) {
+				stageMetrics.completed(startNanos);
+				return null;
+			}
 			
 			String replyTopic = input.getHeaders().get(REPLY_TO_HEADER_KEY).toString();
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
-					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic)
-					.build();
+			// Reply in the same payload format as the request
+			String contentType = PayloadCodec.contentTypeOf(input);
+			
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentType))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic);
 			
-			// Copy over all the app headers...
-			output = copyAppMessageHeaders(input, output);
+			// Copy over all the app headers, adding this stage to the timings trail...
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+					.build();
 
-			log.info("Sending response: " + output.getPayload() + " on topic: " + replyTopic);
+			log.info("Sending response: " + jsonMessageOut + " on topic: " + replyTopic);
 			
+			// Errors go back on the same reply-to topic, so are told apart by their status
+			stageMetrics.completed(startNanos, "error".equals(jsonMessageOut.get("status")));
 			return output;
 		};
 	}
 	
-	private Message<String> copyAppMessageHeaders (Message<String> fromMsg, Message<String> toMsg) {
-		
-		// Now copy over all the app headers...
-		for (String key : fromMsg.getHeaders().keySet()) {
-			if (key.startsWith(APP_HEADERS_KEY_PREFIX)) {
+	@Bean
+	// Purpose: Receive new versions of the fraud rule set, pushed to every instance of this service
+	//  * The rule set is compiled and swapped in off this thread, with fraud checks carrying on meanwhile on the previous version
+	//  * A rule set that fails to parse or validate is rejected, leaving the active version in place
+	public Consumer<Message<String>> loadFraudRules(){
+		return input -> {
+			log.info("Received fraud rule set push on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			rules.submit(input.getPayload());
+		};
+	}
+	
+	@Bean
+	// Purpose: Fold each card transaction into the rolling aggregates of its card, ready for its next fraud check
+	//  * The events are transaction records as returned by the Transactions History service, plus the cardNumber
+	//  * Every instance of this service gets every event, so any of them can answer a fraud check from the aggregates
+	//  * An event that cannot be read is logged and dropped, so is just missing from the card's aggregates
+	public Consumer<Message<byte[]>> recordTransaction(){
+		StageMetrics.Stage stageMetrics = metrics.stage("recordTransaction");
+		return input -> {
+			
+			if (aggregateStore == null) {
+				return;
+			}
+			long startNanos = stageMetrics.received(input);
+			
+			// One of these per card transaction, so not logged unless debugging
+			if (log.isDebugEnabled()) {
+				log.debug("Received transaction: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			}
+			
+			try {
+				long parseStartNanos = System.nanoTime();
+				JSONObject txn = PayloadCodec.decode(input);
+				stageMetrics.parsed(parseStartNanos);
+				
+				Object cardNumber = txn.get("cardNumber");
+				long key = CardAggregateStore.keyOf((cardNumber != null) ? cardNumber.toString() : null);
+				if (key == CardAggregateStore.NO_CARD) {
+					throw new IllegalArgumentException("Not aggregating a transaction without a valid cardNumber: " + cardNumber);
+				}
 				
-				// Message is immutable so need to create new for each header?
-				// TODO: Investigate some optimisation
-				toMsg = MessageBuilder.fromMessage(toMsg)
-						.setHeader(key, fromMsg.getHeaders().get(key))
-						.build();
+				// Transactions without a (readable) time are taken as happening now
+				long epochSeconds = TransactionColumns.parseDateTime(txn.get(TransactionColumns.FIELD_DATETIME));
+				if (epochSeconds == TransactionColumns.UNKNOWN_TIME) {
+					epochSeconds = System.currentTimeMillis() / 1000;
+				}
+				
+				// The transaction's own coordinates if it has them, otherwise those of its location
+				Object location = txn.get(TransactionColumns.FIELD_LOCATION);
+				double latitude = Double.NaN;
+				double longitude = Double.NaN;
+				if (txn.get(TransactionColumns.FIELD_LATITUDE) instanceof Number && txn.get(TransactionColumns.FIELD_LONGITUDE) instanceof Number) {
+					latitude = ((Number) txn.get(TransactionColumns.FIELD_LATITUDE)).doubleValue();
+					longitude = ((Number) txn.get(TransactionColumns.FIELD_LONGITUDE)).doubleValue();
+				} else {
+					double[] known = rules.current().gazetteer().coordinatesOf(location);
+					if (known != null) {
+						latitude = known[0];
+						longitude = known[1];
+					}
+				}
+				
+				aggregateStore.record(key, epochSeconds, TransactionColumns.parseAmount(txn.get(TransactionColumns.FIELD_AMOUNT)),
+						CardAggregateStore.hashOf(txn.get(TransactionColumns.FIELD_MERCHANT)), CardAggregateStore.hashOf(location),
+						latitude, longitude);
+				
+			} catch (ParseException e) {
+				log.error("Did not receive a valid JSON formatted transaction. " + e.toString());
+				stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
+			} catch (IllegalArgumentException e) {
+				log.error(e.getMessage());
+				stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 			}
+			stageMetrics.completed(startNanos);
+		};
+	}
+	
+	// Credit the sender of the stream with a chunk taken, or ask it to stop ('cancel'), wherever it is: the Transactions History instances all hear the credits.
+	// (Nothing to credit for the last chunk, as the stream is then sent in full.)
+	@SuppressWarnings("unchecked")
+	private void creditStream (StreamBridge streamBridge, String streamId, boolean lastChunk, boolean cancel) {
+		
+		if (streamBridge == null || lastChunk) {
+			return;
+		}
+		JSONObject credit = new JSONObject();
+		credit.put(STREAM_ID_KEY, streamId);
+		if (cancel) {
+			credit.put(CANCEL_KEY, true);
 		}
+		String creditTopic = CREDIT_TOPIC_ROOT + "/" + streamId;
 		
-		return toMsg; 
+		streamBridge.send(CREDIT_OUTPUT_BINDING, MessageBuilder.withPayload(PayloadCodec.encode(credit, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(BinderHeaders.TARGET_DESTINATION, creditTopic)
+				.build());
+		if (cancel) {
+			log.info("Verdict decided before the end of stream " + streamId + ". Cancelling the rest on topic: " + creditTopic);
+		}
+	}
+	
+	// Thrown for a chunk of a stream that does not (yet) decide the verdict, to send nothing back
+	private static final class NoVerdictException extends Exception {
+		private static final long serialVersionUID = 1L;
 	}
 	
-	private void simulateProcessingDelay () {
+	private static long longOf (Object value, long otherwise) {
+		return (value instanceof Number) ? ((Number) value).longValue() : otherwise;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static JSONArray ruleNames (FraudRuleSet ruleSet, long firedRules) {
 		
-		long leftLimit = 1L;
-	    long rightLimit = 1000L;
-	    long generatedRandomLong = RandomUtils.nextLong(leftLimit, rightLimit);
-	    log.info("Sleeping for " + generatedRandomLong + "ms to simulate processing delay.");
-		try {
-			Thread.sleep(generatedRandomLong);
-		} catch (InterruptedException e) {
-
-		}	
+		JSONArray names = new JSONArray();
+		for (long remaining = firedRules; remaining != 0; remaining &= remaining - 1) {
+			names.add(ruleSet.ruleName(Long.numberOfTrailingZeros(remaining)));
+		}
+		return names;
 	}
 
 }
@@ -0,0 +1,176 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: Hold the active fraud rule set, and swap in new versions as they are pushed without pausing the fraud checks
+//  * The active rule set sits behind an atomic reference. A fraud check reads it once, so finishes on the version it started with.
+//  * Pushed rule sets are parsed, validated and compiled on a thread of their own, and only swapped in if all that succeeds.
+//  *   The consumer threads scoring transactions never wait on a reload, nor see a partly built rule set.
+//  * A push is only applied if its version is newer than the active one, so a redelivery or a late push of an older version is ignored
+//  *   Versions are compared part by part (split on '.'), numerically where both parts are numbers and otherwise as text
+//  * An instance starting up begins with the rule set configured under 'fraudcheck.rules', until the next push.
+final class FraudRuleRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(FraudRuleRegistry.class);
+
+	static final String METRIC_RELOADS = "fraudcheck.rules.reloads";
+
+	private final AtomicReference<FraudRuleSet> active;
+
+	// Pushed rule sets that leave out the locations keep the configured ones
+	private final Map<String, String> configuredLocations;
+
+	private final ExecutorService compiler = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "fraud-rules-compiler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Counter appliedReloads;
+	private final Counter rejectedReloads;
+
+	FraudRuleRegistry(FraudRulesProperties configured, MeterRegistry meterRegistry) {
+		this.active = new AtomicReference<>(FraudRuleSet.compile(configured));
+		this.configuredLocations = configured.getLocations();
+		this.appliedReloads = Counter.builder(METRIC_RELOADS).tags("outcome", "applied").register(meterRegistry);
+		this.rejectedReloads = Counter.builder(METRIC_RELOADS).tags("outcome", "rejected").register(meterRegistry);
+	}
+
+	FraudRuleSet current () {
+		return active.get();
+	}
+
+	// Queue a pushed rule set (as JSON, laid out as under 'fraudcheck.rules' plus its 'version') to be compiled and swapped in
+	void submit (String ruleSetJson) {
+		compiler.execute(() -> reload(ruleSetJson));
+	}
+
+	private void reload (String ruleSetJson) {
+
+		FraudRuleSet compiled;
+		try {
+			compiled = FraudRuleSet.compile(parse(ruleSetJson));
+		} catch (ParseException | RuntimeException e) {
+			rejectedReloads.increment();
+			log.error("Rejected the pushed fraud rule set, keeping version " + active.get().version() + ". " + e.getMessage());
+			return;
+		}
+
+		FraudRuleSet previous = active.get();
+		if (compareVersions(compiled.version(), previous.version()) <= 0) {
+			log.info("Fraud rule set version " + compiled.version() + " is not newer than the active version " + previous.version() + ". Ignored.");
+			return;
+		}
+
+		// Only this thread ever swaps, so a plain set is enough
+		active.set(compiled);
+		appliedReloads.increment();
+		log.info("Fraud rule set version " + compiled.version() + " is now active, with " + compiled.ruleCount()
+				+ " rules. (Replacing version " + previous.version() + ")");
+	}
+
+	// Negative, zero or positive as version 'a' is older than, the same as or newer than 'b'. (e.g. 2 < 10, and 1.9 < 1.10 < 1.10.1)
+	static int compareVersions (String a, String b) {
+
+		String[] aParts = a.trim().split("\\.");
+		String[] bParts = b.trim().split("\\.");
+		for (int i = 0; i < Math.min(aParts.length, bParts.length); i++) {
+			int compared = compareVersionParts(aParts[i], bParts[i]);
+			if (compared != 0) {
+				return compared;
+			}
+		}
+		return Integer.compare(aParts.length, bParts.length);
+	}
+
+	private static int compareVersionParts (String a, String b) {
+
+		if (isNumber(a) && isNumber(b)) {
+			// Compared as digits without their leading zeros, so a number of any length is fine
+			String aDigits = a.replaceFirst("^0+(?=.)", "");
+			String bDigits = b.replaceFirst("^0+(?=.)", "");
+			return (aDigits.length() != bDigits.length()) ? Integer.compare(aDigits.length(), bDigits.length()) : aDigits.compareTo(bDigits);
+		}
+		return a.compareTo(b);
+	}
+
+	private static boolean isNumber (String part) {
+		return !part.isEmpty() && part.chars().allMatch(c -> c >= '0' && c <= '9');
+	}
+
+	private FraudRulesProperties parse (String ruleSetJson) throws ParseException {
+
+		JSONObject json = (JSONObject) new JSONParser().parse(ruleSetJson);
+		FraudRulesProperties properties = new FraudRulesProperties();
+
+		Object version = json.get("version");
+		if (version == null || version.toString().isBlank()) {
+			throw new IllegalArgumentException("A pushed fraud rule set needs a version");
+		}
+		properties.setVersion(version.toString());
+
+		if (json.get("scoreThreshold") != null) {
+			properties.setScoreThreshold(((Number) json.get("scoreThreshold")).intValue());
+		}
+
+		Map<String, String> locations = new LinkedHashMap<>();
+		if (json.get("locations") instanceof Map) {
+			for (Map.Entry<?, ?> location : ((Map<?, ?>) json.get("locations")).entrySet()) {
+				locations.put(location.getKey().toString(), String.valueOf(location.getValue()));
+			}
+		} else {
+			locations.putAll(configuredLocations);
+		}
+		properties.setLocations(locations);
+
+		List<FraudRulesProperties.Rule> definitions = new ArrayList<>();
+		if (json.get("definitions") instanceof List) {
+			for (Object element : (List<?>) json.get("definitions")) {
+				definitions.add(parseRule((Map<?, ?>) element));
+			}
+		}
+		properties.setDefinitions(definitions);
+
+		return properties;
+	}
+
+	private static FraudRulesProperties.Rule parseRule (Map<?, ?> json) {
+
+		FraudRulesProperties.Rule rule = new FraudRulesProperties.Rule();
+		rule.setName((json.get("name") != null) ? json.get("name").toString() : null);
+
+		Object type = json.get("type");
+		try {
+			rule.setType((type != null) ? FraudRulesProperties.Type.valueOf(type.toString()) : null);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Fraud rule '" + rule.getName() + "' has an unknown type: " + type);
+		}
+
+		rule.setAmount(number(json, "amount").doubleValue());
+		rule.setCount(number(json, "count").intValue());
+		rule.setWindowSeconds(number(json, "windowSeconds").longValue());
+		rule.setMaxSpeedKmh(number(json, "maxSpeedKmh").doubleValue());
+		rule.setScore(number(json, "score").intValue());
+		return rule;
+	}
+
+	private static Number number (Map<?, ?> json, String key) {
+		Object value = json.get(key);
+		return (value instanceof Number) ? (Number) value : 0;
+	}
+}
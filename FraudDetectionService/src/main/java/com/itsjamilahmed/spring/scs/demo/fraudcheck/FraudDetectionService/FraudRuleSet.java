@@ -0,0 +1,499 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Purpose: The configured fraud rules, compiled into a flat decision table to score the transactions of a card
+//  * Each rule becomes a row of opcode, parameters and score, in parallel primitive arrays
+//  * Scoring is one pass down the table, each row a tight loop over the transaction columns. No objects are created.
+//  * The rules that fired are returned as a bit mask (hence at most 64 rules), so their score and names are only looked up if needed
+//  * The same rules can instead be evaluated against a card's rolling aggregates, at a fixed cost however many transactions they cover
+//  * A rule set is immutable once compiled, so one instance can be shared by any number of threads
+final class FraudRuleSet {
+
+	static final int MAX_RULES = Long.SIZE;
+
+	// Opcodes of the rule types
+	static final byte OP_AMOUNT_OVER = 0;
+	static final byte OP_SPEND_OVER = 1;
+	static final byte OP_MERCHANT_VELOCITY = 2;
+	static final byte OP_LOCATION_VELOCITY = 3;
+	static final byte OP_IMPOSSIBLE_TRAVEL = 4;
+
+	// Locations are only as precise as a city, so any shorter distance is not counted as travel
+	static final double MIN_TRAVEL_DISTANCE_KM = 50.0;
+
+	static final double EARTH_RADIUS_KM = 6371.0;
+
+	private final String version;
+	private final byte[] opcodes;
+	private final double[] amountArgs;
+	private final int[] countArgs;
+	private final long[] windowArgs;
+	private final double[] speedArgs;
+	private final int[] scores;
+	private final String[] names;
+	private final int scoreThreshold;
+	private final Gazetteer gazetteer;
+
+	private FraudRuleSet(String version, int ruleCount, int scoreThreshold, Gazetteer gazetteer) {
+		this.version = version;
+		this.opcodes = new byte[ruleCount];
+		this.amountArgs = new double[ruleCount];
+		this.countArgs = new int[ruleCount];
+		this.windowArgs = new long[ruleCount];
+		this.speedArgs = new double[ruleCount];
+		this.scores = new int[ruleCount];
+		this.names = new String[ruleCount];
+		this.scoreThreshold = scoreThreshold;
+		this.gazetteer = gazetteer;
+	}
+
+	// Validate the rules as configured, and compile them. Throws IllegalArgumentException describing the first invalid rule.
+	static FraudRuleSet compile (FraudRulesProperties properties) {
+
+		List<FraudRulesProperties.Rule> rules = properties.getDefinitions();
+		if (rules == null || rules.isEmpty()) {
+			throw new IllegalArgumentException("No fraud rules defined");
+		}
+		if (rules.size() > MAX_RULES) {
+			throw new IllegalArgumentException("Too many fraud rules: " + rules.size() + " (Max: " + MAX_RULES + ")");
+		}
+		if (properties.getScoreThreshold() <= 0) {
+			throw new IllegalArgumentException("The fraud score threshold must be positive");
+		}
+
+		if (properties.getVersion() == null || properties.getVersion().isBlank()) {
+			throw new IllegalArgumentException("The fraud rule set needs a version");
+		}
+
+		FraudRuleSet ruleSet = new FraudRuleSet(properties.getVersion(), rules.size(), properties.getScoreThreshold(),
+				Gazetteer.of(properties.getLocations()));
+		Set<String> names = new HashSet<>();
+
+		for (int r = 0; r < rules.size(); r++) {
+			FraudRulesProperties.Rule rule = rules.get(r);
+
+			if (rule.getName() == null || rule.getName().isBlank() || !names.add(rule.getName())) {
+				throw new IllegalArgumentException("Fraud rule " + (r + 1) + " needs a unique name");
+			}
+			if (rule.getType() == null) {
+				throw new IllegalArgumentException("Fraud rule '" + rule.getName() + "' has no type");
+			}
+
+			switch (rule.getType()) {
+			case AMOUNT_OVER:
+				ruleSet.opcodes[r] = OP_AMOUNT_OVER;
+				require(rule, rule.getAmount() > 0, "an amount");
+				break;
+			case SPEND_OVER:
+				ruleSet.opcodes[r] = OP_SPEND_OVER;
+				require(rule, rule.getAmount() > 0, "an amount");
+				require(rule, rule.getWindowSeconds() > 0, "a windowSeconds");
+				break;
+			case MERCHANT_VELOCITY:
+				ruleSet.opcodes[r] = OP_MERCHANT_VELOCITY;
+				require(rule, rule.getCount() >= 2, "a count of at least 2");
+				require(rule, rule.getWindowSeconds() > 0, "a windowSeconds");
+				break;
+			case LOCATION_VELOCITY:
+				ruleSet.opcodes[r] = OP_LOCATION_VELOCITY;
+				require(rule, rule.getCount() >= 2, "a count of at least 2");
+				require(rule, rule.getWindowSeconds() > 0, "a windowSeconds");
+				break;
+			case IMPOSSIBLE_TRAVEL:
+				ruleSet.opcodes[r] = OP_IMPOSSIBLE_TRAVEL;
+				require(rule, rule.getMaxSpeedKmh() > 0, "a maxSpeedKmh");
+				break;
+			}
+			// A rule firing never lowers the score, which deciding a verdict early relies on
+			require(rule, rule.getScore() >= 0, "a score that is not negative");
+
+			ruleSet.amountArgs[r] = rule.getAmount();
+			ruleSet.countArgs[r] = rule.getCount();
+			ruleSet.windowArgs[r] = rule.getWindowSeconds();
+			ruleSet.speedArgs[r] = rule.getMaxSpeedKmh();
+			ruleSet.scores[r] = rule.getScore();
+			ruleSet.names[r] = rule.getName();
+		}
+
+		return ruleSet;
+	}
+
+	private static void require (FraudRulesProperties.Rule rule, boolean condition, String what) {
+		if (!condition) {
+			throw new IllegalArgumentException("Fraud rule '" + rule.getName() + "' of type " + rule.getType() + " needs " + what);
+		}
+	}
+
+	// The rules that fire for these transactions, as a bit per rule
+	long evaluate (TransactionColumns txns) {
+		return evaluate(txns, 0L, 0);
+	}
+
+	// As above, when the rows before 'from' have already been evaluated, firing 'fired' (e.g. the chunks of a stream so far)
+	//  * Only the rules yet to fire are evaluated, and only over the rows added and those within a rule's window of their times
+	//  * More transactions only ever make more rules fire, so those left out could not fire now if they did not before
+	long evaluate (TransactionColumns txns, long fired, int from) {
+
+		// The times of the rows added, so the part of the time order they changed
+		long oldestAdded = Long.MAX_VALUE;
+		long newestAdded = Long.MIN_VALUE;
+		for (int i = from; i < txns.size; i++) {
+			if (txns.epochSeconds[i] != TransactionColumns.UNKNOWN_TIME) {
+				oldestAdded = Math.min(oldestAdded, txns.epochSeconds[i]);
+				newestAdded = Math.max(newestAdded, txns.epochSeconds[i]);
+			}
+		}
+		// Without a time, the rows added are not in the time order, so cannot make the rules over time fire
+		boolean timedAdded = oldestAdded <= newestAdded;
+
+		for (int r = 0; r < opcodes.length; r++) {
+			if ((fired & (1L << r)) != 0) {
+				continue;
+			}
+			boolean hit;
+			switch (opcodes[r]) {
+			case OP_AMOUNT_OVER:
+				hit = amountOver(txns, amountArgs[r], from);
+				break;
+			case OP_SPEND_OVER:
+				hit = timedAdded && spendOver(txns, amountArgs[r], windowArgs[r], positionOf(txns, oldestAdded - windowArgs[r]),
+						positionOf(txns, newestAdded + windowArgs[r] + 1));
+				break;
+			case OP_MERCHANT_VELOCITY:
+				hit = timedAdded && velocity(txns, txns.merchantIds, txns.merchantCount, countArgs[r], windowArgs[r], false,
+						positionOf(txns, oldestAdded - windowArgs[r]), positionOf(txns, newestAdded + windowArgs[r] + 1));
+				break;
+			case OP_LOCATION_VELOCITY:
+				hit = timedAdded && velocity(txns, txns.locationIds, txns.locationCount, countArgs[r], windowArgs[r], true,
+						positionOf(txns, oldestAdded - windowArgs[r]), positionOf(txns, newestAdded + windowArgs[r] + 1));
+				break;
+			case OP_IMPOSSIBLE_TRAVEL:
+				hit = timedAdded && impossibleTravel(txns, speedArgs[r], positionOf(txns, oldestAdded), positionOf(txns, newestAdded + 1));
+				break;
+			default:
+				hit = false;
+			}
+			fired |= hit ? (1L << r) : 0L;
+		}
+
+		return fired;
+	}
+
+	// The rules that fire for these rolling aggregates, as a bit per rule
+	//  * Windows are rounded up to whole buckets, so may take in up to a bucket more than the rule asks for
+	//  * The velocity rules only see the recent transactions kept per card, so a count beyond those never fires
+	long evaluate (CardAggregates aggregates) {
+
+		long fired = 0L;
+
+		for (int r = 0; r < opcodes.length; r++) {
+			boolean hit;
+			switch (opcodes[r]) {
+			case OP_AMOUNT_OVER:
+				hit = maxOver(aggregates.maxAmount, aggregates.bucketCount, amountArgs[r]);
+				break;
+			case OP_SPEND_OVER:
+				hit = spendOver(aggregates, amountArgs[r], windowArgs[r]);
+				break;
+			case OP_MERCHANT_VELOCITY:
+				hit = velocity(aggregates, aggregates.recentMerchants, countArgs[r], windowArgs[r], false);
+				break;
+			case OP_LOCATION_VELOCITY:
+				hit = velocity(aggregates, aggregates.recentLocations, countArgs[r], windowArgs[r], true);
+				break;
+			case OP_IMPOSSIBLE_TRAVEL:
+				// Only travel faster than the limit counts, as for the transactions list
+				hit = maxOver(aggregates.maxSpeedKmh, aggregates.bucketCount, Math.nextUp(speedArgs[r]));
+				break;
+			default:
+				hit = false;
+			}
+			fired |= hit ? (1L << r) : 0L;
+		}
+
+		return fired;
+	}
+
+	int score (long fired) {
+
+		int score = 0;
+		for (long remaining = fired; remaining != 0; remaining &= remaining - 1) {
+			score += scores[Long.numberOfTrailingZeros(remaining)];
+		}
+		return score;
+	}
+
+	boolean isFraud (int score) {
+		return score >= scoreThreshold;
+	}
+
+	// Whether the verdict on these rules having fired would stand however many older transactions were added
+	//  * More transactions only ever make more rules fire, as the older ones come before the rest in time (so amounts taken as not negative)
+	//  * Scores are never negative, so it stands if the verdict is the same with all the other rules firing as with none of them
+	boolean isDecided (long fired) {
+
+		int lowest = score(fired);
+		int highest = lowest;
+		for (int r = 0; r < scores.length; r++) {
+			if ((fired & (1L << r)) == 0) {
+				highest += scores[r];
+			}
+		}
+		return isFraud(lowest) == isFraud(highest);
+	}
+
+	String version () {
+		return version;
+	}
+
+	int ruleCount () {
+		return opcodes.length;
+	}
+
+	String ruleName (int rule) {
+		return names[rule];
+	}
+
+	Gazetteer gazetteer () {
+		return gazetteer;
+	}
+
+	private static boolean amountOver (TransactionColumns txns, double amount, int from) {
+
+		for (int i = from; i < txns.size; i++) {
+			if (txns.amounts[i] >= amount) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Total spend within any window of the given length, ending between positions 'from' and 'to' of the time order
+	// (A window is only counted from 'from', which is enough for those ending a window's length after it)
+	private static boolean spendOver (TransactionColumns txns, double amount, long windowSeconds, int from, int to) {
+
+		int[] order = txns.timeOrder;
+		long[] times = txns.epochSeconds;
+		double total = 0;
+
+		for (int right = from, left = from; right < to; right++) {
+			total += txns.amounts[order[right]];
+			while (times[order[right]] - times[order[left]] > windowSeconds) {
+				total -= txns.amounts[order[left++]];
+			}
+			if (total >= amount) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Within any window of the given length: the same value (e.g. merchant) at least 'count' times,
+	// or if counting distinct, at least 'count' different values (e.g. locations). Over positions 'from' to 'to' of the time order, as spendOver.
+	private static boolean velocity (TransactionColumns txns, int[] ids, int distinctIds, int count, long windowSeconds, boolean countDistinct,
+			int from, int to) {
+
+		int[] order = txns.timeOrder;
+		long[] times = txns.epochSeconds;
+		int[] counts = txns.counts;
+		Arrays.fill(counts, 0, distinctIds, 0);
+		int distinctInWindow = 0;
+
+		for (int right = from, left = from; right < to; right++) {
+			int added = ids[order[right]];
+			if (counts[added]++ == 0) {
+				distinctInWindow++;
+			}
+			while (times[order[right]] - times[order[left]] > windowSeconds) {
+				if (--counts[ids[order[left++]]] == 0) {
+					distinctInWindow--;
+				}
+			}
+			if ((countDistinct ? distinctInWindow : counts[added]) >= count) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Any two consecutive transactions (with known locations) further apart than could be covered in the time between them,
+	// either of them between positions 'from' and 'to' of the time order
+	private static boolean impossibleTravel (TransactionColumns txns, double maxSpeedKmh, int from, int to) {
+
+		int[] order = txns.timeOrder;
+		int previous = -1;
+
+		// From the last with a known location before 'from', up to the first at or after 'to'
+		int first = from - 1;
+		while (first > 0 && !txns.hasCoordinates[order[first]]) {
+			first--;
+		}
+		first = Math.max(first, 0);
+		int last = to;
+		while (last < txns.timedCount && !txns.hasCoordinates[order[last]]) {
+			last++;
+		}
+		last = Math.min(last + 1, txns.timedCount);
+
+		for (int k = first; k < last; k++) {
+			int i = order[k];
+			if (!txns.hasCoordinates[i]) {
+				continue;
+			}
+			if (previous >= 0) {
+				double distanceKm = distanceKm(txns.latitudes[previous], txns.longitudes[previous], txns.latitudes[i], txns.longitudes[i]);
+				double hours = (txns.epochSeconds[i] - txns.epochSeconds[previous]) / 3600.0;
+				if (distanceKm > MIN_TRAVEL_DISTANCE_KM && distanceKm > maxSpeedKmh * hours) {
+					return true;
+				}
+			}
+			previous = i;
+		}
+		return false;
+	}
+
+	// The first position in the time order at or after the time (the count of those in it, if none)
+	private static int positionOf (TransactionColumns txns, long epochSeconds) {
+
+		int low = 0;
+		int high = txns.timedCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (txns.epochSeconds[txns.timeOrder[middle]] < epochSeconds) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static boolean maxOver (float[] perBucket, int bucketCount, double threshold) {
+
+		for (int k = 0; k < bucketCount; k++) {
+			if (perBucket[k] >= threshold) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Total spend within any run of buckets covering the window
+	private static boolean spendOver (CardAggregates aggregates, double amount, long windowSeconds) {
+
+		int width = aggregates.bucketsFor(windowSeconds);
+		double total = 0;
+
+		for (int k = 0; k < aggregates.bucketCount; k++) {
+			total += aggregates.spend[k];
+			if (k >= width) {
+				total -= aggregates.spend[k - width];
+			}
+			if (total >= amount) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// As for the transactions list, over the recent transactions. They are few, so each is simply compared with the others in its window.
+	private static boolean velocity (CardAggregates aggregates, int[] hashes, int count, long windowSeconds, boolean countDistinct) {
+
+		long[] times = aggregates.recentEpochSeconds;
+
+		for (int right = 0, left = 0; right < aggregates.recentCount; right++) {
+			while (times[right] - times[left] > windowSeconds) {
+				left++;
+			}
+			int counted = 0;
+			for (int i = left; i <= right; i++) {
+				if (countDistinct ? isLastOf(hashes, i, right) : hashes[i] == hashes[right]) {
+					counted++;
+				}
+			}
+			if (counted >= count) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Whether no later entry up to 'last' has the same hash, so each distinct value is counted once
+	private static boolean isLastOf (int[] hashes, int i, int last) {
+
+		for (int j = i + 1; j <= last; j++) {
+			if (hashes[j] == hashes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Great-circle distance, by the haversine formula
+	static double distanceKm (double latitude1, double longitude1, double latitude2, double longitude2) {
+
+		double dLatitude = Math.toRadians(latitude2 - latitude1);
+		double dLongitude = Math.toRadians(longitude2 - longitude1);
+		double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+				+ Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1.0, a)));
+	}
+
+	// Purpose: The coordinates of the known transaction locations, parsed once from their configured "latitude,longitude"
+	static final class Gazetteer {
+
+		private final Map<String, double[]> coordinates;
+
+		private Gazetteer(Map<String, double[]> coordinates) {
+			this.coordinates = coordinates;
+		}
+
+		static Gazetteer of (Map<String, String> locations) {
+
+			Map<String, double[]> coordinates = new HashMap<>();
+			if (locations != null) {
+				for (Map.Entry<String, String> location : locations.entrySet()) {
+					coordinates.put(location.getKey(), parseCoordinates(location.getKey(), location.getValue()));
+				}
+			}
+			return new Gazetteer(coordinates);
+		}
+
+		private static double[] parseCoordinates (String location, String value) {
+
+			String[] parts = (value != null) ? value.split(",") : new String[0];
+			try {
+				double latitude = Double.parseDouble(parts[0].trim());
+				double longitude = Double.parseDouble(parts[1].trim());
+				if (parts.length == 2 && Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180) {
+					return new double[] { latitude, longitude };
+				}
+			} catch (RuntimeException e) {
+				// Reported below
+			}
+			throw new IllegalArgumentException("Location '" + location + "' needs coordinates as \"latitude,longitude\", not: " + value);
+		}
+
+		// The latitude and longitude of the location, or null if not known. (Not to be modified.)
+		double[] coordinatesOf (Object location) {
+			return (location != null) ? coordinates.get(location) : null;
+		}
+
+		// Set the coordinates of the transaction from its location, if known
+		boolean lookup (Object location, TransactionColumns txns, int i) {
+
+			double[] known = coordinatesOf(location);
+			if (known == null) {
+				return false;
+			}
+			txns.setCoordinates(i, known[0], known[1]);
+			return true;
+		}
+	}
+}
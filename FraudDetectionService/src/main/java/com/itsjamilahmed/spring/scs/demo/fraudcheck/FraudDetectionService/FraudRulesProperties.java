@@ -0,0 +1,179 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The fraud rules to score the recent transactions of a card against, as configured
+//  * Each rule that fires adds its score. Fraud is detected once the total reaches the threshold.
+//  * The rules are compiled into a FraudRuleSet on start-up, so nothing here is looked at while scoring
+//  * Without any configuration, a default rule set covering each type of rule applies
+@ConfigurationProperties("fraudcheck.rules")
+public class FraudRulesProperties {
+
+	// The types of rule, and which of the rule parameters each one uses
+	public enum Type {
+		AMOUNT_OVER,			// Any single transaction of at least 'amount'
+		SPEND_OVER,				// Transactions totalling at least 'amount' within 'windowSeconds'
+		MERCHANT_VELOCITY,		// At least 'count' transactions at the same merchant within 'windowSeconds'
+		LOCATION_VELOCITY,		// At least 'count' distinct locations within 'windowSeconds'
+		IMPOSSIBLE_TRAVEL		// Consecutive transactions further apart than is possible at 'maxSpeedKmh'
+	}
+
+	// Recorded in each verdict, to tell which rules it was made by. (Rule sets pushed later carry their own version.)
+	private String version = "1";
+
+	// Fraud is detected when the scores of the rules that fired add up to at least this
+	private int scoreThreshold = 100;
+
+	// Coordinates ("latitude,longitude") of the transaction locations, for when the transactions do not carry their own
+	private Map<String, String> locations = new LinkedHashMap<>(Map.of(
+			"London", "51.5072,-0.1276",
+			"Paris", "48.8566,2.3522",
+			"New York", "40.7128,-74.0060",
+			"Singapore", "1.3521,103.8198",
+			"Sydney", "-33.8688,151.2093",
+			"Dubai", "25.2048,55.2708"));
+
+	private List<Rule> definitions = new ArrayList<>(List.of(
+			new Rule("largeAmount", Type.AMOUNT_OVER).amount(5000).score(40),
+			new Rule("dailySpend", Type.SPEND_OVER).amount(10000).windowSeconds(86_400).score(60),
+			new Rule("merchantVelocity", Type.MERCHANT_VELOCITY).count(4).windowSeconds(600).score(60),
+			new Rule("locationVelocity", Type.LOCATION_VELOCITY).count(3).windowSeconds(3_600).score(50),
+			new Rule("impossibleTravel", Type.IMPOSSIBLE_TRAVEL).maxSpeedKmh(1_000).score(100)));
+
+	public static class Rule {
+
+		private String name;
+		private Type type;
+		private double amount;
+		private int count;
+		private long windowSeconds;
+		private double maxSpeedKmh;
+		private int score;
+
+		public Rule() {
+		}
+
+		Rule(String name, Type type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		Rule amount(double amount) {
+			this.amount = amount;
+			return this;
+		}
+
+		Rule count(int count) {
+			this.count = count;
+			return this;
+		}
+
+		Rule windowSeconds(long windowSeconds) {
+			this.windowSeconds = windowSeconds;
+			return this;
+		}
+
+		Rule maxSpeedKmh(double maxSpeedKmh) {
+			this.maxSpeedKmh = maxSpeedKmh;
+			return this;
+		}
+
+		Rule score(int score) {
+			this.score = score;
+			return this;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public void setType(Type type) {
+			this.type = type;
+		}
+
+		public double getAmount() {
+			return amount;
+		}
+
+		public void setAmount(double amount) {
+			this.amount = amount;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public long getWindowSeconds() {
+			return windowSeconds;
+		}
+
+		public void setWindowSeconds(long windowSeconds) {
+			this.windowSeconds = windowSeconds;
+		}
+
+		public double getMaxSpeedKmh() {
+			return maxSpeedKmh;
+		}
+
+		public void setMaxSpeedKmh(double maxSpeedKmh) {
+			this.maxSpeedKmh = maxSpeedKmh;
+		}
+
+		public int getScore() {
+			return score;
+		}
+
+		public void setScore(int score) {
+			this.score = score;
+		}
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public int getScoreThreshold() {
+		return scoreThreshold;
+	}
+
+	public void setScoreThreshold(int scoreThreshold) {
+		this.scoreThreshold = scoreThreshold;
+	}
+
+	public Map<String, String> getLocations() {
+		return locations;
+	}
+
+	public void setLocations(Map<String, String> locations) {
+		this.locations = locations;
+	}
+
+	public List<Rule> getDefinitions() {
+		return definitions;
+	}
+
+	public void setDefinitions(List<Rule> definitions) {
+		this.definitions = definitions;
+	}
+}
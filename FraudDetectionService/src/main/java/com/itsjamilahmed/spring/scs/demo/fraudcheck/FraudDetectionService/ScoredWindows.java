@@ -0,0 +1,96 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: The transactions each card was last scored on, and the cursor of the newest, so a delta fetch of only those newer can be merged in
+//  * The newer transactions go in front of the window, which is then cut back to the count asked for: the same list a full fetch would return
+//  * Only merged if the window is at the cursor the delta starts from. Otherwise (e.g. evicted, or last scored by another instance) it cannot be.
+//  * Bounded to 'maxCards', the least recently scored making way. The transactions are kept as their columns, ready to score.
+final class ScoredWindows {
+
+	static final String METRIC_CARDS = "fraudcheck.delta.windows";
+	static final String METRIC_FETCHES = "fraudcheck.delta.fetches";
+
+	static final long NO_CURSOR = -1L;
+
+	// A window is never longer than this, whatever count is asked for
+	static final int MAX_WINDOW_TXNS = 500;
+
+	private static final class Window {
+
+		final long cursor;
+		final TransactionColumns txns;
+
+		Window(long cursor, TransactionColumns txns) {
+			this.cursor = cursor;
+			this.txns = txns;
+		}
+	}
+
+	private final Map<Long, Window> windows;
+
+	private final Counter fullFetches;
+	private final Counter mergedFetches;
+	private final Counter unmergedFetches;
+
+	ScoredWindows(ScoredWindowsProperties properties, MeterRegistry meterRegistry) {
+
+		int maxCards = properties.getMaxCards();
+		if (maxCards <= 0) {
+			throw new IllegalArgumentException("fraudcheck.delta.maxCards must be positive");
+		}
+
+		// In access order, so the eldest is the least recently scored
+		this.windows = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Long, Window> eldest) {
+				return size() > maxCards;
+			}
+		};
+
+		Gauge.builder(METRIC_CARDS, this, ScoredWindows::size).register(meterRegistry);
+		this.fullFetches = Counter.builder(METRIC_FETCHES).tags("result", "full").register(meterRegistry);
+		this.mergedFetches = Counter.builder(METRIC_FETCHES).tags("result", "merged").register(meterRegistry);
+		this.unmergedFetches = Counter.builder(METRIC_FETCHES).tags("result", "unmerged").register(meterRegistry);
+	}
+
+	// Hold the transactions of a full fetch as the card's window. (Not to be changed after, e.g. a copy of the columns decoded into.)
+	synchronized void put (long card, long cursor, TransactionColumns txns) {
+		windows.put(card, new Window(cursor, txns));
+		fullFetches.increment();
+	}
+
+	// Merge the transactions newer than 'since' (newest first) into the card's window, now at 'cursor'.
+	// Returns the merged window (new columns, which are then held, so only to be read), or null if there is no window at 'since' to merge into.
+	synchronized TransactionColumns merge (long card, long since, long cursor, TransactionColumns delta, int txnCount) {
+
+		int limit = Math.min(txnCount, MAX_WINDOW_TXNS);
+		Window window = windows.get(card);
+		if (delta.size < limit && (window == null || window.cursor != since)) {
+			windows.remove(card);
+			unmergedFetches.increment();
+			return null;
+		}
+
+		TransactionColumns merged = new TransactionColumns();
+		merged.append(delta, 0, Math.min(delta.size, limit));
+		// Unless the delta alone fills it
+		if (window != null && merged.size < limit) {
+			merged.append(window.txns, 0, Math.min(window.txns.size, limit - merged.size));
+		}
+		merged.sortByTime();
+
+		windows.put(card, new Window(cursor, merged));
+		mergedFetches.increment();
+		return merged;
+	}
+
+	synchronized int size () {
+		return windows.size();
+	}
+}
@@ -0,0 +1,30 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The sizing of the windows of transactions each card was last scored on, for merging in delta fetches
+//  * At most 'maxCards' cards' windows are held, the least recently scored making way
+@ConfigurationProperties("fraudcheck.delta")
+public class ScoredWindowsProperties {
+
+	// Without the windows a delta fetch can only be scored from the aggregates, otherwise the orchestrator is asked to resync
+	private boolean enabled = true;
+
+	private int maxCards = 10_000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxCards() {
+		return maxCards;
+	}
+
+	public void setMaxCards(int maxCards) {
+		this.maxCards = maxCards;
+	}
+}
@@ -0,0 +1,363 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.Arrays;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The recent transactions of a card laid out as primitive columns, for the fraud rules to scan
+//  * Filled straight from the payload, field by field as it is decoded (as its RecordSink), with no object per transaction
+//  *   Each field is read just once, rather than by every rule that needs it
+//  * Merchants and locations are interned to small ints per list, so the rules count them in plain arrays
+//  * The transactions are also put in time order (oldest first) for the rules working over time windows
+//  * One instance is reused per thread, growing to the largest list seen, so filling it does not allocate
+//  * Or held on to (e.g. a card's window), as a copy. A transaction's coordinates are those known when it was added.
+final class TransactionColumns implements PayloadCodec.RecordSink {
+
+	// Transaction record fields, as returned by the Transactions History service
+	static final String FIELD_AMOUNT = "amount";
+	static final String FIELD_MERCHANT = "merchant";
+	static final String FIELD_LOCATION = "location";
+	static final String FIELD_DATETIME = "datetime";
+	static final String FIELD_LATITUDE = "latitude";
+	static final String FIELD_LONGITUDE = "longitude";
+
+	static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	int size;
+	double[] amounts = new double[INITIAL_CAPACITY];
+	long[] epochSeconds = new long[INITIAL_CAPACITY];
+	int[] merchantIds = new int[INITIAL_CAPACITY];
+	int[] locationIds = new int[INITIAL_CAPACITY];
+	double[] latitudes = new double[INITIAL_CAPACITY];
+	double[] longitudes = new double[INITIAL_CAPACITY];
+	boolean[] hasCoordinates = new boolean[INITIAL_CAPACITY];
+
+	// Indexes of the transactions with a known time, oldest first
+	int timedCount;
+	int[] timeOrder = new int[INITIAL_CAPACITY];
+
+	// Working space for merging rows into the time order
+	private int[] added = new int[INITIAL_CAPACITY];
+
+	// The distinct merchants and locations of this list, by their interned ID
+	int merchantCount;
+	int locationCount;
+	private Object[] merchants = new Object[INITIAL_CAPACITY];
+	private Object[] locations = new Object[INITIAL_CAPACITY];
+
+	// Working space for the rules counting per merchant or location
+	int[] counts = new int[INITIAL_CAPACITY];
+
+	// The gazetteer for the coordinates of the transactions added, and the merchant and location of the one being added
+	private FraudRuleSet.Gazetteer gazetteer;
+	private boolean inRecord;
+	private Object merchant;
+	private Object location;
+
+	// Empty, ready to be filled with a new list
+	void reset (FraudRuleSet.Gazetteer gazetteer) {
+
+		// Only the interned values themselves need clearing, so as not to hold on to the last list's strings
+		Arrays.fill(merchants, 0, merchantCount, null);
+		Arrays.fill(locations, 0, locationCount, null);
+
+		this.gazetteer = gazetteer;
+		size = 0;
+		timedCount = 0;
+		merchantCount = 0;
+		locationCount = 0;
+		inRecord = false;
+	}
+
+	@Override
+	public void startRecord () {
+
+		endRecord();
+		ensureCapacity(size + 1);
+		int i = size;
+		amounts[i] = 0;
+		epochSeconds[i] = UNKNOWN_TIME;
+		latitudes[i] = Double.NaN;
+		longitudes[i] = Double.NaN;
+		merchant = null;
+		location = null;
+		inRecord = true;
+	}
+
+	@Override
+	public void field (String key, Object value) {
+
+		switch (key) {
+		case FIELD_AMOUNT:
+			amounts[size] = parseAmount(value);
+			break;
+		case FIELD_DATETIME:
+			epochSeconds[size] = parseDateTime(value);
+			break;
+		case FIELD_MERCHANT:
+			merchant = value;
+			break;
+		case FIELD_LOCATION:
+			location = value;
+			break;
+		case FIELD_LATITUDE:
+		case FIELD_LONGITUDE:
+			if (value instanceof Number) {
+				doubleField(key, ((Number) value).doubleValue());
+			}
+			break;
+		default:
+			// Not used by any rule
+		}
+	}
+
+	@Override
+	public void longField (String key, long value) {
+
+		if (FIELD_AMOUNT.equals(key) || FIELD_LATITUDE.equals(key) || FIELD_LONGITUDE.equals(key)) {
+			doubleField(key, value);
+		}
+	}
+
+	@Override
+	public void doubleField (String key, double value) {
+
+		switch (key) {
+		case FIELD_AMOUNT:
+			amounts[size] = value;
+			break;
+		case FIELD_LATITUDE:
+			latitudes[size] = value;
+			break;
+		case FIELD_LONGITUDE:
+			longitudes[size] = value;
+			break;
+		default:
+			// Not used by any rule
+		}
+	}
+
+	@Override
+	public void endRecords () {
+		endRecord();
+		sortByTime();
+	}
+
+	// A copy of the rows so far, to hold on to
+	TransactionColumns copy () {
+
+		TransactionColumns copy = new TransactionColumns();
+		copy.reset(gazetteer);
+		copy.append(this, 0, size);
+		copy.sortByTime();
+		return copy;
+	}
+
+	// Add rows 'from' up to 'to' of the other columns after these. (Call sortByTime() once done adding, or mergeByTime() from the first row added.)
+	void append (TransactionColumns other, int from, int to) {
+
+		ensureCapacity(size + (to - from));
+		for (int j = from; j < to; j++) {
+			int i = size++;
+			amounts[i] = other.amounts[j];
+			epochSeconds[i] = other.epochSeconds[j];
+			latitudes[i] = other.latitudes[j];
+			longitudes[i] = other.longitudes[j];
+			hasCoordinates[i] = other.hasCoordinates[j];
+			merchantIds[i] = internMerchant(other.merchants[other.merchantIds[j]]);
+			locationIds[i] = internLocation(other.locations[other.locationIds[j]]);
+		}
+	}
+
+	void setCoordinates (int i, double latitude, double longitude) {
+		latitudes[i] = latitude;
+		longitudes[i] = longitude;
+	}
+
+	// Once all its fields are in
+	private void endRecord () {
+
+		if (!inRecord) {
+			return;
+		}
+		inRecord = false;
+		int i = size++;
+		merchantIds[i] = internMerchant(merchant);
+		locationIds[i] = internLocation(location);
+
+		// The transaction's own coordinates if it has them, otherwise those of its location
+		if (!Double.isNaN(latitudes[i]) && !Double.isNaN(longitudes[i])) {
+			hasCoordinates[i] = true;
+		} else {
+			hasCoordinates[i] = (gazetteer != null) && gazetteer.lookup(location, this, i);
+		}
+		merchant = null;
+		location = null;
+	}
+
+	private int internMerchant (Object value) {
+
+		int id = intern(value, merchants, merchantCount);
+		if (id == merchantCount) {
+			merchantCount++;
+		}
+		return id;
+	}
+
+	private int internLocation (Object value) {
+
+		int id = intern(value, locations, locationCount);
+		if (id == locationCount) {
+			locationCount++;
+		}
+		return id;
+	}
+
+	// A linear scan is quicker than hashing for the few distinct values in a list of recent transactions
+	private static int intern (Object value, Object[] interned, int count) {
+
+		// Transactions missing the field count as all being at the same (blank) merchant or location
+		Object key = (value != null) ? value : "";
+		for (int id = 0; id < count; id++) {
+			if (interned[id].equals(key)) {
+				return id;
+			}
+		}
+		interned[count] = key;
+		return count;
+	}
+
+	void sortByTime () {
+		timedCount = 0;
+		mergeByTime(0);
+	}
+
+	// Put the rows from 'from' on into the time order of those before them, without sorting those again (e.g. as each chunk of a stream is added)
+	//  * Among rows of the same time, the later row comes first, as if all were sorted at once
+	void mergeByTime (int from) {
+
+		// An insertion sort of the rows added: the lists are short, and usually already in (reverse) order
+		int addedCount = 0;
+		for (int i = size - 1; i >= from; i--) {
+			if (epochSeconds[i] == UNKNOWN_TIME) {
+				continue;
+			}
+			int j = addedCount++;
+			while (j > 0 && epochSeconds[added[j - 1]] > epochSeconds[i]) {
+				added[j] = added[j - 1];
+				j--;
+			}
+			added[j] = i;
+		}
+
+		// Then merged in from the newest end, so each row already in order moves at most once
+		int k = timedCount - 1;
+		int a = addedCount - 1;
+		for (int j = timedCount + addedCount - 1; a >= 0; j--) {
+			timeOrder[j] = (k >= 0 && epochSeconds[timeOrder[k]] >= epochSeconds[added[a]]) ? timeOrder[k--] : added[a--];
+		}
+		timedCount += addedCount;
+	}
+
+	// Amounts may be numbers, or strings of a plain decimal (e.g. "123" or "99.95")
+	static double parseAmount (Object amount) {
+
+		if (amount instanceof Number) {
+			return ((Number) amount).doubleValue();
+		}
+		if (!(amount instanceof CharSequence)) {
+			return 0;
+		}
+
+		CharSequence text = (CharSequence) amount;
+		long units = 0;
+		long scale = 1;
+		boolean fraction = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9' && units < Long.MAX_VALUE / 10) {
+				units = units * 10 + (c - '0');
+				if (fraction) {
+					scale *= 10;
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				// Anything more unusual is left to the JDK
+				try {
+					return Double.parseDouble(text.toString());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return (double) units / scale;
+	}
+
+	// Date-times are "dd/MM/yyyy HH:mm:ss", taken as UTC
+	static long parseDateTime (Object datetime) {
+
+		if (!(datetime instanceof CharSequence) || ((CharSequence) datetime).length() != 19) {
+			return UNKNOWN_TIME;
+		}
+
+		CharSequence text = (CharSequence) datetime;
+		int day = digits(text, 0, 2);
+		int month = digits(text, 3, 2);
+		int year = digits(text, 6, 4);
+		int hour = digits(text, 11, 2);
+		int minute = digits(text, 14, 2);
+		int second = digits(text, 17, 2);
+
+		if ((day | month | year | hour | minute | second) < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+			return UNKNOWN_TIME;
+		}
+		return daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+	}
+
+	private static int digits (CharSequence text, int from, int length) {
+
+		int value = 0;
+		for (int i = from; i < from + length; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	// Days since 1970-01-01 of a proleptic Gregorian date (as per Howard Hinnant's algorithm)
+	private static long daysFromCivil (int year, int month, int day) {
+
+		int y = (month <= 2) ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146_097L + dayOfEra - 719_468L;
+	}
+
+	private void ensureCapacity (int capacity) {
+
+		if (capacity <= amounts.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, amounts.length * 2);
+		amounts = Arrays.copyOf(amounts, newCapacity);
+		epochSeconds = Arrays.copyOf(epochSeconds, newCapacity);
+		merchantIds = Arrays.copyOf(merchantIds, newCapacity);
+		locationIds = Arrays.copyOf(locationIds, newCapacity);
+		latitudes = Arrays.copyOf(latitudes, newCapacity);
+		longitudes = Arrays.copyOf(longitudes, newCapacity);
+		hasCoordinates = Arrays.copyOf(hasCoordinates, newCapacity);
+		timeOrder = Arrays.copyOf(timeOrder, newCapacity);
+		added = Arrays.copyOf(added, newCapacity);
+		merchants = Arrays.copyOf(merchants, newCapacity);
+		locations = Arrays.copyOf(locations, newCapacity);
+		counts = Arrays.copyOf(counts, newCapacity);
+	}
+}
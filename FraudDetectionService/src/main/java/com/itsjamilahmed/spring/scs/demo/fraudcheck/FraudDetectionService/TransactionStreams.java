@@ -0,0 +1,181 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: The streams of transaction chunks being scored as they arrive, newest transactions first
+//  * Each chunk is appended to its stream's transactions in chunk order. One that arrives early is held until those before it have.
+//  *   The chunk's rows are merged into the stream's time order, and only they are copied
+//  * The rules are evaluated as each chunk is added: only those yet to fire, and only around the rows added (see FraudRuleSet.evaluate)
+//  *   So scoring a stream chunk by chunk costs about what scoring it as one list would. (Evaluated again in full should the rule set change.)
+//  * Each stream's chunks are added under its own lock, so different streams are scored in parallel
+//  * Once the verdict is decided early, the stream is only remembered (until the timeout) so its remaining chunks are dropped
+//  * Bounded to 'maxStreams', the oldest making way, and any stream older than 'timeoutMs' is expired
+final class TransactionStreams {
+
+	static final String METRIC_STREAMS = "fraudcheck.txnstream.streams";
+	static final String METRIC_VERDICTS = "fraudcheck.txnstream.verdicts";
+	static final String METRIC_EXPIRED = "fraudcheck.txnstream.expired";
+
+	// The rules fired by a stream's transactions so far, how many there are, and whether that is all of them
+	static final class Progress {
+
+		final long fired;
+		final int txnCount;
+		final boolean complete;
+
+		// Once complete, all of the stream's transactions (no longer added to, so can be held on to). Otherwise null.
+		final TransactionColumns txns;
+
+		Progress(long fired, int txnCount, boolean complete, TransactionColumns txns) {
+			this.fired = fired;
+			this.txnCount = txnCount;
+			this.complete = complete;
+			this.txns = txns;
+		}
+	}
+
+	// Only changed while synchronized on the stream
+	private static final class Stream {
+
+		final long startedMs;
+		final TransactionColumns txns = new TransactionColumns();
+		final Map<Integer, TransactionColumns> early = new HashMap<>();
+		int nextChunkSeq;
+		int lastChunkSeq = -1;
+		volatile boolean decided;
+
+		// The rule set the transactions so far were evaluated with (null if not), and the rules that fired
+		FraudRuleSet ruleSet;
+		long fired;
+
+		Stream(long startedMs) {
+			this.startedMs = startedMs;
+		}
+
+		boolean isComplete () {
+			return lastChunkSeq >= 0 && nextChunkSeq > lastChunkSeq;
+		}
+	}
+
+	private final int maxStreams;
+	private final long timeoutMs;
+
+	// In order of the first chunk, so the eldest is the first to time out
+	private final LinkedHashMap<String, Stream> streams = new LinkedHashMap<>();
+
+	private final Counter earlyVerdicts;
+	private final Counter completeVerdicts;
+	private final Counter expired;
+
+	TransactionStreams(TransactionStreamsProperties properties, MeterRegistry meterRegistry) {
+
+		if (properties.getMaxStreams() <= 0 || properties.getTimeoutMs() <= 0) {
+			throw new IllegalArgumentException("fraudcheck.stream.maxStreams and timeoutMs must be positive");
+		}
+		this.maxStreams = properties.getMaxStreams();
+		this.timeoutMs = properties.getTimeoutMs();
+
+		Gauge.builder(METRIC_STREAMS, this, TransactionStreams::size).register(meterRegistry);
+		this.earlyVerdicts = Counter.builder(METRIC_VERDICTS).tags("at", "early").register(meterRegistry);
+		this.completeVerdicts = Counter.builder(METRIC_VERDICTS).tags("at", "end").register(meterRegistry);
+		this.expired = Counter.builder(METRIC_EXPIRED).register(meterRegistry);
+	}
+
+	// Add a chunk to its stream, and evaluate the rule set over its transactions so far (unless null, e.g. the card is scored otherwise).
+	// Returns the stream's progress if it now goes further, otherwise null: the chunk is held until those before it arrive,
+	// or the stream's verdict is already decided. (The chunk's columns are only read.)
+	Progress accept (String streamId, int chunkSeq, boolean lastChunk, TransactionColumns chunk, FraudRuleSet ruleSet) {
+
+		Stream stream;
+		synchronized (this) {
+			long nowMs = System.currentTimeMillis();
+			expire(nowMs);
+
+			stream = streams.get(streamId);
+			if (stream == null) {
+				stream = new Stream(nowMs);
+				streams.put(streamId, stream);
+			}
+		}
+
+		synchronized (stream) {
+			if (lastChunk) {
+				stream.lastChunkSeq = chunkSeq;
+			}
+
+			if (stream.decided) {
+				return null;
+			}
+			if (chunkSeq != stream.nextChunkSeq) {
+				if (chunkSeq > stream.nextChunkSeq) {
+					stream.early.put(chunkSeq, chunk.copy());
+				}
+				return null;
+			}
+
+			int from = stream.txns.size;
+			stream.txns.append(chunk, 0, chunk.size);
+			stream.nextChunkSeq++;
+			for (TransactionColumns next; (next = stream.early.remove(stream.nextChunkSeq)) != null; stream.nextChunkSeq++) {
+				stream.txns.append(next, 0, next.size);
+			}
+			stream.txns.mergeByTime(from);
+
+			if (ruleSet == null) {
+				stream.fired = 0L;
+			} else if (ruleSet == stream.ruleSet) {
+				stream.fired = ruleSet.evaluate(stream.txns, stream.fired, from);
+			} else {
+				stream.fired = ruleSet.evaluate(stream.txns);
+			}
+			stream.ruleSet = ruleSet;
+
+			boolean complete = stream.isComplete();
+			return new Progress(stream.fired, stream.txns.size, complete, complete ? stream.txns : null);
+		}
+	}
+
+	// The verdict is given, so the stream's remaining chunks (if any) are to be dropped
+	void decided (String streamId, boolean complete) {
+
+		(complete ? completeVerdicts : earlyVerdicts).increment();
+		Stream stream;
+		synchronized (this) {
+			stream = complete ? streams.remove(streamId) : streams.get(streamId);
+		}
+		if (!complete && stream != null) {
+			synchronized (stream) {
+				stream.decided = true;
+				stream.ruleSet = null;
+				stream.txns.reset(null);
+				stream.early.clear();
+			}
+		}
+	}
+
+	synchronized int size () {
+		return streams.size();
+	}
+
+	private void expire (long nowMs) {
+
+		for (Iterator<Stream> oldest = streams.values().iterator(); oldest.hasNext(); ) {
+			Stream stream = oldest.next();
+			if (streams.size() < maxStreams && nowMs - stream.startedMs <= timeoutMs) {
+				break;
+			}
+			oldest.remove();
+			if (!stream.decided) {
+				// Chunks lost, or sent to another instance
+				expired.increment();
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The bounds on the streams of transaction chunks being scored as they arrive
+//  * At most 'maxStreams' are held, and a stream not finished within 'timeoutMs' of its first chunk is dropped
+@ConfigurationProperties("fraudcheck.stream")
+public class TransactionStreamsProperties {
+
+	private int maxStreams = 10_000;
+
+	private long timeoutMs = 10_000;
+
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	public void setMaxStreams(int maxStreams) {
+		this.maxStreams = maxStreams;
+	}
+
+	public long getTimeoutMs() {
+		return timeoutMs;
+	}
+
+	public void setTimeoutMs(long timeoutMs) {
+		this.timeoutMs = timeoutMs;
+	}
+}
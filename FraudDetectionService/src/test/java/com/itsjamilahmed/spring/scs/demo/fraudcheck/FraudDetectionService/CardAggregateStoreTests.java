@@ -0,0 +1,135 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The per-card rolling aggregates, and the default rules evaluated against them
+//  * Hourly buckets, 24 of them, and the last 16 transactions per card (the defaults), in the smallest memory budget
+class CardAggregateStoreTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+
+	// 01/01/2024 00:00:00 UTC
+	static final long DAY_START = 1_704_067_200L;
+	static final long HOUR = 3_600L;
+
+	static final double[] LONDON = { 51.5072, -0.1276 };
+	static final double[] SYDNEY = { -33.8688, 151.2093 };
+	static final double[] UNKNOWN = { Double.NaN, Double.NaN };
+
+	private final CardAggregateStore store = new CardAggregateStore(smallest(), new SimpleMeterRegistry());
+	private final FraudRuleSet ruleSet = FraudRuleSet.compile(new FraudRulesProperties());
+	private final long key = CardAggregateStore.keyOf(CARD);
+
+	@Test
+	void keysCardsByTheirDigits() {
+		assertEquals(1234567812345688L, key);
+		assertEquals(key, CardAggregateStore.keyOf("1234 5678 1234 5688"));
+		assertEquals(CardAggregateStore.NO_CARD, CardAggregateStore.keyOf("1234-ABCD"));
+		assertEquals(CardAggregateStore.NO_CARD, CardAggregateStore.keyOf("12345678901234567890"));
+		assertEquals(CardAggregateStore.NO_CARD, CardAggregateStore.keyOf(null));
+	}
+
+	@Test
+	void readsNothingForAnUnknownCard() {
+		assertFalse(store.read(key, store.newView()));
+		store.record(CardAggregateStore.NO_CARD, DAY_START, 10, 1, 1, Double.NaN, Double.NaN);
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	void sumsSpendPerBucket() {
+
+		record(DAY_START, 100, "Shop A", "London", UNKNOWN);
+		record(DAY_START + 60, 250, "Shop B", "London", UNKNOWN);
+		record(DAY_START + HOUR, 40, "Shop A", "London", UNKNOWN);
+
+		CardAggregates aggregates = store.newView();
+		assertTrue(store.read(key, aggregates));
+		// The latest bucket is last
+		assertEquals(40f, aggregates.spend[23]);
+		assertEquals(350f, aggregates.spend[22]);
+		assertEquals(250f, aggregates.maxAmount[22]);
+		assertEquals(3, aggregates.recentCount);
+	}
+
+	@Test
+	void clearsTheBucketsTheWindowMovesPast() {
+
+		record(DAY_START, 9_000, "Shop A", "London", UNKNOWN);
+		record(DAY_START + 30 * HOUR, 10, "Shop A", "London", UNKNOWN);
+
+		CardAggregates aggregates = store.newView();
+		store.read(key, aggregates);
+		float total = 0;
+		for (float spend : aggregates.spend) {
+			total += spend;
+		}
+		assertEquals(10f, total);
+
+		// Too late for its bucket, so only kept among the recent transactions
+		record(DAY_START + HOUR, 5_000, "Shop B", "London", UNKNOWN);
+		store.read(key, aggregates);
+		assertEquals(0f, aggregates.maxAmount[0]);
+		assertEquals(3, aggregates.recentCount);
+		assertEquals(DAY_START + HOUR, aggregates.recentEpochSeconds[1]);
+	}
+
+	@Test
+	void evaluatesTheRulesAgainstTheAggregates() {
+
+		record(DAY_START + 9 * HOUR, 4_000, "Shop A", "London", LONDON);
+		record(DAY_START + 15 * HOUR, 4_000, "Shop B", "London", LONDON);
+		CardAggregates aggregates = store.newView();
+		store.read(key, aggregates);
+		assertEquals(0L, ruleSet.evaluate(aggregates));
+
+		record(DAY_START + 21 * HOUR, 4_000, "Shop C", "London", LONDON);
+		store.read(key, aggregates);
+		assertEquals(FraudRuleSetTests.DAILY_SPEND, ruleSet.evaluate(aggregates));
+
+		record(DAY_START + 22 * HOUR, 10, "Shop D", "Sydney", SYDNEY);
+		store.read(key, aggregates);
+		assertEquals(FraudRuleSetTests.DAILY_SPEND | FraudRuleSetTests.IMPOSSIBLE_TRAVEL, ruleSet.evaluate(aggregates));
+	}
+
+	@Test
+	void countsVelocityOverTheRecentTransactions() {
+
+		// Arriving out of order, to be sorted by time when read
+		for (long minute : new long[] { 6, 0, 4, 2 }) {
+			record(DAY_START + minute * 60, 10, "Shop A", "London", UNKNOWN);
+		}
+		CardAggregates aggregates = store.newView();
+		store.read(key, aggregates);
+		assertEquals(DAY_START, aggregates.recentEpochSeconds[0]);
+		assertEquals(DAY_START + 360, aggregates.recentEpochSeconds[3]);
+		assertEquals(FraudRuleSetTests.MERCHANT_VELOCITY, ruleSet.evaluate(aggregates));
+	}
+
+	@Test
+	void makesWayForNewCardsOnceFull() {
+
+		for (long card = 1; card <= 2_000; card++) {
+			store.record(card, DAY_START, 10, 1, 1, Double.NaN, Double.NaN);
+		}
+		assertTrue(store.size() < 2_000);
+		assertTrue(store.read(2_000, store.newView()));
+	}
+
+	private void record(long epochSeconds, double amount, String merchant, String location, double[] coordinates) {
+		store.record(key, epochSeconds, amount, CardAggregateStore.hashOf(merchant), CardAggregateStore.hashOf(location),
+				coordinates[0], coordinates[1]);
+	}
+
+	private static CardAggregatesProperties smallest() {
+		CardAggregatesProperties properties = new CardAggregatesProperties();
+		properties.setMaxMemoryMb(1);
+		return properties;
+	}
+}
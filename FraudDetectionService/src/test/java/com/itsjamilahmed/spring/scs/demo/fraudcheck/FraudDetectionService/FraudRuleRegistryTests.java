@@ -0,0 +1,76 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The rule registry's version ordering, and its swapping in of pushed rule sets
+//  * Pushes are compiled one at a time on the registry's own thread, so a later push that is applied shows those before it are done with
+class FraudRuleRegistryTests {
+
+	static final long WAIT_MS = 5_000;
+
+	private final FraudRuleRegistry registry = new FraudRuleRegistry(new FraudRulesProperties(), new SimpleMeterRegistry());
+
+	@Test
+	void comparesVersionsPartByPart() {
+		assertTrue(FraudRuleRegistry.compareVersions("2", "10") < 0);
+		assertTrue(FraudRuleRegistry.compareVersions("1.9", "1.10") < 0);
+		assertTrue(FraudRuleRegistry.compareVersions("1.10", "1.10.1") < 0);
+		assertTrue(FraudRuleRegistry.compareVersions("1.beta", "1.alpha") > 0);
+		assertEquals(0, FraudRuleRegistry.compareVersions("1.02", "1.2"));
+		assertTrue(FraudRuleRegistry.compareVersions("99999999999999999999", "100000000000000000000") < 0);
+	}
+
+	@Test
+	void startsWithTheConfiguredRuleSet() {
+		assertEquals("1", registry.current().version());
+		assertEquals(5, registry.current().ruleCount());
+	}
+
+	@Test
+	void swapsInANewerVersion() throws InterruptedException {
+
+		registry.submit(ruleSet("2", 40));
+		awaitVersion("2");
+		assertEquals(1, registry.current().ruleCount());
+		// The configured locations are kept when a push leaves them out
+		assertNotNull(registry.current().gazetteer().coordinatesOf("London"));
+	}
+
+	@Test
+	void ignoresAnOlderOrInvalidVersion() throws InterruptedException {
+
+		registry.submit(ruleSet("0.9", 40));
+		registry.submit(ruleSet("1", 40));
+		registry.submit("{\"version\": \"5\", \"definitions\": [{\"name\": \"bad\", \"type\": \"NO_SUCH_TYPE\", \"score\": 1}]}");
+		registry.submit("{\"version\": \"6\", \"definitions\": []}");
+		registry.submit("not json");
+
+		// Only once this is applied are all the pushes before it done with
+		registry.submit(ruleSet("1.1", 40));
+		awaitVersion("1.1");
+
+		registry.submit(ruleSet("1.0.9", 40));
+		registry.submit(ruleSet("1.2", 40));
+		awaitVersion("1.2");
+	}
+
+	private static String ruleSet(String version, int score) {
+		return "{\"version\": \"" + version + "\", \"scoreThreshold\": 100, \"definitions\": ["
+				+ "{\"name\": \"largeAmount\", \"type\": \"AMOUNT_OVER\", \"amount\": 1000, \"score\": " + score + "}]}";
+	}
+
+	private void awaitVersion(String version) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		while (!registry.current().version().equals(version) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(version, registry.current().version());
+	}
+}
@@ -0,0 +1,186 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+// Purpose: The rule compiler's validation, and the decision table's scoring of a card's transactions
+//  * Against the default rules: largeAmount, dailySpend, merchantVelocity, locationVelocity and impossibleTravel (bits 0 to 4), threshold 100
+class FraudRuleSetTests {
+
+	static final long LARGE_AMOUNT = 1L << 0;
+	static final long DAILY_SPEND = 1L << 1;
+	static final long MERCHANT_VELOCITY = 1L << 2;
+	static final long LOCATION_VELOCITY = 1L << 3;
+	static final long IMPOSSIBLE_TRAVEL = 1L << 4;
+
+	private final FraudRulesProperties properties = new FraudRulesProperties();
+	private final FraudRuleSet ruleSet = FraudRuleSet.compile(properties);
+
+	@Test
+	void compilesTheDefaultRules() {
+		assertEquals(5, ruleSet.ruleCount());
+		assertEquals("1", ruleSet.version());
+		assertEquals("largeAmount", ruleSet.ruleName(0));
+		assertEquals("impossibleTravel", ruleSet.ruleName(4));
+	}
+
+	@Test
+	void rejectsInvalidRuleSets() {
+		assertInvalid(props -> props.setDefinitions(List.of()));
+		assertInvalid(props -> props.setScoreThreshold(0));
+		assertInvalid(props -> props.setVersion(" "));
+		assertInvalid(props -> props.setDefinitions(List.of(
+				new FraudRulesProperties.Rule("same", FraudRulesProperties.Type.AMOUNT_OVER).amount(1).score(1),
+				new FraudRulesProperties.Rule("same", FraudRulesProperties.Type.AMOUNT_OVER).amount(2).score(1))));
+		assertInvalid(props -> props.setDefinitions(List.of(new FraudRulesProperties.Rule("untyped", null).score(1))));
+		assertInvalid(props -> props.setDefinitions(List.of(
+				new FraudRulesProperties.Rule("noWindow", FraudRulesProperties.Type.SPEND_OVER).amount(100).score(1))));
+		assertInvalid(props -> props.setDefinitions(List.of(
+				new FraudRulesProperties.Rule("once", FraudRulesProperties.Type.MERCHANT_VELOCITY).count(1).windowSeconds(60).score(1))));
+		assertInvalid(props -> props.setDefinitions(List.of(
+				new FraudRulesProperties.Rule("noSpeed", FraudRulesProperties.Type.IMPOSSIBLE_TRAVEL).score(1))));
+		assertInvalid(props -> props.setDefinitions(List.of(
+				new FraudRulesProperties.Rule("negative", FraudRulesProperties.Type.AMOUNT_OVER).amount(1).score(-1))));
+		assertInvalid(props -> props.setLocations(Map.of("Nowhere", "91,0")));
+	}
+
+	@Test
+	void firesNothingForOrdinaryTransactions() {
+
+		TransactionColumns txns = columns(
+				txn(25, "Shop A", "London", "01/01/2024 10:00:00"),
+				txn(40, "Shop B", "London", "01/01/2024 12:00:00"));
+
+		long fired = ruleSet.evaluate(txns);
+		assertEquals(0L, fired);
+		assertFalse(ruleSet.isFraud(ruleSet.score(fired)));
+	}
+
+	@Test
+	void scoresTheRulesThatFired() {
+
+		TransactionColumns large = columns(txn(6000, "Shop A", "London", "01/01/2024 10:00:00"));
+		assertEquals(LARGE_AMOUNT, ruleSet.evaluate(large));
+		assertEquals(40, ruleSet.score(LARGE_AMOUNT));
+		assertFalse(ruleSet.isFraud(40));
+
+		TransactionColumns spend = columns(
+				txn(4000, "Shop A", "London", "01/01/2024 09:00:00"),
+				txn(4000, "Shop B", "London", "01/01/2024 15:00:00"),
+				txn(4000, "Shop C", "London", "01/01/2024 21:00:00"));
+		assertEquals(DAILY_SPEND, ruleSet.evaluate(spend));
+
+		TransactionColumns merchant = columns(
+				txn(10, "Shop A", "London", "01/01/2024 10:00:00"),
+				txn(10, "Shop A", "London", "01/01/2024 10:02:00"),
+				txn(10, "Shop A", "London", "01/01/2024 10:04:00"),
+				txn(10, "Shop A", "London", "01/01/2024 10:06:00"));
+		assertEquals(MERCHANT_VELOCITY, ruleSet.evaluate(merchant));
+
+		// Far enough apart in time to have travelled at a plausible speed, and never two cities within the hour
+		TransactionColumns travel = columns(
+				txn(10, "Shop A", "London", "01/01/2024 00:00:00"),
+				txn(10, "Shop B", "Paris", "01/01/2024 12:00:00"),
+				txn(10, "Shop C", "New York", "02/01/2024 00:00:00"));
+		assertEquals(0L, ruleSet.evaluate(travel));
+
+		TransactionColumns impossible = columns(
+				txn(10, "Shop A", "London", "01/01/2024 10:00:00"),
+				txn(10, "Shop B", "Sydney", "01/01/2024 11:00:00"));
+		long fired = ruleSet.evaluate(impossible);
+		assertEquals(IMPOSSIBLE_TRAVEL, fired);
+		assertTrue(ruleSet.isFraud(ruleSet.score(fired)));
+	}
+
+	@Test
+	void countsDistinctLocationsWithinTheWindow() {
+
+		TransactionColumns txns = columns(
+				txn(10, "Shop A", "London", "01/01/2024 10:00:00"),
+				txn(10, "Shop B", "Paris", "01/01/2024 10:20:00"),
+				txn(10, "Shop C", "Unknown Town", "01/01/2024 10:40:00"));
+
+		// Paris within 20 minutes of London is also impossible travel
+		assertEquals(LOCATION_VELOCITY | IMPOSSIBLE_TRAVEL, ruleSet.evaluate(txns));
+	}
+
+	@Test
+	void decidesOnlyOnceNoMoreTransactionsCouldChangeTheVerdict() {
+
+		// Nothing fired yet, but every other rule firing would make it fraud
+		assertFalse(ruleSet.isDecided(0L));
+		// Already over the threshold, which more rules firing only adds to
+		assertTrue(ruleSet.isDecided(IMPOSSIBLE_TRAVEL));
+		assertTrue(ruleSet.isDecided(LARGE_AMOUNT | DAILY_SPEND));
+	}
+
+	@Test
+	void evaluatesAddedRowsAsAWholeList() {
+
+		TransactionColumns txns = columns(
+				txn(10, "Shop A", "London", "01/01/2024 10:00:00"),
+				txn(10, "Shop A", "London", "01/01/2024 10:02:00"));
+		long fired = ruleSet.evaluate(txns);
+		assertEquals(0L, fired);
+
+		// Two more at the same merchant, added as a later chunk would be
+		int from = txns.size;
+		txns.startRecord();
+		txns.field(TransactionColumns.FIELD_AMOUNT, "10");
+		txns.field(TransactionColumns.FIELD_MERCHANT, "Shop A");
+		txns.field(TransactionColumns.FIELD_LOCATION, "London");
+		txns.field(TransactionColumns.FIELD_DATETIME, "01/01/2024 09:58:00");
+		txns.startRecord();
+		txns.field(TransactionColumns.FIELD_AMOUNT, "10");
+		txns.field(TransactionColumns.FIELD_MERCHANT, "Shop A");
+		txns.field(TransactionColumns.FIELD_LOCATION, "London");
+		txns.field(TransactionColumns.FIELD_DATETIME, "01/01/2024 09:56:00");
+		txns.endRecords();
+
+		assertEquals(MERCHANT_VELOCITY, ruleSet.evaluate(txns, fired, from));
+		assertEquals(ruleSet.evaluate(txns), ruleSet.evaluate(txns, fired, from));
+	}
+
+	@Test
+	void parsesAmountsAndDateTimes() {
+		assertEquals(99.95, TransactionColumns.parseAmount("99.95"), 1e-9);
+		assertEquals(123.0, TransactionColumns.parseAmount(123), 1e-9);
+		assertEquals(0.0, TransactionColumns.parseAmount("n/a"), 1e-9);
+		assertEquals(1_704_103_200L, TransactionColumns.parseDateTime("01/01/2024 10:00:00"));
+		assertEquals(TransactionColumns.UNKNOWN_TIME, TransactionColumns.parseDateTime("2024-01-01"));
+	}
+
+	private void assertInvalid(Consumer<FraudRulesProperties> change) {
+
+		FraudRulesProperties invalid = new FraudRulesProperties();
+		change.accept(invalid);
+		assertThrows(IllegalArgumentException.class, () -> FraudRuleSet.compile(invalid));
+	}
+
+	private static Object[] txn(Object amount, String merchant, String location, String datetime) {
+		return new Object[] { amount, merchant, location, datetime };
+	}
+
+	private TransactionColumns columns(Object[]... txns) {
+
+		TransactionColumns columns = new TransactionColumns();
+		columns.reset(ruleSet.gazetteer());
+		for (Object[] txn : txns) {
+			columns.startRecord();
+			columns.field(TransactionColumns.FIELD_AMOUNT, txn[0]);
+			columns.field(TransactionColumns.FIELD_MERCHANT, txn[1]);
+			columns.field(TransactionColumns.FIELD_LOCATION, txn[2]);
+			columns.field(TransactionColumns.FIELD_DATETIME, txn[3]);
+		}
+		columns.endRecords();
+		return columns;
+	}
+}
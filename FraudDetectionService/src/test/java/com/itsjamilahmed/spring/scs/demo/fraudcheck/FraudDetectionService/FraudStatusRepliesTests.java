@@ -0,0 +1,84 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.function.Function;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.Deadlines;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The fraud verdict sent back to the orchestrator for a request within its deadline, and nothing for one past it
+//  * Scored from the transactions sent with the request, against the default rule set
+class FraudStatusRepliesTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+	static final String REPLY_TOPIC = "myBank/cards/fraudCheckApi/reply/fraudService/status/v1/ext/zeus/5f0c7a8e-21d4-4c53-b0a6-8e2f6c1d9a43";
+
+	private final Function<Message<byte[]>, Message<byte[]>> getFraudStatus = new FraudDetectionServiceApplication(new SimpleMeterRegistry(),
+			new FraudRulesProperties(), new CardAggregatesProperties(), new ScoredWindowsProperties(), new TransactionStreamsProperties()).getFraudStatus(null);
+
+	@Test
+	void sendsTheVerdictWithoutATtlSoEvenALateOneBlocksTheCard() {
+
+		long deadlineMs = System.currentTimeMillis() + 60_000;
+		Message<byte[]> verdict = getFraudStatus.apply(request(deadlineMs));
+
+		assertNotNull(verdict);
+		assertEquals(REPLY_TOPIC, verdict.getHeaders().get(BinderHeaders.TARGET_DESTINATION));
+		assertNull(verdict.getHeaders().get(Deadlines.SOL_TTL_KEY));
+		assertNull(verdict.getHeaders().get(Deadlines.SOL_DMQ_ELIGIBLE_KEY));
+		// The deadline still carried on, as an app header
+		assertEquals(deadlineMs, verdict.getHeaders().get(Deadlines.DEADLINE_KEY));
+	}
+
+	@Test
+	void dropsARequestPastItsDeadline() {
+		assertNull(getFraudStatus.apply(request(System.currentTimeMillis() - 1)));
+	}
+
+	@Test
+	void sendsTheVerdictForARequestWithoutADeadline() {
+
+		Message<byte[]> verdict = getFraudStatus.apply(MessageBuilder.fromMessage(request(0)).removeHeader(Deadlines.DEADLINE_KEY).build());
+		assertNotNull(verdict);
+		assertFalse(verdict.getHeaders().containsKey(Deadlines.SOL_TTL_KEY));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Message<byte[]> request(long deadlineMs) {
+
+		JSONObject txn = new JSONObject();
+		txn.put("cardNumber", CARD);
+		txn.put("merchant", "Coffee Shop");
+		txn.put("location", "London");
+		txn.put("amount", 3.5);
+		txn.put("datetime", "01/10/2026 09:30:00");
+		JSONArray txns = new JSONArray();
+		txns.add(txn);
+
+		JSONObject request = new JSONObject();
+		request.put("cardNumber", CARD);
+		request.put(FraudDetectionServiceApplication.RECENT_TXNS_KEY, txns);
+
+		// As sent by the orchestrator
+		return MessageBuilder.withPayload(PayloadCodec.encode(request, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(FraudDetectionServiceApplication.SOL_DESTINATION_KEY, "myBank/cards/fraudService/status/req/v1/ext/zeus/5f0c7a8e-21d4-4c53-b0a6-8e2f6c1d9a43")
+				.setHeader(FraudDetectionServiceApplication.REPLY_TO_HEADER_KEY, REPLY_TOPIC)
+				.setHeader(Deadlines.DEADLINE_KEY, deadlineMs)
+				.build();
+	}
+}
@@ -0,0 +1,102 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The scoring of a stream of transaction chunks as they arrive, in or out of order, against the default rules
+//  * Chunks come newest transactions first, as the Transactions History service streams them
+class TransactionStreamsTests {
+
+	private final FraudRuleSet ruleSet = FraudRuleSet.compile(new FraudRulesProperties());
+	private final TransactionStreams streams = new TransactionStreams(new TransactionStreamsProperties(), new SimpleMeterRegistry());
+
+	@Test
+	void scoresEachChunkAsItArrives() {
+
+		TransactionStreams.Progress progress = streams.accept("s1", 0, false, chunk("10:06:00", "10:04:00"), ruleSet);
+		assertEquals(0L, progress.fired);
+		assertEquals(2, progress.txnCount);
+		assertFalse(progress.complete);
+		assertNull(progress.txns);
+
+		progress = streams.accept("s1", 1, true, chunk("10:02:00", "10:00:00"), ruleSet);
+		assertEquals(FraudRuleSetTests.MERCHANT_VELOCITY, progress.fired);
+		assertEquals(4, progress.txnCount);
+		assertTrue(progress.complete);
+		assertNotNull(progress.txns);
+		assertEquals(ruleSet.evaluate(progress.txns), progress.fired);
+	}
+
+	@Test
+	void holdsAChunkUntilThoseBeforeItArrive() {
+
+		assertNull(streams.accept("s1", 2, true, chunk("10:00:00"), ruleSet));
+		assertNull(streams.accept("s1", 1, false, chunk("10:02:00"), ruleSet));
+
+		TransactionStreams.Progress progress = streams.accept("s1", 0, false, chunk("10:06:00", "10:04:00"), ruleSet);
+		assertEquals(4, progress.txnCount);
+		assertTrue(progress.complete);
+		assertEquals(FraudRuleSetTests.MERCHANT_VELOCITY, progress.fired);
+
+		// A redelivered chunk adds nothing
+		assertNull(streams.accept("s1", 1, false, chunk("10:02:00"), ruleSet));
+	}
+
+	@Test
+	void dropsTheRestOfAStreamDecidedEarly() {
+
+		streams.accept("s1", 0, false, chunk("10:06:00"), ruleSet);
+		streams.decided("s1", false);
+		assertNull(streams.accept("s1", 1, true, chunk("10:04:00"), ruleSet));
+		assertEquals(1, streams.size());
+
+		streams.decided("s2", true);
+		streams.accept("s3", 0, true, chunk("10:00:00"), ruleSet);
+		streams.decided("s3", true);
+		assertEquals(1, streams.size());
+	}
+
+	@Test
+	void evaluatesAgainWhenTheRuleSetChanges() {
+
+		streams.accept("s1", 0, false, chunk("10:06:00", "10:04:00"), null);
+		TransactionStreams.Progress progress = streams.accept("s1", 1, true, chunk("10:02:00", "10:00:00"), ruleSet);
+		assertEquals(FraudRuleSetTests.MERCHANT_VELOCITY, progress.fired);
+	}
+
+	@Test
+	void boundsTheStreamsHeld() {
+
+		TransactionStreamsProperties properties = new TransactionStreamsProperties();
+		properties.setMaxStreams(2);
+		TransactionStreams bounded = new TransactionStreams(properties, new SimpleMeterRegistry());
+
+		for (int s = 0; s < 5; s++) {
+			bounded.accept("s" + s, 0, false, chunk("10:00:00"), ruleSet);
+		}
+		assertEquals(2, bounded.size());
+	}
+
+	// A chunk of transactions at the one merchant on 01/01/2024, at the given times
+	private TransactionColumns chunk(String... times) {
+
+		TransactionColumns chunk = new TransactionColumns();
+		chunk.reset(ruleSet.gazetteer());
+		for (String time : times) {
+			chunk.startRecord();
+			chunk.field(TransactionColumns.FIELD_AMOUNT, 10);
+			chunk.field(TransactionColumns.FIELD_MERCHANT, "Shop A");
+			chunk.field(TransactionColumns.FIELD_LOCATION, "London");
+			chunk.field(TransactionColumns.FIELD_DATETIME, "01/01/2024 " + time);
+		}
+		chunk.endRecords();
+		return chunk;
+	}
+}
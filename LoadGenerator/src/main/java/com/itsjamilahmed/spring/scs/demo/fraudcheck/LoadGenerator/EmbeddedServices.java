@@ -0,0 +1,78 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.ApiErrorHandlingService.ApiErrorHandlingServiceApplication;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.CardBlockService.CardBlockServiceApplication;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudDetectionService.FraudDetectionServiceApplication;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.MediatorService.MediatorServiceApplication;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService.OrchestratorServiceApplication;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService.TransactionsHistoryServiceApplication;
+
+// Purpose: Run the six services in this JVM, each as its own application context
+//  * Each service reads its configuration from its own project directory, just as when started on its own
+//  * The services log every message at INFO, so are started with their logging turned down to keep the load generator's output readable
+final class EmbeddedServices implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(EmbeddedServices.class);
+
+	// In the order they should be started: the services at the end of the pipeline first
+	static final List<Class<?>> SERVICES = List.of(
+			ApiErrorHandlingServiceApplication.class, CardBlockServiceApplication.class, FraudDetectionServiceApplication.class,
+			TransactionsHistoryServiceApplication.class, OrchestratorServiceApplication.class, MediatorServiceApplication.class);
+
+	static final String SERVICES_LOGGING_PACKAGE = "com.itsjamilahmed.spring.scs.demo.fraudcheck";
+	static final String SERVICES_LOG_LEVEL = "WARN";
+
+	private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+	private EmbeddedServices() {
+	}
+
+	static EmbeddedServices start (LoadGeneratorProperties.Embedded embedded) {
+
+		EmbeddedServices services = new EmbeddedServices();
+		String[] profiles = embedded.getProfiles().isBlank() ? new String[0] : embedded.getProfiles().split(",");
+
+		try {
+			for (Class<?> service : SERVICES) {
+				// e.g. MediatorServiceApplication is in the MediatorService project
+				String serviceName = service.getSimpleName().replace("Application", "");
+				Path configDir = Paths.get(embedded.getServicesDir(), serviceName, "src", "main", "resources").toAbsolutePath().normalize();
+
+				log.info("Starting embedded " + serviceName + " with configuration from " + configDir);
+
+				services.contexts.add(new SpringApplicationBuilder(service)
+						.profiles(profiles)
+						.properties(
+								"spring.config.location=file:" + configDir + "/",
+								"logging.level." + SERVICES_LOGGING_PACKAGE + "=" + SERVICES_LOG_LEVEL,
+								"logging.level." + LoadGeneratorApplication.class.getPackageName() + "=INFO")
+						.run());
+			}
+		} catch (RuntimeException e) {
+			services.close();
+			throw e;
+		}
+
+		return services;
+	}
+
+	@Override
+	public void close () {
+
+		// Stop in the reverse order, so nothing is left sending to a service that has gone
+		for (int i = contexts.size() - 1; i >= 0; i--) {
+			contexts.get(i).close();
+		}
+		contexts.clear();
+	}
+}
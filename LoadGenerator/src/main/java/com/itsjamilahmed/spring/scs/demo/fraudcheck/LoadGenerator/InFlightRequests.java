@@ -0,0 +1,53 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Purpose: Track the requests awaiting a reply, keyed by their correlation ID
+//  * Each request remembers its partner and the time it was due to be sent, to record the latency once the reply arrives
+//  * Requests not replied to within the reply timeout are given up on, and counted as such
+final class InFlightRequests {
+
+	private record PendingRequest(String partner, long intendedSendNanos) {
+	}
+
+	private final Map<String, PendingRequest> pending = new ConcurrentHashMap<>();
+	private final LoadStatistics statistics;
+
+	InFlightRequests(LoadStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	void add (String correlationId, String partner, long intendedSendNanos) {
+		pending.put(correlationId, new PendingRequest(partner, intendedSendNanos));
+		statistics.recordSent(partner);
+	}
+
+	void complete (String correlationId, LoadStatistics.Outcome outcome, long receivedNanos) {
+
+		PendingRequest request = pending.remove(correlationId);
+		if (request == null) {
+			// Already given up on, or a reply to some other sender of the same reply topic
+			statistics.recordUnmatched();
+			return;
+		}
+
+		statistics.recordReply(request.partner(), outcome, TimeUnit.NANOSECONDS.toMicros(receivedNanos - request.intendedSendNanos()));
+	}
+
+	void expire (long nowNanos, long replyTimeoutNanos) {
+
+		for (Map.Entry<String, PendingRequest> request : pending.entrySet()) {
+			// Only counted if the reply did not just beat it to the removal
+			if (nowNanos - request.getValue().intendedSendNanos() > replyTimeoutNanos
+					&& pending.remove(request.getKey(), request.getValue())) {
+				statistics.recordNoReply(request.getValue().partner());
+			}
+		}
+	}
+
+	int size () {
+		return pending.size();
+	}
+}
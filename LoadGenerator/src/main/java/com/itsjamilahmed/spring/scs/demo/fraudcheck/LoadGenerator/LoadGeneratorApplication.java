@@ -0,0 +1,77 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.util.function.Consumer;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.Message;
+
+@SpringBootApplication
+@EnableConfigurationProperties(LoadGeneratorProperties.class)
+public class LoadGeneratorApplication {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadGeneratorApplication.class);
+
+	// Which message header keys store the reply-to topic and correlation-ID, as the microgateway would set them?
+	static final String SOL_REPLYTO_DESTINATION_KEY = "solace_replyTo";
+	static final String SOL_CORRELATION_ID_KEY = "solace_correlationId";
+
+	// The output binding the requests are sent with (to the request topic set dynamically)
+	static final String REQUEST_OUTPUT_BINDING = "fraudCheckRequests-out-0";
+
+	// ... and the card transaction events (to the transactions topic, also set dynamically)
+	static final String TRANSACTION_OUTPUT_BINDING = "transactions-out-0";
+
+	public static void main(String[] args) {
+		// The application ends once the load run is complete
+		System.exit(SpringApplication.exit(SpringApplication.run(LoadGeneratorApplication.class, args)));
+	}
+
+	@Bean
+	public LoadStatistics loadStatistics(LoadGeneratorProperties properties) {
+		return new LoadStatistics(properties.getPartners().keySet());
+	}
+
+	@Bean
+	public InFlightRequests inFlightRequests(LoadStatistics loadStatistics) {
+		return new InFlightRequests(loadStatistics);
+	}
+
+	@Bean
+	// Purpose: Receive the final API responses, as the microgateway would, and match them to the outstanding requests
+	//  * A response with status 'ok' is a success
+	//  * An error response is a timeout if it is the one sent by the ApiErrorHandlingService for a request that expired waiting for the orchestrator
+	//  * Any other error response (or something unreadable) is an error
+	public Consumer<Message<String>> fraudCheckReplies(InFlightRequests inFlightRequests, LoadGeneratorProperties properties) {
+		return input -> {
+
+			long receivedNanos = System.nanoTime();
+			String correlationId = String.valueOf(input.getHeaders().get(SOL_CORRELATION_ID_KEY));
+			LoadStatistics.Outcome outcome;
+
+			try {
+				JSONObject reply = (JSONObject) new JSONParser().parse(input.getPayload());
+
+				if ("ok".equalsIgnoreCase(String.valueOf(reply.get("status")))) {
+					outcome = LoadStatistics.Outcome.OK;
+				} else if (properties.getTimeoutErrorMsg().equals(reply.get("errorMsg"))) {
+					outcome = LoadStatistics.Outcome.TIMEOUT;
+				} else {
+					outcome = LoadStatistics.Outcome.ERROR;
+				}
+			} catch (ParseException | ClassCastException e) {
+				log.warn("Did not receive a valid JSON formatted reply for correlation-ID " + correlationId + ". " + e.toString());
+				outcome = LoadStatistics.Outcome.ERROR;
+			}
+
+			inFlightRequests.complete(correlationId, outcome, receivedNanos);
+		};
+	}
+}
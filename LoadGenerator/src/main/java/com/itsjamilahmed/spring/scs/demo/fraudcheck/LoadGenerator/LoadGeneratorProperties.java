@@ -0,0 +1,281 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The load to generate, and how to judge whether the services kept up with it
+@ConfigurationProperties("loadgen")
+public class LoadGeneratorProperties {
+
+	// Where the fraudCheck API requests are published, i.e. as the microgateway would for the HTTP POST
+	private String requestTopic = "POST/fraudCheck";
+
+	// The reply-to topic given with each request. (Must match the destination of the reply consumer binding.)
+	private String replyTopic = "loadgen/fraudCheck/reply";
+
+	// Requests per second to send for each partner. Each partner's requests are sent at a fixed rate, regardless of replies.
+	private Map<String, Double> partners = new LinkedHashMap<>();
+
+	// How many distinct card numbers to spread the requests across
+	private int cardCount = 10_000;
+
+	private boolean blockCardIfFraudulent = true;
+
+	private int warmupSeconds = 10;
+	private int durationSeconds = 60;
+
+	// How long to wait for a reply before counting the request as not replied to at all
+	private long replyTimeoutMs = 10_000L;
+
+	// The error message of the reply sent by the ApiErrorHandlingService when a request timed out waiting for the orchestrator
+	private String timeoutErrorMsg = "This service is currently unavailable. Please try again later.";
+
+	// Set the reply-to header as a Solace topic (as the Solace binder needs) rather than a plain String
+	private boolean solaceReplyTo = true;
+
+	private Transactions transactions = new Transactions();
+	private Ramp ramp = new Ramp();
+	private Embedded embedded = new Embedded();
+
+	// Purpose: The card transaction events to publish, so that the fraud checks have transactions to score
+	public static class Transactions {
+
+		// Where the transactions are published. (Within 'myBank/cards/txnService/txn/v1/>', where the services record them from.)
+		private String topic = "myBank/cards/txnService/txn/v1/loadgen/cards";
+
+		// Transactions to publish for every card before the load starts
+		private int seedPerCard = 5;
+
+		// Transactions per second to publish, across all the cards, while the load runs
+		private double ratePerSec = 20.0;
+
+		public String getTopic() {
+			return topic;
+		}
+
+		public void setTopic(String topic) {
+			this.topic = topic;
+		}
+
+		public int getSeedPerCard() {
+			return seedPerCard;
+		}
+
+		public void setSeedPerCard(int seedPerCard) {
+			this.seedPerCard = seedPerCard;
+		}
+
+		public double getRatePerSec() {
+			return ratePerSec;
+		}
+
+		public void setRatePerSec(double ratePerSec) {
+			this.ratePerSec = ratePerSec;
+		}
+	}
+
+	// Purpose: Find the maximum sustainable throughput by stepping up the rate until the services stop keeping up
+	public static class Ramp {
+
+		private boolean enabled = false;
+		private int stepSeconds = 30;
+		private int stepIncreasePercent = 25;
+		private int maxSteps = 20;
+
+		// A step is sustainable if no more than this fraction of requests got the timeout reply (or no reply at all)...
+		private double maxTimeoutRatio = 0.0;
+
+		// ... and, if set, the 99th percentile latency is within this
+		private long maxP99Ms = 0L;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getStepSeconds() {
+			return stepSeconds;
+		}
+
+		public void setStepSeconds(int stepSeconds) {
+			this.stepSeconds = stepSeconds;
+		}
+
+		public int getStepIncreasePercent() {
+			return stepIncreasePercent;
+		}
+
+		public void setStepIncreasePercent(int stepIncreasePercent) {
+			this.stepIncreasePercent = stepIncreasePercent;
+		}
+
+		public int getMaxSteps() {
+			return maxSteps;
+		}
+
+		public void setMaxSteps(int maxSteps) {
+			this.maxSteps = maxSteps;
+		}
+
+		public double getMaxTimeoutRatio() {
+			return maxTimeoutRatio;
+		}
+
+		public void setMaxTimeoutRatio(double maxTimeoutRatio) {
+			this.maxTimeoutRatio = maxTimeoutRatio;
+		}
+
+		public long getMaxP99Ms() {
+			return maxP99Ms;
+		}
+
+		public void setMaxP99Ms(long maxP99Ms) {
+			this.maxP99Ms = maxP99Ms;
+		}
+	}
+
+	// Purpose: Start the six services in this JVM, for when they cannot be reached otherwise (e.g. with the local broker binder)
+	public static class Embedded {
+
+		private boolean enabled = false;
+
+		// The directory holding the service projects, whose configuration is read from their src/main/resources
+		private String servicesDir = "..";
+
+		// Spring profiles to start the services with
+		private String profiles = "";
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getServicesDir() {
+			return servicesDir;
+		}
+
+		public void setServicesDir(String servicesDir) {
+			this.servicesDir = servicesDir;
+		}
+
+		public String getProfiles() {
+			return profiles;
+		}
+
+		public void setProfiles(String profiles) {
+			this.profiles = profiles;
+		}
+	}
+
+	public String getRequestTopic() {
+		return requestTopic;
+	}
+
+	public void setRequestTopic(String requestTopic) {
+		this.requestTopic = requestTopic;
+	}
+
+	public String getReplyTopic() {
+		return replyTopic;
+	}
+
+	public void setReplyTopic(String replyTopic) {
+		this.replyTopic = replyTopic;
+	}
+
+	public Map<String, Double> getPartners() {
+		return partners;
+	}
+
+	public void setPartners(Map<String, Double> partners) {
+		this.partners = partners;
+	}
+
+	public int getCardCount() {
+		return cardCount;
+	}
+
+	public void setCardCount(int cardCount) {
+		this.cardCount = cardCount;
+	}
+
+	public boolean isBlockCardIfFraudulent() {
+		return blockCardIfFraudulent;
+	}
+
+	public void setBlockCardIfFraudulent(boolean blockCardIfFraudulent) {
+		this.blockCardIfFraudulent = blockCardIfFraudulent;
+	}
+
+	public int getWarmupSeconds() {
+		return warmupSeconds;
+	}
+
+	public void setWarmupSeconds(int warmupSeconds) {
+		this.warmupSeconds = warmupSeconds;
+	}
+
+	public int getDurationSeconds() {
+		return durationSeconds;
+	}
+
+	public void setDurationSeconds(int durationSeconds) {
+		this.durationSeconds = durationSeconds;
+	}
+
+	public long getReplyTimeoutMs() {
+		return replyTimeoutMs;
+	}
+
+	public void setReplyTimeoutMs(long replyTimeoutMs) {
+		this.replyTimeoutMs = replyTimeoutMs;
+	}
+
+	public String getTimeoutErrorMsg() {
+		return timeoutErrorMsg;
+	}
+
+	public void setTimeoutErrorMsg(String timeoutErrorMsg) {
+		this.timeoutErrorMsg = timeoutErrorMsg;
+	}
+
+	public boolean isSolaceReplyTo() {
+		return solaceReplyTo;
+	}
+
+	public void setSolaceReplyTo(boolean solaceReplyTo) {
+		this.solaceReplyTo = solaceReplyTo;
+	}
+
+	public Transactions getTransactions() {
+		return transactions;
+	}
+
+	public void setTransactions(Transactions transactions) {
+		this.transactions = transactions;
+	}
+
+	public Ramp getRamp() {
+		return ramp;
+	}
+
+	public void setRamp(Ramp ramp) {
+		this.ramp = ramp;
+	}
+
+	public Embedded getEmbedded() {
+		return embedded;
+	}
+
+	public void setEmbedded(Embedded embedded) {
+		this.embedded = embedded;
+	}
+}
@@ -0,0 +1,203 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+
+// Purpose: Run the load against the fraudCheck API, as the microgateway would present it to the mediator service
+//  * The load is open-loop: each partner's requests are sent at a fixed rate, whether or not the earlier ones have been replied to yet
+//  * After a warm-up, either one steady step at the configured rates, or a ramp of ever higher rates to find the maximum sustainable throughput
+//  * Each step ends by waiting for its outstanding replies, so that every request is accounted for in its own step's report
+@Component
+class LoadRunner implements ApplicationRunner {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadRunner.class);
+
+	// How often to give up on requests that have waited too long for a reply
+	static final long EXPIRY_CHECK_INTERVAL_MS = 100L;
+
+	private final LoadGeneratorProperties properties;
+	private final StreamBridge streamBridge;
+	private final InFlightRequests inFlightRequests;
+	private final LoadStatistics loadStatistics;
+
+	// The reply-to header value: a Solace topic for the Solace binder to set as the message reply-to, otherwise just the topic string
+	private final Object replyTo;
+
+	private final AtomicLong requestSequence = new AtomicLong();
+
+	LoadRunner(LoadGeneratorProperties properties, StreamBridge streamBridge, InFlightRequests inFlightRequests, LoadStatistics loadStatistics) {
+		this.properties = properties;
+		this.streamBridge = streamBridge;
+		this.inFlightRequests = inFlightRequests;
+		this.loadStatistics = loadStatistics;
+		this.replyTo = properties.isSolaceReplyTo()
+				? JCSMPFactory.onlyInstance().createTopic(properties.getReplyTopic())
+				: properties.getReplyTopic();
+	}
+
+	@Override
+	public void run (ApplicationArguments args) throws Exception {
+
+		if (properties.getPartners().isEmpty()) {
+			throw new IllegalStateException("No partners configured to send requests for. (See 'loadgen.partners')");
+		}
+
+		EmbeddedServices embeddedServices = properties.getEmbedded().isEnabled() ? EmbeddedServices.start(properties.getEmbedded()) : null;
+
+		// The cards' transactions, for the fraud checks to score
+		TransactionEvents transactionEvents = new TransactionEvents(properties, streamBridge);
+		transactionEvents.seed();
+		transactionEvents.start();
+
+		ScheduledExecutorService replyExpiry = Executors.newSingleThreadScheduledExecutor();
+		long replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(properties.getReplyTimeoutMs());
+		replyExpiry.scheduleWithFixedDelay(() -> inFlightRequests.expire(System.nanoTime(), replyTimeoutNanos),
+				EXPIRY_CHECK_INTERVAL_MS, EXPIRY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		try {
+			if (properties.getWarmupSeconds() > 0) {
+				LoadStatistics.StepReport warmup = runStep("warmup", 1.0, properties.getWarmupSeconds());
+				log.info("Warm-up complete. (Not included in the results)" + System.lineSeparator() + warmup.format());
+			}
+
+			if (properties.getRamp().isEnabled()) {
+				runRamp();
+			} else {
+				log.info(System.lineSeparator() + runStep("steady", 1.0, properties.getDurationSeconds()).format());
+			}
+		} finally {
+			replyExpiry.shutdownNow();
+			transactionEvents.close();
+			if (embeddedServices != null) {
+				embeddedServices.close();
+			}
+		}
+	}
+
+	private void runRamp () throws InterruptedException {
+
+		LoadGeneratorProperties.Ramp ramp = properties.getRamp();
+		double scale = 1.0;
+		double maxSustainableRatePerSec = 0;
+
+		for (int step = 1; step <= ramp.getMaxSteps(); step++) {
+
+			LoadStatistics.StepReport report = runStep("ramp-" + step, scale, ramp.getStepSeconds());
+			log.info(System.lineSeparator() + report.format());
+
+			boolean sustainable = report.timedOutRatio() <= ramp.getMaxTimeoutRatio()
+					&& (ramp.getMaxP99Ms() <= 0 || report.p99Ms() <= ramp.getMaxP99Ms());
+
+			if (!sustainable) {
+				log.info(String.format("Not sustainable at %.1f req/s: %.2f%% of requests timed out, p99 latency %.2f ms",
+						report.offeredRatePerSec(), report.timedOutRatio() * 100, report.p99Ms()));
+				break;
+			}
+
+			maxSustainableRatePerSec = report.offeredRatePerSec();
+			scale *= 1 + ramp.getStepIncreasePercent() / 100.0;
+		}
+
+		if (maxSustainableRatePerSec > 0) {
+			log.info(String.format("Maximum sustainable throughput: %.1f req/s", maxSustainableRatePerSec));
+		} else {
+			log.info("Not even the starting rate was sustainable. Try lower partner rates.");
+		}
+	}
+
+	private LoadStatistics.StepReport runStep (String name, double scale, int seconds) throws InterruptedException {
+
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+		double offeredRatePerSec = 0;
+
+		List<Thread> senders = new ArrayList<>();
+		for (Map.Entry<String, Double> partner : properties.getPartners().entrySet()) {
+			double ratePerSec = partner.getValue() * scale;
+			offeredRatePerSec += ratePerSec;
+
+			Thread sender = new Thread(() -> sendAtFixedRate(partner.getKey(), ratePerSec, startNanos, endNanos), "loadgen-" + partner.getKey());
+			senders.add(sender);
+			sender.start();
+		}
+
+		for (Thread sender : senders) {
+			sender.join();
+		}
+
+		// Wait for the last replies, or for their requests to be given up on
+		while (inFlightRequests.size() > 0) {
+			Thread.sleep(EXPIRY_CHECK_INTERVAL_MS);
+		}
+
+		return loadStatistics.takeStepReport(name, offeredRatePerSec, seconds);
+	}
+
+	private void sendAtFixedRate (String partner, double ratePerSec, long startNanos, long endNanos) {
+
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSec);
+
+		for (long intendedSendNanos = startNanos; intendedSendNanos < endNanos; intendedSendNanos += intervalNanos) {
+
+			// If running behind, send straight away. The latency still counts from when the request should have been sent.
+			long waitNanos;
+			while ((waitNanos = intendedSendNanos - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(waitNanos);
+			}
+
+			send(partner, intendedSendNanos);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void send (String partner, long intendedSendNanos) {
+
+		String correlationId = partner + "-" + requestSequence.incrementAndGet();
+
+		JSONObject request = new JSONObject();
+		request.put("partner", partner);
+		request.put("cardNumber", cardNumber(ThreadLocalRandom.current().nextInt(properties.getCardCount())));
+		request.put("blockCardIfFraudulent", properties.isBlockCardIfFraudulent());
+
+		Message<String> message = MessageBuilder.withPayload(request.toString())
+				.setHeader(LoadGeneratorApplication.SOL_CORRELATION_ID_KEY, correlationId)
+				.setHeader(LoadGeneratorApplication.SOL_REPLYTO_DESTINATION_KEY, replyTo)
+				.setHeader(BinderHeaders.TARGET_DESTINATION, properties.getRequestTopic())
+				.build();
+
+		// Tracked before sending, so that even the quickest reply finds it
+		inFlightRequests.add(correlationId, partner, intendedSendNanos);
+
+		try {
+			streamBridge.send(LoadGeneratorApplication.REQUEST_OUTPUT_BINDING, message);
+		} catch (RuntimeException e) {
+			log.warn("Failed to send request " + correlationId + ". " + e.toString());
+			inFlightRequests.complete(correlationId, LoadStatistics.Outcome.ERROR, System.nanoTime());
+		}
+	}
+
+	// The card number of each of the cards the load is spread across (and that the transaction events are published for)
+	static String cardNumber (int card) {
+		return String.format("1234-5678-%04d-%04d", card / 10_000, card % 10_000);
+	}
+}
@@ -0,0 +1,145 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+// Purpose: Count the requests sent and the replies received per partner, with a latency histogram per kind of reply
+//  * Latencies are recorded in microseconds from when each request was due to be sent, not when it actually was.
+//  * So if the sender falls behind (e.g. held up publishing), the wait is included, rather than hidden as in a closed-loop test.
+//  * Reply consumer threads record concurrently. Each step report takes the interval since the last one, resetting the counts.
+final class LoadStatistics {
+
+	enum Outcome { OK, ERROR, TIMEOUT }
+
+	static final int HISTOGRAM_SIGNIFICANT_DIGITS = 3;
+
+	private static final class PartnerStatistics {
+
+		final LongAdder sent = new LongAdder();
+		final LongAdder noReply = new LongAdder();
+		final LongAdder[] replies = new LongAdder[Outcome.values().length];
+		final Recorder latencyMicros = new Recorder(HISTOGRAM_SIGNIFICANT_DIGITS);
+
+		PartnerStatistics() {
+			for (int i = 0; i < replies.length; i++) {
+				replies[i] = new LongAdder();
+			}
+		}
+	}
+
+	// One row of a step report
+	record Row(String partner, long sent, long ok, long error, long timeout, long noReply, Histogram latencyMicros) {
+
+		long timedOut () {
+			return timeout + noReply;
+		}
+	}
+
+	// The outcome of one step of the load run
+	record StepReport(String name, double offeredRatePerSec, double elapsedSeconds, List<Row> partners, Row total, long unmatched) {
+
+		double achievedRatePerSec () {
+			return (elapsedSeconds > 0) ? (total.ok() + total.error() + total.timeout()) / elapsedSeconds : 0;
+		}
+
+		double timedOutRatio () {
+			return (total.sent() > 0) ? (double) total.timedOut() / total.sent() : 0;
+		}
+
+		double p99Ms () {
+			return total.latencyMicros().getValueAtPercentile(99.0) / 1000.0;
+		}
+
+		String format () {
+
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("Step '%s': offered %.1f req/s, replies at %.1f req/s over %.1fs%n",
+					name, offeredRatePerSec, achievedRatePerSec(), elapsedSeconds));
+			report.append(String.format("  %-12s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s%n",
+					"partner", "sent", "ok", "error", "timeout", "noReply", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+			for (Row row : partners) {
+				appendRow(report, row);
+			}
+			appendRow(report, total);
+			if (unmatched > 0) {
+				report.append("  Replies with an unknown correlation ID: " + unmatched + System.lineSeparator());
+			}
+			return report.toString();
+		}
+
+		private static void appendRow (StringBuilder report, Row row) {
+
+			Histogram latency = row.latencyMicros();
+			report.append(String.format("  %-12s %9d %9d %9d %9d %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+					row.partner(), row.sent(), row.ok(), row.error(), row.timeout(), row.noReply(),
+					latency.getValueAtPercentile(50.0) / 1000.0, latency.getValueAtPercentile(90.0) / 1000.0,
+					latency.getValueAtPercentile(99.0) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+					latency.getMaxValue() / 1000.0));
+		}
+	}
+
+	private final Map<String, PartnerStatistics> partners = new LinkedHashMap<>();
+	private final LongAdder unmatched = new LongAdder();
+
+	LoadStatistics(Collection<String> partnerNames) {
+		// Fixed up front, so the map is only ever read concurrently
+		for (String partner : partnerNames) {
+			partners.put(partner, new PartnerStatistics());
+		}
+	}
+
+	void recordSent (String partner) {
+		partners.get(partner).sent.increment();
+	}
+
+	void recordReply (String partner, Outcome outcome, long latencyMicros) {
+
+		PartnerStatistics statistics = partners.get(partner);
+		statistics.replies[outcome.ordinal()].increment();
+		statistics.latencyMicros.recordValue(Math.max(0L, latencyMicros));
+	}
+
+	void recordNoReply (String partner) {
+		partners.get(partner).noReply.increment();
+	}
+
+	void recordUnmatched () {
+		unmatched.increment();
+	}
+
+	StepReport takeStepReport (String name, double offeredRatePerSec, double elapsedSeconds) {
+
+		List<Row> rows = new ArrayList<>(partners.size());
+		Histogram totalLatency = new Histogram(HISTOGRAM_SIGNIFICANT_DIGITS);
+		long[] totals = new long[5];
+
+		for (Map.Entry<String, PartnerStatistics> partner : partners.entrySet()) {
+			PartnerStatistics statistics = partner.getValue();
+			Histogram latency = statistics.latencyMicros.getIntervalHistogram();
+
+			Row row = new Row(partner.getKey(), statistics.sent.sumThenReset(),
+					statistics.replies[Outcome.OK.ordinal()].sumThenReset(),
+					statistics.replies[Outcome.ERROR.ordinal()].sumThenReset(),
+					statistics.replies[Outcome.TIMEOUT.ordinal()].sumThenReset(),
+					statistics.noReply.sumThenReset(), latency);
+			rows.add(row);
+
+			totals[0] += row.sent();
+			totals[1] += row.ok();
+			totals[2] += row.error();
+			totals[3] += row.timeout();
+			totals[4] += row.noReply();
+			totalLatency.add(latency);
+		}
+
+		Row total = new Row("TOTAL", totals[0], totals[1], totals[2], totals[3], totals[4], totalLatency);
+		return new StepReport(name, offeredRatePerSec, elapsedSeconds, rows, total, unmatched.sumThenReset());
+	}
+}
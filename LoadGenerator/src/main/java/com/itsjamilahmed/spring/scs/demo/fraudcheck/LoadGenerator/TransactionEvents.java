@@ -0,0 +1,119 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LoadGenerator;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: Publish card transaction events for the cards the load is spread across, as the card platform would
+//  * The Transactions History and Fraud Detection services record these, so the fraud checks have histories to fetch and score
+//  * Before the load starts, a few transactions for every card (seedPerCard), spread over the past day. Then a steady stream of them (ratePerSec) for the rest of the run.
+//  * Each card mostly transacts in its own home location, with the odd transaction abroad or for a large amount, so some checks find fraud
+final class TransactionEvents implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionEvents.class);
+
+	static final List<String> MERCHANTS = List.of("Coffee Shop", "Supermarket", "Fuel Station", "Bookshop", "Electronics Store", "Airline", "Hotel", "Restaurant");
+
+	// As known to the Fraud Detection service's impossible travel rule (fraudcheck.rules.locations)
+	static final List<String> LOCATIONS = List.of("London", "Paris", "New York", "Singapore", "Sydney", "Dubai");
+
+	// "dd/MM/yyyy HH:mm:ss" in UTC, as the services read the transaction times
+	static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneOffset.UTC);
+
+	static final long SEED_SPREAD_SECONDS = TimeUnit.DAYS.toSeconds(1);
+	static final int AWAY_PERCENT = 2;
+	static final int LARGE_AMOUNT_PERCENT = 1;
+
+	private final LoadGeneratorProperties properties;
+	private final StreamBridge streamBridge;
+	private ScheduledExecutorService publisher;
+
+	TransactionEvents(LoadGeneratorProperties properties, StreamBridge streamBridge) {
+		this.properties = properties;
+		this.streamBridge = streamBridge;
+	}
+
+	void seed () {
+
+		int seedPerCard = properties.getTransactions().getSeedPerCard();
+		if (seedPerCard <= 0) {
+			return;
+		}
+
+		log.info("Seeding " + seedPerCard + " transactions for each of " + properties.getCardCount() + " cards");
+		long nowEpochSeconds = System.currentTimeMillis() / 1000;
+		for (int card = 0; card < properties.getCardCount(); card++) {
+			for (int i = 0; i < seedPerCard; i++) {
+				publish(card, nowEpochSeconds - ThreadLocalRandom.current().nextLong(SEED_SPREAD_SECONDS));
+			}
+		}
+	}
+
+	void start () {
+
+		double ratePerSec = properties.getTransactions().getRatePerSec();
+		if (ratePerSec <= 0) {
+			return;
+		}
+
+		publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "loadgen-transactions");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSec);
+		publisher.scheduleAtFixedRate(() -> publish(ThreadLocalRandom.current().nextInt(properties.getCardCount()), System.currentTimeMillis() / 1000),
+				intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void close () {
+
+		if (publisher != null) {
+			publisher.shutdownNow();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void publish (int card, long epochSeconds) {
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		boolean away = random.nextInt(100) < AWAY_PERCENT;
+		boolean large = random.nextInt(100) < LARGE_AMOUNT_PERCENT;
+
+		JSONObject txn = new JSONObject();
+		txn.put("cardNumber", LoadRunner.cardNumber(card));
+		txn.put("merchant", MERCHANTS.get(random.nextInt(MERCHANTS.size())));
+		txn.put("location", LOCATIONS.get(away ? random.nextInt(LOCATIONS.size()) : card % LOCATIONS.size()));
+		txn.put("amount", Math.round((large ? 5_000 + random.nextDouble(5_000) : 1 + random.nextDouble(200)) * 100) / 100.0);
+		txn.put("datetime", DATETIME_FORMAT.format(Instant.ofEpochSecond(epochSeconds)));
+
+		Message<byte[]> message = MessageBuilder.withPayload(PayloadCodec.encode(txn, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(BinderHeaders.TARGET_DESTINATION, properties.getTransactions().getTopic())
+				.build();
+
+		try {
+			streamBridge.send(LoadGeneratorApplication.TRANSACTION_OUTPUT_BINDING, message);
+		} catch (RuntimeException e) {
+			// Not fatal: the fraud checks of the card just have one transaction fewer to go on
+			log.warn("Failed to publish a transaction for card " + txn.get("cardNumber") + ". " + e.toString());
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: An in-JVM message broker with the PubSub+ semantics the fraud check services rely on
+//  * Publishers send to dynamic topics, and durable queues attract messages through topic subscriptions (with '*' and '>' wildcards)
+//  * Every consumer bound to a queue competes for its messages (i.e. non-exclusive queues)
+//  * A message published with a time-to-live expires on the queue, moving to the queue's dead message queue if DMQ-eligible
+//  * There is one broker per JVM, so any number of services started in the same JVM can exchange messages through it
+public final class LocalBroker {
+
+	private static final Logger log = LoggerFactory.getLogger(LocalBroker.class);
+
+	// The message headers the broker acts on, as set by the publishing services
+	static final String SOL_TTL_KEY = "solace_timeToLive";
+	static final String SOL_DMQ_ENABLE_KEY = "solace_dmqEligible";
+
+	// ... and the header to tell the consumer which topic the message was published to
+	static final String SOL_DESTINATION_KEY = "solace_destination";
+
+	// As per PubSub+, expired messages go to this queue unless another DMQ is configured for the queue
+	static final String DEFAULT_DMQ_NAME = "#DEAD_MSG_QUEUE";
+
+	static final int DEFAULT_MAX_QUEUE_DEPTH = 1_000_000;
+
+	// How often to look for expired messages on queues without consumers.
+	// (Queues with consumers have their expired messages dealt with as they are reached.)
+	static final long EXPIRY_SWEEP_INTERVAL_MS = 100L;
+
+	private static final LocalBroker INSTANCE = new LocalBroker();
+
+	private final TopicTrie<LocalQueue> subscriptions = new TopicTrie<>();
+	private final Map<String, LocalQueue> queues = new ConcurrentHashMap<>();
+	private final Map<String, String> deadMessageQueues = new ConcurrentHashMap<>();
+	private volatile int maxQueueDepth = DEFAULT_MAX_QUEUE_DEPTH;
+
+	private final LongAdder publishedCount = new LongAdder();
+	private final LongAdder unroutedCount = new LongAdder();
+	private final LongAdder deliveredCount = new LongAdder();
+	private final LongAdder deadMessageCount = new LongAdder();
+	private final LongAdder expiredDiscardCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+
+	// Package-private for the tests, each with a broker of its own. The services all share the one instance.
+	LocalBroker() {
+
+		ScheduledExecutorService expirySweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "local-broker-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		expirySweeper.scheduleWithFixedDelay(this::sweepExpired, EXPIRY_SWEEP_INTERVAL_MS, EXPIRY_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	public static LocalBroker getInstance () {
+		return INSTANCE;
+	}
+
+	// Apply the configuration of a service using the broker. (Each service in the JVM may contribute its own queues and DMQs.)
+	void configure (LocalBrokerProperties properties) {
+
+		maxQueueDepth = properties.getMaxQueueDepth();
+		deadMessageQueues.putAll(properties.getDeadMessageQueues());
+
+		for (Map.Entry<String, String[]> queue : properties.getQueues().entrySet()) {
+			provisionQueue(queue.getKey(), queue.getValue());
+		}
+	}
+
+	LocalQueue provisionQueue (String name, String... topicSubscriptions) {
+
+		LocalQueue queue = queues.computeIfAbsent(name, key -> {
+			log.info("Provisioning queue " + key);
+			return new LocalQueue(key, false, maxQueueDepth);
+		});
+
+		for (String topicSubscription : topicSubscriptions) {
+			addSubscription(queue, topicSubscription);
+		}
+
+		return queue;
+	}
+
+	// A queue for a consumer without a group, which only lives as long as its consumer
+	LocalQueue provisionTemporaryQueue () {
+
+		LocalQueue queue = new LocalQueue("#P2P/QTMP/" + UUID.randomUUID(), true, maxQueueDepth);
+		queues.put(queue.getName(), queue);
+
+		return queue;
+	}
+
+	void addSubscription (LocalQueue queue, String topicSubscription) {
+
+		if (queue.getSubscriptions().add(topicSubscription)) {
+			subscriptions.subscribe(topicSubscription, queue);
+		}
+	}
+
+	void deleteQueue (LocalQueue queue) {
+
+		for (String topicSubscription : queue.getSubscriptions()) {
+			subscriptions.unsubscribe(topicSubscription, queue);
+		}
+		queues.remove(queue.getName());
+	}
+
+	// Returns the number of queues the message was spooled to
+	public int publish (String topic, Message<?> message) {
+
+		List<LocalQueue> matchingQueues = new ArrayList<>(2);
+		subscriptions.match(topic, matchingQueues);
+
+		publishedCount.increment();
+		if (matchingQueues.isEmpty()) {
+			// Just as with the real broker, a message nobody has subscribed to is discarded
+			unroutedCount.increment();
+			return 0;
+		}
+
+		// The message as consumers will receive it is the same for every queue, so is only built the once.
+		// (It looks as it would from the Solace binder: no target destination, and the topic it was published to.)
+		Message<?> delivered = MessageBuilder.withPayload(message.getPayload())
+				.copyHeaders(message.getHeaders())
+				.removeHeader(BinderHeaders.TARGET_DESTINATION)
+				.setHeader(SOL_DESTINATION_KEY, topic)
+				.build();
+
+		long timeToLiveMs = longHeader(message, SOL_TTL_KEY);
+		LocalQueue.SpooledMessage spooled = new LocalQueue.SpooledMessage(topic, delivered,
+				(timeToLiveMs > 0) ? System.currentTimeMillis() + timeToLiveMs : 0L,
+				booleanHeader(message, SOL_DMQ_ENABLE_KEY));
+
+		// A full queue refuses the publish before it is spooled anywhere, so the publisher is not told of a failure for a message others received.
+		// (The equivalent of the publisher being told the queue has reached its quota.)
+		for (LocalQueue queue : matchingQueues) {
+			if (!queue.hasCapacity()) {
+				throw new MessageDeliveryException(message, "Queue " + queue.getName() + " is full. (Max depth: " + queue.getMaxDepth() + ")");
+			}
+		}
+
+		// A queue can still fill in the meantime, from another publisher. It alone misses the message then.
+		int spooledCount = 0;
+		for (LocalQueue queue : matchingQueues) {
+			if (queue.offer(spooled)) {
+				spooledCount++;
+			} else {
+				log.warn("Queue " + queue.getName() + " is full. (Max depth: " + queue.getMaxDepth() + ") Discarding message published to " + topic);
+				rejectedCount.increment();
+			}
+		}
+
+		return spooledCount;
+	}
+
+	// Wait up to the timeout for the next unexpired message on the queue
+	Message<?> receive (LocalQueue queue, long timeoutMs) throws InterruptedException {
+
+		while (true) {
+			LocalQueue.SpooledMessage spooled = queue.poll(timeoutMs);
+
+			if (spooled == null) {
+				return null;
+			}
+
+			if (spooled.isExpired(System.currentTimeMillis())) {
+				expire(queue, spooled);
+				continue;
+			}
+
+			deliveredCount.increment();
+			return spooled.message();
+		}
+	}
+
+	private void expire (LocalQueue queue, LocalQueue.SpooledMessage spooled) {
+
+		if (!spooled.dmqEligible()) {
+			expiredDiscardCount.increment();
+			return;
+		}
+
+		String deadMessageQueueName = deadMessageQueues.getOrDefault(queue.getName(), DEFAULT_DMQ_NAME);
+		LocalQueue deadMessageQueue = provisionQueue(deadMessageQueueName);
+
+		// No further expiry once on the DMQ.
+		// The message is rebuilt to give it a new timestamp header, as the DMQ consumer uses it as the time the request gave up waiting.
+		Message<?> deadMessage = MessageBuilder.withPayload(spooled.message().getPayload())
+				.copyHeaders(spooled.message().getHeaders())
+				.build();
+
+		if (deadMessageQueue.offer(new LocalQueue.SpooledMessage(spooled.topic(), deadMessage, 0L, false))) {
+			deadMessageCount.increment();
+		} else {
+			log.warn("Dead message queue " + deadMessageQueueName + " is full. Discarding expired message from " + queue.getName());
+			expiredDiscardCount.increment();
+		}
+	}
+
+	private void sweepExpired () {
+
+		try {
+			long nowMs = System.currentTimeMillis();
+			for (LocalQueue queue : queues.values()) {
+				if (!queue.hasConsumers() && queue.getDepth() > 0) {
+					queue.removeExpired(nowMs, spooled -> expire(queue, spooled));
+				}
+			}
+		} catch (RuntimeException e) {
+			// Keep the sweeper scheduled regardless
+			log.error("Failed to sweep expired messages: " + e.toString());
+		}
+	}
+
+	private static long longHeader (Message<?> message, String key) {
+
+		Object value = message.getHeaders().get(key);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return (value != null) ? Long.parseLong(value.toString()) : 0L;
+	}
+
+	private static boolean booleanHeader (Message<?> message, String key) {
+
+		Object value = message.getHeaders().get(key);
+		return (value instanceof Boolean) ? (Boolean) value : Boolean.parseBoolean(String.valueOf(value));
+	}
+
+	public long getPublishedCount () {
+		return publishedCount.sum();
+	}
+
+	public long getUnroutedCount () {
+		return unroutedCount.sum();
+	}
+
+	public long getDeliveredCount () {
+		return deliveredCount.sum();
+	}
+
+	public long getDeadMessageCount () {
+		return deadMessageCount.sum();
+	}
+
+	public long getExpiredDiscardCount () {
+		return expiredDiscardCount.sum();
+	}
+
+	public long getRejectedCount () {
+		return rejectedCount.sum();
+	}
+
+	public int getQueueDepth (String queueName) {
+		LocalQueue queue = queues.get(queueName);
+		return (queue != null) ? queue.getDepth() : 0;
+	}
+}
@@ -0,0 +1,34 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Purpose: The binder configuration registered for binder type 'local' (see META-INF/spring.binders)
+//  * Every binder in the JVM shares the one local broker, with each service contributing its own 'localbroker' configuration
+@Configuration
+@EnableConfigurationProperties({ LocalBrokerExtendedBindingProperties.class, LocalBrokerProperties.class })
+public class LocalBrokerBinderConfiguration {
+
+	@Bean
+	public LocalBroker localBroker(LocalBrokerProperties properties) {
+
+		LocalBroker broker = LocalBroker.getInstance();
+		broker.configure(properties);
+		return broker;
+	}
+
+	@Bean
+	public LocalBrokerProvisioner localBrokerProvisioner(LocalBroker localBroker) {
+		return new LocalBrokerProvisioner(localBroker);
+	}
+
+	@Bean
+	public LocalBrokerMessageChannelBinder localBrokerMessageChannelBinder(LocalBroker localBroker,
+			LocalBrokerProvisioner localBrokerProvisioner, LocalBrokerExtendedBindingProperties extendedBindingProperties) {
+
+		LocalBrokerMessageChannelBinder binder = new LocalBrokerMessageChannelBinder(localBroker, localBrokerProvisioner);
+		binder.setExtendedBindingProperties(extendedBindingProperties);
+		return binder;
+	}
+}
@@ -0,0 +1,28 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import org.springframework.cloud.stream.binder.BinderSpecificPropertiesProvider;
+
+// Purpose: The consumer and producer properties of one binding, i.e. 'spring.cloud.stream.solace.bindings.<binding name>'
+public class LocalBrokerBindingProperties implements BinderSpecificPropertiesProvider {
+
+	private LocalBrokerConsumerProperties consumer = new LocalBrokerConsumerProperties();
+	private LocalBrokerProducerProperties producer = new LocalBrokerProducerProperties();
+
+	@Override
+	public LocalBrokerConsumerProperties getConsumer() {
+		return consumer;
+	}
+
+	public void setConsumer(LocalBrokerConsumerProperties consumer) {
+		this.consumer = consumer;
+	}
+
+	@Override
+	public LocalBrokerProducerProperties getProducer() {
+		return producer;
+	}
+
+	public void setProducer(LocalBrokerProducerProperties producer) {
+		this.producer = producer;
+	}
+}
@@ -0,0 +1,37 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+// Purpose: The consumer binding properties of the local broker binder
+//  * Named as per the Solace binder, so the existing 'spring.cloud.stream.solace.bindings' configuration applies unchanged.
+//  * Any other Solace consumer property is accepted and ignored. (e.g. provisionDurableQueue, as the local broker always provisions.)
+public class LocalBrokerConsumerProperties {
+
+	private String[] queueAdditionalSubscriptions = new String[0];
+	private boolean addDestinationAsSubscriptionToQueue = true;
+
+	// How long each consumer thread waits on an empty queue before checking whether it has been stopped
+	private long pollTimeoutMs = 100L;
+
+	public String[] getQueueAdditionalSubscriptions() {
+		return queueAdditionalSubscriptions;
+	}
+
+	public void setQueueAdditionalSubscriptions(String[] queueAdditionalSubscriptions) {
+		this.queueAdditionalSubscriptions = queueAdditionalSubscriptions;
+	}
+
+	public boolean isAddDestinationAsSubscriptionToQueue() {
+		return addDestinationAsSubscriptionToQueue;
+	}
+
+	public void setAddDestinationAsSubscriptionToQueue(boolean addDestinationAsSubscriptionToQueue) {
+		this.addDestinationAsSubscriptionToQueue = addDestinationAsSubscriptionToQueue;
+	}
+
+	public long getPollTimeoutMs() {
+		return pollTimeoutMs;
+	}
+
+	public void setPollTimeoutMs(long pollTimeoutMs) {
+		this.pollTimeoutMs = pollTimeoutMs;
+	}
+}
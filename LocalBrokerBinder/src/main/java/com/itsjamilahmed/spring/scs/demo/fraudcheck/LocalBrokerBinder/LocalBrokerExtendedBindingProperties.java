@@ -0,0 +1,31 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.stream.binder.AbstractExtendedBindingProperties;
+import org.springframework.cloud.stream.binder.BinderSpecificPropertiesProvider;
+
+// Purpose: Bind the per-binding properties from the same configuration prefix as the Solace binder,
+// so switching a service between the two binders is just a change of binder type.
+@ConfigurationProperties("spring.cloud.stream.solace")
+public class LocalBrokerExtendedBindingProperties extends
+		AbstractExtendedBindingProperties<LocalBrokerConsumerProperties, LocalBrokerProducerProperties, LocalBrokerBindingProperties> {
+
+	static final String DEFAULTS_PREFIX = "spring.cloud.stream.solace.default";
+
+	@Override
+	public String getDefaultsPrefix() {
+		return DEFAULTS_PREFIX;
+	}
+
+	@Override
+	public Map<String, LocalBrokerBindingProperties> getBindings() {
+		return this.doGetBindings();
+	}
+
+	@Override
+	public Class<? extends BinderSpecificPropertiesProvider> getExtendedPropertiesEntryClass() {
+		return LocalBrokerBindingProperties.class;
+	}
+}
@@ -0,0 +1,83 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.messaging.Message;
+
+// Purpose: Feed the messages of a local broker queue into a consumer binding
+//  * Each of the consumer threads competes with the others (and with the consumers of any other binding to the queue) for the next message
+//  * As with the functions themselves, a failure to process a message is logged and the message is not redelivered
+final class LocalBrokerInboundAdapter extends MessageProducerSupport {
+
+	private static final Logger log = LoggerFactory.getLogger(LocalBrokerInboundAdapter.class);
+
+	private final LocalBroker broker;
+	private final LocalQueue queue;
+	private final int concurrency;
+	private final long pollTimeoutMs;
+
+	private final List<Thread> consumerThreads = new ArrayList<>();
+	private volatile boolean consuming;
+
+	LocalBrokerInboundAdapter(LocalBroker broker, LocalQueue queue, int concurrency, long pollTimeoutMs) {
+		this.broker = broker;
+		this.queue = queue;
+		this.concurrency = concurrency;
+		this.pollTimeoutMs = pollTimeoutMs;
+	}
+
+	@Override
+	protected void doStart () {
+
+		consuming = true;
+		for (int i = 0; i < concurrency; i++) {
+			Thread thread = new Thread(this::consume, "local-broker-" + queue.getName() + "-" + i);
+			thread.setDaemon(true);
+			consumerThreads.add(thread);
+			queue.consumerBound();
+			thread.start();
+		}
+	}
+
+	@Override
+	protected void doStop () {
+
+		consuming = false;
+		for (Thread thread : consumerThreads) {
+			try {
+				thread.join(pollTimeoutMs * 2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			queue.consumerUnbound();
+		}
+		consumerThreads.clear();
+	}
+
+	private void consume () {
+
+		while (consuming) {
+			Message<?> message;
+			try {
+				message = broker.receive(queue, pollTimeoutMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (message == null) {
+				continue;
+			}
+
+			try {
+				sendMessage(message);
+			} catch (RuntimeException e) {
+				log.error("Failed to process message from queue " + queue.getName() + ": " + e.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import org.springframework.cloud.stream.binder.AbstractMessageChannelBinder;
+import org.springframework.cloud.stream.binder.BinderSpecificPropertiesProvider;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.ExtendedPropertiesBinder;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.cloud.stream.provisioning.ProducerDestination;
+import org.springframework.integration.core.MessageProducer;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+
+// Purpose: A Spring Cloud Stream binder for the in-JVM local broker, selected with binder type 'local'
+//  * Producers publish to the topic in the target destination header (as the services set dynamically), else the binding destination
+//  * Consumers receive from the queue provisioned for their binding, with one thread per unit of binding concurrency
+public class LocalBrokerMessageChannelBinder extends
+		AbstractMessageChannelBinder<ExtendedConsumerProperties<LocalBrokerConsumerProperties>, ExtendedProducerProperties<LocalBrokerProducerProperties>, LocalBrokerProvisioner>
+		implements ExtendedPropertiesBinder<MessageChannel, LocalBrokerConsumerProperties, LocalBrokerProducerProperties> {
+
+	private final LocalBroker broker;
+	private LocalBrokerExtendedBindingProperties extendedBindingProperties = new LocalBrokerExtendedBindingProperties();
+
+	public LocalBrokerMessageChannelBinder(LocalBroker broker, LocalBrokerProvisioner provisioningProvider) {
+		super(new String[0], provisioningProvider);
+		this.broker = broker;
+	}
+
+	public void setExtendedBindingProperties (LocalBrokerExtendedBindingProperties extendedBindingProperties) {
+		this.extendedBindingProperties = extendedBindingProperties;
+	}
+
+	@Override
+	protected MessageHandler createProducerMessageHandler (ProducerDestination destination,
+			ExtendedProducerProperties<LocalBrokerProducerProperties> producerProperties, MessageChannel errorChannel) {
+		return new LocalBrokerOutboundHandler(broker, destination.getName());
+	}
+
+	@Override
+	protected MessageProducer createConsumerEndpoint (ConsumerDestination destination, String group,
+			ExtendedConsumerProperties<LocalBrokerConsumerProperties> properties) {
+
+		LocalQueue queue = ((LocalBrokerProvisioner.LocalBrokerConsumerDestination) destination).getQueue();
+
+		LocalBrokerInboundAdapter adapter = new LocalBrokerInboundAdapter(broker, queue,
+				Math.max(1, properties.getConcurrency()), properties.getExtension().getPollTimeoutMs());
+		adapter.setBeanFactory(getBeanFactory());
+
+		return adapter;
+	}
+
+	@Override
+	protected void afterUnbindConsumer (ConsumerDestination destination, String group,
+			ExtendedConsumerProperties<LocalBrokerConsumerProperties> consumerProperties) {
+		provisioningProvider.deprovisionConsumerDestination(destination);
+	}
+
+	@Override
+	public LocalBrokerConsumerProperties getExtendedConsumerProperties (String channelName) {
+		return extendedBindingProperties.getExtendedConsumerProperties(channelName);
+	}
+
+	@Override
+	public LocalBrokerProducerProperties getExtendedProducerProperties (String channelName) {
+		return extendedBindingProperties.getExtendedProducerProperties(channelName);
+	}
+
+	@Override
+	public String getDefaultsPrefix () {
+		return extendedBindingProperties.getDefaultsPrefix();
+	}
+
+	@Override
+	public Class<? extends BinderSpecificPropertiesProvider> getExtendedPropertiesEntryClass () {
+		return extendedBindingProperties.getExtendedPropertiesEntryClass();
+	}
+}
@@ -0,0 +1,28 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+
+// Purpose: Publish the messages of a producer binding to the local broker
+//  * The topic comes from the target destination header when present, as set by the services for their dynamic topics
+final class LocalBrokerOutboundHandler implements MessageHandler {
+
+	private final LocalBroker broker;
+	private final String defaultTopic;
+
+	LocalBrokerOutboundHandler(LocalBroker broker, String defaultTopic) {
+		this.broker = broker;
+		this.defaultTopic = defaultTopic;
+	}
+
+	@Override
+	public void handleMessage (Message<?> message) throws MessagingException {
+
+		Object targetDestination = message.getHeaders().get(BinderHeaders.TARGET_DESTINATION);
+		String topic = (targetDestination != null) ? targetDestination.toString() : defaultTopic;
+
+		broker.publish(topic, message);
+	}
+}
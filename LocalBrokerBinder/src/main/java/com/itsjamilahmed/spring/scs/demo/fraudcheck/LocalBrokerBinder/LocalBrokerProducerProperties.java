@@ -0,0 +1,8 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+// Purpose: The producer binding properties of the local broker binder
+//  * There are none needed: a producer publishes to the topic in the target destination header, else to its binding destination.
+//  * Any Solace producer property is accepted and ignored.
+public class LocalBrokerProducerProperties {
+
+}
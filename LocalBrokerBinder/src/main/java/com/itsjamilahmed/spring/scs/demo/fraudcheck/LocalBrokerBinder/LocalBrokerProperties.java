@@ -0,0 +1,42 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: Broker-level configuration of the local broker, i.e. what would be configured on the PubSub+ broker itself
+//  * deadMessageQueues: the DMQ of a queue, where it is not the default '#DEAD_MSG_QUEUE'
+//  * queues: queues to provision up front with their topic subscriptions, for those that have no consumer binding of their own
+//  * maxQueueDepth: messages a queue will spool before publishers to it are refused
+@ConfigurationProperties("localbroker")
+public class LocalBrokerProperties {
+
+	private Map<String, String> deadMessageQueues = new HashMap<>();
+	private Map<String, String[]> queues = new HashMap<>();
+	private int maxQueueDepth = LocalBroker.DEFAULT_MAX_QUEUE_DEPTH;
+
+	public Map<String, String> getDeadMessageQueues() {
+		return deadMessageQueues;
+	}
+
+	public void setDeadMessageQueues(Map<String, String> deadMessageQueues) {
+		this.deadMessageQueues = deadMessageQueues;
+	}
+
+	public Map<String, String[]> getQueues() {
+		return queues;
+	}
+
+	public void setQueues(Map<String, String[]> queues) {
+		this.queues = queues;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	public void setMaxQueueDepth(int maxQueueDepth) {
+		this.maxQueueDepth = maxQueueDepth;
+	}
+}
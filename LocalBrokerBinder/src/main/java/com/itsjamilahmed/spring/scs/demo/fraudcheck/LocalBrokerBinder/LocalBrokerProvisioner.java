@@ -0,0 +1,107 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.cloud.stream.provisioning.ProducerDestination;
+import org.springframework.cloud.stream.provisioning.ProvisioningException;
+import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
+
+// Purpose: Provision the queues on the local broker for the consumer bindings
+//  * A consumer with a group gets a durable queue named after its destination (i.e. as per 'queueNameExpression: destination')
+//  * A consumer without a group gets a temporary queue of its own, deleted when it is unbound
+//  * Either way, the queue is subscribed to the destination (unless disabled) and any 'queueAdditionalSubscriptions'
+//  * Producers need nothing provisioning, as they publish to topics
+public class LocalBrokerProvisioner implements
+		ProvisioningProvider<ExtendedConsumerProperties<LocalBrokerConsumerProperties>, ExtendedProducerProperties<LocalBrokerProducerProperties>> {
+
+	private final LocalBroker broker;
+
+	public LocalBrokerProvisioner(LocalBroker broker) {
+		this.broker = broker;
+	}
+
+	@Override
+	public ProducerDestination provisionProducerDestination (String name,
+			ExtendedProducerProperties<LocalBrokerProducerProperties> properties) throws ProvisioningException {
+		return new LocalBrokerProducerDestination(name);
+	}
+
+	@Override
+	public ConsumerDestination provisionConsumerDestination (String name, String group,
+			ExtendedConsumerProperties<LocalBrokerConsumerProperties> properties) throws ProvisioningException {
+
+		LocalBrokerConsumerProperties consumerProperties = properties.getExtension();
+
+		Set<String> topicSubscriptions = new LinkedHashSet<>();
+		if (consumerProperties.isAddDestinationAsSubscriptionToQueue()) {
+			topicSubscriptions.add(name);
+		}
+		for (String topicSubscription : consumerProperties.getQueueAdditionalSubscriptions()) {
+			if (topicSubscription != null && !topicSubscription.isBlank()) {
+				topicSubscriptions.add(topicSubscription.trim());
+			}
+		}
+
+		LocalQueue queue;
+		if (group == null || group.isEmpty()) {
+			queue = broker.provisionTemporaryQueue();
+			for (String topicSubscription : topicSubscriptions) {
+				broker.addSubscription(queue, topicSubscription);
+			}
+		} else {
+			queue = broker.provisionQueue(name, topicSubscriptions.toArray(new String[0]));
+		}
+
+		return new LocalBrokerConsumerDestination(queue);
+	}
+
+	void deprovisionConsumerDestination (ConsumerDestination destination) {
+
+		LocalQueue queue = ((LocalBrokerConsumerDestination) destination).getQueue();
+		if (queue.isTemporary()) {
+			broker.deleteQueue(queue);
+		}
+	}
+
+	static final class LocalBrokerProducerDestination implements ProducerDestination {
+
+		private final String topic;
+
+		LocalBrokerProducerDestination(String topic) {
+			this.topic = topic;
+		}
+
+		@Override
+		public String getName () {
+			return topic;
+		}
+
+		@Override
+		public String getNameForPartition (int partition) {
+			// No partitioning on the local broker
+			return topic;
+		}
+	}
+
+	static final class LocalBrokerConsumerDestination implements ConsumerDestination {
+
+		private final LocalQueue queue;
+
+		LocalBrokerConsumerDestination(LocalQueue queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public String getName () {
+			return queue.getName();
+		}
+
+		LocalQueue getQueue () {
+			return queue;
+		}
+	}
+}
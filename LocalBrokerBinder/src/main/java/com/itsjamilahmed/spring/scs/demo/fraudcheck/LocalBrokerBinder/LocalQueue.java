@@ -0,0 +1,97 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.messaging.Message;
+
+// Purpose: A queue on the local broker, attracting messages through its topic subscriptions
+//  * Queues are non-exclusive: every consumer bound to the queue competes for the next message
+//  * Each message remembers its expiry time (if it was published with a time-to-live) and whether it is eligible for the dead message queue
+final class LocalQueue {
+
+	// A message as spooled to the queue
+	record SpooledMessage(String topic, Message<?> message, long expiresAtMs, boolean dmqEligible) {
+
+		boolean isExpired (long nowMs) {
+			return expiresAtMs > 0 && nowMs >= expiresAtMs;
+		}
+	}
+
+	private final String name;
+	private final boolean temporary;
+	private final int maxDepth;
+	private final BlockingQueue<SpooledMessage> spool;
+	private final Set<String> subscriptions = new CopyOnWriteArraySet<>();
+	private final AtomicInteger consumerCount = new AtomicInteger();
+
+	LocalQueue(String name, boolean temporary, int maxDepth) {
+		this.name = name;
+		this.temporary = temporary;
+		this.maxDepth = maxDepth;
+		this.spool = new LinkedBlockingQueue<>(maxDepth);
+	}
+
+	String getName () {
+		return name;
+	}
+
+	boolean isTemporary () {
+		return temporary;
+	}
+
+	Set<String> getSubscriptions () {
+		return subscriptions;
+	}
+
+	int getDepth () {
+		return spool.size();
+	}
+
+	int getMaxDepth () {
+		return maxDepth;
+	}
+
+	boolean hasCapacity () {
+		return spool.remainingCapacity() > 0;
+	}
+
+	boolean hasConsumers () {
+		return consumerCount.get() > 0;
+	}
+
+	void consumerBound () {
+		consumerCount.incrementAndGet();
+	}
+
+	void consumerUnbound () {
+		consumerCount.decrementAndGet();
+	}
+
+	boolean offer (SpooledMessage message) {
+		return spool.offer(message);
+	}
+
+	SpooledMessage poll (long timeoutMs) throws InterruptedException {
+		return spool.poll(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	// Remove every expired message from the spool, handing each to the given action
+	void removeExpired (long nowMs, Consumer<SpooledMessage> action) {
+
+		Iterator<SpooledMessage> spooled = spool.iterator();
+		while (spooled.hasNext()) {
+			SpooledMessage message = spooled.next();
+			if (message.isExpired(nowMs)) {
+				spooled.remove();
+				action.accept(message);
+			}
+		}
+	}
+}
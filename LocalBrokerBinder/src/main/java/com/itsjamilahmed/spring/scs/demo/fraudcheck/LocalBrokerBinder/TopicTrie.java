@@ -0,0 +1,132 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+// Purpose: Match published topics against topic subscriptions, following the PubSub+ wildcard rules
+//  * Topics are levels separated by '/'
+//  * A level of just '*' matches any single level. A level ending in '*' (e.g. 'abc*') matches any level starting with that prefix.
+//  * A last level of '>' matches one or more further levels
+//  * Anything else (including a '*' or '>' in the middle of a level) is matched literally
+//  * Subscriptions change rarely compared to publishes, so matching is lock-free and the subscriber sets are copy-on-write
+final class TopicTrie<T> {
+
+	static final String LEVEL_SEPARATOR = "/";
+	static final String SINGLE_LEVEL_WILDCARD = "*";
+	static final String MULTI_LEVEL_WILDCARD = ">";
+
+	private static final class Node<T> {
+
+		// Child levels to match literally
+		final Map<String, Node<T>> literalChildren = new ConcurrentHashMap<>();
+
+		// Child levels ending in the '*' wildcard, keyed by the prefix before it. (A lone '*' is the empty prefix.)
+		final Map<String, Node<T>> prefixWildcardChildren = new ConcurrentHashMap<>();
+
+		// Subscriptions that end at this level
+		final Set<T> subscribers = new CopyOnWriteArraySet<>();
+
+		// Subscriptions that end with '>' after this level
+		final Set<T> multiLevelSubscribers = new CopyOnWriteArraySet<>();
+	}
+
+	private final Node<T> root = new Node<>();
+
+	void subscribe (String subscription, T subscriber) {
+
+		String[] levels = subscription.split(LEVEL_SEPARATOR, -1);
+		Node<T> node = root;
+
+		for (int i = 0; i < levels.length; i++) {
+			String level = levels[i];
+
+			if (i == levels.length - 1 && level.equals(MULTI_LEVEL_WILDCARD)) {
+				node.multiLevelSubscribers.add(subscriber);
+				return;
+			}
+
+			if (isPrefixWildcard(level)) {
+				node = node.prefixWildcardChildren.computeIfAbsent(level.substring(0, level.length() - 1), key -> new Node<>());
+			} else {
+				node = node.literalChildren.computeIfAbsent(level, key -> new Node<>());
+			}
+		}
+
+		node.subscribers.add(subscriber);
+	}
+
+	void unsubscribe (String subscription, T subscriber) {
+
+		// Nodes are left in place, there being few distinct subscriptions over the life of the broker
+		String[] levels = subscription.split(LEVEL_SEPARATOR, -1);
+		Node<T> node = root;
+
+		for (int i = 0; i < levels.length && node != null; i++) {
+			String level = levels[i];
+
+			if (i == levels.length - 1 && level.equals(MULTI_LEVEL_WILDCARD)) {
+				node.multiLevelSubscribers.remove(subscriber);
+				return;
+			}
+
+			node = isPrefixWildcard(level)
+					? node.prefixWildcardChildren.get(level.substring(0, level.length() - 1))
+					: node.literalChildren.get(level);
+		}
+
+		if (node != null) {
+			node.subscribers.remove(subscriber);
+		}
+	}
+
+	// Add each distinct subscriber with a subscription matching the topic
+	void match (String topic, List<T> matches) {
+		match(root, topic, 0, matches);
+	}
+
+	// levelStart is the index in the topic where the next level begins, or -1 if all the levels have been matched
+	private void match (Node<T> node, String topic, int levelStart, List<T> matches) {
+
+		if (levelStart < 0) {
+			addDistinct(node.subscribers, matches);
+			return;
+		}
+
+		// There is at least one more level, so any '>' at this point matches
+		addDistinct(node.multiLevelSubscribers, matches);
+
+		int levelEnd = topic.indexOf(LEVEL_SEPARATOR, levelStart);
+		String level = (levelEnd < 0) ? topic.substring(levelStart) : topic.substring(levelStart, levelEnd);
+		int nextLevelStart = (levelEnd < 0) ? -1 : levelEnd + 1;
+
+		Node<T> literalChild = node.literalChildren.get(level);
+		if (literalChild != null) {
+			match(literalChild, topic, nextLevelStart, matches);
+		}
+
+		if (!node.prefixWildcardChildren.isEmpty()) {
+			for (Map.Entry<String, Node<T>> wildcardChild : node.prefixWildcardChildren.entrySet()) {
+				if (level.startsWith(wildcardChild.getKey())) {
+					match(wildcardChild.getValue(), topic, nextLevelStart, matches);
+				}
+			}
+		}
+	}
+
+	private static boolean isPrefixWildcard (String level) {
+		// Only a trailing '*' is a wildcard. One elsewhere in the level is just a literal character.
+		return level.endsWith(SINGLE_LEVEL_WILDCARD) && level.indexOf(SINGLE_LEVEL_WILDCARD) == level.length() - 1;
+	}
+
+	private static <T> void addDistinct (Set<T> subscribers, List<T> matches) {
+		// A subscriber with several matching subscriptions still only gets one copy of the message
+		for (T subscriber : subscribers) {
+			if (!matches.contains(subscriber)) {
+				matches.add(subscriber);
+			}
+		}
+	}
+}
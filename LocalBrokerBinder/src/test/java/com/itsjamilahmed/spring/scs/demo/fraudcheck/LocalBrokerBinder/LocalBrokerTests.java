@@ -0,0 +1,119 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: Publishing to the queues a topic matches, expiring messages to their DMQ, and refusing publishes to a full queue
+//  * Each test has a broker of its own
+class LocalBrokerTests {
+
+	static final String TOPIC = "myBank/cards/fraudCheck/v1/1234";
+	static final String SUBSCRIPTION = "myBank/cards/fraudCheck/v1/>";
+
+	private final LocalBroker broker = new LocalBroker();
+
+	@Test
+	void spoolsToEachMatchingQueue() throws InterruptedException {
+
+		LocalQueue first = broker.provisionQueue("q.first", SUBSCRIPTION);
+		broker.provisionQueue("q.second", "myBank/cards/*/v1/*");
+		broker.provisionQueue("q.other", "myBank/accounts/>");
+
+		assertEquals(2, broker.publish(TOPIC, message("payload")));
+		assertEquals(0, broker.getQueueDepth("q.other"));
+
+		Message<?> received = broker.receive(first, 0);
+		assertEquals("payload", received.getPayload());
+		assertEquals(TOPIC, received.getHeaders().get(LocalBroker.SOL_DESTINATION_KEY));
+
+		assertEquals(0, broker.publish("myBank/unsubscribed", message("payload")));
+		assertEquals(1, broker.getUnroutedCount());
+	}
+
+	@Test
+	void movesAnExpiredMessageToItsQueuesDmq() throws InterruptedException {
+
+		LocalBrokerProperties properties = new LocalBrokerProperties();
+		properties.setDeadMessageQueues(Map.of("q.requests", "q.requests.dmq"));
+		properties.setQueues(Map.of("q.requests", new String[] { SUBSCRIPTION }));
+		broker.configure(properties);
+
+		broker.publish(TOPIC, expiring("dead", true));
+		Thread.sleep(5);
+
+		// Expired as it is reached, should the sweeper not have got to it first
+		assertNull(broker.receive(broker.provisionQueue("q.requests"), 0));
+		assertEquals(1, broker.getDeadMessageCount());
+		assertEquals(1, broker.getQueueDepth("q.requests.dmq"));
+		assertEquals("dead", broker.receive(broker.provisionQueue("q.requests.dmq"), 0).getPayload());
+	}
+
+	@Test
+	void discardsAnExpiredMessageThatIsNotDmqEligible() throws InterruptedException {
+
+		LocalQueue queue = broker.provisionQueue("q.requests", SUBSCRIPTION);
+		broker.publish(TOPIC, expiring("gone", false));
+		Thread.sleep(5);
+
+		assertNull(broker.receive(queue, 0));
+		assertEquals(1, broker.getExpiredDiscardCount());
+		assertEquals(0, broker.getQueueDepth(LocalBroker.DEFAULT_DMQ_NAME));
+	}
+
+	@Test
+	void refusesAPublishToAFullQueueWithoutSpoolingItElsewhere() {
+
+		broker.provisionQueue("q.other", "myBank/cards/>");
+		LocalBrokerProperties properties = new LocalBrokerProperties();
+		properties.setMaxQueueDepth(1);
+		broker.configure(properties);
+		LocalQueue full = broker.provisionQueue("q.full", SUBSCRIPTION);
+
+		assertEquals(2, broker.publish(TOPIC, message("fills q.full")));
+		assertFalse(full.hasCapacity());
+
+		assertThrows(MessageDeliveryException.class, () -> broker.publish(TOPIC, message("refused")));
+		assertEquals(1, broker.getQueueDepth("q.full"));
+		assertEquals(1, broker.getQueueDepth("q.other"));
+	}
+
+	@Test
+	void deletesATemporaryQueueWithItsSubscriptions() {
+
+		LocalBrokerProvisioner provisioner = new LocalBrokerProvisioner(broker);
+		ExtendedConsumerProperties<LocalBrokerConsumerProperties> properties = new ExtendedConsumerProperties<>(new LocalBrokerConsumerProperties());
+
+		ConsumerDestination durable = provisioner.provisionConsumerDestination(SUBSCRIPTION, "group", properties);
+		ConsumerDestination temporary = provisioner.provisionConsumerDestination(SUBSCRIPTION, null, properties);
+		assertEquals(2, broker.publish(TOPIC, message("both")));
+
+		provisioner.deprovisionConsumerDestination(temporary);
+		provisioner.deprovisionConsumerDestination(durable);
+		assertEquals(0, broker.getQueueDepth(temporary.getName()));
+		assertEquals(1, broker.getQueueDepth(durable.getName()));
+		assertEquals(1, broker.publish(TOPIC, message("durable only")));
+	}
+
+	private static Message<String> message(String payload) {
+		return MessageBuilder.withPayload(payload).build();
+	}
+
+	private static Message<String> expiring(String payload, boolean dmqEligible) {
+
+		return MessageBuilder.withPayload(payload)
+				.setHeader(LocalBroker.SOL_TTL_KEY, 1L)
+				.setHeader(LocalBroker.SOL_DMQ_ENABLE_KEY, dmqEligible)
+				.build();
+	}
+}
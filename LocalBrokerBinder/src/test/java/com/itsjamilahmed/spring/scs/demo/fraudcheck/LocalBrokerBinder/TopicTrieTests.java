@@ -0,0 +1,82 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.LocalBrokerBinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Purpose: Topics matching subscriptions by the PubSub+ wildcard rules, as the services' queues subscribe to them
+class TopicTrieTests {
+
+	private final TopicTrie<String> trie = new TopicTrie<>();
+
+	@Test
+	void matchesLiteralLevels() {
+
+		trie.subscribe("myBank/cards/fraudCheck/v1", "exact");
+
+		assertEquals(List.of("exact"), match("myBank/cards/fraudCheck/v1"));
+		assertEquals(List.of(), match("myBank/cards/fraudCheck"));
+		assertEquals(List.of(), match("myBank/cards/fraudCheck/v1/extra"));
+	}
+
+	@Test
+	void matchesAnyLevelOrPrefixWithAStar() {
+
+		trie.subscribe("myBank/*/fraudCheck", "any");
+		trie.subscribe("myBank/card*/fraudCheck", "prefix");
+
+		assertEquals(List.of("any", "prefix"), sorted(match("myBank/cards/fraudCheck")));
+		assertEquals(List.of("any", "prefix"), sorted(match("myBank/card/fraudCheck")));
+		assertEquals(List.of("any"), match("myBank/accounts/fraudCheck"));
+		// Just the one level
+		assertEquals(List.of(), match("myBank/cards/v1/fraudCheck"));
+	}
+
+	@Test
+	void matchesOneOrMoreFurtherLevelsWithATrailingGreaterThan() {
+
+		trie.subscribe("myBank/cards/txnService/txn/v1/>", "txns");
+
+		assertEquals(List.of("txns"), match("myBank/cards/txnService/txn/v1/1234"));
+		assertEquals(List.of("txns"), match("myBank/cards/txnService/txn/v1/1234/London"));
+		assertEquals(List.of(), match("myBank/cards/txnService/txn/v1"));
+	}
+
+	@Test
+	void takesWildcardsElsewhereLiterally() {
+
+		trie.subscribe("myBank/*cards/>/v1", "literal");
+
+		assertEquals(List.of("literal"), match("myBank/*cards/>/v1"));
+		assertEquals(List.of(), match("myBank/xcards/anything/v1"));
+	}
+
+	@Test
+	void matchesEachSubscriberOnceAndForgetsItOnUnsubscribing() {
+
+		trie.subscribe("myBank/cards/>", "queue");
+		trie.subscribe("myBank/*/fraudCheck", "queue");
+		assertEquals(List.of("queue"), match("myBank/cards/fraudCheck"));
+
+		trie.unsubscribe("myBank/cards/>", "queue");
+		assertEquals(List.of("queue"), match("myBank/cards/fraudCheck"));
+		trie.unsubscribe("myBank/*/fraudCheck", "queue");
+		assertEquals(List.of(), match("myBank/cards/fraudCheck"));
+	}
+
+	private List<String> match(String topic) {
+
+		List<String> matches = new ArrayList<>();
+		trie.match(topic, matches);
+		return matches;
+	}
+
+	private static List<String> sorted(List<String> matches) {
+
+		matches.sort(null);
+		return matches;
+	}
+}
@@ -5,6 +5,7 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.stream.binder.BinderHeaders;
@@ -12,8 +13,16 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.QuotaPermits;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
 public class MediatorServiceApplication {
 
@@ -43,6 +52,9 @@ public class MediatorServiceApplication {
 	static final String MEDIATOR_CORRELATION_ID_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckMediator_correlationId";
 	static final String MEDIATOR_MSG_TIMESTAMP_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckMediator_timestamp";
 	
+	// When the caller stops waiting (epoch milliseconds), for every stage of the pipeline to drop the request after that rather than work on it
+	static final String MEDIATOR_DEADLINE_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckMediator_deadline";
+	
 	// What platform is this mediation service and external API supporting?
 	static final String SOURCE_PLATFORM_NAME_KEY = APP_HEADERS_KEY_PREFIX + "sourcePlatform";
 	static final String SOURCE_PLATFORM_NAME = "ext/zeus";
@@ -58,10 +70,41 @@ public class MediatorServiceApplication {
 	// (e.g. Construct an appropriate error message and send back to the waiting microgateway reply-to and onwards to the API caller.)
 	static final String EVENT_TOPIC_OUT_ERROR = "myBank/cards/fraudCheckApi/error";
 	
+	// Over-quota requests are sent to the error topic with how long to wait before retrying, and counted in the stage error metrics as such
+	static final String RETRY_AFTER_MS_KEY = "retryAfterMs";
+	static final String REASON_OVER_QUOTA = "over_quota";
+	
+	// Admit each partner's requests only within its quota: a rate with bursts, and a cap on its requests in flight?
+	// The quotas are JSON (see PartnerQuotas), and can be replaced at runtime by publishing new ones to the updateQuotas binding's topic.
+	@Value("${fraudcheck.quota.enabled:false}")
+	boolean quotasEnabled = false;
+	
+	@Value("${fraudcheck.quota.quotas:}")
+	String quotas = "";
+	
+	private final StageMetrics metrics;
+	
+	public MediatorServiceApplication(MeterRegistry meterRegistry) {
+		this.metrics = new StageMetrics(meterRegistry, "MediatorService");
+	}
 	
 	public static void main(String[] args) {
 		SpringApplication.run(MediatorServiceApplication.class, args);
 	}
+	
+	@Bean
+	// The partner quotas as configured, until replaced by updateQuotas. (Not starting at all with invalid ones.)
+	PartnerQuotas partnerQuotas(MeterRegistry meterRegistry) {
+		PartnerQuotas partnerQuotas = new PartnerQuotas(meterRegistry);
+		if (quotasEnabled) {
+			try {
+				partnerQuotas.update(quotas);
+			} catch (ParseException | RuntimeException e) {
+				throw new IllegalArgumentException("Invalid fraudcheck.quota.quotas: " + e.toString());
+			}
+		}
+		return partnerQuotas;
+	}
 
 	@Bean
 	// Purpose: Mediate the translation from the externally facing HTTP API to the internal event-driven architecture and topic taxonomy
@@ -69,9 +112,15 @@ public class MediatorServiceApplication {
 	//  * The PubSub+ Microgateway feature creates that message and asynchronously expects a response message to the embedded reply-to topic
 	//  * This service will simply grab that reply-to topic and put it in a header of a new event message to be processed by the event-driven services
 	//  * An event can eventually be generated to that reply-to topic for the waiting Microgateway by another microservice in due course
-	public Function<Message<String>, Message<String>> mediate(){
+	//  * The request's deadline is set as it is received plus the timeout, carried through the pipeline for every stage to check, and its TTL to expire with it
+	//  * With quotas enabled, a partner's request over its quota goes straight to the error topic, with how long to wait before retrying.
+	//  *   An admitted one carries its permit through the pipeline, for it to be released with the final response
+	public Function<Message<String>, Message<String>> mediate(PartnerQuotas partnerQuotas){
+		StageMetrics.Stage stageMetrics = metrics.stage("mediate");
 		return input -> {
 			
+			long startNanos = stageMetrics.received(input);
+			StageTimings.Stage stageTiming = StageTimings.start(input, "mediate");
 			String payload = input.getPayload();
 			JSONObject jsonMessage;
 			log.info("Received message: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
@@ -85,27 +134,49 @@ public class MediatorServiceApplication {
 			
 			String partnerName;	// To use in the construction of the final output topic
 			String outputTopic;		// Dynamically determined on a per-message basis
+			long retryAfterMs = 0;	// Set if over the partner's quota
+			String quotaPermit = null;	// Set if admitted within the partner's quota
 			
 			// Just to facilitate a meaningful log output:
 			String outputTypeForLogging = "Sending mediated request message: ";
+			
+			// The deadline runs from when the broker received the request. The mediated request's TTL is the time left before it (at least 1ms, 0 being no TTL),
+			// so it expires to the DMQ for the timeout response at the deadline, not a full timeout after it was published.
+			Object receivedTimestamp = input.getHeaders().get(SOL_MSG_TIMESTAMP_KEY);
+			long receivedMs = (receivedTimestamp instanceof Number) ? ((Number) receivedTimestamp).longValue() : System.currentTimeMillis();
+			long deadlineMs = receivedMs + REQUEST_TIMEOUT_TRIGGER_MS;
 
 			try {
 				try {
+					long parseStartNanos = System.nanoTime();
 					jsonMessage = (JSONObject) new JSONParser().parse(payload);
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Message validation
 					for (String field : expectedJsonFields) {
 						if (!jsonMessage.containsKey(field))
 						{
+							stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 							throw new Exception("Mandatory field missing: " + field);
 						}
 					}
 					
 					partnerName = jsonMessage.get("partner").toString();
+					
+					if (quotasEnabled) {
+						String permit = UUID.randomUUID().toString();
+						retryAfterMs = partnerQuotas.admit(partnerName, permit, deadlineMs);
+						if (retryAfterMs > 0) {
+							stageMetrics.error(REASON_OVER_QUOTA);
+							throw new Exception("Quota exceeded for partner: " + partnerName + ". Please retry after " + retryAfterMs + "ms.");
+						}
+						quotaPermit = permit;
+					}
 					outputTopic = EVENT_TOPIC_OUT_ROOT + "/" + EVENT_TOPIC_OUT_VERSION + "/" + SOURCE_PLATFORM_NAME + "/" + partnerName;
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception ("Did not receive a valid JSON formatted message. " + e.toString());
 					
 				} 
@@ -115,23 +186,63 @@ public class MediatorServiceApplication {
 				jsonMessage = new JSONObject();
 				jsonMessage.put("status", "error");
 				jsonMessage.put("errorMsg", "Error processing message: " + e.getMessage());
+				if (retryAfterMs > 0) {
+					jsonMessage.put(RETRY_AFTER_MS_KEY, retryAfterMs);
+				}
 				outputTopic = EVENT_TOPIC_OUT_ERROR;
 				outputTypeForLogging = "Sending processing-error message: ";
 			}
+			stageTiming.end();
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessage.toString())
+			MessageBuilder<String> outputBuilder = MessageBuilder.withPayload(jsonMessage.toString())
 					.setHeader(MEDIATOR_CORRELATION_ID_KEY,      input.getHeaders().getOrDefault(SOL_CORRELATION_ID_KEY, ""))
 					.setHeader(MEDIATOR_REPLYTO_DESTINATION_KEY, input.getHeaders().getOrDefault(SOL_REPLYTO_DESTINATION_KEY, ""))
 					.setHeader(MEDIATOR_MSG_TIMESTAMP_KEY,       input.getHeaders().getOrDefault(SOL_MSG_TIMESTAMP_KEY, ""))
+					.setHeader(MEDIATOR_DEADLINE_KEY,            deadlineMs)
 					.setHeader(SOURCE_PLATFORM_NAME_KEY,         SOURCE_PLATFORM_NAME)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY,   stageTiming.trail(input))
 					.setHeader(SOL_DMQ_ENABLE_KEY,               true)
-					.setHeader(SOL_TTL_KEY,                      REQUEST_TIMEOUT_TRIGGER_MS)
-					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
-					.build();
+					.setHeader(SOL_TTL_KEY,                      Math.max(1L, deadlineMs - System.currentTimeMillis()))
+					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic);
+			if (quotaPermit != null) {
+				outputBuilder.setHeader(QuotaPermits.PERMIT_KEY, quotaPermit);
+			}
+			Message<String> output = outputBuilder.build();
 			
 			log.info(outputTypeForLogging + output.getPayload() + " on topic: " + outputTopic);
 
+			stageMetrics.completed(startNanos, EVENT_TOPIC_OUT_ERROR.equals(outputTopic));
 			return output;
 		};
 	}
+	
+	@Bean
+	// Purpose: Replace the partner quotas at runtime, without a restart, from the JSON published to this binding's topic
+	//  * Every instance of the mediator has its own non-durable subscription, so all of them are updated
+	//  * Invalid quotas are logged and ignored, leaving the current ones in place
+	public Consumer<Message<String>> updateQuotas(PartnerQuotas partnerQuotas){
+		return input -> {
+			
+			log.info("Received partner quotas: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			try {
+				partnerQuotas.update(input.getPayload());
+				log.info("Partner quotas updated" + (quotasEnabled ? "" : " (though not enforced, with quotas disabled)"));
+			} catch (ParseException | RuntimeException e) {
+				log.error("Ignoring invalid partner quotas: " + e.toString());
+			}
+		};
+	}
+	
+	@Bean
+	// Purpose: Free the permits of the requests that have had their final API response, for their partners' caps on requests in flight
+	//  * Every instance of the mediator has its own non-durable subscription, each freeing only the permits it holds
+	public Consumer<Message<byte[]>> releaseQuotaPermits(PartnerQuotas partnerQuotas){
+		return input -> {
+			
+			String permit = QuotaPermits.permitOf(input);
+			if (permit != null) {
+				partnerQuotas.release(permit);
+			}
+		};
+	}
 }
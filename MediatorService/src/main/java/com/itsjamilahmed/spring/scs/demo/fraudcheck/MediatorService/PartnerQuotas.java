@@ -0,0 +1,247 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.MediatorService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: Per-partner admission control at the mediator, so one noisy partner cannot flood every downstream queue
+//  * A token bucket per partner: 'ratePerSec' requests a second, in bursts of up to 'burst'
+//  *   Kept as the one timestamp, the time its bucket would be full again (i.e. GCRA), moved on by a CAS: no lock, whatever the consumer concurrency
+//  * A cap on each partner's requests in flight, 'maxInFlight'. An admitted request holds a permit (see QuotaPermits) until released,
+//  *   once the request has its final response, or its deadline passes without (e.g. dropped along the way). The count is CAS'd, so never over the cap.
+//  *   A request over the cap is told to retry after 'IN_FLIGHT_RETRY_MS', there being no telling when the next will be released.
+//  *   The permits past their deadline are freed every 'EXPIRY_EVERY_MS', by whichever request comes along then
+//  * An over-quota request is rejected with how long to wait before retrying
+//  * The quotas are JSON: {"default": {...}, "partners": {"<partner>": {...}}}, each with any of 'ratePerSec', 'burst' and 'maxInFlight' (unset for no limit)
+//  *   Replaced whole when updated at runtime. Each partner's bucket and count carry on under its new quota.
+final class PartnerQuotas {
+
+	static final String METRIC_ADMISSIONS = "fraudcheck.quota.admissions";
+	static final String METRIC_PARTNERS = "fraudcheck.quota.partners";
+
+	static final String QUOTA_DEFAULT_KEY = "default";
+	static final String QUOTA_PARTNERS_KEY = "partners";
+	static final String QUOTA_RATE_KEY = "ratePerSec";
+	static final String QUOTA_BURST_KEY = "burst";
+	static final String QUOTA_MAX_IN_FLIGHT_KEY = "maxInFlight";
+
+	static final String METRIC_IN_FLIGHT = "fraudcheck.quota.inflight";
+	static final String METRIC_EXPIRED = "fraudcheck.quota.expired";
+
+	static final long IN_FLIGHT_RETRY_MS = 100;
+	static final long EXPIRY_EVERY_MS = 100;
+
+	// Partners beyond this many (i.e. made up by callers) share the one bucket and count, so there is a bound on what is held
+	static final int MAX_PARTNERS = 10_000;
+	static final String OTHER_PARTNERS = "";
+
+	static final class Quota {
+		final double ratePerSec;	// 0 for no limit
+		final long burst;			// A second's worth if unset
+		final long maxInFlight;		// 0 for no limit
+
+		Quota(double ratePerSec, long burst, long maxInFlight) {
+			this.ratePerSec = ratePerSec;
+			this.burst = (burst > 0) ? burst : Math.max(1, (long) Math.ceil(ratePerSec));
+			this.maxInFlight = maxInFlight;
+		}
+	}
+
+	static final Quota UNLIMITED = new Quota(0, 1, 0);
+
+	// The quotas as last loaded, replaced whole
+	private static final class Quotas {
+		final Quota defaultQuota;
+		final Map<String, Quota> partnerQuotas;
+
+		Quotas(Quota defaultQuota, Map<String, Quota> partnerQuotas) {
+			this.defaultQuota = defaultQuota;
+			this.partnerQuotas = partnerQuotas;
+		}
+	}
+
+	// One partner's token bucket and requests in flight
+	private static final class Partner {
+		final AtomicLong fullAtNanos = new AtomicLong();
+		final AtomicLong inFlight = new AtomicLong();
+	}
+
+	// A permit held by an admitted request, until released or its deadline
+	private static final class Permit {
+		final Partner partner;
+		final long deadlineMs;
+
+		Permit(Partner partner, long deadlineMs) {
+			this.partner = partner;
+			this.deadlineMs = deadlineMs;
+		}
+	}
+
+	private volatile Quotas quotas = new Quotas(UNLIMITED, Map.of());
+	private final Map<String, Partner> partners = new ConcurrentHashMap<>();
+	private final Map<String, Permit> permits = new ConcurrentHashMap<>();
+	private final AtomicLong lastExpiryMs = new AtomicLong(System.currentTimeMillis());
+
+	// The token buckets' clock, from construction so it is never negative
+	private final long startNanos = System.nanoTime();
+
+	private final Counter admitted;
+	private final Counter rateLimited;
+	private final Counter concurrencyLimited;
+	private final Counter expired;
+
+	PartnerQuotas(MeterRegistry meterRegistry) {
+		Gauge.builder(METRIC_PARTNERS, partners, Map::size).register(meterRegistry);
+		Gauge.builder(METRIC_IN_FLIGHT, permits, Map::size).register(meterRegistry);
+		this.admitted = Counter.builder(METRIC_ADMISSIONS).tags("result", "admitted").register(meterRegistry);
+		this.rateLimited = Counter.builder(METRIC_ADMISSIONS).tags("result", "rate_limited").register(meterRegistry);
+		this.concurrencyLimited = Counter.builder(METRIC_ADMISSIONS).tags("result", "concurrency_limited").register(meterRegistry);
+		this.expired = Counter.builder(METRIC_EXPIRED).register(meterRegistry);
+	}
+
+	// Replace the quotas with those in the JSON. (Left as they were if it is not valid, e.g. not JSON objects or a field not a number.)
+	void update (String json) throws ParseException {
+
+		JSONObject jsonQuotas = (json == null || json.isBlank()) ? new JSONObject() : (JSONObject) new JSONParser().parse(json);
+
+		Map<String, Quota> partnerQuotas = new HashMap<>();
+		JSONObject jsonPartners = (JSONObject) jsonQuotas.get(QUOTA_PARTNERS_KEY);
+		if (jsonPartners != null) {
+			for (Object partnerName : jsonPartners.keySet()) {
+				partnerQuotas.put(partnerName.toString(), quotaOf((JSONObject) jsonPartners.get(partnerName)));
+			}
+		}
+		quotas = new Quotas(quotaOf((JSONObject) jsonQuotas.get(QUOTA_DEFAULT_KEY)), partnerQuotas);
+	}
+
+	// Admit the partner's request? 0 if so, otherwise how many milliseconds to wait before retrying (at least 1).
+	// If admitted under a cap on requests in flight, it holds the permit 'permitId' until released, or its deadline at the latest.
+	long admit (String partnerName, String permitId, long deadlineMs) {
+
+		long nowMs = System.currentTimeMillis();
+		expirePermits(nowMs);
+
+		Quotas current = quotas;
+		Quota quota = current.partnerQuotas.getOrDefault(partnerName, current.defaultQuota);
+		if (quota.ratePerSec <= 0 && quota.maxInFlight <= 0) {
+			admitted.increment();
+			return 0;
+		}
+		Partner partner = partners.get(partnerName);
+		if (partner == null) {
+			String key = (partners.size() < MAX_PARTNERS || current.partnerQuotas.containsKey(partnerName)) ? partnerName : OTHER_PARTNERS;
+			partner = partners.computeIfAbsent(key, name -> new Partner());
+		}
+
+		if (quota.maxInFlight > 0 && !takeInFlight(partner, quota.maxInFlight)) {
+			concurrencyLimited.increment();
+			return IN_FLIGHT_RETRY_MS;
+		}
+		if (quota.ratePerSec > 0) {
+			long waitNanos = takeToken(partner, quota);
+			if (waitNanos > 0) {
+				if (quota.maxInFlight > 0) {
+					partner.inFlight.decrementAndGet();
+				}
+				rateLimited.increment();
+				return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+			}
+		}
+		if (quota.maxInFlight > 0) {
+			permits.put(permitId, new Permit(partner, deadlineMs));
+		}
+		admitted.increment();
+		return 0;
+	}
+
+	// The request holding the permit has its final response. (Nothing to do if it is not held here, e.g. admitted by another instance, or already freed.)
+	void release (String permitId) {
+
+		Permit permit = permits.remove(permitId);
+		if (permit != null) {
+			permit.partner.inFlight.decrementAndGet();
+		}
+	}
+
+	int inFlight () {
+		return permits.size();
+	}
+
+	// Take a token from the bucket: 0 if there was one, otherwise how long until there is
+	private long takeToken (Partner partner, Quota quota) {
+
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / quota.ratePerSec);
+		long nowNanos = System.nanoTime() - startNanos;
+		while (true) {
+			long fullAtNanos = partner.fullAtNanos.get();
+			long nextFullAtNanos = Math.max(fullAtNanos, nowNanos) + intervalNanos;
+			long waitNanos = nextFullAtNanos - nowNanos - quota.burst * intervalNanos;
+			if (waitNanos > 0) {
+				return waitNanos;
+			}
+			if (partner.fullAtNanos.compareAndSet(fullAtNanos, nextFullAtNanos)) {
+				return 0;
+			}
+		}
+	}
+
+	// Count the request in flight, if the partner has fewer than 'maxInFlight' already
+	private boolean takeInFlight (Partner partner, long maxInFlight) {
+
+		while (true) {
+			long inFlight = partner.inFlight.get();
+			if (inFlight >= maxInFlight) {
+				return false;
+			}
+			if (partner.inFlight.compareAndSet(inFlight, inFlight + 1)) {
+				return true;
+			}
+		}
+	}
+
+	// Free the permits past their deadline, whose release never came. (By one caller at a time, and only every so often.)
+	private void expirePermits (long nowMs) {
+
+		long lastMs = lastExpiryMs.get();
+		if (nowMs - lastMs < EXPIRY_EVERY_MS || !lastExpiryMs.compareAndSet(lastMs, nowMs)) {
+			return;
+		}
+		for (Map.Entry<String, Permit> entry : permits.entrySet()) {
+			if (entry.getValue().deadlineMs <= nowMs && permits.remove(entry.getKey(), entry.getValue())) {
+				entry.getValue().partner.inFlight.decrementAndGet();
+				expired.increment();
+			}
+		}
+	}
+
+	private static Quota quotaOf (JSONObject jsonQuota) {
+
+		if (jsonQuota == null) {
+			return UNLIMITED;
+		}
+		return new Quota(numberOf(jsonQuota, QUOTA_RATE_KEY).doubleValue(), numberOf(jsonQuota, QUOTA_BURST_KEY).longValue(),
+				numberOf(jsonQuota, QUOTA_MAX_IN_FLIGHT_KEY).longValue());
+	}
+
+	private static Number numberOf (JSONObject jsonQuota, String key) {
+
+		Object value = jsonQuota.get(key);
+		if (value == null) {
+			return 0;
+		}
+		if (!(value instanceof Number)) {
+			throw new IllegalArgumentException("Quota field '" + key + "' is not a number: " + value);
+		}
+		return (Number) value;
+	}
+}
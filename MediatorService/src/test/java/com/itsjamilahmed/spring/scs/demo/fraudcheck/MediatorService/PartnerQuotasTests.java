@@ -0,0 +1,115 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.MediatorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The per-partner token buckets (GCRA) and caps on requests in flight, and the permits held against the caps
+class PartnerQuotasTests {
+
+	static final String PARTNER = "partnerA";
+	static final long DEADLINE_MS = 10_000;
+
+	private final PartnerQuotas quotas = new PartnerQuotas(new SimpleMeterRegistry());
+	private int permits;
+
+	@Test
+	void admitsEverythingWithoutQuotas() throws ParseException {
+
+		for (int i = 0; i < 1_000; i++) {
+			assertEquals(0, admit(PARTNER));
+		}
+		quotas.update("");
+		assertEquals(0, admit(PARTNER));
+		assertEquals(0, quotas.inFlight());
+	}
+
+	@Test
+	void admitsABurstThenOneRequestPerInterval() throws ParseException {
+
+		quotas.update("{\"default\": {\"ratePerSec\": 10, \"burst\": 3}}");
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, admit(PARTNER));
+		}
+		// The next token is a tenth of a second away
+		long retryMs = admit(PARTNER);
+		assertTrue(retryMs >= 1 && retryMs <= 100, "Retry after " + retryMs + "ms");
+
+		// Each partner has a bucket of its own
+		assertEquals(0, admit("partnerB"));
+	}
+
+	@Test
+	void appliesAPartnersOwnQuotaOverTheDefault() throws ParseException {
+
+		quotas.update("{\"default\": {\"ratePerSec\": 1, \"burst\": 1}, \"partners\": {\"" + PARTNER + "\": {\"ratePerSec\": 1000}}}");
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0, admit(PARTNER), "Request " + i);
+		}
+		assertEquals(0, admit("partnerB"));
+		assertTrue(admit("partnerB") > 0);
+	}
+
+	@Test
+	void capsTheRequestsInFlightUntilReleased() throws ParseException {
+
+		quotas.update("{\"default\": {\"maxInFlight\": 2}}");
+		assertEquals(0, quotas.admit(PARTNER, "permit-1", System.currentTimeMillis() + DEADLINE_MS));
+		assertEquals(0, quotas.admit(PARTNER, "permit-2", System.currentTimeMillis() + DEADLINE_MS));
+		assertEquals(PartnerQuotas.IN_FLIGHT_RETRY_MS, quotas.admit(PARTNER, "permit-3", System.currentTimeMillis() + DEADLINE_MS));
+		assertEquals(2, quotas.inFlight());
+
+		quotas.release("permit-1");
+		// Released once only, and a permit held elsewhere is not released here
+		quotas.release("permit-1");
+		quotas.release("permit-unknown");
+		assertEquals(1, quotas.inFlight());
+		assertEquals(0, quotas.admit(PARTNER, "permit-3", System.currentTimeMillis() + DEADLINE_MS));
+		assertEquals(PartnerQuotas.IN_FLIGHT_RETRY_MS, quotas.admit(PARTNER, "permit-4", System.currentTimeMillis() + DEADLINE_MS));
+	}
+
+	@Test
+	void givesBackTheInFlightSlotOfARateLimitedRequest() throws ParseException {
+
+		quotas.update("{\"default\": {\"ratePerSec\": 1, \"burst\": 1, \"maxInFlight\": 2}}");
+		assertEquals(0, admit(PARTNER));
+		assertTrue(admit(PARTNER) > PartnerQuotas.IN_FLIGHT_RETRY_MS);
+
+		// Still rate limited, rather than at the cap on requests in flight
+		assertTrue(admit(PARTNER) > PartnerQuotas.IN_FLIGHT_RETRY_MS);
+		assertEquals(1, quotas.inFlight());
+	}
+
+	@Test
+	void freesAPermitPastItsDeadline() throws ParseException, InterruptedException {
+
+		quotas.update("{\"default\": {\"maxInFlight\": 1}}");
+		assertEquals(0, quotas.admit(PARTNER, "permit-1", System.currentTimeMillis() + 50));
+		assertEquals(PartnerQuotas.IN_FLIGHT_RETRY_MS, quotas.admit(PARTNER, "permit-2", System.currentTimeMillis() + DEADLINE_MS));
+
+		// Its release never comes, e.g. the request was dropped along the way
+		Thread.sleep(50 + 2 * PartnerQuotas.EXPIRY_EVERY_MS);
+		assertEquals(0, quotas.admit(PARTNER, "permit-2", System.currentTimeMillis() + DEADLINE_MS));
+		assertEquals(1, quotas.inFlight());
+	}
+
+	@Test
+	void keepsTheQuotasIfAnUpdateIsInvalid() throws ParseException {
+
+		quotas.update("{\"default\": {\"ratePerSec\": 1, \"burst\": 1}}");
+		assertThrows(IllegalArgumentException.class, () -> quotas.update("{\"default\": {\"ratePerSec\": \"lots\"}}"));
+		assertThrows(ParseException.class, () -> quotas.update("not json"));
+
+		assertEquals(0, admit(PARTNER));
+		assertTrue(admit(PARTNER) > 0);
+	}
+
+	private long admit(String partnerName) {
+		return quotas.admit(partnerName, "permit-" + (++permits), System.currentTimeMillis() + DEADLINE_MS);
+	}
+}
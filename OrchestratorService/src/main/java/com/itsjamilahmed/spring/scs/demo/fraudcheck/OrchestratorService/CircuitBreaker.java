@@ -0,0 +1,159 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: A circuit breaker around one worker service, so requests fail fast while it is unhealthy rather than each wait for the DMQ timeout
+//  * Closed: requests go through, and the outcomes of the last 'WINDOW_SIZE' are kept. (An outcome being a reply, error reply or stage timeout.)
+//  *   Opens once at least 'failureRatePercent' of them failed, given at least 'MIN_CALLS' outcomes to go on
+//  * Open: requests are rejected for 'openMs', then one is let through as a trial (half open)
+//  * Half open: the trial's outcome closes the breaker again or re-opens it. Should the trial get no reply at all, another is let through after 'openMs'.
+//  *   The trial is known by its request's ID (the UUID of its reply-to topic), so only its own outcome counts, not a late one of a request before it
+//  * The outcomes of requests sent before it opened are ignored while open
+final class CircuitBreaker {
+
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	static final String METRIC_STATE = "fraudcheck.breaker.state";
+	static final String METRIC_REJECTED = "fraudcheck.breaker.rejected";
+	static final String METRIC_TRANSITIONS = "fraudcheck.breaker.transitions";
+
+	static final int WINDOW_SIZE = 20;
+	static final int MIN_CALLS = 10;
+
+	// In the order of their gauge values: 0 closed, 1 half open, 2 open
+	enum State { CLOSED, HALF_OPEN, OPEN }
+
+	private final String stage;
+
+	// Read as needed, so can be configured after construction
+	private final IntSupplier failureRatePercent;
+	private final LongSupplier openMs;
+
+	// Only changed while synchronized
+	private State state = State.CLOSED;
+	private final boolean[] failed = new boolean[WINDOW_SIZE];
+	private int outcomes;
+	private int failures;
+	private long openedAtMs;
+	private long trialAtMs;
+	private String trialRequestId;
+
+	private final MeterRegistry meterRegistry;
+	private final Counter rejected;
+
+	CircuitBreaker(String stage, IntSupplier failureRatePercent, LongSupplier openMs, MeterRegistry meterRegistry) {
+		this.stage = stage;
+		this.failureRatePercent = failureRatePercent;
+		this.openMs = openMs;
+		this.meterRegistry = meterRegistry;
+		Gauge.builder(METRIC_STATE, this, breaker -> breaker.state().ordinal()).tags("stage", stage).register(meterRegistry);
+		this.rejected = Counter.builder(METRIC_REJECTED).tags("stage", stage).register(meterRegistry);
+	}
+
+	// Whether to send the request: false (counted as rejected) if the breaker is open, or half open with its trial already let through.
+	// (If it is let through as the trial, only the outcome of the request with this ID then closes or re-opens the breaker.)
+	synchronized boolean allowRequest (long nowMs, String requestId) {
+
+		if (state == State.CLOSED) {
+			return true;
+		}
+		if (isRejecting(nowMs)) {
+			rejected.increment();
+			return false;
+		}
+		if (state == State.OPEN) {
+			transition(State.HALF_OPEN);
+		}
+		trialAtMs = nowMs;
+		trialRequestId = requestId;
+		return true;
+	}
+
+	// Whether a request would be rejected now, without letting one through as the trial
+	synchronized boolean isRejecting (long nowMs) {
+		return (state == State.OPEN && nowMs - openedAtMs < openMs.getAsLong())
+				|| (state == State.HALF_OPEN && nowMs - trialAtMs < openMs.getAsLong());
+	}
+
+	// The outcome of the request with this ID
+	synchronized void success (String requestId) {
+
+		if (state == State.HALF_OPEN) {
+			if (isTrial(requestId)) {
+				reset();
+				transition(State.CLOSED);
+			}
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	synchronized void failure (String requestId, long nowMs) {
+
+		if (state == State.HALF_OPEN) {
+			if (isTrial(requestId)) {
+				open(nowMs);
+			}
+		} else if (state == State.CLOSED) {
+			record(true);
+			if (outcomes >= MIN_CALLS && failures * 100 >= failureRatePercent.getAsInt() * Math.min(outcomes, WINDOW_SIZE)) {
+				open(nowMs);
+			}
+		}
+	}
+
+	synchronized State state () {
+		return state;
+	}
+
+	private boolean isTrial (String requestId) {
+		return trialRequestId != null && trialRequestId.equals(requestId);
+	}
+
+	private void record (boolean failure) {
+
+		int slot = outcomes++ % WINDOW_SIZE;
+		if (outcomes > WINDOW_SIZE && failed[slot]) {
+			failures--;
+		}
+		failed[slot] = failure;
+		if (failure) {
+			failures++;
+		}
+		if (outcomes == 2 * WINDOW_SIZE) {
+			// Only how many, beyond a full window, matters
+			outcomes = WINDOW_SIZE;
+		}
+	}
+
+	private void open (long nowMs) {
+		openedAtMs = nowMs;
+		trialRequestId = null;
+		reset();
+		transition(State.OPEN);
+	}
+
+	private void reset () {
+		outcomes = 0;
+		failures = 0;
+	}
+
+	private void transition (State to) {
+
+		state = to;
+		Counter.builder(METRIC_TRANSITIONS).tags("stage", stage, "state", to.name().toLowerCase()).register(meterRegistry).increment();
+		if (to == State.OPEN) {
+			log.error("Circuit breaker of the " + stage + " stage is open: failing its requests fast for " + openMs.getAsLong() + "ms");
+		} else {
+			log.info("Circuit breaker of the " + stage + " stage is " + to.name().toLowerCase().replace('_', ' '));
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+// Purpose: An optional 'fused' deployment mode where the whole fraud check pipeline runs inside one JVM
+//  * The worker services are started in this JVM, each as its own application context with its own configuration (as the load generator's embedded mode)
+//  *   Their functions are only called directly: none are bound to the broker, and they run no web server
+//  * The orchestrator functions and the worker functions are chained together with a direct in-memory handoff,
+//  * instead of each step being a publish, a queue write and a re-parse on the next service.
+//  * A worker service that cannot be started, or has no such function, fails the orchestrator's startup rather than quietly going through the broker
+//  * Messages handed between stages look exactly like they would after a trip through the broker,
+//  * so the 'app_' headers carrying the pipeline state have the same semantics in both modes.
+@Configuration
+@ConditionalOnProperty(prefix = "fraudcheck.fused", name = "enabled", havingValue = "true")
+public class FusedPipelineConfiguration {
+
+	private static final Logger log = LoggerFactory.getLogger(FusedPipelineConfiguration.class);
+
+	// The output binding used for anything that still needs to go through the broker
+	static final String FUSED_OUTPUT_BINDING = "fusedFraudCheck-out-0";
+
+	// A stage is given as '<service>#<function bean>', the service's application class being '<service>Application' in its own package
+	static final String SERVICES_PACKAGE = "com.itsjamilahmed.spring.scs.demo.fraudcheck";
+	static final String STAGE_SEPARATOR = "#";
+
+	// Where each worker service's configuration is packaged on the classpath, as '<path>/<service>/'
+	static final String FUSED_CONFIG_PATH = "fused";
+
+	@Value("${fraudcheck.fused.stages.transactions:TransactionsHistoryService#getTransactions}")
+	private String transactionsStageName;
+
+	@Value("${fraudcheck.fused.stages.fraudDetection:FraudDetectionService#getFraudStatus}")
+	private String fraudDetectionStageName;
+
+	@Value("${fraudcheck.fused.stages.cardBlock:CardBlockService#blockCard}")
+	private String cardBlockStageName;
+
+	// Unless set, each service's configuration is read from the classpath, as packaged with the orchestrator.
+	// If set, the directory holding each service's project instead, for its configuration in '<service>/src/main/resources' (so edits to it need no rebuild)
+	@Value("${fraudcheck.fused.servicesDir:}")
+	private String servicesDir;
+
+	// The deferred card blocks run on this many threads, with at most 'cardBlockQueue' waiting. Beyond that, on the thread producing the final response.
+	@Value("${fraudcheck.fused.cardBlockThreads:4}")
+	private int cardBlockThreads;
+
+	@Value("${fraudcheck.fused.cardBlockQueue:1000}")
+	private int cardBlockQueue;
+
+	// The worker services started in this JVM, by service name, closed in the reverse order they were started
+	static final class FusedStages implements AutoCloseable {
+
+		private final Map<String, ConfigurableApplicationContext> contexts = new LinkedHashMap<>();
+
+		@Override
+		public void close () {
+			List<ConfigurableApplicationContext> started = new ArrayList<>(contexts.values());
+			for (int i = started.size() - 1; i >= 0; i--) {
+				started.get(i).close();
+			}
+			contexts.clear();
+		}
+	}
+
+	@Bean(destroyMethod = "close")
+	public FusedStages fusedStages() {
+		return new FusedStages();
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService fusedDeferredExecutor() {
+		// The card block is deferred execution, so is run off the thread producing the final API response.
+		// Bounded, so a backlog of card blocks slows the pipeline down rather than piling up threads.
+		return new ThreadPoolExecutor(cardBlockThreads, cardBlockThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(cardBlockQueue), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	@Bean
+	// Purpose: Run the full fraud check pipeline for a mediated request, handing off in-memory between every stage
+	//  1) Get recent transactions, unless answered from the verdict cache
+	//  2) Get the fraud status of those transactions
+	//  3a) Request a card block if needed, deferred so the final response is not delayed by it
+	//  3b) Return the final API response as the output of this function
+	public Function<Message<byte[]>, Message<byte[]>> fusedFraudCheck(OrchestratorServiceApplication orchestrator,
+			FusedStages fusedStages, StreamBridge streamBridge, ExecutorService fusedDeferredExecutor) {
+
+		Function<Message<byte[]>, Message<byte[]>> transactionsStage = startStage(fusedStages, transactionsStageName);
+		Function<Message<byte[]>, Message<byte[]>> fraudDetectionStage = startStage(fusedStages, fraudDetectionStageName);
+		Function<Message<byte[]>, Message<byte[]>> cardBlockStage = startStage(fusedStages, cardBlockStageName);
+
+		Function<Message<byte[]>, Message<byte[]>> getRecentTransactions = orchestrator.getRecentTransactions(streamBridge);
+		Function<Message<byte[]>, Message<byte[]>> getFraudStatus = orchestrator.getFraudStatus(streamBridge);
+
+		return input -> {
+
+			Message<byte[]> txnRequest = getRecentTransactions.apply(input);
+			if (txnRequest == null) {
+				// Waiting on the check of the card already in flight, to be answered with its verdict (or the error event if it has none)
+				return null;
+			}
+			if (isErrorEvent(txnRequest) || isFinalResponse(txnRequest)) {
+				// Already failed, or answered from the verdict cache
+				return txnRequest;
+			}
+
+			// Any stage can drop the request as past its deadline, which ends the pipeline there
+			Message<byte[]> txnReply = transactionsStage.apply(handOff(txnRequest));
+			Message<byte[]> fraudRequest = (txnReply != null) ? getFraudStatus.apply(handOff(txnReply)) : null;
+			if (fraudRequest == null || isErrorEvent(fraudRequest)) {
+				return fraudRequest;
+			}
+
+			Message<byte[]> fraudDetectionReply = fraudDetectionStage.apply(handOff(fraudRequest));
+			if (fraudDetectionReply == null) {
+				return null;
+			}
+			Message<byte[]> fraudReply = handOff(fraudDetectionReply);
+
+			// Both outputs of the fraud status reply are produced from the one parse of it, as the handleFraudStatus consumer would
+			OrchestratorServiceApplication.FraudStatusOutputs outputs = orchestrator.fraudStatusOutputs(fraudReply);
+			Message<byte[]> cardBlockRequest = outputs.cardBlockRequest;
+			Message<byte[]> finalResponse = outputs.finalResponse;
+
+			if (cardBlockRequest != null) {
+				fusedDeferredExecutor.execute(() -> {
+					if (isErrorEvent(cardBlockRequest)) {
+						streamBridge.send(FUSED_OUTPUT_BINDING, cardBlockRequest);
+					} else {
+						// Nothing subscribes to the card block replies, so as with the broker flow the reply is not used further
+						cardBlockStage.apply(handOff(cardBlockRequest));
+					}
+				});
+			}
+
+			// Any requests that were waiting on this check go to the broker, this function only having the one output, as do the quota permit releases
+			for (Message<byte[]> waitingResponse : outputs.waitingResponses) {
+				streamBridge.send(FUSED_OUTPUT_BINDING, waitingResponse);
+			}
+			for (Message<byte[]> quotaRelease : outputs.quotaReleases) {
+				streamBridge.send(FUSED_OUTPUT_BINDING, quotaRelease);
+			}
+
+			return finalResponse;
+		};
+	}
+
+	// Make an outbound message look as it would when consumed from the broker:
+	// the target destination becomes the destination it was received on, with all other headers intact.
+	// (A newly built message also gets a new timestamp header, just like a message created by the binder on consumption.)
+	private Message<byte[]> handOff (Message<byte[]> outbound) {
+
+		Object destination = outbound.getHeaders().get(BinderHeaders.TARGET_DESTINATION);
+
+		return MessageBuilder.withPayload(outbound.getPayload())
+				.copyHeaders(outbound.getHeaders())
+				.removeHeader(BinderHeaders.TARGET_DESTINATION)
+				.setHeader(OrchestratorServiceApplication.SOL_DESTINATION_KEY, destination)
+				.build();
+	}
+
+	private boolean isErrorEvent (Message<byte[]> message) {
+		return OrchestratorServiceApplication.EVENT_TOPIC_OUT_ERROR.equals(message.getHeaders().get(BinderHeaders.TARGET_DESTINATION));
+	}
+
+	// Anything from getRecentTransactions other than a transactions request is already the final API response
+	private boolean isFinalResponse (Message<byte[]> message) {
+		Object destination = message.getHeaders().get(BinderHeaders.TARGET_DESTINATION);
+		return destination != null && !destination.toString().startsWith(OrchestratorServiceApplication.EVENT_TOPIC_OUT_ROOT_TXN);
+	}
+
+	// Start the stage's worker service in this JVM (if not already started for another stage) and get its function
+	@SuppressWarnings("unchecked")
+	private Function<Message<byte[]>, Message<byte[]>> startStage (FusedStages fusedStages, String stageName) {
+
+		String[] stage = (stageName == null) ? new String[0] : stageName.split(STAGE_SEPARATOR);
+		if (stage.length != 2) {
+			throw new IllegalStateException("Fused pipeline stage '" + stageName + "' is not given as '<service>" + STAGE_SEPARATOR + "<function>'");
+		}
+		String serviceName = stage[0].trim();
+		String functionName = stage[1].trim();
+
+		ConfigurableApplicationContext context = fusedStages.contexts.get(serviceName);
+		if (context == null) {
+			context = startService(serviceName);
+			fusedStages.contexts.put(serviceName, context);
+		}
+		if (!context.containsBean(functionName)) {
+			throw new IllegalStateException("Fused pipeline stage '" + stageName + "': " + serviceName + " has no function '" + functionName + "'");
+		}
+
+		log.info("Fused pipeline stage '" + stageName + "' is in this JVM. Requests for it will be handed off in-memory.");
+		return context.getBean(functionName, Function.class);
+	}
+
+	private ConfigurableApplicationContext startService (String serviceName) {
+
+		Class<?> application;
+		try {
+			application = Class.forName(SERVICES_PACKAGE + "." + serviceName + "." + serviceName + "Application");
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Fused pipeline service " + serviceName + " is not on the classpath", e);
+		}
+		String configLocation;
+		if (servicesDir == null || servicesDir.isBlank()) {
+			configLocation = "classpath:/" + FUSED_CONFIG_PATH + "/" + serviceName + "/";
+		} else {
+			Path configDir = Paths.get(servicesDir, serviceName, "src", "main", "resources").toAbsolutePath().normalize();
+			configLocation = "file:" + configDir + "/";
+		}
+		log.info("Starting " + serviceName + " in this JVM for the fused pipeline, with configuration from " + configLocation);
+
+		return new SpringApplicationBuilder(application)
+				.properties(
+						"spring.config.location=" + configLocation,
+						"spring.main.web-application-type=none",
+						// Called directly only, so none of its functions are bound to the broker
+						"spring.cloud.function.definition=",
+						"spring.cloud.stream.function.autodetect=false")
+				.run();
+	}
+}
@@ -0,0 +1,154 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Purpose: A hashed wheel timer, for very many pending timeouts that are mostly cancelled long before they are due
+//  * A ring of 'wheelSize' buckets, one per tick. A timeout goes in the bucket its deadline falls in, with how many more turns of the wheel it has to wait.
+//  * Scheduling and cancelling are O(1) with no lock, and a pending timeout costs nothing until its bucket comes round
+//  * New timeouts are handed to the one worker thread through a queue, so only it touches the buckets. Cancelled ones are dropped as their bucket comes round.
+//  * Only accurate to the tick: a timeout runs in the tick after its deadline, on the worker thread, so its task should be quick
+final class HashedWheelTimer {
+
+	private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	// How many new timeouts to place per tick at most, so the tick is not held up by a burst of them (the rest are placed on the next)
+	static final int MAX_ADDED_PER_TICK = 100_000;
+
+	static final class Timeout {
+
+		private final Consumer<Timeout> task;
+		private final long deadlineTick;
+		private long remainingRounds;
+		private Timeout next;
+		private volatile boolean cancelled;
+
+		private Timeout(Consumer<Timeout> task, long deadlineTick) {
+			this.task = task;
+			this.deadlineTick = deadlineTick;
+		}
+
+		void cancel () {
+			cancelled = true;
+		}
+	}
+
+	private final String name;
+	private final long tickNanos;
+	private final int mask;
+	private final Timeout[] buckets;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+	private final long startNanos = System.nanoTime();
+
+	// A daemon thread, started on the first timeout scheduled
+	private volatile Thread worker;
+
+	// Only used by the worker thread
+	private long tick;
+
+	HashedWheelTimer(String name, long tickMs, int wheelSize) {
+
+		if (tickMs <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("The tick and wheel size of the " + name + " timer must both be positive");
+		}
+		this.name = name;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+		int size = Integer.highestOneBit(wheelSize);
+		this.buckets = new Timeout[(size < wheelSize) ? size << 1 : size];
+		this.mask = buckets.length - 1;
+	}
+
+	// Run the task once 'delayMs' have passed, unless cancelled first
+	Timeout schedule (Consumer<Timeout> task, long delayMs) {
+
+		if (worker == null) {
+			start();
+		}
+		long deadlineNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+		// Bucket N is expired at the end of tick N, so no earlier than the deadline
+		Timeout timeout = new Timeout(task, deadlineNanos / tickNanos);
+		added.add(timeout);
+		return timeout;
+	}
+
+	private synchronized void start () {
+
+		if (worker == null) {
+			Thread thread = new Thread(this::run, name + "-timer");
+			thread.setDaemon(true);
+			thread.start();
+			worker = thread;
+		}
+	}
+
+	private void run () {
+
+		while (true) {
+			waitForTick();
+			placeAdded();
+			expire(buckets[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+
+	private void waitForTick () {
+
+		long tickAtNanos = startNanos + (tick + 1) * tickNanos;
+		for (long waitNanos = tickAtNanos - System.nanoTime(); waitNanos > 0; waitNanos = tickAtNanos - System.nanoTime()) {
+			LockSupport.parkNanos(this, waitNanos);
+		}
+	}
+
+	private void placeAdded () {
+
+		for (int i = 0; i < MAX_ADDED_PER_TICK; i++) {
+			Timeout timeout = added.poll();
+			if (timeout == null) {
+				return;
+			}
+			if (timeout.cancelled) {
+				continue;
+			}
+			// One already due goes in this tick's bucket, about to be expired
+			long dueTick = Math.max(timeout.deadlineTick, tick);
+			timeout.remainingRounds = (dueTick - tick) / buckets.length;
+			int bucket = (int) (dueTick & mask);
+			timeout.next = buckets[bucket];
+			buckets[bucket] = timeout;
+		}
+	}
+
+	// Run the due timeouts of the bucket, drop the cancelled ones, and count down the turns of the rest
+	private void expire (Timeout head) {
+
+		int bucket = (int) (tick & mask);
+		buckets[bucket] = null;
+
+		for (Timeout timeout = head, next; timeout != null; timeout = next) {
+			next = timeout.next;
+			timeout.next = null;
+
+			if (timeout.cancelled) {
+				continue;
+			}
+			if (timeout.remainingRounds > 0) {
+				timeout.remainingRounds--;
+				timeout.next = buckets[bucket];
+				buckets[bucket] = timeout;
+				continue;
+			}
+			try {
+				timeout.task.accept(timeout);
+			} catch (RuntimeException e) {
+				log.error("Timeout task of the " + name + " timer failed: " + e.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: Hedge the requests to a worker service: if a request's reply is slower than most, send a duplicate (e.g. to be taken by a faster instance)
+//  * The wait before hedging is the configured percentile of the stage's recent reply latencies, so only the slowest few are hedged
+//  *   Each stage's last 'LATENCY_WINDOW' latencies are kept, and the percentile worked out again every 'RECOMPUTE_EVERY' replies
+//  *   Only the primaries' latencies, including those beaten by their hedge (as their late reply is discarded)
+//  * A duplicate gets its own reply-to UUID. Whichever reply comes back first is used, and the other discarded when it comes back on its UUID.
+//  * A budget stops hedging adding more than 'budgetPercent' to the load, whatever the latencies: each request earns that percentage of a hedge
+//  * The hedges wait on a hashed wheel timer, being one per request and nearly all cancelled by the reply
+final class HedgedRequests {
+
+	static final String METRIC_HEDGES = "fraudcheck.hedge.sent";
+	static final String METRIC_HEDGE_WINS = "fraudcheck.hedge.wins";
+	static final String METRIC_OVER_BUDGET = "fraudcheck.hedge.overbudget";
+	static final String METRIC_DISCARDED = "fraudcheck.hedge.discarded";
+
+	static final int LATENCY_WINDOW = 1024;
+	static final int RECOMPUTE_EVERY = 64;
+
+	// Not hedged until the stage has this many latencies to go on
+	static final int MIN_LATENCIES = 100;
+
+	// The budget is held in hundredths of a hedge, and can save up for a burst of at most this many
+	static final long MAX_BURST = 10;
+
+	// How long to remember a hedged request, to discard whichever reply is second. (Its UUIDs are forgotten sooner if both come back.)
+	static final long HEDGED_TTL_MS = 60_000;
+
+	static final long TICK_MS = 5;
+	static final int WHEEL_SIZE = 512;
+
+	// A request and its hedge, under both their UUIDs
+	private static final class Hedged {
+		final Stage stage;
+		final String primaryUuid;
+		final long sentAtNanos;
+		volatile HashedWheelTimer.Timeout hedgeTimeout;
+		volatile String hedgeUuid;
+		volatile String firstReplyUuid;
+
+		Hedged(Stage stage, String primaryUuid, long sentAtNanos) {
+			this.stage = stage;
+			this.primaryUuid = primaryUuid;
+			this.sentAtNanos = sentAtNanos;
+		}
+	}
+
+	// The recent latencies and hedge budget of one stage
+	private final class Stage {
+		final long[] latenciesMicros = new long[LATENCY_WINDOW];
+		long observed;
+		volatile long hedgeAfterMicros = -1;
+		final AtomicLong budgetHundredths = new AtomicLong();
+		final Counter hedges;
+		final Counter hedgeWins;
+		final Counter overBudget;
+
+		Stage(String name) {
+			this.hedges = Counter.builder(METRIC_HEDGES).tags("stage", name).register(meterRegistry);
+			this.hedgeWins = Counter.builder(METRIC_HEDGE_WINS).tags("stage", name).register(meterRegistry);
+			this.overBudget = Counter.builder(METRIC_OVER_BUDGET).tags("stage", name).register(meterRegistry);
+		}
+
+		synchronized void observe (long latencyMicros) {
+			latenciesMicros[(int) (observed++ % LATENCY_WINDOW)] = latencyMicros;
+			if (observed >= MIN_LATENCIES && observed % RECOMPUTE_EVERY == 0) {
+				long[] sorted = Arrays.copyOf(latenciesMicros, (int) Math.min(observed, LATENCY_WINDOW));
+				Arrays.sort(sorted);
+				int atPercentile = Math.max(1, Math.min(99, percentile.getAsInt()));
+				hedgeAfterMicros = sorted[(sorted.length * atPercentile) / 100];
+			}
+		}
+
+		void earn () {
+			long max = MAX_BURST * 100;
+			long earned = budgetPercent.getAsInt();
+			budgetHundredths.accumulateAndGet(earned, (budget, add) -> Math.min(max, budget + add));
+		}
+
+		boolean spend () {
+			for (long budget = budgetHundredths.get(); budget >= 100; budget = budgetHundredths.get()) {
+				if (budgetHundredths.compareAndSet(budget, budget - 100)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final HashedWheelTimer timer = new HashedWheelTimer("hedges", TICK_MS, WHEEL_SIZE);
+
+	private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+	private final Map<String, Hedged> byUuid = new ConcurrentHashMap<>();
+	private volatile long lastExpiryMs = System.currentTimeMillis();
+
+	// Read for each request, so can be configured after construction
+	private final IntSupplier percentile;
+	private final IntSupplier budgetPercent;
+
+	private final MeterRegistry meterRegistry;
+	private final Counter discarded;
+
+	HedgedRequests(IntSupplier percentile, IntSupplier budgetPercent, MeterRegistry meterRegistry) {
+		this.percentile = percentile;
+		this.budgetPercent = budgetPercent;
+		this.meterRegistry = meterRegistry;
+		this.discarded = Counter.builder(METRIC_DISCARDED).register(meterRegistry);
+	}
+
+	// The request has been sent, with its reply to come back on the UUID's reply-to topic. If slower than most, 'sendHedge' is given a new UUID to send a duplicate with.
+	void sent (String stageName, String uuid, long minDelayMs, Consumer<String> sendHedge) {
+
+		Stage stage = stages.computeIfAbsent(stageName, Stage::new);
+		stage.earn();
+
+		Hedged hedged = new Hedged(stage, uuid, System.nanoTime());
+		byUuid.put(uuid, hedged);
+
+		// Until the stage has enough latencies to go on, the request is only tracked for its own
+		long hedgeAfterMicros = stage.hedgeAfterMicros;
+		if (hedgeAfterMicros >= 0) {
+			long delayMs = Math.max(minDelayMs, TimeUnit.MICROSECONDS.toMillis(hedgeAfterMicros));
+			hedged.hedgeTimeout = timer.schedule(self -> hedge(hedged, sendHedge), delayMs);
+		}
+		expireHedged();
+	}
+
+	// A reply has come back on the UUID's reply-to topic: the UUID of the request it answers if it is the first reply, otherwise null to discard it.
+	// (A UUID not sent through here is always the first.)
+	String replied (String uuid) {
+
+		Hedged hedged = byUuid.get(uuid);
+		if (hedged == null) {
+			return uuid;
+		}
+
+		synchronized (hedged) {
+			if (hedged.firstReplyUuid == null) {
+				hedged.firstReplyUuid = uuid;
+			}
+		}
+		if (!uuid.equals(hedged.firstReplyUuid)) {
+			// The slower of the two, so all done with
+			byUuid.remove(uuid);
+			discarded.increment();
+			if (uuid.equals(hedged.primaryUuid)) {
+				// Still the primary's latency: leaving out those the hedge beat would leave out the slowest, and lower the percentile hedged at
+				hedged.stage.observe(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - hedged.sentAtNanos));
+			}
+			return null;
+		}
+
+		HashedWheelTimer.Timeout hedgeTimeout = hedged.hedgeTimeout;
+		if (hedgeTimeout != null) {
+			hedgeTimeout.cancel();
+		}
+		if (hedged.hedgeUuid == null) {
+			// Never hedged, so nothing else to come back
+			byUuid.remove(uuid);
+		} else if (uuid.equals(hedged.hedgeUuid)) {
+			hedged.stage.hedgeWins.increment();
+		}
+
+		// Only the primary's latency, as the hedge's own starts later
+		if (uuid.equals(hedged.primaryUuid)) {
+			hedged.stage.observe(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - hedged.sentAtNanos));
+		}
+		return hedged.primaryUuid;
+	}
+
+	private void hedge (Hedged hedged, Consumer<String> sendHedge) {
+
+		String hedgeUuid;
+		synchronized (hedged) {
+			if (hedged.firstReplyUuid != null) {
+				return;
+			}
+			if (!hedged.stage.spend()) {
+				// Still tracked until its reply, for its latency
+				hedged.stage.overBudget.increment();
+				return;
+			}
+			hedgeUuid = UUID.randomUUID().toString();
+			hedged.hedgeUuid = hedgeUuid;
+		}
+		byUuid.put(hedgeUuid, hedged);
+		hedged.stage.hedges.increment();
+		sendHedge.accept(hedgeUuid);
+	}
+
+	// Forget the requests sent long ago that are still remembered, i.e. one of whose replies never came back
+	private void expireHedged () {
+
+		long nowMs = System.currentTimeMillis();
+		if (nowMs - lastExpiryMs > HEDGED_TTL_MS) {
+			lastExpiryMs = nowMs;
+			long nowNanos = System.nanoTime();
+			byUuid.values().removeIf(hedged -> TimeUnit.NANOSECONDS.toMillis(nowNanos - hedged.sentAtNanos) > HEDGED_TTL_MS);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.messaging.Message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: The fraud checks in flight, one per card, so concurrent requests for a card wait on the one check rather than each starting their own
+//  * The first request for a card leads the check through the pipeline. The others are attached to it, to be answered from its outcome.
+//  * Each check is known by the ID its leader carries through the pipeline, so its outcome finds it even without the card number (e.g. an error reply)
+//  * Each waiting request is held as the transactions request it would have sent, for its own 'app_' headers (reply-to, correlation ID, block preference)
+//  * A check with no outcome within 'maxWaitMs', or by its leader's deadline if sooner, is taken to be lost (e.g. dropped as expired by a worker,
+//  *   or its verdict taken by another instance). Its waiting requests are handed to 'onLost', to be sent the error event, and the next request leads a new one.
+//  * The losses wait on a hashed wheel timer, being one per check and nearly all cancelled by the outcome
+final class InFlightChecks {
+
+	static final String METRIC_IN_FLIGHT = "fraudcheck.coalesce.inflight";
+	static final String METRIC_REQUESTS = "fraudcheck.coalesce.requests";
+	static final String METRIC_ABANDONED = "fraudcheck.coalesce.abandoned";
+
+	static final long TICK_MS = 10;
+	static final int WHEEL_SIZE = 512;
+
+	private static final class Check {
+		final String checkId;
+		final String cardNumber;
+		final List<Message<byte[]>> waiting = new ArrayList<>();
+		HashedWheelTimer.Timeout lostTimeout;
+
+		Check(String checkId, String cardNumber) {
+			this.checkId = checkId;
+			this.cardNumber = cardNumber;
+		}
+	}
+
+	private final HashedWheelTimer timer = new HashedWheelTimer("coalesced-checks", TICK_MS, WHEEL_SIZE);
+
+	// Both only changed together, while synchronized on 'checks'
+	private final Map<String, Check> checks = new HashMap<>();
+	private final Map<String, Check> checksById = new HashMap<>();
+
+	private final Counter leaders;
+	private final Counter followers;
+	private final Counter abandoned;
+
+	InFlightChecks(MeterRegistry meterRegistry) {
+		Gauge.builder(METRIC_IN_FLIGHT, this, InFlightChecks::size).register(meterRegistry);
+		this.leaders = Counter.builder(METRIC_REQUESTS).tags("role", "leader").register(meterRegistry);
+		this.followers = Counter.builder(METRIC_REQUESTS).tags("role", "follower").register(meterRegistry);
+		this.abandoned = Counter.builder(METRIC_ABANDONED).register(meterRegistry);
+	}
+
+	// Whether the request is to lead a new check of the card, known by 'checkId' (true), or has been attached to the check in flight to wait on it (false).
+	// A new check is lost after 'lostAfterMs', its waiting requests then given to 'onLost'.
+	boolean leadOrAttach (String cardNumber, String checkId, Message<byte[]> request, long lostAfterMs, Consumer<List<Message<byte[]>>> onLost) {
+
+		synchronized (checks) {
+			Check check = checks.get(cardNumber);
+			if (check != null) {
+				check.waiting.add(request);
+				followers.increment();
+				return false;
+			}
+			Check newCheck = new Check(checkId, cardNumber);
+			checks.put(cardNumber, newCheck);
+			checksById.put(checkId, newCheck);
+			newCheck.lostTimeout = timer.schedule(self -> {
+				List<Message<byte[]>> waiting = remove(newCheck);
+				if (!waiting.isEmpty()) {
+					abandoned.increment(waiting.size());
+					onLost.accept(waiting);
+				}
+			}, lostAfterMs);
+		}
+		leaders.increment();
+		return true;
+	}
+
+	// The check has its outcome (a verdict or an error): the requests that were waiting on it, to be answered too.
+	// (None if the check is unknown, e.g. already lost.)
+	List<Message<byte[]>> complete (String checkId) {
+
+		Check check;
+		synchronized (checks) {
+			check = checksById.get(checkId);
+		}
+		if (check == null) {
+			return Collections.emptyList();
+		}
+		check.lostTimeout.cancel();
+		return remove(check);
+	}
+
+	int size () {
+		synchronized (checks) {
+			return checks.size();
+		}
+	}
+
+	// The check's waiting requests, if it was still in flight (so only ever taken once)
+	private List<Message<byte[]>> remove (Check check) {
+
+		synchronized (checks) {
+			if (checksById.remove(check.checkId) == null) {
+				return Collections.emptyList();
+			}
+			checks.remove(check.cardNumber, check);
+			return check.waiting;
+		}
+	}
+}
@@ -1,21 +1,35 @@
 package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
 
 import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.AppHeaderPropagator;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.Deadlines;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.QuotaPermits;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
 public class OrchestratorServiceApplication {
 
@@ -52,6 +66,9 @@ public class OrchestratorServiceApplication {
 	static final String IS_CARD_BLOCK_REQ_HEADER_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckOrchestrator_isBlockRequested";
 	static final String PARTNER_NAME_HEADER_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckOrchestrator_partnerName";
 	
+	// The check a request leads, when concurrent requests for its card are coalesced, so its outcome finds the requests waiting on it
+	static final String COALESCED_CHECK_ID_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckOrchestrator_checkId";
+	
 	// How to get the details for routing back the final API response?
 	static final String MEDIATOR_REPLYTO_DESTINATION_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckMediator_replyTo";
 	static final String MEDIATOR_CORRELATION_ID_KEY = APP_HEADERS_KEY_PREFIX + "fraudCheckMediator_correlationId";
@@ -59,23 +76,204 @@ public class OrchestratorServiceApplication {
 
 	static final String SOL_CORRELATION_ID_KEY = "solace_correlationId";
 	
+	// How many recent transactions the fraud check is made on, unless configured otherwise
+	static final int RECENT_TXN_COUNT = 5;
+	
+	// For transactions streamed in chunks: how many to a chunk, the stream, the chunk's number within it, and whether it is the last
+	static final String CHUNK_SIZE_KEY = "chunkSize";
+	static final String STREAM_ID_KEY = "streamId";
+	static final String CHUNK_SEQ_KEY = "chunkSeq";
+	static final String LAST_CHUNK_KEY = "lastChunk";
+	
+	// For a delta fetch: the cursor of the transactions already scored, as given back with the last verdict, and the cursor of the newest fetched
+	static final String SINCE_KEY = "since";
+	static final String CURSOR_KEY = "cursor";
+	static final String TXN_CURSOR_KEY = "txnCursor";
+	
+	// The fraud status of a delta fetch that could not be scored, so all the transactions need fetching again
+	static final String STATUS_RESYNC = "resync";
+	
+	// Fields of the final API response answered from the verdict cache: whether it was, and how old the verdict is
+	static final String VERDICT_CACHED_KEY = "verdictCached";
+	static final String VERDICT_AGE_MS_KEY = "verdictAgeMs";
+	
+	// The final API response goes out ahead of the function's own output (the card block request) on its output binding
+	static final String FRAUD_STATUS_OUTPUT_BINDING = "handleFraudStatus-out-0";
+	
+	// The error event for a stage timing out goes out on the output binding of the function that sent the request
+	static final String TRANSACTIONS_REQUEST_OUTPUT_BINDING = "getRecentTransactions-out-0";
+	static final String FRAUD_STATUS_REQUEST_OUTPUT_BINDING = "getFraudStatus-out-0";
+	
+	// What to do with a fraud check while a circuit breaker is open: fail it fast with the error event, or answer from an older verdict if there is one
+	static final String DEGRADED_ERROR = "error";
+	static final String DEGRADED_CACHED_VERDICT = "cachedVerdict";
+	
+	// The error message for a request failed fast, for the API caller, and its reason in the stage error metrics
+	static final String UNAVAILABLE_MSG = "The fraud check service is temporarily unavailable. Please retry later.";
+	static final String REASON_UNAVAILABLE = "unavailable";
+	
+	// The error message for a request past its deadline when picked up, as the error handling service sends for one that expired before it was
+	static final String TIMEOUT_MSG = "This service is currently unavailable. Please try again later.";
+	
+	// The error message for a request that failed for want of a reply from a worker service
+	static final String INTERNAL_ERROR_MSG = "An internal error occurred. Please retry the operation.";
+	
+	// Which payload format to use for requests to the internal worker services? (They reply in the same format.)
+	// Events bound for the error handling service, and so the API caller, are always JSON.
+	@Value("${fraudcheck.wire.contentType:" + PayloadCodec.CONTENT_TYPE_JSON + "}")
+	String internalContentType = PayloadCodec.CONTENT_TYPE_JSON;
+	
+	// Add a per-stage breakdown of the elapsed time to the final API response? (From the stage timings trail carried through the pipeline.)
+	@Value("${fraudcheck.response.latencyBreakdown:false}")
+	boolean latencyBreakdownEnabled = false;
+	
+	// Fetch only the transactions newer than those the card was last scored on? (Remembering the cursor of at most 'maxCards' cards.)
+	@Value("${fraudcheck.delta.enabled:false}")
+	boolean deltaFetchEnabled = false;
+	
+	@Value("${fraudcheck.delta.maxCards:100000}")
+	int deltaMaxCards = 100_000;
+	
+	// How many recent transactions to check, and whether to have them streamed back in chunks of this many (0 for one reply)
+	@Value("${fraudcheck.txns.count:" + RECENT_TXN_COUNT + "}")
+	int recentTxnCount = RECENT_TXN_COUNT;
+	
+	@Value("${fraudcheck.txns.chunkSize:0}")
+	int txnChunkSize = 0;
+	
+	// The fused pipeline hands each reply straight to the next stage, so cannot take a stream of them
+	@Value("${fraudcheck.fused.enabled:false}")
+	boolean fusedEnabled = false;
+	
+	// Answer a card checked again within 'ttlMs' of its last verdict straight from that verdict? (Holding at most 'maxCards' cards' verdicts.)
+	@Value("${fraudcheck.verdictcache.enabled:false}")
+	boolean verdictCacheEnabled = false;
+	
+	@Value("${fraudcheck.verdictcache.maxCards:10000}")
+	int verdictCacheMaxCards = 10_000;
+	
+	@Value("${fraudcheck.verdictcache.ttlMs:5000}")
+	long verdictCacheTtlMs = 5_000;
+	
+	// Have concurrent requests for a card wait on the one check in flight, rather than each start their own? (For at most 'maxWaitMs'.)
+	@Value("${fraudcheck.coalesce.enabled:false}")
+	boolean coalesceEnabled = false;
+	
+	@Value("${fraudcheck.coalesce.maxWaitMs:3000}")
+	long coalesceMaxWaitMs = 3_000;
+	
+	// Time each request to a worker service, sending the caller the error event if there is no reply within the stage's timeout?
+	// (The requests in flight are then held in memory, so the orchestrator is no longer stateless. Not in the fused mode.)
+	@Value("${fraudcheck.stagetimeout.enabled:false}")
+	boolean stageTimeoutsEnabled = false;
+	
+	@Value("${fraudcheck.stagetimeout.transactionsMs:1000}")
+	long transactionsTimeoutMs = 1_000;
+	
+	@Value("${fraudcheck.stagetimeout.fraudDetectionMs:1000}")
+	long fraudDetectionTimeoutMs = 1_000;
+	
+	// Send a duplicate of a request to a worker service if its reply is slower than the 'percentile' of recent ones (but no sooner than 'minDelayMs')?
+	// Adding at most 'budgetPercent' more requests. (Not for streams, delta scoring or in the fused mode, and the requests in flight are held in memory.)
+	@Value("${fraudcheck.hedge.enabled:false}")
+	boolean hedgingEnabled = false;
+	
+	@Value("${fraudcheck.hedge.percentile:95}")
+	int hedgePercentile = 95;
+	
+	@Value("${fraudcheck.hedge.minDelayMs:10}")
+	long hedgeMinDelayMs = 10;
+	
+	@Value("${fraudcheck.hedge.budgetPercent:10}")
+	int hedgeBudgetPercent = 10;
+	
+	// Fail a request fast while either worker service is failing 'failureRatePercent' of its recent requests (error replies and stage timeouts),
+	// trying it again after 'openMs'? While failing fast, answer from the card's last verdict instead if no older than 'degradedMaxAgeMs' ('degraded: cachedVerdict').
+	@Value("${fraudcheck.breaker.enabled:false}")
+	boolean breakersEnabled = false;
+	
+	@Value("${fraudcheck.breaker.failureRatePercent:50}")
+	int breakerFailureRatePercent = 50;
+	
+	@Value("${fraudcheck.breaker.openMs:5000}")
+	long breakerOpenMs = 5_000;
+	
+	@Value("${fraudcheck.breaker.degraded:" + DEGRADED_ERROR + "}")
+	String breakerDegraded = DEGRADED_ERROR;
+	
+	@Value("${fraudcheck.breaker.degradedMaxAgeMs:300000}")
+	long breakerDegradedMaxAgeMs = 300_000;
+	
+	// The cursor of each card's transactions as of its last verdict. In access order, so the least recently checked make way.
+	private final Map<String, Long> txnCursors = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<String, Long> eldest) {
+			return size() > deltaMaxCards;
+		}
+	};
+	
+	private final VerdictCache verdictCache;
+	
+	private final InFlightChecks inFlightChecks;
+	
+	private final StageTimeouts stageTimeouts;
+	
+	private final HedgedRequests hedgedRequests;
+	
+	private final CircuitBreaker transactionsBreaker;
+	private final CircuitBreaker fraudDetectionBreaker;
+	
+	private final StageMetrics metrics;
+	
+	// The two steps taken on each fraud verdict, whether together (handleFraudStatus) or on their own
+	private final StageMetrics.Stage requestCardBlockMetrics;
+	private final StageMetrics.Stage returnFinalResponseMetrics;
+	
+	public OrchestratorServiceApplication(MeterRegistry meterRegistry) {
+		this.metrics = new StageMetrics(meterRegistry, "OrchestratorService");
+		this.verdictCache = new VerdictCache(() -> verdictCacheMaxCards, meterRegistry);
+		this.inFlightChecks = new InFlightChecks(meterRegistry);
+		this.stageTimeouts = new StageTimeouts(meterRegistry);
+		this.hedgedRequests = new HedgedRequests(() -> hedgePercentile, () -> hedgeBudgetPercent, meterRegistry);
+		this.transactionsBreaker = new CircuitBreaker(StageTimeouts.STAGE_TRANSACTIONS, () -> breakerFailureRatePercent, () -> breakerOpenMs, meterRegistry);
+		this.fraudDetectionBreaker = new CircuitBreaker(StageTimeouts.STAGE_FRAUD_DETECTION, () -> breakerFailureRatePercent, () -> breakerOpenMs, meterRegistry);
+		this.requestCardBlockMetrics = metrics.stage("requestCardBlock");
+		this.returnFinalResponseMetrics = metrics.stage("returnFinalResponse");
+	}
+	
 	// Purpose: Orchestrate the multiple steps involved to support the external API call of checking whether a card has been used fraudulently
-	//  1) Get recent transactions involving the card
-	//  2) Send the transactions list to the fraud detection service to analyse
-	//  3a) If fraud detected, block the card. (An optional step if the original request specified the card to remain active.)
-	//  3b) In parallel send a response back for the original API call of whether fraud detected and if a card block is being processed
+	//  0) If the card's last verdict is recent enough (and the verdict cache is enabled), answer from it and go no further
+	//     (With circuit breakers enabled, fail fast if either worker service is unhealthy, or answer from an older verdict if so configured)
+	//  1) Get recent transactions involving the card (only those newer than it was last scored on, if delta fetches are enabled)
+	//     (Unless a check of the card is already in flight, and request coalescing enabled: the request then waits on that check's verdict)
+	//  2) Send the transactions list to the fraud detection service to analyse (each chunk as it arrives, if streamed)
+	//     (Steps 1 and 2 drop a request past the deadline of the original API request unparsed, and send theirs on with the time remaining as the TTL.
+	//      Step 1 sends the caller the timeout error event for it, there being no DMQ timeout for a request already picked up.)
+	//  (With stage timeouts enabled, the caller is sent the error event as soon as step 1 or 2 has waited too long for its reply)
+	//  3) From the one fraud verdict (handleFraudStatus), however late, as the card block is still wanted:
+	//  3a) Send a response back for the original API call of whether fraud detected and if a card block is being processed
+	//  3b) Then if fraud detected, block the card, deferred so the response is not held up by it. (An optional step if the original request specified the card to remain active.)
 	public static void main(String[] args) {
 		SpringApplication.run(OrchestratorServiceApplication.class, args);
 	}
 		
 	@Bean
-	public Function<Message<String>, Message<String>> getRecentTransactions(){
+	public Function<Message<byte[]>, Message<byte[]>> getRecentTransactions(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("getRecentTransactions");
 		return input -> {
 			
-			String payload = input.getPayload();
+			long startNanos = stageMetrics.received(input);
+			if (Deadlines.isExpired(input)) {
+				// Not worth parsing. Picked up from the queue before it expired to the DMQ, so there will be no timeout response unless sent from here.
+				stageMetrics.expired();
+				stageMetrics.completed(startNanos, true);
+				log.info("Dropping message past its deadline, with the timeout error event, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return errorEvent(input, TIMEOUT_MSG);
+			}
+			StageTimings.Stage stageTiming = StageTimings.start(input, "getRecentTransactions");
 			JSONObject jsonMessageIn;
 			JSONObject jsonMessageOut;
-			log.info("Received fraud check request: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			log.info("Received fraud check request: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
 			
 			String partnerName = "";    // A potentially routable property to use in the construction of the final output topic
 			String sourcePlatformName;	// A potentially routable property to use in the construction of the final output topic
@@ -88,25 +286,44 @@ public class OrchestratorServiceApplication {
 			
 			boolean isCardBlockRequested = true;	// Default behaviour is to block the card
 			
+			String cardNumber = "";
+			VerdictCache.Verdict cachedVerdict = null;	// Set if the card's recent verdict answers the request
+			
 			// Just to facilitate a meaningful log output:
 			String outputTypeForLogging = "Sending get-transactions request: ";
 			
 			try {
 				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decode(input);
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Construct a new message for the Transactions Service with only what it needs
 					jsonMessageOut = new JSONObject();
 					
-					// Simply, a request to return the last 5 transactions for the given card number...
-					jsonMessageOut.put("cardNumber",   jsonMessageIn.get("cardNumber").toString());
-					jsonMessageOut.put("txnCount", 5);
+					// Simply, a request to return the last 5 (or as configured) transactions for the given card number...
+					cardNumber = jsonMessageIn.get("cardNumber").toString();
+					jsonMessageOut = transactionsRequest(cardNumber);
 					
 					// Other useful 'state' from this request to carry forward in the event processing pipeline?
 					// -> There is branching logic on whether to block the card or not, even if fraud detected
 					// -> Put that boolean in a message header that will be carried forward in the response too
 					isCardBlockRequested = (boolean) jsonMessageIn.get("blockCardIfFraudulent");
 					
+					long nowMs = System.currentTimeMillis();
+					if (breakersEnabled && !allowFraudCheck(nowMs, uuid)) {
+						// Either worker service is unhealthy: an older verdict will do, if configured and there is one, otherwise fail fast
+						cachedVerdict = DEGRADED_CACHED_VERDICT.equals(breakerDegraded)
+								? verdictCache.lookup(cardNumber, isCardBlockRequested, breakerDegradedMaxAgeMs, nowMs) : null;
+						if (cachedVerdict == null) {
+							log.error("Failing fraud check request fast, as a downstream service is unavailable, for card: " + cardNumber);
+							stageMetrics.error(REASON_UNAVAILABLE);
+							throw new Exception(UNAVAILABLE_MSG);
+						}
+					} else if (verdictCacheEnabled) {
+						cachedVerdict = verdictCache.lookup(cardNumber, isCardBlockRequested, verdictCacheTtlMs, nowMs);
+					}
+					
 					// Finally, get elements from the message header for topic building purposes
 					// Note: Not strictly necessary for the flow to work, however an example of inserting useful routable
 					// elements into the topic to help downstream consumers filter or access-control to very specific interest if needed
@@ -119,10 +336,12 @@ public class OrchestratorServiceApplication {
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception("Did not receive a valid JSON formatted message. " + e.toString());
 					
 				} catch (NullPointerException e) {
 					// Expected to throw if accessing missing fields in the json message
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 					log.error("Error processing message: Mandatory fields missing. ");
 					throw new Exception("Error processing message: Mandatory fields missing. ");
 				}
@@ -133,58 +352,156 @@ public class OrchestratorServiceApplication {
 				outputTopic = EVENT_TOPIC_OUT_ERROR;
 				outputTypeForLogging = "Sending processing-error message: ";
 			}
+			stageTiming.end();
+			
+			if (cachedVerdict != null && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// Answered here, so the end of the pipeline (its latency recorded against this function)
+				Message<byte[]> output = cachedFinalResponse(input, cardNumber, cachedVerdict);
+				Message<byte[]> quotaRelease = quotaReleaseOf(input, output);
+				if (quotaRelease != null && streamBridge != null) {
+					streamBridge.send(TRANSACTIONS_REQUEST_OUTPUT_BINDING, quotaRelease);
+				}
+				stageMetrics.endToEnd(input, StageMetrics.OUTCOME_OK);
+				stageMetrics.completed(startNanos);
+				return output;
+			}
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentTypeFor(outputTopic)))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentTypeFor(outputTopic))
 					.setHeader(REPLY_TO_HEADER_KEY, replyToTopic)
 					.setHeader(IS_CARD_BLOCK_REQ_HEADER_KEY, isCardBlockRequested)
 					.setHeader(PARTNER_NAME_HEADER_KEY, partnerName)
-					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
-					.build();
+					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic);
+			if (!EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// The request has only as long as the caller is left waiting
+				Deadlines.withRemainingTtl(input, outputBuilder);
+			}
+			
+			// Copy over all the app headers, adding this stage to the timings trail...
+			outputBuilder = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input));
+			if (isCoalesced(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// ...and the check it would lead, carried through to its outcome
+				outputBuilder.setHeader(COALESCED_CHECK_ID_KEY, uuid);
+			}
+			Message<byte[]> output = outputBuilder.build();
 			
-			// Copy over all the app headers...
-			output = copyAppMessageHeaders(input, output);
+			// A check with no outcome by its leader's deadline never will have, its leader having been dropped along the way
+			long lostAfterMs = Math.min(coalesceMaxWaitMs, Deadlines.deadlineMs(input) - System.currentTimeMillis());
+			if (isCoalesced(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)
+					&& !inFlightChecks.leadOrAttach(cardNumber, uuid, output, lostAfterMs,
+							waiting -> failWaiting(waiting, INTERNAL_ERROR_MSG, streamBridge, TRANSACTIONS_REQUEST_OUTPUT_BINDING))) {
+				// Answered along with the check in flight, so nothing to send
+				log.info("Fraud check request waiting on the check already in flight for card: " + cardNumber);
+				stageMetrics.completed(startNanos);
+				return null;
+			}
+			
+			if (isStageTimed(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				stageTimeouts.track(uuid, StageTimeouts.STAGE_TRANSACTIONS, transactionsTimeoutMs,
+						stageTimedOut(StageTimeouts.STAGE_TRANSACTIONS, output, streamBridge, TRANSACTIONS_REQUEST_OUTPUT_BINDING));
+			}
+			// A streamed reply would come back twice over, chunk by chunk, so is not hedged
+			if (isHedged(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic) && !jsonMessageOut.containsKey(CHUNK_SIZE_KEY)) {
+				hedgedRequests.sent(StageTimeouts.STAGE_TRANSACTIONS, uuid, hedgeMinDelayMs,
+						hedgeUuid -> streamBridge.send(TRANSACTIONS_REQUEST_OUTPUT_BINDING, hedgeOf(output, hedgeUuid)));
+			}
 
-			log.info(outputTypeForLogging + output.getPayload() + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
+			log.info(outputTypeForLogging + jsonMessageOut + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
 			
+			stageMetrics.completed(startNanos, EVENT_TOPIC_OUT_ERROR.equals(outputTopic));
 			return output;
 		};
 	}
 	
 	@Bean
-	public Function<Message<String>, Message<String>> getFraudStatus(){
+	public Function<Message<byte[]>, Message<byte[]>> getFraudStatus(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("getFraudStatus");
 		return input -> {
 			
-			String payload = input.getPayload();
+			long startNanos = stageMetrics.received(input);
+			if (Deadlines.isExpired(input)) {
+				// The caller is no longer waiting, so not even worth parsing
+				stageMetrics.expired();
+				stageMetrics.completed(startNanos);
+				log.info("Dropping message past its deadline, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				// Though any requests waiting on its check may not be past theirs
+				checkFailed(input, INTERNAL_ERROR_MSG, streamBridge, FRAUD_STATUS_REQUEST_OUTPUT_BINDING);
+				return null;
+			}
+			String replyUuid = repliedUuid(input);
+			if (replyUuid == null) {
+				// The other of a hedged request's two replies came back first, and has been used
+				stageMetrics.completed(startNanos);
+				log.info("Dropping the slower reply to a hedged request, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return null;
+			}
+			if (stageTimeoutsEnabled && !stageTimeouts.replied(replyUuid)) {
+				// Too late: the caller has already been sent the error event for the stage timing out
+				stageMetrics.completed(startNanos);
+				log.info("Dropping reply after its stage timed out, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return null;
+			}
+			StageTimings.Stage stageTiming = StageTimings.start(input, "getFraudStatus");
 			JSONObject jsonMessageIn;
 			JSONObject jsonMessageOut;
-			log.info("Successfully received transactions service response: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			log.info("Successfully received transactions service response: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
 		
 			String partnerName;		    // A potentially routable property to use in the construction of the final output topic
 			String sourcePlatformName;	// A potentially routable property to use in the construction of the final output topic
 			
 			// An element to help uniquely differentiate each outbound request and resulting reply in the topics generated
+			// (For a stream of transactions, the stream's ID: all its chunks share the one reply-to topic, for the one verdict.)
 			String uuid = UUID.randomUUID().toString();
 			
 			String outputTopic = "";		// Dynamically determined on a per-message basis
 			String replyToTopic = "";		// Route responses back to this service (or other instances of it)
 			
+			String cardNumber = "";
+			boolean furtherChunk = false;	// A chunk of a stream after the first, which only restarts the stage timeout
+			
 			// Just to facilitate meaningful log output:
 			String outputTypeForLogging = "Sending get-fraud-status request: ";
 			
 			try {
 				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+					// The transactions are only passed on, so are left as they were encoded
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decodePassingThrough(input, "txns");
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Was the response content itself OK?
 					if (jsonMessageIn.get("status").toString().equalsIgnoreCase("ok")) {
 						// Proceed with the next step of the orchestration:
+						if (breakersEnabled) {
+							transactionsBreaker.success(replyUuid);
+						}
 						
 						// Construct a new message for the Fraud Status Check Service with only what it needs
 						jsonMessageOut = new JSONObject();
 						
-						// Simply, a request to analyse the last 5 transactions for the given card number...
-						jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber").toString());
-						jsonMessageOut.put("recentTxns", (JSONArray) jsonMessageIn.get("txns"));
+						// Simply, a request to analyse the last 5 (or as configured) transactions for the given card number...
+						cardNumber = jsonMessageIn.get("cardNumber").toString();
+						jsonMessageOut.put("cardNumber", cardNumber);
+						jsonMessageOut.put("recentTxns", jsonMessageIn.get("txns"));
+						
+						// ...or one chunk of a stream of them, passed on as it arrives for the fraud detection service to score with those before it
+						if (jsonMessageIn.containsKey(STREAM_ID_KEY)) {
+							jsonMessageOut.put(STREAM_ID_KEY, jsonMessageIn.get(STREAM_ID_KEY));
+							jsonMessageOut.put(CHUNK_SEQ_KEY, jsonMessageIn.get(CHUNK_SEQ_KEY));
+							jsonMessageOut.put(LAST_CHUNK_KEY, jsonMessageIn.get(LAST_CHUNK_KEY));
+							uuid = jsonMessageIn.get(STREAM_ID_KEY).toString();
+							furtherChunk = Long.parseLong(jsonMessageIn.get(CHUNK_SEQ_KEY).toString()) > 0;
+						}
+						
+						// ...or those newer than it was last scored on, for the fraud detection service to merge into what it last scored
+						if (jsonMessageIn.containsKey(CURSOR_KEY)) {
+							jsonMessageOut.put(TXN_CURSOR_KEY, jsonMessageIn.get(CURSOR_KEY));
+							jsonMessageOut.put("txnCount", jsonMessageIn.get("txnCount"));
+						}
+						if (jsonMessageIn.containsKey(SINCE_KEY)) {
+							jsonMessageOut.put(SINCE_KEY, jsonMessageIn.get(SINCE_KEY));
+						}
 						
 						// Finally, get elements from the message header for topic building purposes
 						// Note: Not strictly necessary for the flow to work, however an example of inserting useful routable
@@ -192,6 +509,13 @@ public class OrchestratorServiceApplication {
 						partnerName = input.getHeaders().get(PARTNER_NAME_HEADER_KEY).toString();
 						sourcePlatformName = input.getHeaders().get(SOURCE_PLATFORM_NAME_KEY).toString();
 						
+						// A stream's further chunks follow its first, whether or not the breaker has since opened
+						if (breakersEnabled && !furtherChunk && !fraudDetectionBreaker.allowRequest(System.currentTimeMillis(), uuid)) {
+							log.error("Failing fraud check request fast, as the Fraud Detection service is unavailable, for card: " + cardNumber);
+							stageMetrics.error(REASON_UNAVAILABLE);
+							throw new Exception(UNAVAILABLE_MSG);
+						}
+						
 						// Build the topics
 						outputTopic = EVENT_TOPIC_OUT_ROOT_FRAUDCHECK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
 						replyToTopic = REPLY_TO_TOPIC_ROOT_FRAUDCHECK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
@@ -202,17 +526,22 @@ public class OrchestratorServiceApplication {
 						// Retry the request? Error out immediately to the API caller? Does the external API (HTTP) Gateway retry?
 						// For now, everything immediately passes back to the caller a generic message to try again.						
 						log.error("Transactions service response was not OK: " + jsonMessageIn.get("errorMsg"));
+						stageMetrics.error(StageMetrics.REASON_UPSTREAM_ERROR);
+						if (breakersEnabled) {
+							transactionsBreaker.failure(replyUuid, System.currentTimeMillis());
+						}
 						throw new Exception("An internal error occurred. Please retry the operation.");
 					}
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception("An internal error occurred. Please retry the operation.");
 					
 				} catch (NullPointerException e) {
 					// Expected to throw if accessing missing fields in the json message
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+					log.error("Error processing message: NullPointerException during json access.", e);
 					throw new Exception("An internal error occurred. Please retry the operation.");
 				}
 			} catch (Exception e) {		
@@ -222,229 +551,641 @@ public class OrchestratorServiceApplication {
 				outputTopic = EVENT_TOPIC_OUT_ERROR;
 				outputTypeForLogging = "Sending processing-error message: ";
 			}
+			stageTiming.end();
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentTypeFor(outputTopic)))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentTypeFor(outputTopic))
 					.setHeader(REPLY_TO_HEADER_KEY, replyToTopic)
-					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic);
+			if (!EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// The request has only as long as the caller is left waiting
+				Deadlines.withRemainingTtl(input, outputBuilder);
+			}
+			
+			// Copy over all the app headers, adding this stage to the timings trail...
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
 					.build();
 			
-			// Copy over all the app headers...
-			output = copyAppMessageHeaders(input, output);
+			if (EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// The end of the check, so likewise for any requests waiting on it
+				checkFailed(input, jsonMessageOut.get("errorMsg").toString(), streamBridge, FRAUD_STATUS_REQUEST_OUTPUT_BINDING);
+			}
 
-			log.info(outputTypeForLogging + output.getPayload() + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
+			if (isStageTimed(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)) {
+				// The verdict of a stream may come back after any of its chunks, so each restarts the wait (unless it has already come back)
+				Runnable onTimeout = stageTimedOut(StageTimeouts.STAGE_FRAUD_DETECTION, output, streamBridge, FRAUD_STATUS_REQUEST_OUTPUT_BINDING);
+				if (furtherChunk) {
+					stageTimeouts.retrack(uuid, StageTimeouts.STAGE_FRAUD_DETECTION, fraudDetectionTimeoutMs, onTimeout);
+				} else {
+					stageTimeouts.track(uuid, StageTimeouts.STAGE_FRAUD_DETECTION, fraudDetectionTimeoutMs, onTimeout);
+				}
+			}
+			// A stream's chunks, or a delta to merge into what was last scored, are for the one instance holding its state, so not hedged
+			if (isHedged(streamBridge) && !EVENT_TOPIC_OUT_ERROR.equals(outputTopic)
+					&& !jsonMessageOut.containsKey(STREAM_ID_KEY) && !jsonMessageOut.containsKey(SINCE_KEY)) {
+				hedgedRequests.sent(StageTimeouts.STAGE_FRAUD_DETECTION, uuid, hedgeMinDelayMs,
+						hedgeUuid -> streamBridge.send(FRAUD_STATUS_REQUEST_OUTPUT_BINDING, hedgeOf(output, hedgeUuid)));
+			}
+			log.info(outputTypeForLogging + jsonMessageOut + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
 			
+			stageMetrics.completed(startNanos, EVENT_TOPIC_OUT_ERROR.equals(outputTopic));
 			return output;
 		};
 	}
 	
 	@Bean
-	public Function<Message<String>, Message<String>> requestCardBlock(){
+	// Purpose: Consume each fraud verdict once, for both the final API response and (only if needed) the card block request
+	//  * The verdict is parsed once, for both
+	//  * The final API response (or a resync, or an error event) is sent first, so it is never held up by the card block
+	//  * Followed by the responses to any requests for the card that were waiting on this verdict, then the release of the quota permit of each request answered
+	//  * The card block request then follows as the function's output, for its deferred execution. Otherwise there is no output.
+	//  * Replaces the separate requestCardBlock and returnFinalResponse consumers, so each verdict is queued and delivered once, not twice
+	//  * A verdict after the stage timed out is too late for the callers, who have had the error event, but not for the card block
+	//  * The slower verdict of a hedged request is dropped altogether, the other having been used for both
+	public Function<Message<byte[]>, Message<byte[]>> handleFraudStatus(StreamBridge streamBridge){
 		return input -> {
 			
-			String payload = input.getPayload();
-			JSONObject jsonMessageIn;
-			JSONObject jsonMessageOut;
-			log.info("Successfully received fraud status response: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
-		
-			String partnerName;		    // A potentially routable property to use in the construction of the final output topic
-			String sourcePlatformName;	// A potentially routable property to use in the construction of the final output topic
+			String replyUuid = repliedUuid(input);
+			if (replyUuid == null) {
+				log.info("Dropping the slower verdict of a hedged request, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return null;
+			}
+			boolean inTime = !stageTimeoutsEnabled || stageTimeouts.replied(replyUuid);
 			
-			// An element to help uniquely differentiate each outbound request and resulting reply in the topics generated
-			String uuid = UUID.randomUUID().toString();
+			FraudStatusOutputs outputs = fraudStatusOutputs(input, replyUuid);
+			if (!inTime) {
+				log.info("Verdict after its stage timed out, so only for the card block, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return outputs.cardBlockRequest;
+			}
 			
-			String outputTopic = "";		// Dynamically determined on a per-message basis
-			String replyToTopic = "";		// Route responses back to this service (or other instances of it)
+			// A resync goes back to the transactions stage, so is timed as getRecentTransactions would
+			Object resyncTopic = outputs.finalResponse.getHeaders().get(REPLY_TO_HEADER_KEY);
+			if (isStageTimed(streamBridge) && resyncTopic != null && !resyncTopic.toString().isEmpty()) {
+				stageTimeouts.track(uuidOf(resyncTopic), StageTimeouts.STAGE_TRANSACTIONS, transactionsTimeoutMs,
+						stageTimedOut(StageTimeouts.STAGE_TRANSACTIONS, outputs.finalResponse, streamBridge, FRAUD_STATUS_OUTPUT_BINDING));
+			}
 			
-			// Just to facilitate helpful log output:
-			String outputTypeForLogging = "Sending card block request (for deferred execution): ";
-			jsonMessageOut = new JSONObject();
+			if (outputs.cardBlockRequest == null && outputs.waitingResponses.isEmpty() && outputs.quotaReleases.isEmpty()) {
+				return outputs.finalResponse;
+			}
+			streamBridge.send(FRAUD_STATUS_OUTPUT_BINDING, outputs.finalResponse);
+			for (Message<byte[]> waitingResponse : outputs.waitingResponses) {
+				streamBridge.send(FRAUD_STATUS_OUTPUT_BINDING, waitingResponse);
+			}
+			for (Message<byte[]> quotaRelease : outputs.quotaReleases) {
+				streamBridge.send(FRAUD_STATUS_OUTPUT_BINDING, quotaRelease);
+			}
+			return outputs.cardBlockRequest;
+		};
+	}
+	
+	// The outputs of one fraud verdict: the final API response (or what stands in for it), the card block request if there is to be one,
+	// the final API responses to the requests that were waiting on the verdict, and the releases of the quota permits of those given a final response
+	static final class FraudStatusOutputs {
+		
+		final Message<byte[]> finalResponse;
+		final Message<byte[]> cardBlockRequest;
+		final List<Message<byte[]>> waitingResponses;
+		final List<Message<byte[]>> quotaReleases;
+		
+		FraudStatusOutputs(Message<byte[]> finalResponse, Message<byte[]> cardBlockRequest, List<Message<byte[]>> waitingResponses,
+				List<Message<byte[]>> quotaReleases) {
+			this.finalResponse = finalResponse;
+			this.cardBlockRequest = cardBlockRequest;
+			this.waitingResponses = waitingResponses;
+			this.quotaReleases = quotaReleases;
+		}
+	}
+	
+	// Parse the verdict once, then produce both outputs from it. (Also used by the fused pipeline.)
+	FraudStatusOutputs fraudStatusOutputs (Message<byte[]> input) {
+		return fraudStatusOutputs(input, uuidOf(input.getHeaders().get(SOL_DESTINATION_KEY)));
+	}
+	
+	// As above, for the verdict on the request with the given UUID (the original's, for a hedge's verdict)
+	FraudStatusOutputs fraudStatusOutputs (Message<byte[]> input, String requestUuid) {
+		
+		JSONObject verdict;
+		try {
+			long parseStartNanos = System.nanoTime();
+			verdict = PayloadCodec.decode(input);
+			returnFinalResponseMetrics.parsed(parseStartNanos);
+		} catch (ParseException e) {
+			// Answered with the error event by returnFinalResponse
+			log.error("Did not receive a valid JSON formatted message. " + e.toString());
+			verdict = null;
+		}
+		
+		if (breakersEnabled) {
+			// A resync is the service working as it should, only with a window to rebuild
+			String status = (verdict != null) ? String.valueOf(verdict.get("status")) : "";
+			if ("ok".equalsIgnoreCase(status) || STATUS_RESYNC.equalsIgnoreCase(status)) {
+				fraudDetectionBreaker.success(requestUuid);
+			} else {
+				fraudDetectionBreaker.failure(requestUuid, System.currentTimeMillis());
+			}
+		}
+		
+		Message<byte[]> finalResponse = returnFinalResponse(input, verdict);
+		List<Message<byte[]>> quotaReleases = new ArrayList<>();
+		addQuotaRelease(quotaReleases, input, finalResponse);
+		
+		// A card block is only needed for fraud detected, with the block requested. (Errors and resyncs have been dealt with by the final response.)
+		boolean fraudDetected = verdict != null && "ok".equalsIgnoreCase(String.valueOf(verdict.get("status")))
+				&& Boolean.TRUE.equals(verdict.get("fraudDetected"));
+		Message<byte[]> cardBlockInput = (fraudDetected && Boolean.TRUE.equals(input.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY))) ? input : null;
+		
+		// Answer the requests that were waiting on this check, each as its own: from the verdict, or with the error event if there is none.
+		// (Still waiting if it is a resync.)
+		List<Message<byte[]>> waitingResponses = new ArrayList<>();
+		Object checkId = input.getHeaders().get(COALESCED_CHECK_ID_KEY);
+		if (coalesceEnabled && checkId != null
+				&& (verdict == null || !STATUS_RESYNC.equalsIgnoreCase(String.valueOf(verdict.get("status"))))) {
 			
+			for (Message<byte[]> waiting : inFlightChecks.complete(checkId.toString())) {
+				
+				if (Deadlines.isExpired(waiting)) {
+					// That caller is no longer waiting (though its block preference still counts)
+					returnFinalResponseMetrics.expired();
+					if (cardBlockInput == null && fraudDetected && Boolean.TRUE.equals(waiting.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY))) {
+						cardBlockInput = MessageBuilder.fromMessage(input).setHeader(IS_CARD_BLOCK_REQ_HEADER_KEY, true).build();
+					}
+					continue;
+				}
+				
+				// The verdict as it would have come back to the waiting request, the timings trail aside
+				Message<byte[]> waitingInput = AppHeaderPropagator.copyAppHeaders(waiting, MessageBuilder.fromMessage(input))
+						.setHeader(StageTimings.STAGE_TIMINGS_KEY, input.getHeaders().get(StageTimings.STAGE_TIMINGS_KEY))
+						.build();
+				Message<byte[]> waitingResponse = returnFinalResponse(waitingInput, verdict);
+				waitingResponses.add(waitingResponse);
+				addQuotaRelease(quotaReleases, waitingInput, waitingResponse);
+				
+				// The one card block covers them all, whoever asked for it
+				if (cardBlockInput == null && fraudDetected && Boolean.TRUE.equals(waiting.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY))) {
+					cardBlockInput = waitingInput;
+				}
+			}
+		}
+		
+		return new FraudStatusOutputs(finalResponse, (cardBlockInput != null) ? requestCardBlock(cardBlockInput, verdict) : null, waitingResponses, quotaReleases);
+	}
+	
+	private void addQuotaRelease (List<Message<byte[]>> quotaReleases, Message<byte[]> input, Message<byte[]> response) {
+		Message<byte[]> quotaRelease = quotaReleaseOf(input, response);
+		if (quotaRelease != null) {
+			quotaReleases.add(quotaRelease);
+		}
+	}
+	
+	// The release of the request's permit against its partner's cap on requests in flight at the mediator, if it holds one and the response is its final API response.
+	// (Not for an error event, the error handling service releasing it with its response, nor a resync.)
+	private static Message<byte[]> quotaReleaseOf (Message<byte[]> input, Message<byte[]> response) {
+		
+		MessageBuilder<byte[]> release = QuotaPermits.releaseOf(input);
+		Object destination = response.getHeaders().get(BinderHeaders.TARGET_DESTINATION);
+		if (release == null || destination == null || !destination.equals(input.getHeaders().get(MEDIATOR_REPLYTO_DESTINATION_KEY))) {
+			return null;
+		}
+		return release.setHeader(BinderHeaders.TARGET_DESTINATION, QuotaPermits.RELEASE_TOPIC).build();
+	}
+	
+	// The card block request for the verdict (as parsed from the input by fraudStatusOutputs), if needed
+	private Message<byte[]> requestCardBlock (Message<byte[]> input, JSONObject verdict) {
+		
+		StageMetrics.Stage stageMetrics = requestCardBlockMetrics;
+		long startNanos = stageMetrics.received(input);
+		StageTimings.Stage stageTiming = StageTimings.start(input, "requestCardBlock");
+		JSONObject jsonMessageIn;
+		JSONObject jsonMessageOut;
+		log.info("Successfully received fraud status response: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+	
+		String partnerName;		    // A potentially routable property to use in the construction of the final output topic
+		String sourcePlatformName;	// A potentially routable property to use in the construction of the final output topic
+		
+		// An element to help uniquely differentiate each outbound request and resulting reply in the topics generated
+		String uuid = UUID.randomUUID().toString();
+		
+		String outputTopic = "";		// Dynamically determined on a per-message basis
+		String replyToTopic = "";		// Route responses back to this service (or other instances of it)
+		
+		// Just to facilitate helpful log output:
+		String outputTypeForLogging = "Sending card block request (for deferred execution): ";
+		jsonMessageOut = new JSONObject();
+		
+		try {
 			try {
-				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+				jsonMessageIn = verdict;
+				
+				// Was the response content itself OK?
+				if (jsonMessageIn.get("status").toString().equalsIgnoreCase("ok")) {
 					
-					// Was the response content itself OK?
-					if (jsonMessageIn.get("status").toString().equalsIgnoreCase("ok")) {
-						
-						// Proceed with the next step of the orchestration:
-						
-						// Was fraud detected and a card block requested if so?
-						
-						boolean fraudDetected = (boolean) jsonMessageIn.get("fraudDetected");
-						boolean blockRequested = (boolean) input.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY);
+					// Proceed with the next step of the orchestration:
+					
+					// Was fraud detected and a card block requested if so?
+					
+					boolean fraudDetected = (boolean) jsonMessageIn.get("fraudDetected");
+					boolean blockRequested = (boolean) input.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY);
+					
+					if (fraudDetected) {
 						
-						if (fraudDetected) {
+						if (blockRequested) {
+							log.info("Fraud was detected and a card block was requested too.");
 							
-							if (blockRequested) {
-								log.info("Fraud was detected and a card block was requested too.");
-								
-								// Construct a new message for the Card Block Service with only what it needs
-								
-								// Simply, a request to block the given card number...
-								jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber").toString());
-								jsonMessageOut.put("setCardBlockStatus", true);
-								
-								// Finally, get elements from the message header for topic building purposes
-								// Note: Not strictly necessary for the flow to work, however an example of inserting useful routable
-								// elements into the topic to help downstream consumers filter or access-control to very specific interest if needed
-								partnerName = input.getHeaders().get(PARTNER_NAME_HEADER_KEY).toString();
-								sourcePlatformName = input.getHeaders().get(SOURCE_PLATFORM_NAME_KEY).toString();
-								
-								// Build the topics
-								outputTopic = EVENT_TOPIC_OUT_ROOT_CARDBLOCK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
-								replyToTopic = REPLY_TO_TOPIC_ROOT_CARDBLOCK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
-							} else {
-								log.info("No further outbound event for card block service required. (Fraud was detected but card block not desired.)");
-							}							
-						}
-						else {
-							// Nothing required to do...
-							log.info("No further outbound event for card block service required. (No fraud was detected.)");
-						}
-						
+							// Construct a new message for the Card Block Service with only what it needs
+							
+							// Simply, a request to block the given card number...
+							jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber").toString());
+							jsonMessageOut.put("setCardBlockStatus", true);
+							
+							// Finally, get elements from the message header for topic building purposes
+							// Note: Not strictly necessary for the flow to work, however an example of inserting useful routable
+							// elements into the topic to help downstream consumers filter or access-control to very specific interest if needed
+							partnerName = input.getHeaders().get(PARTNER_NAME_HEADER_KEY).toString();
+							sourcePlatformName = input.getHeaders().get(SOURCE_PLATFORM_NAME_KEY).toString();
+							
+							// Build the topics
+							outputTopic = EVENT_TOPIC_OUT_ROOT_CARDBLOCK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
+							replyToTopic = REPLY_TO_TOPIC_ROOT_CARDBLOCK + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
+						} else {
+							log.info("No further outbound event for card block service required. (Fraud was detected but card block not desired.)");
+						}							
 					}
-					else
-					{
-						// TODO: Determine failure handling strategy. Retry the request? error out immediately to the API caller? etc
-						// 		 For now, everything immediately passes back to the caller a generic message to try again						
-						log.error("Fraud Detection service response was not OK: " + jsonMessageIn.get("errorMsg"));
-						throw new Exception("An internal error occurred. Please retry the operation.");
+					else {
+						// Nothing required to do...
+						log.info("No further outbound event for card block service required. (No fraud was detected.)");
 					}
 					
-				} catch (ParseException e) {
-					log.error("Did not receive a valid JSON formatted message. " + e.toString());
-					throw new Exception("An internal error occurred. Please retry the operation.");
-				} catch (NullPointerException e) {
-					// Expected to throw if accessing missing fields in the json message
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+				}
+				else if (jsonMessageIn.get("status").toString().equalsIgnoreCase(STATUS_RESYNC)) {
+					// Not scored yet: the transactions are being fetched again (by returnFinalResponse), and the new verdict will come back here
+					log.info("No further outbound event for card block service required. (The fraud status needs a resync.)");
+				}
+				else
+				{
+					// TODO: Determine failure handling strategy. Retry the request? error out immediately to the API caller? etc
+					// 		 For now, everything immediately passes back to the caller a generic message to try again						
+					log.error("Fraud Detection service response was not OK: " + jsonMessageIn.get("errorMsg"));
+					stageMetrics.error(StageMetrics.REASON_UPSTREAM_ERROR);
 					throw new Exception("An internal error occurred. Please retry the operation.");
 				}
-			} catch (Exception e) {
-				
-				jsonMessageOut = new JSONObject();
-				jsonMessageOut.put("errorMsg", e.getMessage());
 				
-				outputTopic = EVENT_TOPIC_OUT_ERROR;
-				outputTypeForLogging = "Sending processing-error message: ";
+			} catch (NullPointerException e) {
+				// Expected to throw if accessing missing fields in the json message
+				stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+				log.error("Error processing message: NullPointerException during json access.", e);
+				throw new Exception("An internal error occurred. Please retry the operation.");
 			}
+		} catch (Exception e) {
 			
-			if (jsonMessageOut.isEmpty()) {
-				return null;
-			} else {
-				Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
-						.setHeader(REPLY_TO_HEADER_KEY, replyToTopic)
-						.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
-						.build();
-				
-				// Copy over all the app headers...
-				output = copyAppMessageHeaders(input, output);
+			jsonMessageOut = new JSONObject();
+			jsonMessageOut.put("errorMsg", e.getMessage());
+			
+			outputTopic = EVENT_TOPIC_OUT_ERROR;
+			outputTypeForLogging = "Sending processing-error message: ";
+		}
+		
+		stageTiming.end();
+		
+		if (jsonMessageOut.isEmpty()) {
+			stageMetrics.completed(startNanos);
+			return null;
+		} else {
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentTypeFor(outputTopic)))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentTypeFor(outputTopic))
+					.setHeader(REPLY_TO_HEADER_KEY, replyToTopic)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic);
+			
+			// Copy over all the app headers, adding this stage to the timings trail...
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+					.build();
 
-				log.info(outputTypeForLogging + output.getPayload() + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
-				
-				return output;
-			}
+			log.info(outputTypeForLogging + jsonMessageOut + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
+			
+			stageMetrics.completed(startNanos, EVENT_TOPIC_OUT_ERROR.equals(outputTopic));
+			return output;
+		}
 
-		};
 	}
 		
-	@Bean
-	public Function<Message<String>, Message<String>> returnFinalResponse(){
-		return input -> {
-			
-			String payload = input.getPayload();
-			JSONObject jsonMessageIn;
-			JSONObject jsonMessageOut;
-			log.info("Successfully received fraud status to create final response: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
-			
-			String outputTopic = "";		// Dynamically determined on a per-message basis
-			
-			// Just to facilitate helpful log output:
-			String outputTypeForLogging = "Sending final API response: ";
-			jsonMessageOut = new JSONObject();
-			
+	// The final API response for the verdict (or an error event, or for a resync the request to fetch the transactions again).
+	// The verdict is as parsed from the input by fraudStatusOutputs: null if it was not valid.
+	private Message<byte[]> returnFinalResponse (Message<byte[]> input, JSONObject verdict) {
+		
+		StageMetrics.Stage stageMetrics = returnFinalResponseMetrics;
+		
+		long startNanos = stageMetrics.received(input);
+		StageTimings.Stage stageTiming = StageTimings.start(input, "returnFinalResponse");
+		JSONObject jsonMessageIn;
+		JSONObject jsonMessageOut;
+		log.info("Successfully received fraud status to create final response: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+		
+		String outputTopic = "";		// Dynamically determined on a per-message basis
+		String replyToTopic = "";		// Only for a resync, to route the transactions back to this service
+		boolean resync = false;
+		
+		// Just to facilitate helpful log output:
+		String outputTypeForLogging = "Sending final API response: ";
+		jsonMessageOut = new JSONObject();
+		
+		try {
 			try {
-				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+				if (verdict == null) {
+					// Already logged by fraudStatusOutputs, which could not parse it
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
+					throw new Exception("An internal error occurred. Please retry the operation.");
+				}
+				jsonMessageIn = verdict;
+				
+				// Was the response content itself OK?
+				if (jsonMessageIn.get("status").toString().equalsIgnoreCase("ok")) {
 					
-					// Was the response content itself OK?
-					if (jsonMessageIn.get("status").toString().equalsIgnoreCase("ok")) {
-						
-						// Proceed with the final message creation:
-						jsonMessageOut.put("status", "ok");
-						jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber"));
-						
-						boolean fraudDetected = (boolean) jsonMessageIn.get("fraudDetected");
-						boolean blockRequested = (boolean) input.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY);
-						
-						jsonMessageOut.put("fraudDetected", fraudDetected);
-						if (fraudDetected) {
-							// Is the card being blocked?
-							jsonMessageOut.put("cardBlockRequested", blockRequested);
-						}
-						
-						// May as well calculate the elapsed time between receiving the original request and this error event
-						long finalMessageTimestampMs = Long.parseLong(input.getHeaders().getOrDefault(SOL_MSG_TIMESTAMP_KEY, "0").toString());
-						long originalRequestTimestampMs = Long.parseLong(input.getHeaders().getOrDefault(MEDIATOR_MSG_TIMESTAMP_KEY, "0").toString());
-						
-						jsonMessageOut.put("elapsedTimeMs", finalMessageTimestampMs - originalRequestTimestampMs); 
-						
-
-						// Build the topics
-						outputTopic = input.getHeaders().get(MEDIATOR_REPLYTO_DESTINATION_KEY).toString();
+					// Proceed with the final message creation:
+					jsonMessageOut.put("status", "ok");
+					jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber"));
+					
+					boolean fraudDetected = (boolean) jsonMessageIn.get("fraudDetected");
+					boolean blockRequested = (boolean) input.getHeaders().get(IS_CARD_BLOCK_REQ_HEADER_KEY);
+					
+					jsonMessageOut.put("fraudDetected", fraudDetected);
+					if (fraudDetected) {
+						// Is the card being blocked?
+						jsonMessageOut.put("cardBlockRequested", blockRequested);
 					}
-					else
-					{
-						// TODO: Determine failure handling strategy. Retry the request? error out immediately to the API caller? etc
-						// 		 For now, everything immediately passes back to the caller a generic message to try again						
-						log.error("Fraud Check service response was not OK: " + jsonMessageIn.get("errorMsg"));
-						throw new Exception("An internal error occurred. Please retry the operation.");
+					
+					// May as well calculate the elapsed time between receiving the original request and this error event
+					long finalMessageTimestampMs = Long.parseLong(input.getHeaders().getOrDefault(SOL_MSG_TIMESTAMP_KEY, "0").toString());
+					long originalRequestTimestampMs = Long.parseLong(input.getHeaders().getOrDefault(MEDIATOR_MSG_TIMESTAMP_KEY, "0").toString());
+					
+					jsonMessageOut.put("elapsedTimeMs", finalMessageTimestampMs - originalRequestTimestampMs); 
+					
+					if (latencyBreakdownEnabled) {
+						// Where that time went, stage by stage
+						jsonMessageOut.put("latencyBreakdown", stageTiming.latencyBreakdown(input));
 					}
 					
-				} catch (ParseException e) {
-					log.error("Did not receive a valid JSON formatted message. " + e.toString());
-					throw new Exception("An internal error occurred. Please retry the operation.");
-				} catch (NullPointerException e) {
-					// Expected to throw if accessing missing fields in the json message
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+					if (verdictCacheEnabled) {
+						// Answer the card's checks from this verdict for a while
+						jsonMessageOut.put(VERDICT_CACHED_KEY, false);
+					}
+					if (verdictCacheEnabled || isDegradedToCachedVerdict()) {
+						verdictCache.put(jsonMessageIn.get("cardNumber").toString(), fraudDetected, blockRequested, System.currentTimeMillis());
+					}
+					
+					// Where to fetch the card's transactions from next time, if the fraud detection service can merge them
+					rememberTxnCursor(jsonMessageIn.get("cardNumber").toString(), jsonMessageIn.get(TXN_CURSOR_KEY));
+
+					// Build the topics
+					outputTopic = input.getHeaders().get(MEDIATOR_REPLYTO_DESTINATION_KEY).toString();
+				}
+				else if (jsonMessageIn.get("status").toString().equalsIgnoreCase(STATUS_RESYNC)) {
+					// The delta fetch could not be scored (e.g. the fraud detection instance did not have what it was to be merged into)
+					// Go back a step and fetch all of the recent transactions, the rest of the pipeline carrying on as for a new request
+					String cardNumber = jsonMessageIn.get("cardNumber").toString();
+					rememberTxnCursor(cardNumber, null);
+					jsonMessageOut = transactionsRequest(cardNumber);
+					
+					String partnerName = input.getHeaders().get(PARTNER_NAME_HEADER_KEY).toString();
+					String sourcePlatformName = input.getHeaders().get(SOURCE_PLATFORM_NAME_KEY).toString();
+					String uuid = UUID.randomUUID().toString();
+					outputTopic = EVENT_TOPIC_OUT_ROOT_TXN + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
+					replyToTopic = REPLY_TO_TOPIC_ROOT_TXN + "/" + sourcePlatformName + "/" + partnerName + "/" + uuid;
+					resync = true;
+					outputTypeForLogging = "Sending get-transactions request (to resync): ";
+				}
+				else
+				{
+					// TODO: Determine failure handling strategy. Retry the request? error out immediately to the API caller? etc
+					// 		 For now, everything immediately passes back to the caller a generic message to try again						
+					log.error("Fraud Check service response was not OK: " + jsonMessageIn.get("errorMsg"));
+					stageMetrics.error(StageMetrics.REASON_UPSTREAM_ERROR);
 					throw new Exception("An internal error occurred. Please retry the operation.");
 				}
-			} catch (Exception e) {
 				
-				jsonMessageOut = new JSONObject();
-				jsonMessageOut.put("errorMsg", e.getMessage());
-				
-				outputTopic = EVENT_TOPIC_OUT_ERROR;
-				outputTypeForLogging = "Sending processing-error message: ";
+			} catch (NullPointerException e) {
+				// Expected to throw if accessing missing fields in the json message
+				stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+				log.error("Error processing message: NullPointerException during json access.", e);
+				throw new Exception("An internal error occurred. Please retry the operation.");
 			}
+		} catch (Exception e) {
+			
+			jsonMessageOut = new JSONObject();
+			jsonMessageOut.put("errorMsg", e.getMessage());
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
-					.setHeader(SOL_CORRELATION_ID_KEY, input.getHeaders().getOrDefault(MEDIATOR_CORRELATION_ID_KEY, ""))
-					.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
+			outputTopic = EVENT_TOPIC_OUT_ERROR;
+			outputTypeForLogging = "Sending processing-error message: ";
+		}
+		
+		stageTiming.end();
+		
+		if (resync) {
+			// Back into the pipeline, as getRecentTransactions would send it
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, Deadlines.withRemainingTtl(input, MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, internalContentType))
+							.setHeader(MessageHeaders.CONTENT_TYPE, internalContentType)
+							.setHeader(REPLY_TO_HEADER_KEY, replyToTopic)
+							.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)))
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
 					.build();
-
-			log.info(outputTypeForLogging + output.getPayload() + " on topic: " + outputTopic);
 			
+			log.info(outputTypeForLogging + jsonMessageOut + " on topic: " + outputTopic + " with reply-to topic: " + replyToTopic);
+			stageMetrics.completed(startNanos);
 			return output;
+		}
+		
+		// The final API response (or error event) is always JSON
+		MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(SOL_CORRELATION_ID_KEY, input.getHeaders().getOrDefault(MEDIATOR_CORRELATION_ID_KEY, ""))
+				.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic);
+		
+		boolean toErrorTopic = EVENT_TOPIC_OUT_ERROR.equals(outputTopic);
+		if (toErrorTopic) {
+			// The error handling service needs the app headers to route its response back to the API caller, and the timings trail for its breakdown.
+			// (Not on the final API response itself, as they are internal to the pipeline.)
+			AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input));
+		}
+		Message<byte[]> output = outputBuilder.build();
+
+		log.info(outputTypeForLogging + jsonMessageOut + " on topic: " + outputTopic);
+		
+		if (!toErrorTopic) {
+			// The end of the pipeline for a successful check. (Otherwise it ends with the error handling service.)
+			stageMetrics.endToEnd(input, StageMetrics.OUTCOME_OK);
+		}
+		stageMetrics.completed(startNanos, toErrorTopic);
+		return output;
+	}
+	
+	// The final API response from the card's recent verdict, as returnFinalResponse would send it, but marked as cached and with the verdict's age.
+	// (Any card block was requested along with the verdict.)
+	private Message<byte[]> cachedFinalResponse (Message<byte[]> input, String cardNumber, VerdictCache.Verdict verdict) {
+		
+		long nowMs = System.currentTimeMillis();
+		JSONObject jsonMessageOut = new JSONObject();
+		jsonMessageOut.put("status", "ok");
+		jsonMessageOut.put("cardNumber", cardNumber);
+		jsonMessageOut.put("fraudDetected", verdict.fraudDetected);
+		if (verdict.fraudDetected) {
+			jsonMessageOut.put("cardBlockRequested", verdict.cardBlockRequested);
+		}
+		long originalRequestTimestampMs = Long.parseLong(input.getHeaders().getOrDefault(MEDIATOR_MSG_TIMESTAMP_KEY, "0").toString());
+		jsonMessageOut.put("elapsedTimeMs", nowMs - originalRequestTimestampMs);
+		jsonMessageOut.put(VERDICT_CACHED_KEY, true);
+		jsonMessageOut.put(VERDICT_AGE_MS_KEY, verdict.ageMs(nowMs));
+		
+		String outputTopic = input.getHeaders().get(MEDIATOR_REPLYTO_DESTINATION_KEY).toString();
+		Message<byte[]> output = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(SOL_CORRELATION_ID_KEY, input.getHeaders().getOrDefault(MEDIATOR_CORRELATION_ID_KEY, ""))
+				.setHeader(BinderHeaders.TARGET_DESTINATION, outputTopic)
+				.build();
+		
+		log.info("Sending final API response (from cached verdict): " + jsonMessageOut + " on topic: " + outputTopic);
+		return output;
+	}
+	
+	// Whether to time the requests to the worker services: only with a StreamBridge to send the error event on, and not fused into one pipeline
+	private boolean isStageTimed (StreamBridge streamBridge) {
+		return stageTimeoutsEnabled && !fusedEnabled && streamBridge != null;
+	}
+	
+	// Whether both worker services are to be sent the fraud check request: the transactions stage's breaker lets it through, and the fraud detection
+	// stage's is not open (its own trial, if half open, being let through by getFraudStatus)
+	private boolean allowFraudCheck (long nowMs, String uuid) {
+		return !fraudDetectionBreaker.isRejecting(nowMs) && transactionsBreaker.allowRequest(nowMs, uuid);
+	}
+	
+	private CircuitBreaker breakerOf (String stage) {
+		return StageTimeouts.STAGE_TRANSACTIONS.equals(stage) ? transactionsBreaker : fraudDetectionBreaker;
+	}
+	
+	// Whether verdicts are to be kept for answering while a circuit breaker is open, even with the verdict cache itself disabled
+	private boolean isDegradedToCachedVerdict () {
+		return breakersEnabled && DEGRADED_CACHED_VERDICT.equals(breakerDegraded);
+	}
+	
+	// Whether to hedge the requests to the worker services: likewise only with a StreamBridge to send the hedges on, and not fused into one pipeline
+	private boolean isHedged (StreamBridge streamBridge) {
+		return hedgingEnabled && !fusedEnabled && streamBridge != null;
+	}
+	
+	// Whether to coalesce the requests for a card: only with a StreamBridge to send the responses to the waiting requests on
+	private boolean isCoalesced (StreamBridge streamBridge) {
+		return coalesceEnabled && streamBridge != null;
+	}
+	
+	// The check led by the input has ended without a verdict: send any requests that were waiting on it the error event its leader was sent
+	private void checkFailed (Message<?> input, String errorMsg, StreamBridge streamBridge, String outputBinding) {
+		
+		Object checkId = input.getHeaders().get(COALESCED_CHECK_ID_KEY);
+		if (isCoalesced(streamBridge) && checkId != null) {
+			failWaiting(inFlightChecks.complete(checkId.toString()), errorMsg, streamBridge, outputBinding);
+		}
+	}
+	
+	private void failWaiting (List<Message<byte[]>> waiting, String errorMsg, StreamBridge streamBridge, String outputBinding) {
+		for (Message<byte[]> request : waiting) {
+			streamBridge.send(outputBinding, errorEvent(request, errorMsg));
+		}
+	}
+	
+	// The UUID of the request the input is a reply to (the original's, for the reply to its hedge), or null if the request's other reply came back first
+	private String repliedUuid (Message<?> input) {
+		String uuid = uuidOf(input.getHeaders().get(SOL_DESTINATION_KEY));
+		return hedgingEnabled ? hedgedRequests.replied(uuid) : uuid;
+	}
+	
+	// A duplicate of the request, with its reply to come back on the hedge's own UUID (and with only the time now left before its deadline)
+	private static Message<byte[]> hedgeOf (Message<byte[]> request, String hedgeUuid) {
+		
+		MessageBuilder<byte[]> hedgeBuilder = MessageBuilder.fromMessage(request)
+				.setHeader(BinderHeaders.TARGET_DESTINATION, withUuid(request.getHeaders().get(BinderHeaders.TARGET_DESTINATION), hedgeUuid))
+				.setHeader(REPLY_TO_HEADER_KEY, withUuid(request.getHeaders().get(REPLY_TO_HEADER_KEY), hedgeUuid));
+		return Deadlines.withRemainingTtl(request, hedgeBuilder).build();
+	}
+	
+	// What to do if the request's stage times out: send the caller the error event, as for any other failure, and likewise any requests waiting on the check
+	private Runnable stageTimedOut (String stage, Message<byte[]> request, StreamBridge streamBridge, String outputBinding) {
+		
+		// Only the headers are needed, not the payload
+		MessageHeaders requestHeaders = request.getHeaders();
+		return () -> {
+			log.error("No reply from the " + stage + " stage in time, to the request on topic: " + requestHeaders.get(BinderHeaders.TARGET_DESTINATION));
+			if (breakersEnabled) {
+				breakerOf(stage).failure(uuidOf(requestHeaders.get(REPLY_TO_HEADER_KEY)), System.currentTimeMillis());
+			}
+			Message<byte[]> timedOutRequest = MessageBuilder.createMessage(new byte[0], requestHeaders);
+			streamBridge.send(outputBinding, errorEvent(timedOutRequest, INTERNAL_ERROR_MSG));
+			checkFailed(timedOutRequest, INTERNAL_ERROR_MSG, streamBridge, outputBinding);
 		};
 	}
 	
-	private Message<String> copyAppMessageHeaders (Message<String> fromMsg, Message<String> toMsg) {
+	// The error event for the request, for the error handling service to route back to its caller (unless the caller has stopped waiting)
+	private Message<byte[]> errorEvent (Message<byte[]> request, String errorMsg) {
 		
-		// Now copy over all the app headers...
-		for (String key : fromMsg.getHeaders().keySet()) {
-			if (key.startsWith(APP_HEADERS_KEY_PREFIX)) {
-				
-				// Message is immutable so need to create new for each header?
-				// TODO: Investigate some optimisation
-				toMsg = MessageBuilder.fromMessage(toMsg)
-						.setHeader(key, fromMsg.getHeaders().get(key))
-						.build();
+		JSONObject jsonMessageOut = new JSONObject();
+		jsonMessageOut.put("errorMsg", errorMsg);
+		
+		return AppHeaderPropagator.copyAppHeaders(request, MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, PayloadCodec.CONTENT_TYPE_JSON))
+						.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+						.setHeader(BinderHeaders.TARGET_DESTINATION, EVENT_TOPIC_OUT_ERROR))
+				.build();
+	}
+	
+	// The UUID that ends a reply-to topic
+	private static String uuidOf (Object topic) {
+		String destination = String.valueOf(topic);
+		return destination.substring(destination.lastIndexOf('/') + 1);
+	}
+	
+	// The topic with its ending UUID replaced
+	private static String withUuid (Object topic, String uuid) {
+		String destination = String.valueOf(topic);
+		return destination.substring(0, destination.lastIndexOf('/') + 1) + uuid;
+	}
+	
+	// The request for the card's recent transactions: all of them, or only those newer than it was last scored on
+	private JSONObject transactionsRequest (String cardNumber) {
+		
+		JSONObject request = new JSONObject();
+		request.put("cardNumber", cardNumber);
+		request.put("txnCount", recentTxnCount);
+		if (txnChunkSize > 0 && !fusedEnabled) {
+			request.put(CHUNK_SIZE_KEY, txnChunkSize);
+		}
+		if (deltaFetchEnabled) {
+			Long since;
+			synchronized (txnCursors) {
+				since = txnCursors.get(cardNumber);
+			}
+			if (since != null) {
+				request.put(SINCE_KEY, since);
 			}
 		}
+		return request;
+	}
+	
+	// A verdict without a cursor (or a resync) means the next fetch has to be of all the transactions
+	private void rememberTxnCursor (String cardNumber, Object txnCursor) {
 		
-		return toMsg; 
+		if (!deltaFetchEnabled) {
+			return;
+		}
+		synchronized (txnCursors) {
+			if (txnCursor instanceof Number) {
+				txnCursors.put(cardNumber, ((Number) txnCursor).longValue());
+			} else {
+				txnCursors.remove(cardNumber);
+			}
+		}
+	}
+	
+	private String contentTypeFor (String outputTopic) {
+		return EVENT_TOPIC_OUT_ERROR.equals(outputTopic) ? PayloadCodec.CONTENT_TYPE_JSON : internalContentType;
 	}
 	
 }
@@ -0,0 +1,98 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: A time limit on each request to a worker service, so the caller still gets a reply if a worker stalls after the first hop
+//  * Each request is tracked by the UUID of its reply-to topic until the reply comes back on that topic
+//  * If none has by the stage's timeout, the stage's timeout task is run (to publish the error event for the caller) and the UUID remembered,
+//  *   so a reply that turns up afterwards is known to be too late and can be dropped. Remembered for 'LATE_REPLY_TTL_MS'.
+//  * The timeouts are on a hashed wheel timer, as there is one pending for every request in flight and nearly all are cancelled by their reply
+final class StageTimeouts {
+
+	static final String METRIC_IN_FLIGHT = "fraudcheck.stagetimeout.inflight";
+	static final String METRIC_TIMEOUTS = "fraudcheck.stagetimeout.timeouts";
+	static final String METRIC_LATE_REPLIES = "fraudcheck.stagetimeout.late";
+
+	// The stages timed, as tagged on the metrics
+	static final String STAGE_TRANSACTIONS = "transactions";
+	static final String STAGE_FRAUD_DETECTION = "fraudDetection";
+
+	// Ticks of 10ms over a 5s turn of the wheel: the stage timeouts are all within a few turns
+	static final long TICK_MS = 10;
+	static final int WHEEL_SIZE = 512;
+
+	// How long to remember the requests that timed out, and how often the older ones are cleared out
+	static final long LATE_REPLY_TTL_MS = 60_000;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer("stage-timeouts", TICK_MS, WHEEL_SIZE);
+
+	private final Map<String, HashedWheelTimer.Timeout> inFlight = new ConcurrentHashMap<>();
+	private final Map<String, Long> timedOutAtMs = new ConcurrentHashMap<>();
+	private volatile long lastExpiryMs = System.currentTimeMillis();
+
+	private final MeterRegistry meterRegistry;
+	private final Map<String, Counter> timeouts = new ConcurrentHashMap<>();
+	private final Counter lateReplies;
+
+	StageTimeouts(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+		Gauge.builder(METRIC_IN_FLIGHT, inFlight, Map::size).register(meterRegistry);
+		this.lateReplies = Counter.builder(METRIC_LATE_REPLIES).register(meterRegistry);
+	}
+
+	// Time the request whose reply will come back on the UUID's reply-to topic, running 'onTimeout' if it has not within 'timeoutMs'.
+	// (Replacing any timeout already pending for the UUID.)
+	void track (String uuid, String stage, long timeoutMs, Runnable onTimeout) {
+
+		HashedWheelTimer.Timeout timeout = timer.schedule(self -> {
+			if (inFlight.remove(uuid, self)) {
+				timedOut(uuid);
+				timeouts.computeIfAbsent(stage, key -> Counter.builder(METRIC_TIMEOUTS).tags("stage", key).register(meterRegistry)).increment();
+				onTimeout.run();
+			}
+		}, timeoutMs);
+
+		HashedWheelTimer.Timeout previous = inFlight.put(uuid, timeout);
+		if (previous != null) {
+			previous.cancel();
+		}
+	}
+
+	// Restart the timeout of a request still waiting on its reply, e.g. for each further chunk of a stream passed on under the one UUID
+	void retrack (String uuid, String stage, long timeoutMs, Runnable onTimeout) {
+
+		if (inFlight.containsKey(uuid)) {
+			track(uuid, stage, timeoutMs, onTimeout);
+		}
+	}
+
+	// A reply has come back on the UUID's reply-to topic. Whether it is in time, i.e. its request has not timed out. (Counted if not.)
+	boolean replied (String uuid) {
+
+		HashedWheelTimer.Timeout timeout = inFlight.remove(uuid);
+		if (timeout != null) {
+			timeout.cancel();
+			return true;
+		}
+		if (timedOutAtMs.containsKey(uuid)) {
+			lateReplies.increment();
+			return false;
+		}
+		return true;
+	}
+
+	private void timedOut (String uuid) {
+
+		long nowMs = System.currentTimeMillis();
+		timedOutAtMs.put(uuid, nowMs);
+		if (nowMs - lastExpiryMs > LATE_REPLY_TTL_MS) {
+			lastExpiryMs = nowMs;
+			timedOutAtMs.values().removeIf(atMs -> nowMs - atMs > LATE_REPLY_TTL_MS);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: The last fraud verdict of each recently checked card, so a card re-checked within seconds can be answered without the pipeline
+//  * Only trusted for so long: the orchestrator does not see the card's new transactions, so each lookup gives the oldest verdict it will use
+//  *   An older one is not dropped, as another lookup may allow more (e.g. when the Fraud Detection service is unavailable)
+//  * In access order, so once 'maxCards' are held the least recently checked make way. (Which is what bounds the verdicts held.)
+//  * A verdict of fraud without the card blocked does not answer a request that asks for the block, so that goes through the pipeline
+final class VerdictCache {
+
+	static final String METRIC_CARDS = "fraudcheck.verdictcache.cards";
+	static final String METRIC_LOOKUPS = "fraudcheck.verdictcache.lookups";
+
+	static final class Verdict {
+		final boolean fraudDetected;
+		final boolean cardBlockRequested;
+		final long verdictAtMs;
+
+		Verdict(boolean fraudDetected, boolean cardBlockRequested, long verdictAtMs) {
+			this.fraudDetected = fraudDetected;
+			this.cardBlockRequested = cardBlockRequested;
+			this.verdictAtMs = verdictAtMs;
+		}
+
+		long ageMs (long nowMs) {
+			return nowMs - verdictAtMs;
+		}
+	}
+
+	// Read as each verdict is added, so the limit can be configured after construction
+	private final IntSupplier maxCards;
+
+	private final Map<String, Verdict> verdicts = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<String, Verdict> eldest) {
+			return size() > maxCards.getAsInt();
+		}
+	};
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter stale;
+
+	VerdictCache(IntSupplier maxCards, MeterRegistry meterRegistry) {
+		this.maxCards = maxCards;
+		Gauge.builder(METRIC_CARDS, this, VerdictCache::size).register(meterRegistry);
+		this.hits = Counter.builder(METRIC_LOOKUPS).tags("result", "hit").register(meterRegistry);
+		this.misses = Counter.builder(METRIC_LOOKUPS).tags("result", "miss").register(meterRegistry);
+		this.stale = Counter.builder(METRIC_LOOKUPS).tags("result", "stale").register(meterRegistry);
+	}
+
+	// The card's verdict if no older than 'maxAgeMs' and it answers the request, otherwise null
+	Verdict lookup (String cardNumber, boolean blockRequested, long maxAgeMs, long nowMs) {
+
+		Verdict verdict;
+		synchronized (verdicts) {
+			verdict = verdicts.get(cardNumber);
+		}
+		if (verdict != null && verdict.ageMs(nowMs) > maxAgeMs) {
+			stale.increment();
+			return null;
+		}
+		if (verdict == null || (verdict.fraudDetected && blockRequested && !verdict.cardBlockRequested)) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return verdict;
+	}
+
+	void put (String cardNumber, boolean fraudDetected, boolean cardBlockRequested, long nowMs) {
+		synchronized (verdicts) {
+			verdicts.put(cardNumber, new Verdict(fraudDetected, fraudDetected && cardBlockRequested, nowMs));
+		}
+	}
+
+	int size () {
+		synchronized (verdicts) {
+			return verdicts.size();
+		}
+	}
+}
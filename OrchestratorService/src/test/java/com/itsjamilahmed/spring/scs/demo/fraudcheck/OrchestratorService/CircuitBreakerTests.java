@@ -0,0 +1,143 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The breaker's sliding window of outcomes, and its trial request while half open
+//  * Opening at a 50% failure rate, for a second
+class CircuitBreakerTests {
+
+	static final long OPEN_MS = 1_000;
+	static final long NOW = 1_000_000L;
+
+	private final CircuitBreaker breaker = new CircuitBreaker("transactions", () -> 50, () -> OPEN_MS, new SimpleMeterRegistry());
+
+	@Test
+	void staysClosedUntilItHasEnoughOutcomes() {
+
+		for (int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++) {
+			breaker.failure("request-" + i, NOW);
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		assertTrue(breaker.allowRequest(NOW, "request"));
+
+		breaker.failure("request", NOW);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	}
+
+	@Test
+	void opensAtTheFailureRateOfTheLastWindow() {
+
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+			breaker.success("request-" + i);
+		}
+		// Each failure now pushes a success out of the window, so half of it fails on the tenth
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE / 2 - 1; i++) {
+			breaker.failure("request-" + i, NOW);
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		breaker.failure("request", NOW);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	}
+
+	@Test
+	void forgetsFailuresThatLeaveTheWindow() {
+
+		// 9 failures of a full window, just short of opening
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE / 2 + 1; i++) {
+			breaker.success("request-" + i);
+		}
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE / 2 - 1; i++) {
+			breaker.failure("request-" + i, NOW);
+		}
+		// A window of successes pushes them all out, so as many again still fall short
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+			breaker.success("request-" + i);
+		}
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE / 2 - 1; i++) {
+			breaker.failure("request-" + i, NOW);
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+
+	@Test
+	void rejectsWhileOpenThenLetsOneTrialThrough() {
+
+		open();
+		assertFalse(breaker.allowRequest(NOW + OPEN_MS - 1, "early"));
+		assertTrue(breaker.isRejecting(NOW + OPEN_MS - 1));
+		assertFalse(breaker.isRejecting(NOW + OPEN_MS));
+
+		assertTrue(breaker.allowRequest(NOW + OPEN_MS, "trial"));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		assertFalse(breaker.allowRequest(NOW + OPEN_MS + 1, "another"));
+
+		breaker.success("trial");
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		assertTrue(breaker.allowRequest(NOW + OPEN_MS + 2, "another"));
+	}
+
+	@Test
+	void reopensOnAFailedTrial() {
+
+		open();
+		breaker.allowRequest(NOW + OPEN_MS, "trial");
+		breaker.failure("trial", NOW + OPEN_MS + 5);
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertFalse(breaker.allowRequest(NOW + 2 * OPEN_MS, "early"));
+		assertTrue(breaker.allowRequest(NOW + 2 * OPEN_MS + 5, "next-trial"));
+	}
+
+	@Test
+	void onlyTheTrialsOwnOutcomeCounts() {
+
+		open();
+		breaker.allowRequest(NOW + OPEN_MS, "trial");
+
+		// Late outcomes of requests sent before the breaker opened
+		breaker.success("before-1");
+		breaker.failure("before-2", NOW + OPEN_MS + 1);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+		breaker.success("trial");
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+
+	@Test
+	void letsAnotherTrialThroughIfTheFirstGetsNoReply() {
+
+		open();
+		breaker.allowRequest(NOW + OPEN_MS, "lost-trial");
+		assertFalse(breaker.allowRequest(NOW + 2 * OPEN_MS - 1, "early"));
+		assertTrue(breaker.allowRequest(NOW + 2 * OPEN_MS, "trial"));
+
+		// The first trial's reply, should it turn up after all, no longer counts
+		breaker.failure("lost-trial", NOW + 2 * OPEN_MS);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		breaker.success("trial");
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	}
+
+	@Test
+	void ignoresOutcomesWhileOpen() {
+
+		open();
+		for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+			breaker.success("request-" + i);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	}
+
+	private void open() {
+		for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+			breaker.failure("request-" + i, NOW);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	}
+}
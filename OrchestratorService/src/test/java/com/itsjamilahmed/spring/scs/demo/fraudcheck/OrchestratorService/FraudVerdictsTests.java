@@ -0,0 +1,75 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.Function;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.Deadlines;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+
+// Purpose: The card block requested from a fraud verdict, however late it comes back, and otherwise just the final API response
+class FraudVerdictsTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+	static final String MEDIATOR_REPLY_TOPIC = "_P2P/v:public-demo-broker/_rest-8c6a5bd5e0c1f24a/POST/fraudCheck";
+
+	private final Function<Message<byte[]>, Message<byte[]>> handleFraudStatus =
+			new OrchestratorServiceApplication(new SimpleMeterRegistry()).handleFraudStatus(new StreamBridge());
+
+	@Test
+	void blocksTheCardForAVerdictPastItsDeadline() throws ParseException {
+
+		Message<byte[]> cardBlock = handleFraudStatus.apply(verdict(true, true, System.currentTimeMillis() - 1_000));
+
+		assertNotNull(cardBlock);
+		assertTrue(cardBlock.getHeaders().get(BinderHeaders.TARGET_DESTINATION).toString()
+				.startsWith(OrchestratorServiceApplication.EVENT_TOPIC_OUT_ROOT_CARDBLOCK + "/ext/zeus/"));
+		assertEquals(CARD, PayloadCodec.decode(cardBlock).get("cardNumber"));
+		// Nor does the card block request expire
+		assertNull(cardBlock.getHeaders().get(Deadlines.SOL_TTL_KEY));
+	}
+
+	@Test
+	void sendsOnlyTheFinalResponseWithoutFraudDetectedAndABlockRequested() {
+
+		long deadlineMs = System.currentTimeMillis() + 60_000;
+		assertEquals(MEDIATOR_REPLY_TOPIC, handleFraudStatus.apply(verdict(false, true, deadlineMs)).getHeaders().get(BinderHeaders.TARGET_DESTINATION));
+		assertEquals(MEDIATOR_REPLY_TOPIC, handleFraudStatus.apply(verdict(true, false, deadlineMs)).getHeaders().get(BinderHeaders.TARGET_DESTINATION));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Message<byte[]> verdict(boolean fraudDetected, boolean blockRequested, long deadlineMs) {
+
+		JSONObject verdict = new JSONObject();
+		verdict.put("cardNumber", CARD);
+		verdict.put("fraudDetected", fraudDetected);
+		verdict.put("status", "ok");
+
+		// As replied by the Fraud Detection service, with the app headers of the request
+		return MessageBuilder.withPayload(PayloadCodec.encode(verdict, PayloadCodec.CONTENT_TYPE_JSON))
+				.setHeader(MessageHeaders.CONTENT_TYPE, PayloadCodec.CONTENT_TYPE_JSON)
+				.setHeader(OrchestratorServiceApplication.SOL_DESTINATION_KEY,
+						OrchestratorServiceApplication.REPLY_TO_TOPIC_ROOT_FRAUDCHECK + "/ext/zeus/5f0c7a8e-21d4-4c53-b0a6-8e2f6c1d9a43")
+				.setHeader(OrchestratorServiceApplication.MEDIATOR_REPLYTO_DESTINATION_KEY, MEDIATOR_REPLY_TOPIC)
+				.setHeader(OrchestratorServiceApplication.MEDIATOR_MSG_TIMESTAMP_KEY, deadlineMs - 5_000)
+				.setHeader(OrchestratorServiceApplication.SOURCE_PLATFORM_NAME_KEY, "ext")
+				.setHeader(OrchestratorServiceApplication.PARTNER_NAME_HEADER_KEY, "zeus")
+				.setHeader(OrchestratorServiceApplication.IS_CARD_BLOCK_REQ_HEADER_KEY, blockRequested)
+				.setHeader(Deadlines.DEADLINE_KEY, deadlineMs)
+				.build();
+	}
+}
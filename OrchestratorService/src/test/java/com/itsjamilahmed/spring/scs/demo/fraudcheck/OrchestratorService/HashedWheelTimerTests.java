@@ -0,0 +1,84 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+// Purpose: The wheel timer's timeouts running no earlier than due, in order, and not at all once cancelled
+//  * A small wheel (8 ticks of 10ms), so the longer delays take more than one turn of it
+class HashedWheelTimerTests {
+
+	static final long TICK_MS = 10;
+	static final int WHEEL_SIZE = 8;
+	static final long WAIT_MS = 5_000;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer("test", TICK_MS, WHEEL_SIZE);
+
+	@Test
+	void runsATimeoutNoEarlierThanItsDelay() throws InterruptedException {
+
+		for (long delayMs : new long[] { 0, 30, 200 }) {
+			CountDownLatch ran = new CountDownLatch(1);
+			long startNanos = System.nanoTime();
+			timer.schedule(timeout -> ran.countDown(), delayMs);
+
+			assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			assertTrue(elapsedMs >= delayMs, "Ran after " + elapsedMs + "ms of " + delayMs + "ms");
+		}
+	}
+
+	@Test
+	void runsTimeoutsInTheOrderTheyAreDue() throws InterruptedException {
+
+		List<Long> ran = new CopyOnWriteArrayList<>();
+		CountDownLatch allRan = new CountDownLatch(3);
+		for (long delayMs : new long[] { 150, 40, 90 }) {
+			timer.schedule(timeout -> {
+				ran.add(delayMs);
+				allRan.countDown();
+			}, delayMs);
+		}
+
+		assertTrue(allRan.await(WAIT_MS, TimeUnit.MILLISECONDS));
+		assertEquals(List.of(40L, 90L, 150L), ran);
+	}
+
+	@Test
+	void neverRunsACancelledTimeout() throws InterruptedException {
+
+		CountDownLatch cancelledRan = new CountDownLatch(1);
+		CountDownLatch laterRan = new CountDownLatch(1);
+		timer.schedule(timeout -> cancelledRan.countDown(), 30).cancel();
+		// Past its turn of the wheel too
+		timer.schedule(timeout -> laterRan.countDown(), 30 + 2 * WHEEL_SIZE * TICK_MS);
+
+		assertTrue(laterRan.await(WAIT_MS, TimeUnit.MILLISECONDS));
+		assertEquals(1, cancelledRan.getCount());
+	}
+
+	@Test
+	void carriesOnPastAFailedTask() throws InterruptedException {
+
+		CountDownLatch ran = new CountDownLatch(1);
+		timer.schedule(timeout -> {
+			throw new IllegalStateException("Failed on purpose");
+		}, 10);
+		timer.schedule(timeout -> ran.countDown(), 50);
+
+		assertTrue(ran.await(WAIT_MS, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void needsAPositiveTickAndWheelSize() {
+		assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer("test", 0, WHEEL_SIZE));
+		assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer("test", TICK_MS, 0));
+	}
+}
@@ -0,0 +1,132 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: When a request is hedged, which of its replies is used, and the budget on hedges
+//  * Hedged at the 90th percentile of the replies' latencies, once warmed up with replies coming straight back (so at about 0ms)
+class HedgedRequestsTests {
+
+	static final String STAGE = "transactions";
+	static final long WAIT_MS = 5_000;
+
+	private int budgetPercent = 100;
+	private final HedgedRequests hedging = new HedgedRequests(() -> 90, () -> budgetPercent, new SimpleMeterRegistry());
+
+	// The UUIDs the hedges were sent with
+	private final List<String> hedges = new CopyOnWriteArrayList<>();
+
+	@Test
+	void usesAReplyNotSentThroughHere() {
+		assertEquals("not-hedged", hedging.replied("not-hedged"));
+	}
+
+	@Test
+	void doesNotHedgeUntilItHasTheLatencies() throws InterruptedException {
+
+		String uuid = send(0);
+		Thread.sleep(100);
+		assertTrue(hedges.isEmpty());
+		assertEquals(uuid, hedging.replied(uuid));
+	}
+
+	@Test
+	void usesWhicheverReplyComesBackFirst() throws InterruptedException {
+
+		warmUp();
+
+		String primary = send(20);
+		String hedge = awaitHedge(1);
+		assertNotEquals(primary, hedge);
+		assertEquals(primary, hedging.replied(hedge));
+		assertNull(hedging.replied(primary));
+
+		String second = send(20);
+		String secondHedge = awaitHedge(2);
+		assertEquals(second, hedging.replied(second));
+		assertNull(hedging.replied(secondHedge));
+	}
+
+	@Test
+	void doesNotHedgeARequestRepliedToInTime() throws InterruptedException {
+
+		warmUp();
+
+		String uuid = send(50);
+		assertEquals(uuid, hedging.replied(uuid));
+		Thread.sleep(200);
+		assertTrue(hedges.isEmpty());
+	}
+
+	@Test
+	void hedgesNoMoreThanTheBudgetAllows() throws InterruptedException {
+
+		// Each request earns a tenth of a hedge, saved up to at most MAX_BURST
+		budgetPercent = 10;
+		warmUp();
+
+		for (int i = 0; i < 15; i++) {
+			send(20);
+		}
+		Thread.sleep(300);
+		assertEquals(HedgedRequests.MAX_BURST, hedges.size());
+	}
+
+	@Test
+	void countsTheLatencyOfAPrimaryBeatenByItsHedge() throws InterruptedException {
+
+		warmUp();
+
+		// A third of the latencies are then these slow primaries, each beaten by its hedge, so the 90th percentile is one of them
+		for (int i = 1; i <= HedgedRequests.RECOMPUTE_EVERY; i++) {
+			String primary = send(0);
+			String hedge = awaitHedge(i);
+			assertEquals(primary, hedging.replied(hedge));
+			Thread.sleep(60);
+			assertNull(hedging.replied(primary));
+		}
+
+		send(0);
+		Thread.sleep(20);
+		assertEquals(HedgedRequests.RECOMPUTE_EVERY, hedges.size());
+		awaitHedge(HedgedRequests.RECOMPUTE_EVERY + 1);
+	}
+
+	// Enough requests replied to straight away for the percentile to be worked out
+	private void warmUp() {
+
+		int warmUpCount = HedgedRequests.RECOMPUTE_EVERY * ((HedgedRequests.MIN_LATENCIES / HedgedRequests.RECOMPUTE_EVERY) + 1);
+		for (int i = 0; i < warmUpCount; i++) {
+			String uuid = send(0);
+			hedging.replied(uuid);
+		}
+	}
+
+	private String send(long minDelayMs) {
+
+		String uuid = UUID.randomUUID().toString();
+		hedging.sent(STAGE, uuid, minDelayMs, hedges::add);
+		return uuid;
+	}
+
+	// The UUID of the nth hedge sent, waiting for it if need be
+	private String awaitHedge(int nth) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		while (hedges.size() < nth && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(hedges.size() >= nth, "No hedge " + nth + " sent");
+		return hedges.get(nth - 1);
+	}
+}
@@ -0,0 +1,99 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: Requests for a card waiting on the one check in flight, and answered from its outcome or handed over once when it is lost
+class InFlightChecksTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+	static final long NEVER_LOST_MS = 60_000;
+	static final long LOST_MS = 30;
+	static final long WAIT_MS = 5_000;
+
+	private final InFlightChecks checks = new InFlightChecks(new SimpleMeterRegistry());
+
+	// Each batch of waiting requests handed over as lost
+	private final List<List<Message<byte[]>>> lost = new CopyOnWriteArrayList<>();
+
+	@Test
+	void answersTheFollowersOnCompleting() {
+
+		Message<byte[]> follower = request("follower");
+		assertTrue(checks.leadOrAttach(CARD, "check-1", request("leader"), NEVER_LOST_MS, lost::add));
+		assertFalse(checks.leadOrAttach(CARD, "check-2", follower, NEVER_LOST_MS, lost::add));
+		// Another card has a check of its own
+		assertTrue(checks.leadOrAttach("4000-0000-0000-0002", "check-3", request("other"), NEVER_LOST_MS, lost::add));
+
+		assertEquals(List.of(follower), checks.complete("check-1"));
+		assertEquals(1, checks.size());
+		// Only once, and not for a check that was never led
+		assertEquals(List.of(), checks.complete("check-1"));
+		assertEquals(List.of(), checks.complete("check-2"));
+		assertTrue(lost.isEmpty());
+	}
+
+	@Test
+	void handsALostChecksFollowersOverOnce() throws InterruptedException {
+
+		CountDownLatch handedOver = new CountDownLatch(1);
+		Message<byte[]> follower = request("follower");
+		checks.leadOrAttach(CARD, "check-1", request("leader"), LOST_MS, waiting -> {
+			lost.add(waiting);
+			handedOver.countDown();
+		});
+		checks.leadOrAttach(CARD, "check-2", follower, LOST_MS, lost::add);
+
+		assertTrue(handedOver.await(WAIT_MS, TimeUnit.MILLISECONDS));
+		assertEquals(List.of(List.of(follower)), lost);
+		assertEquals(0, checks.size());
+
+		// Its outcome, should it turn up after all, has no one left to answer
+		assertEquals(List.of(), checks.complete("check-1"));
+		Thread.sleep(LOST_MS * 3);
+		assertEquals(1, lost.size());
+	}
+
+	@Test
+	void letsTheNextRequestLeadOnceTheCheckIsLost() throws InterruptedException {
+
+		CountDownLatch handedOver = new CountDownLatch(1);
+		checks.leadOrAttach(CARD, "check-1", request("leader"), LOST_MS, waiting -> handedOver.countDown());
+		checks.leadOrAttach(CARD, "check-2", request("follower"), LOST_MS, lost::add);
+		assertTrue(handedOver.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+		Message<byte[]> follower = request("next follower");
+		assertTrue(checks.leadOrAttach(CARD, "check-3", request("next leader"), NEVER_LOST_MS, lost::add));
+		assertFalse(checks.leadOrAttach(CARD, "check-4", follower, NEVER_LOST_MS, lost::add));
+		assertEquals(List.of(follower), checks.complete("check-3"));
+	}
+
+	@Test
+	void handsNothingOverForALostCheckWithoutFollowers() throws InterruptedException {
+
+		checks.leadOrAttach(CARD, "check-1", request("leader"), LOST_MS, lost::add);
+		long waitUntilMs = System.currentTimeMillis() + WAIT_MS;
+		while (checks.size() > 0 && System.currentTimeMillis() < waitUntilMs) {
+			Thread.sleep(LOST_MS);
+		}
+
+		assertEquals(0, checks.size());
+		assertTrue(lost.isEmpty());
+	}
+
+	private static Message<byte[]> request(String name) {
+		return MessageBuilder.withPayload(name.getBytes()).build();
+	}
+}
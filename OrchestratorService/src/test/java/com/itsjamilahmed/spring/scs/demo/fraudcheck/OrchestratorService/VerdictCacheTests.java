@@ -0,0 +1,79 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.OrchestratorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: Which re-checks of a card the verdict cache answers, and that it holds at most 'maxCards', the least recently checked making way
+class VerdictCacheTests {
+
+	static final String CARD = "1234-5678-1234-5688";
+	static final long NOW = 1_000_000L;
+
+	private int maxCards = 3;
+	private final VerdictCache cache = new VerdictCache(() -> maxCards, new SimpleMeterRegistry());
+
+	@Test
+	void answersWithAVerdictNoOlderThanAsked() {
+
+		cache.put(CARD, false, false, NOW);
+
+		VerdictCache.Verdict verdict = cache.lookup(CARD, false, 5_000, NOW + 5_000);
+		assertNotNull(verdict);
+		assertFalse(verdict.fraudDetected);
+		assertEquals(5_000, verdict.ageMs(NOW + 5_000));
+
+		assertNull(cache.lookup(CARD, false, 5_000, NOW + 5_001));
+		// Still held, for a lookup that allows an older verdict
+		assertNotNull(cache.lookup(CARD, false, 60_000, NOW + 5_001));
+		assertNull(cache.lookup("4000-0000-0000-0002", false, 5_000, NOW));
+	}
+
+	@Test
+	void answersABlockRequestOnlyIfTheCardWasBlocked() {
+
+		cache.put(CARD, true, false, NOW);
+		assertNotNull(cache.lookup(CARD, false, 5_000, NOW));
+		assertNull(cache.lookup(CARD, true, 5_000, NOW));
+
+		cache.put(CARD, true, true, NOW);
+		VerdictCache.Verdict verdict = cache.lookup(CARD, true, 5_000, NOW);
+		assertNotNull(verdict);
+		assertTrue(verdict.cardBlockRequested);
+
+		// No block without fraud, whatever was asked for
+		cache.put(CARD, false, true, NOW);
+		assertFalse(cache.lookup(CARD, true, 5_000, NOW).cardBlockRequested);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyChecked() {
+
+		cache.put("card-1", false, false, NOW);
+		cache.put("card-2", false, false, NOW);
+		cache.put("card-3", false, false, NOW);
+		cache.lookup("card-1", false, 5_000, NOW);
+		cache.put("card-4", false, false, NOW);
+
+		assertEquals(3, cache.size());
+		assertNull(cache.lookup("card-2", false, 5_000, NOW));
+		assertNotNull(cache.lookup("card-1", false, 5_000, NOW));
+	}
+
+	@Test
+	void readsTheLimitAsVerdictsAreAdded() {
+
+		// As when configured after construction
+		maxCards = 5;
+		for (int card = 1; card <= 6; card++) {
+			cache.put("card-" + card, false, false, NOW);
+		}
+		assertEquals(5, cache.size());
+	}
+}
@@ -0,0 +1,98 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.util.Arrays;
+
+// Purpose: The sequence number of the latest logged transaction of each card, from which its earlier ones are chained
+//  * An open addressing hash table of long to long, in two flat arrays: 16 bytes a slot and no objects per card
+//  * Doubles in size when half full. Not thread safe: the TransactionLog guards it with its lock.
+//  * Also the PlaceIndex's per query working space, cleared and reused rather than allocated per query
+final class CardIndex {
+
+	static final long NO_CARD = 0L;
+	static final long NOT_FOUND = -1L;
+
+	private static final int INITIAL_SLOTS = 1 << 16;
+
+	private long[] keys;
+	private long[] values;
+	private int mask;
+	private int size;
+
+	CardIndex() {
+		this(INITIAL_SLOTS);
+	}
+
+	// A power of two number of slots
+	CardIndex(int initialSlots) {
+		this.keys = new long[initialSlots];
+		this.values = new long[initialSlots];
+		this.mask = initialSlots - 1;
+	}
+
+	long get (long key) {
+
+		int slot = find(keys, mask, key);
+		return (keys[slot] == key) ? values[slot] : NOT_FOUND;
+	}
+
+	// Returns the previous value, or NOT_FOUND
+	long put (long key, long value) {
+
+		int slot = find(keys, mask, key);
+		if (keys[slot] == key) {
+			long previous = values[slot];
+			values[slot] = value;
+			return previous;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > (mask + 1) / 2) {
+			grow();
+		}
+		return NOT_FOUND;
+	}
+
+	int size () {
+		return size;
+	}
+
+	void clear () {
+		if (size > 0) {
+			Arrays.fill(keys, NO_CARD);
+			size = 0;
+		}
+	}
+
+	private void grow () {
+
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		int newMask = (mask << 1) | 1;
+		long[] newKeys = new long[newMask + 1];
+		long[] newValues = new long[newMask + 1];
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != NO_CARD) {
+				int slot = find(newKeys, newMask, oldKeys[i]);
+				newKeys[slot] = oldKeys[i];
+				newValues[slot] = oldValues[i];
+			}
+		}
+		keys = newKeys;
+		values = newValues;
+		mask = newMask;
+	}
+
+	// The slot of the key, or else the empty slot where it would go
+	private static int find (long[] keys, int mask, long key) {
+
+		// Card numbers share prefixes and check digits, so mix all the bits in before masking
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (keys[slot] != NO_CARD && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,114 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.simple.JSONArray;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: The results of recent getTransactions lookups by card, so a card re-checked within seconds is answered without reading its transactions again
+//  * Holds the transaction records as built for the response, for the count that was asked for. A lookup of another count is a miss.
+//  * Bounded by Caffeine, whose W-TinyLFU admission keeps the cards looked up once from pushing out those re-checked over and over
+//  * Entries expire 'ttlMs' after being written, and are invalidated as soon as a new transaction for the card is recorded
+//  * A lookup that raced with a new transaction for its card is not cached, so a result older than the card's last transaction is never served
+final class LookupCache {
+
+	static final String METRIC_CARDS = "fraudcheck.lookupcache.cards";
+	static final String METRIC_LOOKUPS = "fraudcheck.lookupcache.lookups";
+	static final String METRIC_EVICTIONS = "fraudcheck.lookupcache.evictions";
+
+	// Cards share a version per stripe, so there is no per card state to keep besides the cache entries themselves
+	static final int VERSION_STRIPES = 4096;
+
+	// A lookup's result: the transaction records as in the response, for the count asked for, and the cursor of the newest
+	static final class Lookup {
+
+		final int txnCount;
+		final JSONArray txns;
+		final long cursor;
+
+		Lookup(int txnCount, JSONArray txns, long cursor) {
+			this.txnCount = txnCount;
+			this.txns = txns;
+			this.cursor = cursor;
+		}
+	}
+
+	private final Cache<Long, Lookup> cache;
+
+	// Moved on for a card's stripe as each of its transactions is recorded
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+	private final Counter hits;
+	private final Counter misses;
+
+	LookupCache(LookupCacheProperties properties, MeterRegistry meterRegistry) {
+
+		if (properties.getMaxCards() <= 0 || properties.getTtlMs() <= 0) {
+			throw new IllegalArgumentException("fraudcheck.lookupcache.maxCards and ttlMs must be positive");
+		}
+
+		Counter evictedForSize = Counter.builder(METRIC_EVICTIONS).tags("reason", "size").register(meterRegistry);
+		Counter expired = Counter.builder(METRIC_EVICTIONS).tags("reason", "expired").register(meterRegistry);
+		Counter invalidated = Counter.builder(METRIC_EVICTIONS).tags("reason", "invalidated").register(meterRegistry);
+
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(properties.getMaxCards())
+				.expireAfterWrite(Duration.ofMillis(properties.getTtlMs()))
+				.<Long, Lookup>removalListener((card, lookup, cause) -> {
+					if (cause == RemovalCause.SIZE) {
+						evictedForSize.increment();
+					} else if (cause == RemovalCause.EXPIRED) {
+						expired.increment();
+					} else if (cause == RemovalCause.EXPLICIT) {
+						invalidated.increment();
+					}
+				})
+				.build();
+
+		Gauge.builder(METRIC_CARDS, cache, Cache::estimatedSize).register(meterRegistry);
+		this.hits = Counter.builder(METRIC_LOOKUPS).tags("result", "hit").register(meterRegistry);
+		this.misses = Counter.builder(METRIC_LOOKUPS).tags("result", "miss").register(meterRegistry);
+	}
+
+	// The card's lookup result for the count, or null if not cached
+	Lookup get (long card, int txnCount) {
+
+		Lookup lookup = cache.getIfPresent(card);
+		if (lookup != null && lookup.txnCount == txnCount) {
+			hits.increment();
+			return lookup;
+		}
+		misses.increment();
+		return null;
+	}
+
+	// Taken before reading the card's transactions, to pass to put() after
+	long versionOf (long card) {
+		return versions.get(stripeOf(card));
+	}
+
+	// Cache the result, unless a transaction for the card (or another in its stripe) has been recorded since 'version'.
+	// The check is atomic with the write, so an invalidate() cannot fall between them.
+	void put (long card, Lookup lookup, long version) {
+		cache.asMap().compute(card, (key, existing) -> (versions.get(stripeOf(card)) == version) ? lookup : existing);
+	}
+
+	// Called once a new transaction for the card is recorded
+	void invalidate (long card) {
+		versions.incrementAndGet(stripeOf(card));
+		cache.invalidate(card);
+	}
+
+	private static int stripeOf (long card) {
+		long h = card * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (VERSION_STRIPES - 1);
+	}
+}
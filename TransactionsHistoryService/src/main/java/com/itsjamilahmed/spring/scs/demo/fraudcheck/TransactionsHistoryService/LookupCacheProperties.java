@@ -0,0 +1,41 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The bounds of the cache of recent lookup results, in front of the transaction cache and log
+//  * At most 'maxCards' cards' results are held, each for at most 'ttlMs' after it was looked up
+//  * A card's result is dropped as soon as a new transaction for it is recorded, so the TTL only bounds how long an idle card is held
+@ConfigurationProperties("fraudcheck.lookupcache")
+public class LookupCacheProperties {
+
+	// Without it every lookup reads the transactions again
+	private boolean enabled = true;
+
+	private long maxCards = 100_000;
+
+	private long ttlMs = 5_000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getMaxCards() {
+		return maxCards;
+	}
+
+	public void setMaxCards(long maxCards) {
+		this.maxCards = maxCards;
+	}
+
+	public long getTtlMs() {
+		return ttlMs;
+	}
+
+	public void setTtlMs(long ttlMs) {
+		this.ttlMs = ttlMs;
+	}
+}
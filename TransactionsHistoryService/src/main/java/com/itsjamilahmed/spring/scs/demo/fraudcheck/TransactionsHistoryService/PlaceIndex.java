@@ -0,0 +1,203 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+// Purpose: Which cards transacted at each place (a merchant, or a location) in the last while, so the cards at a place need not be found by scanning every card
+//  * Transactions are indexed in a ring of time buckets. The oldest bucket is cleared and reused as time moves on, so the window slides.
+//  * Places are dictionary encoded, so each bucket keeps the latest entry of each place in an array by place ID
+//  *   Each entry holds its card, its time, and the place's entry before it, so the entries of a place are chained within the bucket
+//  *   ... and the card number as it was given, to answer with. (The card's key alone has lost its separators and any leading zeros.)
+//  * A query then only reads the entries of the one place, in the buckets of the window asked for
+//  * Each bucket's arrays only grow, and are kept when it is reused, so once warmed up indexing does not allocate
+final class PlaceIndex {
+
+	static final int NO_ENTRY = -1;
+
+	static final int INITIAL_ENTRIES = 1024;
+
+	// Called with each card found, with its card number as given with its latest transaction there (null if indexed without one),
+	// when it last transacted at the place and how many times
+	interface CardVisitor {
+		void visit (long card, String cardNumber, long lastEpochSeconds, int txnCount);
+	}
+
+	private final int bucketSeconds;
+	private final int bucketCount;
+
+	private final StringDictionary places = new StringDictionary();
+
+	// Per bucket of the ring: its number (epoch seconds / bucketSeconds), or NO_BUCKET if unused
+	private final long[] bucketNumbers;
+	private final int[][] heads;
+	private final int[] sizes;
+	private final long[][] cards;
+	private final String[][] cardNumbers;
+	private final long[][] times;
+	private final int[][] nexts;
+
+	private static final long NO_BUCKET = Long.MIN_VALUE;
+
+	private long newestBucket = NO_BUCKET;
+
+	private final StampedLock lock = new StampedLock();
+
+	// The query's working space, reused under the write lock: card -> its result, then the results
+	private final CardIndex resultOf = new CardIndex(INITIAL_ENTRIES);
+	private long[] resultCards = new long[INITIAL_ENTRIES];
+	private String[] resultCardNumbers = new String[INITIAL_ENTRIES];
+	private long[] resultTimes = new long[INITIAL_ENTRIES];
+	private int[] resultCounts = new int[INITIAL_ENTRIES];
+
+	PlaceIndex(int bucketSeconds, int windowMinutes) {
+
+		if (bucketSeconds <= 0 || windowMinutes <= 0) {
+			throw new IllegalArgumentException("fraudcheck.placeindex.bucketSeconds and windowMinutes must be positive");
+		}
+		this.bucketSeconds = bucketSeconds;
+		// One more bucket than the window needs, as the oldest is only partly in it
+		this.bucketCount = (int) ((windowMinutes * 60L + bucketSeconds - 1) / bucketSeconds) + 1;
+
+		this.bucketNumbers = new long[bucketCount];
+		Arrays.fill(bucketNumbers, NO_BUCKET);
+		this.heads = new int[bucketCount][];
+		this.sizes = new int[bucketCount];
+		this.cards = new long[bucketCount][];
+		this.cardNumbers = new String[bucketCount][];
+		this.times = new long[bucketCount][];
+		this.nexts = new int[bucketCount][];
+		for (int b = 0; b < bucketCount; b++) {
+			heads[b] = new int[INITIAL_ENTRIES];
+			Arrays.fill(heads[b], NO_ENTRY);
+			cards[b] = new long[INITIAL_ENTRIES];
+			cardNumbers[b] = new String[INITIAL_ENTRIES];
+			times[b] = new long[INITIAL_ENTRIES];
+			nexts[b] = new int[INITIAL_ENTRIES];
+		}
+	}
+
+	// Index the card's transaction at the place. Too old for the window, it is not indexed.
+	void add (String place, long card, String cardNumber, long epochSeconds, long nowEpochSeconds) {
+
+		if (place == null || place.isEmpty() || card == CardIndex.NO_CARD) {
+			return;
+		}
+
+		// A transaction from the future (as far as this clock goes) is taken as now, so it cannot push the window along early
+		long bucketNumber = Math.floorDiv(Math.min(epochSeconds, nowEpochSeconds), bucketSeconds);
+
+		long stamp = lock.writeLock();
+		try {
+			if (newestBucket != NO_BUCKET && bucketNumber <= newestBucket - bucketCount) {
+				return;
+			}
+			int b = (int) Math.floorMod(bucketNumber, (long) bucketCount);
+			if (bucketNumbers[b] != bucketNumber) {
+				// Reuse the ring's bucket, whose transactions are now out of the window. (Letting go of their card numbers.)
+				Arrays.fill(heads[b], NO_ENTRY);
+				Arrays.fill(cardNumbers[b], 0, sizes[b], null);
+				sizes[b] = 0;
+				bucketNumbers[b] = bucketNumber;
+			}
+			newestBucket = Math.max(newestBucket, bucketNumber);
+
+			int placeId = places.encode(place);
+			if (placeId >= heads[b].length) {
+				int length = heads[b].length;
+				heads[b] = Arrays.copyOf(heads[b], Math.max(length * 2, placeId + 1));
+				Arrays.fill(heads[b], length, heads[b].length, NO_ENTRY);
+			}
+
+			int entry = sizes[b];
+			if (entry == cards[b].length) {
+				cards[b] = Arrays.copyOf(cards[b], entry * 2);
+				cardNumbers[b] = Arrays.copyOf(cardNumbers[b], entry * 2);
+				times[b] = Arrays.copyOf(times[b], entry * 2);
+				nexts[b] = Arrays.copyOf(nexts[b], entry * 2);
+			}
+			cards[b][entry] = card;
+			cardNumbers[b][entry] = cardNumber;
+			times[b][entry] = epochSeconds;
+			nexts[b][entry] = heads[b][placeId];
+			heads[b][placeId] = entry;
+			sizes[b] = entry + 1;
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	// Visit each card that transacted at the place at or after 'sinceEpochSeconds', most recent first, up to 'maxCards' of them. Returns how many were visited.
+	int cardsSince (String place, long sinceEpochSeconds, int maxCards, CardVisitor visitor) {
+
+		// Under the write lock, as the dictionary's map and the working space are not for concurrent use. Queries are short and few.
+		long stamp = lock.writeLock();
+		try {
+			int placeId = places.find(place);
+			if (placeId == StringDictionary.NOT_FOUND || newestBucket == NO_BUCKET) {
+				return 0;
+			}
+
+			// Each card found once, however many times it transacted at the place
+			resultOf.clear();
+			int results = 0;
+
+			// Newest first, so the cards are found in order of their latest transaction there, and those cut off by 'maxCards' are the longest ago
+			long oldestBucket = Math.max(Math.floorDiv(sinceEpochSeconds, bucketSeconds), newestBucket - bucketCount + 1);
+			for (long bucketNumber = newestBucket; bucketNumber >= oldestBucket; bucketNumber--) {
+				int b = (int) Math.floorMod(bucketNumber, (long) bucketCount);
+				if (bucketNumbers[b] != bucketNumber || placeId >= heads[b].length) {
+					continue;
+				}
+				for (int entry = heads[b][placeId]; entry != NO_ENTRY; entry = nexts[b][entry]) {
+					long time = times[b][entry];
+					if (time < sinceEpochSeconds) {
+						continue;
+					}
+					long card = cards[b][entry];
+					int result = (int) resultOf.get(card);
+					if (result == CardIndex.NOT_FOUND) {
+						if (results == resultCards.length) {
+							resultCards = Arrays.copyOf(resultCards, results * 2);
+							resultCardNumbers = Arrays.copyOf(resultCardNumbers, results * 2);
+							resultTimes = Arrays.copyOf(resultTimes, results * 2);
+							resultCounts = Arrays.copyOf(resultCounts, results * 2);
+						}
+						result = results++;
+						resultOf.put(card, result);
+						resultCards[result] = card;
+						resultCardNumbers[result] = cardNumbers[b][entry];
+						resultTimes[result] = time;
+						resultCounts[result] = 0;
+					}
+					// The card number given with its latest transaction here, or any given at all over none
+					if (cardNumbers[b][entry] != null && (time > resultTimes[result] || resultCardNumbers[result] == null)) {
+						resultCardNumbers[result] = cardNumbers[b][entry];
+					}
+					resultTimes[result] = Math.max(resultTimes[result], time);
+					resultCounts[result]++;
+				}
+			}
+
+			int visited = Math.min(results, maxCards);
+			for (int result = 0; result < visited; result++) {
+				visitor.visit(resultCards[result], resultCardNumbers[result], resultTimes[result], resultCounts[result]);
+			}
+			// The working space keeps no card numbers past the query
+			Arrays.fill(resultCardNumbers, 0, results, null);
+			return visited;
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	int placeCount () {
+		long stamp = lock.readLock();
+		try {
+			return places.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The time window of the merchant and location indexes, for the queries of which cards transacted where
+//  * Transactions are indexed in buckets of 'bucketSeconds', and the last 'windowMinutes' worth kept
+//  * A query can look back at most 'windowMinutes', and answers with at most 'maxResults' cards
+@ConfigurationProperties("fraudcheck.placeindex")
+public class PlaceIndexProperties {
+
+	// Without the indexes the queries are answered with an error
+	private boolean enabled = true;
+
+	private int bucketSeconds = 60;
+
+	private int windowMinutes = 60;
+
+	private int maxResults = 1_000;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getBucketSeconds() {
+		return bucketSeconds;
+	}
+
+	public void setBucketSeconds(int bucketSeconds) {
+		this.bucketSeconds = bucketSeconds;
+	}
+
+	public int getWindowMinutes() {
+		return windowMinutes;
+	}
+
+	public void setWindowMinutes(int windowMinutes) {
+		this.windowMinutes = windowMinutes;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+}
@@ -0,0 +1,64 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.nio.charset.StandardCharsets;
+
+// Purpose: The most recent transactions of a card as read out of the TransactionCache or TransactionLog, newest first, in primitive columns
+//  * From the cache, merchants and locations are its dictionary's Strings, shared rather than copied
+//  * From the log, they are left as their UTF-8 bytes, only made into Strings if and when the response needs them
+//  * One instance is reused per thread, sized to the most transactions a request may ask for, so reading does not allocate
+final class RecentTransactions {
+
+	int count;
+
+	// The log sequence number of each, as the cursor for asking for only those newer
+	final long[] sequences;
+	final long[] epochSeconds;
+	final double[] amounts;
+	final float[] latitudes;
+	final float[] longitudes;
+
+	// Set when read from the cache, otherwise null
+	final String[] merchantNames;
+	final String[] locationNames;
+
+	final byte[] merchants;
+	final byte[] merchantLengths;
+	final byte[] locations;
+	final byte[] locationLengths;
+
+	RecentTransactions(int capacity) {
+		this.sequences = new long[capacity];
+		this.epochSeconds = new long[capacity];
+		this.amounts = new double[capacity];
+		this.latitudes = new float[capacity];
+		this.longitudes = new float[capacity];
+		this.merchantNames = new String[capacity];
+		this.locationNames = new String[capacity];
+		this.merchants = new byte[capacity * TransactionLog.TEXT_FIELD_BYTES];
+		this.merchantLengths = new byte[capacity];
+		this.locations = new byte[capacity * TransactionLog.TEXT_FIELD_BYTES];
+		this.locationLengths = new byte[capacity];
+	}
+
+	int capacity () {
+		return epochSeconds.length;
+	}
+
+	String merchant (int i) {
+		if (merchantNames[i] != null) {
+			return merchantNames[i];
+		}
+		return new String(merchants, i * TransactionLog.TEXT_FIELD_BYTES, merchantLengths[i], StandardCharsets.UTF_8);
+	}
+
+	String location (int i) {
+		if (locationNames[i] != null) {
+			return locationNames[i];
+		}
+		return new String(locations, i * TransactionLog.TEXT_FIELD_BYTES, locationLengths[i], StandardCharsets.UTF_8);
+	}
+
+	boolean hasCoordinates (int i) {
+		return !Float.isNaN(latitudes[i]) && !Float.isNaN(longitudes[i]);
+	}
+}
@@ -0,0 +1,111 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: Credit-based flow control of the transaction streams being sent, so the sender is never more than a few chunks ahead of the consumer
+//  * The consumer credits back each chunk it has scored without deciding the verdict, or cancels the stream once it has decided it
+//  * The thread sending a stream waits for a credit before sending a chunk beyond 'window' ahead of those credited, or stops if cancelled
+//  *   So a cancellation is heard while it can still save the rest of the stream, at the cost of a wait when the consumer is the slower
+//  * Every instance hears every credit, so most are for streams sent by another instance (or already finished) and are simply ignored
+//  * A credit that does not come back within 'creditWaitMs' is taken as given, so a lost one stalls its stream only that long
+final class StreamCredits {
+
+	static final String METRIC_CANCELLED = "fraudcheck.txnstream.cancelled";
+	static final String METRIC_STALLED = "fraudcheck.txnstream.stalled";
+
+	// The chunks credited back for a stream, and whether it was cancelled. Waited on by its sender.
+	private static final class Credits {
+		int credited;
+		boolean cancelled;
+	}
+
+	// The streams being sent from this instance
+	private final Map<String, Credits> streams = new ConcurrentHashMap<>();
+
+	private final int window;
+	private final long creditWaitMs;
+
+	private final Counter cancelled;
+	private final Counter stalled;
+
+	StreamCredits(TransactionStreamProperties properties, MeterRegistry meterRegistry) {
+
+		if (properties.getWindow() <= 0 || properties.getCreditWaitMs() < 0) {
+			throw new IllegalArgumentException("fraudcheck.txnstream.window must be positive, and creditWaitMs not negative");
+		}
+		this.window = properties.getWindow();
+		this.creditWaitMs = properties.getCreditWaitMs();
+		this.cancelled = Counter.builder(METRIC_CANCELLED).register(meterRegistry);
+		this.stalled = Counter.builder(METRIC_STALLED).register(meterRegistry);
+	}
+
+	// Before sending the stream's first chunk, so no credit for it is missed
+	void open (String streamId) {
+		streams.put(streamId, new Credits());
+	}
+
+	// Once the stream's last chunk is sent (or it is stopped)
+	void close (String streamId) {
+		streams.remove(streamId);
+	}
+
+	// The consumer has taken one more of the stream's chunks
+	void credit (String streamId) {
+
+		Credits credits = streams.get(streamId);
+		if (credits != null) {
+			synchronized (credits) {
+				credits.credited++;
+				credits.notifyAll();
+			}
+		}
+	}
+
+	// The consumer wants no more of the stream
+	void cancel (String streamId) {
+
+		Credits credits = streams.get(streamId);
+		if (credits != null) {
+			synchronized (credits) {
+				credits.cancelled = true;
+				credits.notifyAll();
+			}
+		}
+	}
+
+	// Having sent 'sent' chunks of the stream, wait (until 'deadlineMs' at the latest) for the credit to send another.
+	// False if the stream has been cancelled, so nothing more is to be sent. Counted, so the metric is of the streams cut short here.
+	boolean awaitCredit (String streamId, int sent, long deadlineMs) throws InterruptedException {
+
+		Credits credits = streams.get(streamId);
+		if (credits == null) {
+			return true;
+		}
+		long untilMs = Math.min(System.currentTimeMillis() + creditWaitMs, deadlineMs);
+		synchronized (credits) {
+			for (long waitMs; !credits.cancelled && sent - credits.credited >= window; ) {
+				waitMs = untilMs - System.currentTimeMillis();
+				if (waitMs <= 0) {
+					// Taken as given, the credit being lost or late
+					stalled.increment();
+					credits.credited++;
+					break;
+				}
+				credits.wait(waitMs);
+			}
+			if (credits.cancelled) {
+				cancelled.increment();
+				return false;
+			}
+			return true;
+		}
+	}
+
+	int size () {
+		return streams.size();
+	}
+}
@@ -0,0 +1,50 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Purpose: Dictionary encoding of the merchant and location names, so each distinct name is held once and referred to by an int
+//  * Encoding is for the one writer at a time, under its owner's lock. Decoding is lock free, from an array only ever appended to.
+//  * There are far fewer distinct merchants and locations than transactions, so names are never removed
+final class StringDictionary {
+
+	static final int NOT_FOUND = -1;
+
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	// Published after each name is added, so a reader with an ID always finds its name
+	private volatile String[] names = new String[1024];
+	private int size;
+
+	int encode (String name) {
+
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+
+		String[] current = names;
+		if (size == current.length) {
+			current = Arrays.copyOf(current, size * 2);
+		}
+		current[size] = name;
+		names = current;
+		ids.put(name, size);
+		return size++;
+	}
+
+	// The ID of the name if it has been encoded, otherwise NOT_FOUND. Also only for under the owner's lock.
+	int find (String name) {
+		Integer id = ids.get(name);
+		return (id != null) ? id : NOT_FOUND;
+	}
+
+	String decode (int id) {
+		return names[id];
+	}
+
+	int size () {
+		return size;
+	}
+}
@@ -0,0 +1,283 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: An in-memory hot tier of the most recent transactions of the active cards, so most lookups need not touch the transaction log
+//  * Transactions are held in columns: log sequence numbers as longs, epoch seconds (unsigned, so to 2106) and amounts in minor units as ints,
+//  *   merchants and locations as dictionary IDs, and coordinates as floats
+//  *   That is 32 bytes a transaction, and no objects per card or per transaction, so garbage collection stays flat however many cards are held
+//  * An open addressing hash table of cards, each with a ring of its last 'txnsPerCard' transactions. Sized once from the memory budget.
+//  * Written through as each transaction is logged. A card is only answered from here if it holds all the transactions asked for.
+//  * Once full, the least recently used of a sample of cards makes way
+final class TransactionCache {
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionCache.class);
+
+	static final String METRIC_CARDS = "fraudcheck.txncache.cards";
+	static final String METRIC_LOOKUPS = "fraudcheck.txncache.lookups";
+
+	static final long NO_CARD = CardIndex.NO_CARD;
+
+	// Answered with a count of -1 if the cache does not hold all of the transactions asked for
+	static final int NOT_CACHED = -1;
+
+	static final int MINOR_UNITS_PER_MAJOR = 100;
+
+	// The largest amount the int column holds. A card with a larger transaction is left to the log.
+	static final double MAX_AMOUNT = (double) Integer.MAX_VALUE / MINOR_UNITS_PER_MAJOR;
+
+	// Keep the table at most three quarters full, so the probe sequences stay short
+	static final int MAX_LOAD_PERCENT = 75;
+
+	// How many cards to compare when one has to be evicted to make way
+	static final int EVICTION_SAMPLE_SIZE = 8;
+
+	// Bytes per card besides its transactions: key, last use, transactions seen, whether complete
+	static final int FIXED_BYTES_PER_CARD = 8 + 4 + 4 + 1;
+
+	// Bytes per transaction: sequence number, epoch seconds, amount, merchant ID, location ID, latitude, longitude
+	static final int BYTES_PER_TXN = 8 + 4 + 4 + 4 + 4 + 4 + 4;
+
+	private final int txnsPerCard;
+	private final int mask;
+	private final int maxCards;
+
+	private final long[] keys;
+	private final int[] usedSec;
+	private final int[] txnCounts;
+
+	// Whether the card has had no transactions other than those seen here, so however many it holds is all there are
+	private final boolean[] complete;
+
+	// Per card, a ring of its last 'txnsPerCard' transactions
+	private final long[] sequences;
+	private final int[] epochSeconds;
+	private final int[] amountsMinor;
+	private final int[] merchantIds;
+	private final int[] locationIds;
+	private final float[] latitudes;
+	private final float[] longitudes;
+
+	private final StringDictionary merchants = new StringDictionary();
+	private final StringDictionary locations = new StringDictionary();
+
+	// Written under the lock, but also read by the gauge
+	private volatile int size;
+
+	private final StampedLock lock = new StampedLock();
+
+	// The last use times are held as seconds since the cache was created, to fit an int
+	private final long createdMs = System.currentTimeMillis();
+
+	private final Counter hits;
+	private final Counter misses;
+
+	TransactionCache(TransactionCacheProperties properties, MeterRegistry meterRegistry) {
+
+		if (properties.getTxnsPerCard() <= 0 || properties.getMaxMemoryMb() <= 0) {
+			throw new IllegalArgumentException("The fraudcheck.txncache sizes must all be positive");
+		}
+		this.txnsPerCard = properties.getTxnsPerCard();
+
+		// The largest power of two number of slots within the memory budget
+		long bytesPerCard = FIXED_BYTES_PER_CARD + (long) txnsPerCard * BYTES_PER_TXN;
+		long maxSlots = Math.min(1L << 30, Integer.MAX_VALUE / txnsPerCard);
+		long budgetSlots = Math.min(maxSlots, (properties.getMaxMemoryMb() * 1024L * 1024L) / bytesPerCard);
+		if (budgetSlots < 2) {
+			throw new IllegalArgumentException("fraudcheck.txncache.maxMemoryMb is too small for even one card of " + bytesPerCard + " bytes");
+		}
+		int slots = Integer.highestOneBit((int) budgetSlots);
+		this.mask = slots - 1;
+		this.maxCards = Math.max(1, (int) ((long) slots * MAX_LOAD_PERCENT / 100));
+
+		this.keys = new long[slots];
+		this.usedSec = new int[slots];
+		this.txnCounts = new int[slots];
+		this.complete = new boolean[slots];
+		this.sequences = new long[slots * txnsPerCard];
+		this.epochSeconds = new int[slots * txnsPerCard];
+		this.amountsMinor = new int[slots * txnsPerCard];
+		this.merchantIds = new int[slots * txnsPerCard];
+		this.locationIds = new int[slots * txnsPerCard];
+		this.latitudes = new float[slots * txnsPerCard];
+		this.longitudes = new float[slots * txnsPerCard];
+
+		Gauge.builder(METRIC_CARDS, this, TransactionCache::size).register(meterRegistry);
+		this.hits = Counter.builder(METRIC_LOOKUPS).tags("result", "hit").register(meterRegistry);
+		this.misses = Counter.builder(METRIC_LOOKUPS).tags("result", "miss").register(meterRegistry);
+
+		log.info("Transaction cache sized for " + maxCards + " cards of " + txnsPerCard + " transactions, at " + bytesPerCard + " bytes each");
+	}
+
+	// Add a transaction as it is logged, under its log sequence number. 'firstOfCard' if the log had none before it for this card.
+	void append (long key, long sequence, long epochSeconds, double amount, String merchant, String location, double latitude, double longitude, boolean firstOfCard) {
+
+		if (key == NO_CARD) {
+			return;
+		}
+
+		long stamp = lock.writeLock();
+		try {
+			int slot = find(key);
+			if (Math.abs(amount) > MAX_AMOUNT) {
+				// Not held at all, rather than without this one. Its later transactions start it again, as a card with some only in the log.
+				if (keys[slot] != NO_CARD) {
+					remove(slot);
+				}
+				return;
+			}
+			if (keys[slot] == NO_CARD) {
+				if (size >= maxCards) {
+					evictLeastRecentlyUsed();
+					slot = find(key);
+				}
+				keys[slot] = key;
+				txnCounts[slot] = 0;
+				complete[slot] = firstOfCard;
+				size++;
+			}
+			usedSec[slot] = nowSec();
+
+			int t = slot * txnsPerCard + (txnCounts[slot] % txnsPerCard);
+			sequences[t] = sequence;
+			this.epochSeconds[t] = (int) epochSeconds;
+			amountsMinor[t] = (int) Math.round(amount * MINOR_UNITS_PER_MAJOR);
+			merchantIds[t] = merchants.encode(merchant);
+			locationIds[t] = locations.encode(location);
+			latitudes[t] = (float) latitude;
+			longitudes[t] = (float) longitude;
+
+			// Once the ring has gone round, the oldest are only in the log
+			if (++txnCounts[slot] > txnsPerCard) {
+				complete[slot] = false;
+				txnCounts[slot] = txnsPerCard + (txnCounts[slot] % txnsPerCard);
+			}
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	// Read up to 'max' of the card's most recent transactions, newest first, stopping at the one numbered 'since' (unless NO_SEQUENCE).
+	// Only if all of them are held here, otherwise NOT_CACHED.
+	int readRecent (long key, int max, long since, RecentTransactions into) {
+
+		int count = NOT_CACHED;
+
+		// Updating the last use is worth the race of doing it under the read lock: at worst another reader's update is lost
+		long stamp = lock.readLock();
+		try {
+			int slot = (key != NO_CARD) ? find(key) : 0;
+			if (key != NO_CARD && keys[slot] == key) {
+				int held = Math.min(txnCounts[slot], txnsPerCard);
+				int wanted = Math.min(max, into.capacity());
+				int newest = txnCounts[slot] - 1;
+				int read = 0;
+				boolean reachedSince = false;
+				for (; read < Math.min(wanted, held); read++) {
+					int t = slot * txnsPerCard + ((newest - read) % txnsPerCard);
+					if (sequences[t] <= since) {
+						reachedSince = true;
+						break;
+					}
+					into.sequences[read] = sequences[t];
+					into.epochSeconds[read] = Integer.toUnsignedLong(epochSeconds[t]);
+					into.amounts[read] = (double) amountsMinor[t] / MINOR_UNITS_PER_MAJOR;
+					into.merchantNames[read] = merchants.decode(merchantIds[t]);
+					into.locationNames[read] = locations.decode(locationIds[t]);
+					into.latitudes[read] = latitudes[t];
+					into.longitudes[read] = longitudes[t];
+				}
+				// All of those asked for if it read as many as wanted, got back to 'since', or holds every transaction of the card
+				if (read == wanted || reachedSince || complete[slot]) {
+					count = read;
+					into.count = count;
+					usedSec[slot] = nowSec();
+				}
+			}
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		(count == NOT_CACHED ? misses : hits).increment();
+		return count;
+	}
+
+	int size () {
+		return size;
+	}
+
+	// The slot of the key, or else the empty slot where it would go
+	private int find (long key) {
+
+		int slot = home(key);
+		while (keys[slot] != NO_CARD && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int home (long key) {
+		// Card numbers share prefixes and check digits, so mix all the bits in before masking
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int nowSec () {
+		return (int) ((System.currentTimeMillis() - createdMs) / 1000);
+	}
+
+	private void evictLeastRecentlyUsed () {
+
+		// Sample the occupied slots following a random one. With the table three quarters full, they are never far apart.
+		int slot = ThreadLocalRandom.current().nextInt(mask + 1);
+		int victim = -1;
+		for (int sampled = 0; sampled < EVICTION_SAMPLE_SIZE; slot = (slot + 1) & mask) {
+			if (keys[slot] != NO_CARD) {
+				if (victim < 0 || usedSec[slot] < usedSec[victim]) {
+					victim = slot;
+				}
+				sampled++;
+			}
+		}
+		remove(victim);
+	}
+
+	// Delete by shifting back the following cards of the probe sequence, so no tombstones are left to lengthen later probes
+	private void remove (int slot) {
+
+		int hole = slot;
+		for (int next = (slot + 1) & mask; keys[next] != NO_CARD; next = (next + 1) & mask) {
+			// The card can move into the hole if the hole lies between its home slot and where it is now
+			if (((next - home(keys[next])) & mask) >= ((next - hole) & mask)) {
+				move(next, hole);
+				hole = next;
+			}
+		}
+		keys[hole] = NO_CARD;
+		size--;
+	}
+
+	private void move (int from, int to) {
+
+		keys[to] = keys[from];
+		usedSec[to] = usedSec[from];
+		txnCounts[to] = txnCounts[from];
+		complete[to] = complete[from];
+		System.arraycopy(sequences, from * txnsPerCard, sequences, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(epochSeconds, from * txnsPerCard, epochSeconds, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(amountsMinor, from * txnsPerCard, amountsMinor, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(merchantIds, from * txnsPerCard, merchantIds, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(locationIds, from * txnsPerCard, locationIds, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(latitudes, from * txnsPerCard, latitudes, to * txnsPerCard, txnsPerCard);
+		System.arraycopy(longitudes, from * txnsPerCard, longitudes, to * txnsPerCard, txnsPerCard);
+	}
+}
@@ -0,0 +1,41 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The sizing of the in-memory hot tier of recent transactions, in front of the transaction log
+//  * The last 'txnsPerCard' transactions of each card are kept, at 32 bytes a transaction
+//  * The cache is sized to 'maxMemoryMb' up front and never grows. Once full, the least recently used cards make way.
+@ConfigurationProperties("fraudcheck.txncache")
+public class TransactionCacheProperties {
+
+	// Without the cache every lookup reads the transaction log
+	private boolean enabled = true;
+
+	private int maxMemoryMb = 256;
+
+	private int txnsPerCard = 16;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public int getMaxMemoryMb() {
+		return maxMemoryMb;
+	}
+
+	public void setMaxMemoryMb(int maxMemoryMb) {
+		this.maxMemoryMb = maxMemoryMb;
+	}
+
+	public int getTxnsPerCard() {
+		return txnsPerCard;
+	}
+
+	public void setTxnsPerCard(int txnsPerCard) {
+		this.txnsPerCard = txnsPerCard;
+	}
+}
@@ -0,0 +1,122 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.math.BigDecimal;
+
+// Purpose: The fields of a transaction record, and their conversion to and from how they are stored in the TransactionLog
+//  * Amounts are decimal strings (e.g. "123" or "99.95") or numbers in, and decimal strings out
+//  * Date-times are "dd/MM/yyyy HH:mm:ss" taken as UTC, stored as epoch seconds
+final class TransactionFields {
+
+	static final String FIELD_CARD_NUMBER = "cardNumber";
+	static final String FIELD_INDEX = "index";
+	static final String FIELD_MERCHANT = "merchant";
+	static final String FIELD_AMOUNT = "amount";
+	static final String FIELD_LOCATION = "location";
+	static final String FIELD_DATETIME = "datetime";
+	static final String FIELD_LATITUDE = "latitude";
+	static final String FIELD_LONGITUDE = "longitude";
+
+	static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+	private TransactionFields() {
+	}
+
+	static double parseAmount (Object amount) {
+
+		if (amount instanceof Number) {
+			return ((Number) amount).doubleValue();
+		}
+		try {
+			return (amount != null) ? Double.parseDouble(amount.toString()) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	static String formatAmount (double amount) {
+
+		long whole = (long) amount;
+		return (whole == amount) ? Long.toString(whole) : BigDecimal.valueOf(amount).toPlainString();
+	}
+
+	static long parseDateTime (Object datetime) {
+
+		if (!(datetime instanceof CharSequence) || ((CharSequence) datetime).length() != 19) {
+			return UNKNOWN_TIME;
+		}
+
+		CharSequence text = (CharSequence) datetime;
+		int day = digits(text, 0, 2);
+		int month = digits(text, 3, 2);
+		int year = digits(text, 6, 4);
+		int hour = digits(text, 11, 2);
+		int minute = digits(text, 14, 2);
+		int second = digits(text, 17, 2);
+
+		if ((day | month | year | hour | minute | second) < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+			return UNKNOWN_TIME;
+		}
+		return daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+	}
+
+	static String formatDateTime (long epochSeconds) {
+
+		long days = Math.floorDiv(epochSeconds, 86_400L);
+		int secondOfDay = (int) Math.floorMod(epochSeconds, 86_400L);
+
+		// Civil date from days since 1970-01-01 (as per Howard Hinnant's algorithm)
+		long z = days + 719_468L;
+		long era = Math.floorDiv(z, 146_097L);
+		int dayOfEra = (int) (z - era * 146_097L);
+		int yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int monthIndex = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+		int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		char[] text = new char[19];
+		twoDigits(text, 0, day);
+		text[2] = '/';
+		twoDigits(text, 3, month);
+		text[5] = '/';
+		twoDigits(text, 6, (int) (year / 100));
+		twoDigits(text, 8, (int) (year % 100));
+		text[10] = ' ';
+		twoDigits(text, 11, secondOfDay / 3_600);
+		text[13] = ':';
+		twoDigits(text, 14, (secondOfDay / 60) % 60);
+		text[16] = ':';
+		twoDigits(text, 17, secondOfDay % 60);
+		return new String(text);
+	}
+
+	private static void twoDigits (char[] text, int at, int value) {
+		text[at] = (char) ('0' + value / 10);
+		text[at + 1] = (char) ('0' + value % 10);
+	}
+
+	private static int digits (CharSequence text, int from, int length) {
+
+		int value = 0;
+		for (int i = from; i < from + length; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	// Days since 1970-01-01 of a proleptic Gregorian date (as per Howard Hinnant's algorithm)
+	private static long daysFromCivil (int year, int month, int day) {
+
+		int y = (month <= 2) ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146_097L + dayOfEra - 719_468L;
+	}
+}
@@ -0,0 +1,552 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Purpose: An append-only log of card transactions, in memory-mapped segment files, with the recent transactions of any card a few reads away
+//  * Every transaction is one fixed size record, numbered in sequence across the whole log. Segment files are named by their first number.
+//  * Each record holds the number of the previous record of the same card, so the records of a card are chained newest to oldest.
+//  *   An in-memory index holds the latest record of each card. Its last N transactions are then N reads of mapped memory.
+//  * On start-up the segments are scanned to rebuild the index. A record that is not complete (e.g. from a crash mid-write) ends the log.
+//  * When the active segment fills up a new one is started, and the oldest beyond the retention deleted. Chains stop at the oldest record kept.
+//  * One writer at a time, under the lock. Readers only take the lock to look up the index, then read the mapped records without it.
+final class TransactionLog {
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionLog.class);
+
+	static final String METRIC_APPENDS = "fraudcheck.txnlog.appends";
+	static final String METRIC_CARDS = "fraudcheck.txnlog.cards";
+	static final String METRIC_SEGMENTS = "fraudcheck.txnlog.segments";
+
+	static final String SEGMENT_SUFFIX = ".log";
+
+	// Record layout
+	static final int RECORD_BYTES = 128;
+	static final int RECORD_MAGIC = 0x54584E31;		// "TXN1"
+	static final int OFFSET_MAGIC = 0;				// int
+	static final int OFFSET_CHECKSUM = 4;			// int: CRC32C of the rest of the record
+	static final int OFFSET_SEQUENCE = 8;			// long
+	static final int OFFSET_CARD = 16;				// long: the card number's digits
+	static final int OFFSET_PREVIOUS = 24;			// long: the sequence number of the card's previous record, or NO_PREVIOUS
+	static final int OFFSET_TIME = 32;				// long: epoch seconds
+	static final int OFFSET_AMOUNT = 40;			// double
+	static final int OFFSET_LATITUDE = 48;			// float, NaN if not known
+	static final int OFFSET_LONGITUDE = 52;			// float, NaN if not known
+	static final int OFFSET_MERCHANT = 56;			// byte length, then up to TEXT_FIELD_BYTES of UTF-8
+	static final int OFFSET_LOCATION = 92;			// byte length, then up to TEXT_FIELD_BYTES of UTF-8
+	static final int TEXT_FIELD_BYTES = 35;
+
+	static final long NO_PREVIOUS = -1L;
+
+	// Passed as 'since' to read a card's transactions whatever their sequence number
+	static final long NO_SEQUENCE = -1L;
+
+	// Up to 19 digits fit in an unsigned long
+	static final int MAX_CARD_DIGITS = 19;
+
+	// A card number formatted back from its key: at least this many digits, in groups separated as the services write them
+	static final int CANONICAL_CARD_DIGITS = 16;
+	static final int CARD_DIGIT_GROUP = 4;
+	static final char CARD_GROUP_SEPARATOR = '-';
+
+	private final Path directory;
+	private final int recordsPerSegment;
+	private final int retentionSegments;
+
+	// Oldest first. Replaced, never modified, so readers can work from the array they looked up.
+	private volatile Segment[] segments;
+
+	// The next sequence number to write
+	private long nextSequence;
+
+	private final CardIndex index = new CardIndex();
+	private final StampedLock lock = new StampedLock();
+
+	// The writer lays out each record here first, to checksum it before copying it into the segment
+	private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_BYTES);
+	private final CRC32C checksum = new CRC32C();
+
+	private final ScheduledExecutorService flusher;
+	private final Counter appends;
+
+	// A mapped segment file, covering sequence numbers firstSequence to firstSequence + capacity - 1
+	static final class Segment {
+
+		final long firstSequence;
+		final int capacity;
+		final Path path;
+		final MappedByteBuffer buffer;
+
+		Segment(long firstSequence, int capacity, Path path, MappedByteBuffer buffer) {
+			this.firstSequence = firstSequence;
+			this.capacity = capacity;
+			this.path = path;
+			this.buffer = buffer;
+		}
+
+		boolean contains (long sequence) {
+			return sequence >= firstSequence && sequence < firstSequence + capacity;
+		}
+
+		int offsetOf (long sequence) {
+			return (int) (sequence - firstSequence) * RECORD_BYTES;
+		}
+	}
+
+	TransactionLog(TransactionLogProperties properties, MeterRegistry meterRegistry) throws IOException {
+
+		if (properties.getSegmentMb() <= 0 || properties.getSegmentMb() >= 2048 || properties.getRetentionSegments() <= 0) {
+			throw new IllegalArgumentException("fraudcheck.txnlog.segmentMb must be 1 to 2047, and retentionSegments positive");
+		}
+
+		this.directory = Paths.get(properties.getDirectory());
+		this.recordsPerSegment = (properties.getSegmentMb() * 1024 * 1024) / RECORD_BYTES;
+		this.retentionSegments = properties.getRetentionSegments();
+		Files.createDirectories(directory);
+
+		recover();
+
+		this.appends = Counter.builder(METRIC_APPENDS).register(meterRegistry);
+		Gauge.builder(METRIC_CARDS, this, TransactionLog::cardCount).register(meterRegistry);
+		Gauge.builder(METRIC_SEGMENTS, this, TransactionLog::segmentCount).register(meterRegistry);
+
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "txnlog-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long flushIntervalMs = Math.max(1, properties.getFlushIntervalMs());
+		flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	// Map the existing segments and rebuild the index from their records
+	private void recover () throws IOException {
+
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			files.forEach(paths::add);
+		}
+		// The names are zero padded, so sort in sequence order
+		paths.sort(null);
+
+		long startMs = System.currentTimeMillis();
+		List<Segment> recovered = new ArrayList<>();
+		long sequence = -1;
+		boolean ended = false;
+
+		for (Path path : paths) {
+			long firstSequence = Long.parseLong(path.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+			if (ended || (sequence >= 0 && firstSequence != sequence)) {
+				// Written after the end of the log, or a gap in it: either way, not part of the log
+				log.warn("Deleting transaction log segment " + path + ", which follows the end of the log");
+				Files.delete(path);
+				ended = true;
+				continue;
+			}
+
+			Segment segment = map(path, firstSequence, (int) (Files.size(path) / RECORD_BYTES));
+			recovered.add(segment);
+			sequence = firstSequence;
+
+			for (; sequence < firstSequence + segment.capacity; sequence++) {
+				int offset = segment.offsetOf(sequence);
+				if (!isValidRecord(segment.buffer, offset, sequence)) {
+					// Clear this and any later records written, so none can be taken as part of the log later. (Unwritten ones are already zero.)
+					clearRecord(segment.buffer, offset);
+					for (int later = offset + RECORD_BYTES; later < segment.capacity * RECORD_BYTES; later += RECORD_BYTES) {
+						if (segment.buffer.getInt(later + OFFSET_MAGIC) != 0) {
+							clearRecord(segment.buffer, later);
+						}
+					}
+					ended = true;
+					break;
+				}
+				index.put(segment.buffer.getLong(offset + OFFSET_CARD), sequence);
+			}
+		}
+
+		if (recovered.isEmpty()) {
+			recovered.add(createSegment(0));
+			sequence = 0;
+		}
+		segments = recovered.toArray(new Segment[0]);
+		nextSequence = sequence;
+
+		log.info("Recovered " + (nextSequence - segments[0].firstSequence) + " transactions of " + index.size() + " cards from "
+				+ segments.length + " segments in " + directory.toAbsolutePath() + ", in " + (System.currentTimeMillis() - startMs) + "ms");
+	}
+
+	private static void clearRecord (MappedByteBuffer buffer, int offset) {
+		for (int i = 0; i < RECORD_BYTES; i += Long.BYTES) {
+			buffer.putLong(offset + i, 0L);
+		}
+	}
+
+	private boolean isValidRecord (MappedByteBuffer buffer, int offset, long sequence) {
+
+		if (buffer.getInt(offset + OFFSET_MAGIC) != RECORD_MAGIC || buffer.getLong(offset + OFFSET_SEQUENCE) != sequence) {
+			return false;
+		}
+		// Nothing is being written yet, so the writer's scratch space is free
+		buffer.get(offset, scratch.array());
+		checksum.reset();
+		checksum.update(scratch.array(), OFFSET_SEQUENCE, RECORD_BYTES - OFFSET_SEQUENCE);
+		return (int) checksum.getValue() == buffer.getInt(offset + OFFSET_CHECKSUM);
+	}
+
+	// Told of each transaction as it is logged, while still under the write lock, so in the order of the log (e.g. to write it through to a cache)
+	interface AppendListener {
+		void appended (long sequence, boolean firstOfCard);
+	}
+
+	// Append a transaction to the log. Pass NaN coordinates if its location is not known.
+	// Returns the sequence number it was logged as.
+	long append (long card, long epochSeconds, double amount, String merchant, String location, double latitude, double longitude) {
+		return append(card, epochSeconds, amount, merchant, location, latitude, longitude, null);
+	}
+
+	// As above, telling the listener (if any) before the next transaction can be logged
+	long append (long card, long epochSeconds, double amount, String merchant, String location, double latitude, double longitude,
+			AppendListener listener) {
+
+		if (card == CardIndex.NO_CARD) {
+			throw new IllegalArgumentException("Not a card number");
+		}
+
+		long sequence;
+		long stamp = lock.writeLock();
+		try {
+			Segment active = segments[segments.length - 1];
+			if (!active.contains(nextSequence)) {
+				active = roll();
+			}
+
+			long previous = index.get(card);
+			if (previous == CardIndex.NOT_FOUND) {
+				previous = NO_PREVIOUS;
+			}
+
+			scratch.clear();
+			scratch.putInt(OFFSET_MAGIC, RECORD_MAGIC);
+			scratch.putLong(OFFSET_SEQUENCE, nextSequence);
+			scratch.putLong(OFFSET_CARD, card);
+			scratch.putLong(OFFSET_PREVIOUS, previous);
+			scratch.putLong(OFFSET_TIME, epochSeconds);
+			scratch.putDouble(OFFSET_AMOUNT, amount);
+			scratch.putFloat(OFFSET_LATITUDE, (float) latitude);
+			scratch.putFloat(OFFSET_LONGITUDE, (float) longitude);
+			putText(OFFSET_MERCHANT, merchant);
+			putText(OFFSET_LOCATION, location);
+
+			checksum.reset();
+			checksum.update(scratch.array(), OFFSET_SEQUENCE, RECORD_BYTES - OFFSET_SEQUENCE);
+			scratch.putInt(OFFSET_CHECKSUM, (int) checksum.getValue());
+
+			active.buffer.put(active.offsetOf(nextSequence), scratch.array());
+
+			// Readers only follow the index to this record once it is complete
+			index.put(card, nextSequence);
+			sequence = nextSequence++;
+
+			if (listener != null) {
+				listener.appended(sequence, previous == NO_PREVIOUS);
+			}
+
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		appends.increment();
+		return sequence;
+	}
+
+	// The sequence number of the card's transaction before the one at 'sequence', or NO_PREVIOUS if that was its first (or is no longer kept)
+	long previousOf (long sequence) {
+
+		Segment segment = segmentOf(segments, sequence);
+		return (segment != null) ? segment.buffer.getLong(segment.offsetOf(sequence) + OFFSET_PREVIOUS) : NO_PREVIOUS;
+	}
+
+	// Truncated to the field size, without splitting a character
+	private void putText (int offset, String text) {
+
+		byte[] bytes = (text != null) ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		int length = Math.min(bytes.length, TEXT_FIELD_BYTES);
+		while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+			length--;
+		}
+		scratch.put(offset, (byte) length);
+		scratch.put(offset + 1, bytes, 0, length);
+		Arrays.fill(scratch.array(), offset + 1 + length, offset + 1 + TEXT_FIELD_BYTES, (byte) 0);
+	}
+
+	// Read up to 'max' of the card's most recent transactions, newest first, stopping at the one numbered 'since' (unless NO_SEQUENCE).
+	// Returns how many were read.
+	int readRecent (long card, int max, long since, RecentTransactions into) {
+		return readFrom(newestOf(card), max, since, into);
+	}
+
+	// The sequence number of the card's newest transaction, or NO_SEQUENCE if it has none
+	long newestOf (long card) {
+
+		long stamp = lock.readLock();
+		try {
+			long sequence = index.get(card);
+			return (sequence >= 0) ? sequence : NO_SEQUENCE;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// As readRecent, but from the card's transaction numbered 'sequence' back, e.g. to carry on from previousOf the last one read.
+	// (Nothing is read for NO_SEQUENCE or NO_PREVIOUS.)
+	int readFrom (long sequence, int max, long since, RecentTransactions into) {
+
+		Segment[] segments = this.segments;
+		int count = 0;
+		int limit = Math.min(max, into.capacity());
+		Segment segment = null;
+
+		while (sequence >= 0 && sequence > since && count < limit) {
+			if (segment == null || !segment.contains(sequence)) {
+				segment = segmentOf(segments, sequence);
+				if (segment == null) {
+					// Deleted by the retention
+					break;
+				}
+			}
+			MappedByteBuffer buffer = segment.buffer;
+			int offset = segment.offsetOf(sequence);
+
+			into.sequences[count] = sequence;
+			into.epochSeconds[count] = buffer.getLong(offset + OFFSET_TIME);
+			into.amounts[count] = buffer.getDouble(offset + OFFSET_AMOUNT);
+			into.latitudes[count] = buffer.getFloat(offset + OFFSET_LATITUDE);
+			into.longitudes[count] = buffer.getFloat(offset + OFFSET_LONGITUDE);
+			into.merchantNames[count] = null;
+			into.locationNames[count] = null;
+			into.merchantLengths[count] = buffer.get(offset + OFFSET_MERCHANT);
+			buffer.get(offset + OFFSET_MERCHANT + 1, into.merchants, count * TEXT_FIELD_BYTES, into.merchantLengths[count]);
+			into.locationLengths[count] = buffer.get(offset + OFFSET_LOCATION);
+			buffer.get(offset + OFFSET_LOCATION + 1, into.locations, count * TEXT_FIELD_BYTES, into.locationLengths[count]);
+
+			sequence = buffer.getLong(offset + OFFSET_PREVIOUS);
+			count++;
+		}
+
+		into.count = count;
+		return count;
+	}
+
+	// Called with each transaction replayed from the log
+	interface TransactionVisitor {
+		void visit (long card, long epochSeconds, String merchant, String location);
+	}
+
+	// Replay the transactions logged since 'sinceEpochSeconds', oldest first, e.g. to rebuild an in-memory index on start-up
+	//  * Walks back from the end of the log until a transaction before then, so any logged out of time order before that one are not replayed
+	void replaySince (long sinceEpochSeconds, TransactionVisitor visitor) {
+
+		Segment[] segments;
+		long end;
+		long stamp = lock.readLock();
+		try {
+			segments = this.segments;
+			end = nextSequence;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
+		long first = end;
+		Segment segment = null;
+		while (first > segments[0].firstSequence) {
+			long sequence = first - 1;
+			if (segment == null || !segment.contains(sequence)) {
+				segment = segmentOf(segments, sequence);
+			}
+			if (segment.buffer.getLong(segment.offsetOf(sequence) + OFFSET_TIME) < sinceEpochSeconds) {
+				break;
+			}
+			first = sequence;
+		}
+
+		for (long sequence = first; sequence < end; sequence++) {
+			if (!segment.contains(sequence)) {
+				segment = segmentOf(segments, sequence);
+			}
+			MappedByteBuffer buffer = segment.buffer;
+			int offset = segment.offsetOf(sequence);
+			visitor.visit(buffer.getLong(offset + OFFSET_CARD), buffer.getLong(offset + OFFSET_TIME),
+					textAt(buffer, offset + OFFSET_MERCHANT), textAt(buffer, offset + OFFSET_LOCATION));
+		}
+	}
+
+	private static String textAt (MappedByteBuffer buffer, int offset) {
+
+		byte[] bytes = new byte[buffer.get(offset)];
+		buffer.get(offset + 1, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// The segments are few and in sequence order, so a binary search is quick
+	private static Segment segmentOf (Segment[] segments, long sequence) {
+
+		int low = 0;
+		int high = segments.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Segment segment = segments[middle];
+			if (sequence < segment.firstSequence) {
+				high = middle - 1;
+			} else if (sequence >= segment.firstSequence + segment.capacity) {
+				low = middle + 1;
+			} else {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	// Start a new segment at the next sequence number, deleting the oldest beyond the retention. Called with the write lock held.
+	private Segment roll () {
+
+		Segment[] current = segments;
+		current[current.length - 1].buffer.force();
+
+		Segment next;
+		try {
+			next = createSegment(nextSequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create the next transaction log segment", e);
+		}
+
+		int dropped = Math.max(0, current.length + 1 - retentionSegments);
+		Segment[] rolled = new Segment[current.length + 1 - dropped];
+		System.arraycopy(current, dropped, rolled, 0, current.length - dropped);
+		rolled[rolled.length - 1] = next;
+		segments = rolled;
+
+		// Readers part way through a dropped segment can carry on: its mapping stays valid after the file is deleted
+		for (int i = 0; i < dropped; i++) {
+			try {
+				Files.deleteIfExists(current[i].path);
+				log.info("Deleted transaction log segment " + current[i].path + " beyond the retention of " + retentionSegments + " segments");
+			} catch (IOException e) {
+				log.error("Could not delete transaction log segment " + current[i].path + ". " + e.toString());
+			}
+		}
+		return next;
+	}
+
+	private Segment createSegment (long firstSequence) throws IOException {
+
+		Path path = directory.resolve(String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+		log.info("Starting transaction log segment " + path);
+		return map(path, firstSequence, recordsPerSegment);
+	}
+
+	private static Segment map (Path path, long firstSequence, int capacity) throws IOException {
+
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw"); FileChannel channel = file.getChannel()) {
+			// A new file is preallocated to its full size (sparse, so only taking disk space as it is written)
+			long size = (long) capacity * RECORD_BYTES;
+			if (file.length() < size) {
+				file.setLength(size);
+			}
+			// The mapping outlives the channel
+			return new Segment(firstSequence, capacity, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+		}
+	}
+
+	void flush () {
+		try {
+			segments[segments.length - 1].buffer.force();
+		} catch (RuntimeException e) {
+			log.error("Could not flush the transaction log. " + e.toString());
+		}
+	}
+
+	void close () {
+		flusher.shutdown();
+		flush();
+	}
+
+	int cardCount () {
+		long stamp = lock.readLock();
+		try {
+			return index.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	int segmentCount () {
+		return segments.length;
+	}
+
+	// The digits of the card number as its key (so "1234-5678-1234-5688" and "1234567812345688" are the same card),
+	// or NO_CARD if it has anything but digits and separators, or is all zeroes
+	static long keyOf (Object cardNumber) {
+
+		if (!(cardNumber instanceof CharSequence)) {
+			return CardIndex.NO_CARD;
+		}
+		CharSequence text = (CharSequence) cardNumber;
+
+		long key = 0;
+		int digits = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '-' || c == ' ') {
+				continue;
+			}
+			if (c < '0' || c > '9' || ++digits > MAX_CARD_DIGITS) {
+				return CardIndex.NO_CARD;
+			}
+			// Wraps past Long.MAX_VALUE into the unsigned range, which is still one key per number
+			key = key * 10 + (c - '0');
+		}
+		return key;
+	}
+
+	// The card number of a key, e.g. "1234-5678-1234-5688". Zero padded to 16 digits, as the key does not say how many leading zeros it had.
+	static String cardNumberOf (long key) {
+
+		String digits = Long.toUnsignedString(key);
+		if (digits.length() < CANONICAL_CARD_DIGITS) {
+			digits = "0".repeat(CANONICAL_CARD_DIGITS - digits.length()) + digits;
+		}
+
+		StringBuilder cardNumber = new StringBuilder(digits.length() + digits.length() / CARD_DIGIT_GROUP);
+		for (int i = 0; i < digits.length(); i++) {
+			if (i > 0 && i % CARD_DIGIT_GROUP == 0) {
+				cardNumber.append(CARD_GROUP_SEPARATOR);
+			}
+			cardNumber.append(digits.charAt(i));
+		}
+		return cardNumber.toString();
+	}
+}
@@ -0,0 +1,63 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: Where and how the card transactions are stored, as configured
+//  * The log is a series of fixed size segment files in the directory, each memory-mapped
+//  * Once the log has more than 'retentionSegments' segments, the oldest is deleted along with its transactions
+//  * Written transactions are in the OS page cache at once, so survive the service crashing. They are forced to disk every 'flushIntervalMs'.
+@ConfigurationProperties("fraudcheck.txnlog")
+public class TransactionLogProperties {
+
+	private String directory = "data/txnlog";
+
+	// At 128 bytes per transaction, a segment of 128MB holds 1M transactions
+	private int segmentMb = 128;
+
+	private int retentionSegments = 64;
+
+	private long flushIntervalMs = 1_000;
+
+	// The most transactions returned for one request, however many are asked for
+	private int maxTxnCount = 500;
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public int getSegmentMb() {
+		return segmentMb;
+	}
+
+	public void setSegmentMb(int segmentMb) {
+		this.segmentMb = segmentMb;
+	}
+
+	public int getRetentionSegments() {
+		return retentionSegments;
+	}
+
+	public void setRetentionSegments(int retentionSegments) {
+		this.retentionSegments = retentionSegments;
+	}
+
+	public long getFlushIntervalMs() {
+		return flushIntervalMs;
+	}
+
+	public void setFlushIntervalMs(long flushIntervalMs) {
+		this.flushIntervalMs = flushIntervalMs;
+	}
+
+	public int getMaxTxnCount() {
+		return maxTxnCount;
+	}
+
+	public void setMaxTxnCount(int maxTxnCount) {
+		this.maxTxnCount = maxTxnCount;
+	}
+}
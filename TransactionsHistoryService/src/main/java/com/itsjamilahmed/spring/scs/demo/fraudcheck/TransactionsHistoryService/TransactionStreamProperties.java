@@ -0,0 +1,30 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Purpose: The flow control of the transactions streamed back in chunks
+//  * At most 'window' chunks are sent ahead of those the consumer has credited back, so a cancellation arrives before much more is sent
+//  * A stream with no credit back within 'creditWaitMs' carries on as if it had one (e.g. the credit was lost)
+@ConfigurationProperties("fraudcheck.txnstream")
+public class TransactionStreamProperties {
+
+	private int window = 2;
+
+	private long creditWaitMs = 200;
+
+	public int getWindow() {
+		return window;
+	}
+
+	public void setWindow(int window) {
+		this.window = window;
+	}
+
+	public long getCreditWaitMs() {
+		return creditWaitMs;
+	}
+
+	public void setCreditWaitMs(long creditWaitMs) {
+		this.creditWaitMs = creditWaitMs;
+	}
+}
@@ -1,22 +1,37 @@
 package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
 
 import org.json.simple.JSONObject;
-import org.apache.commons.lang3.RandomUtils;
 import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.AppHeaderPropagator;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.Deadlines;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.PayloadCodec;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageMetrics;
+import com.itsjamilahmed.spring.scs.demo.fraudcheck.FraudCheckCommon.StageTimings;
+
 @SpringBootApplication
+@EnableConfigurationProperties({TransactionLogProperties.class, TransactionCacheProperties.class, LookupCacheProperties.class, PlaceIndexProperties.class,
+		TransactionStreamProperties.class})
 public class TransactionsHistoryServiceApplication {
 
 	
@@ -31,111 +46,524 @@ public class TransactionsHistoryServiceApplication {
 	// How to identify the headers on the inbound event that should be copied over to the outbound event?
 	static final String APP_HEADERS_KEY_PREFIX = "app_";
 	
+	// The fields of the getCardsSeenAt request and response, besides those of a transaction
+	static final String FIELD_WITHIN_MINUTES = "withinMinutes";
+	static final String FIELD_LAST_SEEN = "lastSeen";
+	
+	// The stage error reason for a getCardsSeenAt request with the place index disabled
+	static final String REASON_DISABLED = "disabled";
+	static final String FIELD_TXN_COUNT = "txnCount";
+	
+	// The getTransactions cursor: the log sequence number of the card's newest transaction, to ask for only those newer next time
+	static final String FIELD_SINCE = "since";
+	static final String FIELD_CURSOR = "cursor";
+	static final long NO_CURSOR = TransactionLog.NO_SEQUENCE;
+	
+	// A getTransactions reply streamed in chunks: asked for with a chunkSize, each chunk then numbered within its stream and the last one marked
+	static final String FIELD_CHUNK_SIZE = "chunkSize";
+	static final String FIELD_STREAM_ID = "streamId";
+	static final String FIELD_CHUNK_SEQ = "chunkSeq";
+	static final String FIELD_LAST_CHUNK = "lastChunk";
+	
+	// A credit for a stream, from its consumer: 'cancel' true if it wants no more of it
+	static final String FIELD_CANCEL = "cancel";
+	
+	// The chunks before the last are sent on the function's own output binding, so all go out in order
+	static final String TRANSACTIONS_OUTPUT_BINDING = "getTransactions-out-0";
+	
+	private final StageMetrics metrics;
+	
+	// The card transactions, as recorded from the transaction events
+	private final TransactionLog transactionLog;
+	private final int maxTxnCount;
+	
+	// The recent transactions of the active cards, in memory in front of the log. Null if disabled.
+	private final TransactionCache txnCache;
+	
+	// The recent results of getTransactions, so repeat lookups skip the reading. Null if disabled.
+	private final LookupCache lookupCache;
+	
+	// Which cards transacted at each merchant and location in the last while. Null if disabled.
+	private final PlaceIndex merchantIndex;
+	private final PlaceIndex locationIndex;
+	private final int placeWindowMinutes;
+	private final int maxPlaceResults;
+	
+	// Each consumer thread reads the transactions into its own reusable columns
+	private final ThreadLocal<RecentTransactions> recentTransactions;
+	
+	// The credits given back by the consumers of the streams of transactions being sent
+	private final StreamCredits streamCredits;
+	
+	public TransactionsHistoryServiceApplication(MeterRegistry meterRegistry, TransactionLogProperties logProperties, TransactionCacheProperties cacheProperties,
+			LookupCacheProperties lookupProperties, PlaceIndexProperties placeProperties, TransactionStreamProperties streamProperties) throws IOException {
+		this.metrics = new StageMetrics(meterRegistry, "TransactionsHistoryService");
+		this.transactionLog = new TransactionLog(logProperties, meterRegistry);
+		this.maxTxnCount = Math.max(1, logProperties.getMaxTxnCount());
+		this.txnCache = cacheProperties.isEnabled() ? new TransactionCache(cacheProperties, meterRegistry) : null;
+		this.recentTransactions = ThreadLocal.withInitial(() -> new RecentTransactions(maxTxnCount));
+		this.lookupCache = lookupProperties.isEnabled() ? new LookupCache(lookupProperties, meterRegistry) : null;
+		this.streamCredits = new StreamCredits(streamProperties, meterRegistry);
+		
+		this.placeWindowMinutes = placeProperties.getWindowMinutes();
+		this.maxPlaceResults = Math.max(1, placeProperties.getMaxResults());
+		if (placeProperties.isEnabled()) {
+			this.merchantIndex = new PlaceIndex(placeProperties.getBucketSeconds(), placeWindowMinutes);
+			this.locationIndex = new PlaceIndex(placeProperties.getBucketSeconds(), placeWindowMinutes);
+			
+			// The indexes are in memory only, so are rebuilt from the window's worth of the log.
+			// (The log holds only the cards' keys, so these cards are answered with their numbers in the canonical form.)
+			long nowEpochSeconds = System.currentTimeMillis() / 1000;
+			transactionLog.replaySince(nowEpochSeconds - placeWindowMinutes * 60L, (card, epochSeconds, merchant, location) -> {
+				merchantIndex.add(merchant, card, null, epochSeconds, nowEpochSeconds);
+				locationIndex.add(location, card, null, epochSeconds, nowEpochSeconds);
+			});
+			log.info("Indexed the transactions of the last " + placeWindowMinutes + " minutes at " + merchantIndex.placeCount() + " merchants and "
+					+ locationIndex.placeCount() + " locations");
+		} else {
+			this.merchantIndex = null;
+			this.locationIndex = null;
+		}
+	}
+	
+	@PreDestroy
+	void closeTransactionLog () {
+		transactionLog.close();
+	}
+	
 	public static void main(String[] args) {
 		SpringApplication.run(TransactionsHistoryServiceApplication.class, args);
 	}
 
 	@Bean
 	// Purpose: A simple lookup service to return the specified number of recent transactions for a given card number
+	//  * A card looked up again within seconds, with no new transactions since, is answered from the cache of recent results
+	//  * Otherwise the transactions are read from the in-memory cache if it holds all those asked for, else from the transaction log
+	//  * Either way newest first, up to the configured maximum
+	//  * The response has the cursor of the newest. Given back as 'since', only the transactions newer than that are returned (a delta fetch).
+	//  * A card with no transactions recorded gets an empty list, and a cursor of -1
+	//  * Given a 'chunkSize', more transactions than that are streamed back in chunks as they are read from the log, rather than built into one message
+	//  *   Each has the 'streamId', its 'chunkSeq' from 0, and 'lastChunk' true on the last. Sent only a few ahead of the consumer (see creditTransactions).
+	//  * A request past the deadline of the original API request is dropped unparsed (as is the rest of a stream), and each reply's TTL is the time remaining
 	//	* For these internally accessed services, error messages are sent back on the same supplied reply-to
 	//  * It is the responsibility of the requesting service to detect and implement any logic such as retry pattern
-	public Function<Message<String>, Message<String>> getTransactions(){
+	public Function<Message<byte[]>, Message<byte[]>> getTransactions(StreamBridge streamBridge){
+		StageMetrics.Stage stageMetrics = metrics.stage("getTransactions");
 		return input -> {
 			
-			String payload = input.getPayload();
+			long startNanos = stageMetrics.received(input);
+			if (Deadlines.isExpired(input)) {
+				// The caller is no longer waiting, so not even worth parsing
+				stageMetrics.expired();
+				stageMetrics.completed(startNanos);
+				log.info("Dropping message past its deadline, on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+				return null;
+			}
+			StageTimings.Stage stageTiming = StageTimings.start(input, "getTransactions");
 			JSONObject jsonMessageIn;
 			JSONObject jsonMessageOut;
-			log.info("Received message: " + input.getPayload() + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			log.info("Received message: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
 			
 			try {
 				try {
-					jsonMessageIn = (JSONObject) new JSONParser().parse(payload);
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decode(input);
+					stageMetrics.parsed(parseStartNanos);
 					
 					// Do some processing now to get the transactions requested
 					String cardNumber = jsonMessageIn.get("cardNumber").toString();
 					int txnsCount = Integer.parseInt(jsonMessageIn.get("txnCount").toString());
 					
-					simulateProcessingDelay();
+					long card = TransactionLog.keyOf(cardNumber);
+					int wanted = Math.min(txnsCount, maxTxnCount);
+					Object sinceValue = jsonMessageIn.get(FIELD_SINCE);
+					long since = (sinceValue != null) ? Long.parseLong(sinceValue.toString()) : NO_CURSOR;
+					
+					// Many transactions asked for in chunks are streamed, the first on their way while the rest are read. (A delta fetch is small anyway.)
+					Object chunkSizeValue = jsonMessageIn.get(FIELD_CHUNK_SIZE);
+					int chunkSize = (chunkSizeValue != null) ? Integer.parseInt(chunkSizeValue.toString()) : 0;
+					if (chunkSize > 0 && wanted > chunkSize && since == NO_CURSOR && streamBridge != null) {
+						return streamTransactions(input, stageMetrics, stageTiming, startNanos, cardNumber, card, wanted, chunkSize, streamBridge);
+					}
+					
+					// A card re-checked within seconds has its result cached, unless it has transacted since. (Not for a delta fetch, which is small anyway.)
+					boolean cacheable = lookupCache != null && since == NO_CURSOR && card != CardIndex.NO_CARD;
+					LookupCache.Lookup lookup = cacheable ? lookupCache.get(card, wanted) : null;
+					if (lookup == null) {
+						long version = cacheable ? lookupCache.versionOf(card) : 0;
+						lookup = readTransactions(card, wanted, since);
+						if (cacheable) {
+							lookupCache.put(card, lookup, version);
+						}
+					}
 					
 					// Create a new message to hold the results and send out
 					jsonMessageOut = new JSONObject();
 					jsonMessageOut.put("cardNumber", jsonMessageIn.get("cardNumber"));
-					
-					JSONArray txnsAll = new JSONArray();
-					JSONObject txnsRecord;
-					
-					for (int i = txnsCount; i > 0; i--) {
-						txnsRecord = new JSONObject();
-						
-						txnsRecord.put("index", i);
-						txnsRecord.put("merchant", "xxx");
-						txnsRecord.put("amount", "123");
-						txnsRecord.put("location", "yyy");
-						txnsRecord.put("datetime", "21/05/2020 10:31:31");
-						
-						txnsAll.add(txnsRecord);
+					jsonMessageOut.put("txns", lookup.txns);
+					jsonMessageOut.put(FIELD_TXN_COUNT, wanted);
+					// With no newer transactions, the cursor stays where it was
+					jsonMessageOut.put(FIELD_CURSOR, (lookup.cursor != NO_CURSOR) ? lookup.cursor : since);
+					if (since != NO_CURSOR) {
+						jsonMessageOut.put(FIELD_SINCE, since);
 					}
-					
-					jsonMessageOut.put("txns", txnsAll);
 					jsonMessageOut.put("status", "ok");
 					
 				} catch (ParseException e) {
 					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
 					throw new Exception ("Did not receive a valid JSON formatted message. " + e.toString());
 				} catch (NullPointerException e) {
-					log.error("Error processing message: NullPointerException during json access. ");
-					e.printStackTrace();
+					log.error("Error processing message: NullPointerException during json access.", e);
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
 					throw new Exception("Error processing message: NullPointerException during json access.");
+				} catch (NumberFormatException e) {
+					log.error("Error processing message: txnCount, since or chunkSize is not a number. ");
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+					throw new Exception("Error processing message: txnCount, since or chunkSize is not a number.");
 				}		
 			} catch (Exception e) {
 				jsonMessageOut = new JSONObject();
 				jsonMessageOut.put("status", "error");
 				jsonMessageOut.put("errorMsg", "Error processing message: " + e.getMessage());
 			}
+			stageTiming.end();
 			
 			String replyTopic = input.getHeaders().get(REPLY_TO_HEADER_KEY).toString();
 			
-			Message<String> output = MessageBuilder.withPayload(jsonMessageOut.toString())
-					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic)
-					.build();
+			// Reply in the same payload format as the request
+			String contentType = PayloadCodec.contentTypeOf(input);
+			
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentType))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic);
 			
-			// Copy over all the app headers...
-			output = copyAppMessageHeaders(input, output);
+			// Copy over all the app headers, adding this stage to the timings trail...
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, Deadlines.withRemainingTtl(input, outputBuilder))
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+					.build();
 
-			log.info("Sending response: " + output.getPayload() + " on topic: " + replyTopic);
+			log.info("Sending response: " + jsonMessageOut + " on topic: " + replyTopic);
 			
+			// Errors go back on the same reply-to topic, so are told apart by their status
+			stageMetrics.completed(startNanos, "error".equals(jsonMessageOut.get("status")));
 			return output;
 		};
 	}
 	
-	private Message<String> copyAppMessageHeaders (Message<String> fromMsg, Message<String> toMsg) {
+	// The card's most recent transactions (newer than 'since') as the response's records, newest first and indexed counting down to 1 for the oldest
+	//  * From the in-memory cache if it holds all those asked for, otherwise from the transaction log
+	private LookupCache.Lookup readTransactions (long card, int wanted, long since) {
+		
+		RecentTransactions recent = recentTransactions.get();
+		int found = (txnCache != null) ? txnCache.readRecent(card, wanted, since, recent) : TransactionCache.NOT_CACHED;
+		if (found == TransactionCache.NOT_CACHED) {
+			found = transactionLog.readRecent(card, wanted, since, recent);
+		}
+		
+		return new LookupCache.Lookup(wanted, transactionRecords(recent, found, found), (found > 0) ? recent.sequences[0] : NO_CURSOR);
+	}
+	
+	// Send the card's transactions in chunks of up to 'chunkSize', newest first, each as soon as it is read from the log
+	//  * All but the last chunk are sent through the StreamBridge, and the last is returned as the function's output
+	//  * Beyond the flow control window, wait for the consumer's credit before each chunk (at most until the deadline of the original API request)
+	//  * Stop if the consumer has cancelled the stream instead, e.g. as it already has a certain fraud verdict. Nothing more is then sent.
+	//  *   Likewise once past the deadline of the original API request.
+	//  * The records are indexed counting down from txnCount, as how many the card has is only known at the end
+	private Message<byte[]> streamTransactions (Message<byte[]> input, StageMetrics.Stage stageMetrics, StageTimings.Stage stageTiming, long startNanos,
+			String cardNumber, long card, int wanted, int chunkSize, StreamBridge streamBridge) {
 		
-		// Now copy over all the app headers...
-		for (String key : fromMsg.getHeaders().keySet()) {
-			if (key.startsWith(APP_HEADERS_KEY_PREFIX)) {
+		String streamId = UUID.randomUUID().toString();
+		RecentTransactions recent = recentTransactions.get();
+		long sequence = transactionLog.newestOf(card);
+		long cursor = sequence;
+		int sent = 0;
+		
+		streamCredits.open(streamId);
+		try {
+			for (int chunkSeq = 0; ; chunkSeq++) {
+				int asked = Math.min(Math.min(chunkSize, wanted - sent), recent.capacity());
+				int found = transactionLog.readFrom(sequence, asked, NO_CURSOR, recent);
+				sequence = (found > 0) ? transactionLog.previousOf(recent.sequences[found - 1]) : TransactionLog.NO_PREVIOUS;
+				
+				// Fewer than asked for means the card's transactions ran out (or the rest are past the retention)
+				boolean lastChunk = found < asked || sent + found >= wanted || sequence == TransactionLog.NO_PREVIOUS;
+				
+				JSONObject jsonMessageOut = new JSONObject();
+				jsonMessageOut.put("cardNumber", cardNumber);
+				jsonMessageOut.put("txns", transactionRecords(recent, found, wanted - sent));
+				jsonMessageOut.put(FIELD_TXN_COUNT, wanted);
+				jsonMessageOut.put(FIELD_CURSOR, cursor);
+				jsonMessageOut.put(FIELD_STREAM_ID, streamId);
+				jsonMessageOut.put(FIELD_CHUNK_SEQ, chunkSeq);
+				jsonMessageOut.put(FIELD_LAST_CHUNK, lastChunk);
+				jsonMessageOut.put("status", "ok");
+				sent += found;
 				
-				// Message is immutable so need to create new for each header?
-				// TODO: Investigate some optimisation
-				toMsg = MessageBuilder.fromMessage(toMsg)
-						.setHeader(key, fromMsg.getHeaders().get(key))
-						.build();
+				stageTiming.end();
+				Message<byte[]> output = reply(input, jsonMessageOut, stageTiming);
+				log.info("Sending response chunk " + chunkSeq + " of stream " + streamId + " with " + found + " transactions on topic: "
+						+ output.getHeaders().get(BinderHeaders.TARGET_DESTINATION));
+				
+				if (lastChunk) {
+					stageMetrics.completed(startNanos);
+					return output;
+				}
+				streamBridge.send(TRANSACTIONS_OUTPUT_BINDING, output);
+				
+				boolean carryOn;
+				try {
+					carryOn = streamCredits.awaitCredit(streamId, chunkSeq + 1, Deadlines.deadlineMs(input));
+				} catch (InterruptedException e) {
+					// e.g. shutting down
+					Thread.currentThread().interrupt();
+					carryOn = false;
+				}
+				if (!carryOn) {
+					log.info("Stream " + streamId + " stopped (cancelled by its consumer) after " + (chunkSeq + 1) + " chunks, " + sent + " transactions");
+					stageMetrics.completed(startNanos);
+					return null;
+				}
+				if (Deadlines.isExpired(input)) {
+					log.info("Stream " + streamId + " past its deadline after " + (chunkSeq + 1) + " chunks, " + sent + " transactions");
+					stageMetrics.expired();
+					stageMetrics.completed(startNanos);
+					return null;
+				}
 			}
+		} finally {
+			streamCredits.close(streamId);
 		}
+	}
+	
+	// The reply to the request, in the same payload format, with its app headers copied over, this stage added to the timings trail, and a TTL of the time remaining
+	private static Message<byte[]> reply (Message<byte[]> input, JSONObject jsonMessageOut, StageTimings.Stage stageTiming) {
 		
-		return toMsg; 
+		String contentType = PayloadCodec.contentTypeOf(input);
+		MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentType))
+				.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+				.setHeader(BinderHeaders.TARGET_DESTINATION, input.getHeaders().get(REPLY_TO_HEADER_KEY).toString());
+		
+		return AppHeaderPropagator.copyAppHeaders(input, Deadlines.withRemainingTtl(input, outputBuilder))
+				.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+				.build();
 	}
 	
-	private void simulateProcessingDelay () {
+	// The first 'count' transactions read, as the response's records, indexed counting down from 'firstIndex'
+	private static JSONArray transactionRecords (RecentTransactions recent, int count, int firstIndex) {
 		
-		long leftLimit = 1L;
-	    long rightLimit = 1000L;
-	    long generatedRandomLong = RandomUtils.nextLong(leftLimit, rightLimit);
-	    log.info("Sleeping for " + generatedRandomLong + "ms to simulate processing delay.");
-		try {
-			Thread.sleep(generatedRandomLong);
-		} catch (InterruptedException e) {
+		JSONArray txnsAll = new JSONArray();
+		JSONObject txnsRecord;
+		
+		for (int i = 0; i < count; i++) {
+			txnsRecord = new JSONObject();
+			
+			txnsRecord.put(TransactionFields.FIELD_INDEX, firstIndex - i);
+			txnsRecord.put(TransactionFields.FIELD_MERCHANT, recent.merchant(i));
+			txnsRecord.put(TransactionFields.FIELD_AMOUNT, TransactionFields.formatAmount(recent.amounts[i]));
+			txnsRecord.put(TransactionFields.FIELD_LOCATION, recent.location(i));
+			txnsRecord.put(TransactionFields.FIELD_DATETIME, TransactionFields.formatDateTime(recent.epochSeconds[i]));
+			if (recent.hasCoordinates(i)) {
+				txnsRecord.put(TransactionFields.FIELD_LATITUDE, (double) recent.latitudes[i]);
+				txnsRecord.put(TransactionFields.FIELD_LONGITUDE, (double) recent.longitudes[i]);
+			}
+			
+			txnsAll.add(txnsRecord);
+		}
+		return txnsAll;
+	}
+	
+	@Bean
+	// Purpose: Hear the credits given back by the consumer of a stream of transactions, for getTransactions to send it more (or stop)
+	//  * A credit for each chunk the consumer has taken, or one with 'cancel' true once it wants no more of the stream
+	//  * Subscribed on every instance (not as a consumer group), as the stream's ID does not say which instance is sending it
+	//  * Best effort: a credit for a stream already sent in full, or never heard of, is simply ignored
+	public Consumer<Message<byte[]>> creditTransactions(){
+		return input -> {
+			try {
+				JSONObject credit = PayloadCodec.decode(input);
+				Object streamId = credit.get(FIELD_STREAM_ID);
+				if (streamId == null) {
+					return;
+				}
+				if (Boolean.TRUE.equals(credit.get(FIELD_CANCEL))) {
+					streamCredits.cancel(streamId.toString());
+				} else {
+					streamCredits.credit(streamId.toString());
+				}
+			} catch (ParseException e) {
+				log.error("Did not receive a valid JSON formatted stream credit. " + e.toString());
+			}
+		};
+	}
+	
+	@Bean
+	// Purpose: A lookup of which cards transacted at a given merchant or location in the last so many minutes, e.g. to find the cards exposed to a compromised terminal
+	//  * The request has a 'merchant' or a 'location', and 'withinMinutes' (up to the indexed window). A 'cardNumber' given is left out of the results.
+	//  * Answered from the time-bucketed merchant and location indexes, so only the transactions at that place are read
+	//  * The cards are listed most recent first, each with when it last transacted there and how many times, up to the configured maximum
+	//	* For these internally accessed services, error messages are sent back on the same supplied reply-to
+	public Function<Message<byte[]>, Message<byte[]>> getCardsSeenAt(){
+		StageMetrics.Stage stageMetrics = metrics.stage("getCardsSeenAt");
+		return input -> {
+			
+			long startNanos = stageMetrics.received(input);
+			StageTimings.Stage stageTiming = StageTimings.start(input, "getCardsSeenAt");
+			JSONObject jsonMessageIn;
+			JSONObject jsonMessageOut;
+			log.info("Received message: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			
+			try {
+				try {
+					long parseStartNanos = System.nanoTime();
+					jsonMessageIn = PayloadCodec.decode(input);
+					stageMetrics.parsed(parseStartNanos);
+					
+					if (merchantIndex == null) {
+						stageMetrics.error(REASON_DISABLED);
+						throw new Exception("The merchant and location indexes are not enabled.");
+					}
+					
+					Object merchant = jsonMessageIn.get(TransactionFields.FIELD_MERCHANT);
+					Object location = jsonMessageIn.get(TransactionFields.FIELD_LOCATION);
+					if ((merchant == null) == (location == null)) {
+						stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+						throw new Exception("Expected one of " + TransactionFields.FIELD_MERCHANT + " or " + TransactionFields.FIELD_LOCATION + ".");
+					}
+					int withinMinutes = Math.min(Integer.parseInt(jsonMessageIn.get(FIELD_WITHIN_MINUTES).toString()), placeWindowMinutes);
+					long excludedCard = TransactionLog.keyOf(jsonMessageIn.get(TransactionFields.FIELD_CARD_NUMBER));
+					
+					JSONArray cardsAll = new JSONArray();
+					long sinceEpochSeconds = System.currentTimeMillis() / 1000 - withinMinutes * 60L;
+					
+					// One more, in case the excluded card is among them
+					PlaceIndex index = (merchant != null) ? merchantIndex : locationIndex;
+					index.cardsSince(((merchant != null) ? merchant : location).toString(), sinceEpochSeconds, maxPlaceResults + 1, (card, cardNumber, lastEpochSeconds, txnCount) -> {
+						if (card != excludedCard && cardsAll.size() < maxPlaceResults) {
+							JSONObject cardRecord = new JSONObject();
+							cardRecord.put(TransactionFields.FIELD_CARD_NUMBER, (cardNumber != null) ? cardNumber : TransactionLog.cardNumberOf(card));
+							cardRecord.put(FIELD_LAST_SEEN, TransactionFields.formatDateTime(lastEpochSeconds));
+							cardRecord.put(FIELD_TXN_COUNT, txnCount);
+							cardsAll.add(cardRecord);
+						}
+					});
+					
+					jsonMessageOut = new JSONObject();
+					if (merchant != null) {
+						jsonMessageOut.put(TransactionFields.FIELD_MERCHANT, merchant);
+					} else {
+						jsonMessageOut.put(TransactionFields.FIELD_LOCATION, location);
+					}
+					jsonMessageOut.put(FIELD_WITHIN_MINUTES, withinMinutes);
+					jsonMessageOut.put("cards", cardsAll);
+					jsonMessageOut.put("status", "ok");
+					
+				} catch (ParseException e) {
+					log.error("Did not receive a valid JSON formatted message. " + e.toString());
+					stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
+					throw new Exception ("Did not receive a valid JSON formatted message. " + e.toString());
+				} catch (NullPointerException | NumberFormatException e) {
+					log.error("Error processing message: " + FIELD_WITHIN_MINUTES + " missing or not a number. ");
+					stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+					throw new Exception("Error processing message: " + FIELD_WITHIN_MINUTES + " missing or not a number.");
+				}		
+			} catch (Exception e) {
+				jsonMessageOut = new JSONObject();
+				jsonMessageOut.put("status", "error");
+				jsonMessageOut.put("errorMsg", "Error processing message: " + e.getMessage());
+			}
+			stageTiming.end();
+			
+			String replyTopic = input.getHeaders().get(REPLY_TO_HEADER_KEY).toString();
+			String contentType = PayloadCodec.contentTypeOf(input);
+			
+			MessageBuilder<byte[]> outputBuilder = MessageBuilder.withPayload(PayloadCodec.encode(jsonMessageOut, contentType))
+					.setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+					.setHeader(BinderHeaders.TARGET_DESTINATION, replyTopic);
+			
+			Message<byte[]> output = AppHeaderPropagator.copyAppHeaders(input, outputBuilder)
+					.setHeader(StageTimings.STAGE_TIMINGS_KEY, stageTiming.trail(input))
+					.build();
 
-		}	
+			log.info("Sending response: " + jsonMessageOut + " on topic: " + replyTopic);
+			
+			stageMetrics.completed(startNanos, "error".equals(jsonMessageOut.get("status")));
+			return output;
+		};
+	}
+	
+	@Bean
+	// Purpose: Record each card transaction in the transaction log, for the lookups of recent transactions
+	//  * Written through to the in-memory cache too, which is told whether the log had any before it for the card
+	//  * The card's cached getTransactions result is invalidated
+	//  * And indexed by its merchant and location, for getCardsSeenAt
+	//  * The events are transaction records as returned by getTransactions, plus the cardNumber
+	//  * An event that cannot be read is logged and dropped, as there is no one to reply to
+	public Consumer<Message<byte[]>> recordTransaction(){
+		StageMetrics.Stage stageMetrics = metrics.stage("recordTransaction");
+		return input -> {
+			
+			long startNanos = stageMetrics.received(input);
+			
+			// One of these per card transaction, so not logged unless debugging
+			if (log.isDebugEnabled()) {
+				log.debug("Received transaction: " + PayloadCodec.toLogString(input) + " on topic: " + input.getHeaders().get(SOL_DESTINATION_KEY));
+			}
+			
+			try {
+				long parseStartNanos = System.nanoTime();
+				JSONObject txn = PayloadCodec.decode(input);
+				stageMetrics.parsed(parseStartNanos);
+				
+				Object cardNumber = txn.get(TransactionFields.FIELD_CARD_NUMBER);
+				long card = TransactionLog.keyOf((cardNumber != null) ? cardNumber.toString() : null);
+				if (card == CardIndex.NO_CARD) {
+					throw new IllegalArgumentException("Not recording a transaction without a valid cardNumber: " + cardNumber);
+				}
+				
+				// Transactions without a (readable) time are taken as happening now
+				long epochSeconds = TransactionFields.parseDateTime(txn.get(TransactionFields.FIELD_DATETIME));
+				if (epochSeconds == TransactionFields.UNKNOWN_TIME) {
+					epochSeconds = System.currentTimeMillis() / 1000;
+				}
+				
+				Object latitude = txn.get(TransactionFields.FIELD_LATITUDE);
+				Object longitude = txn.get(TransactionFields.FIELD_LONGITUDE);
+				boolean located = latitude instanceof Number && longitude instanceof Number;
+				
+				double amount = TransactionFields.parseAmount(txn.get(TransactionFields.FIELD_AMOUNT));
+				String merchant = stringOf(txn.get(TransactionFields.FIELD_MERCHANT));
+				String location = stringOf(txn.get(TransactionFields.FIELD_LOCATION));
+				double lat = located ? ((Number) latitude).doubleValue() : Double.NaN;
+				double lon = located ? ((Number) longitude).doubleValue() : Double.NaN;
+				
+				// Written through to the cache under the log's lock, so the cache gets each card's transactions in the order they were logged
+				long txnEpochSeconds = epochSeconds;
+				transactionLog.append(card, epochSeconds, amount, merchant, location, lat, lon, (txnCache == null) ? null
+						: (sequence, firstOfCard) -> txnCache.append(card, sequence, txnEpochSeconds, amount, merchant, location, lat, lon, firstOfCard));
+				// Only once it is in the log, so a lookup that reads the log after this cannot have its stale result cached
+				if (lookupCache != null) {
+					lookupCache.invalidate(card);
+				}
+				if (merchantIndex != null) {
+					long nowEpochSeconds = System.currentTimeMillis() / 1000;
+					merchantIndex.add(merchant, card, cardNumber.toString(), epochSeconds, nowEpochSeconds);
+					locationIndex.add(location, card, cardNumber.toString(), epochSeconds, nowEpochSeconds);
+				}
+				
+			} catch (ParseException e) {
+				log.error("Did not receive a valid JSON formatted transaction. " + e.toString());
+				stageMetrics.error(StageMetrics.REASON_INVALID_PAYLOAD);
+			} catch (IllegalArgumentException e) {
+				log.error(e.getMessage());
+				stageMetrics.error(StageMetrics.REASON_MISSING_FIELD);
+			}
+			stageMetrics.completed(startNanos);
+		};
+	}
+	
+	private static String stringOf (Object value) {
+		return (value != null) ? value.toString() : "";
 	}
 
 }
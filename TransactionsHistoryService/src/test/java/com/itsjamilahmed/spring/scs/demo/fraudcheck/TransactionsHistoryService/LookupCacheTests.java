@@ -0,0 +1,68 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.json.simple.JSONArray;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The cache of lookup results, and that it never serves a result older than the card's last transaction
+class LookupCacheTests {
+
+	static final long CARD = TransactionLogTests.CARD;
+
+	private final LookupCache cache = new LookupCache(new LookupCacheProperties(), new SimpleMeterRegistry());
+
+	@Test
+	void answersALookupOfTheSameCount() {
+
+		LookupCache.Lookup lookup = lookup(10);
+		cache.put(CARD, lookup, cache.versionOf(CARD));
+
+		assertSame(lookup, cache.get(CARD, 10));
+		assertNull(cache.get(CARD, 20));
+		assertNull(cache.get(TransactionLogTests.OTHER_CARD, 10));
+	}
+
+	@Test
+	void dropsACardsResultOnItsNextTransaction() {
+
+		cache.put(CARD, lookup(10), cache.versionOf(CARD));
+		cache.invalidate(CARD);
+		assertNull(cache.get(CARD, 10));
+	}
+
+	@Test
+	void doesNotCacheALookupThatRacedWithANewTransaction() {
+
+		// Read before the transaction was recorded, so put after it
+		long version = cache.versionOf(CARD);
+		cache.invalidate(CARD);
+		cache.put(CARD, lookup(10), version);
+		assertNull(cache.get(CARD, 10));
+
+		// Nor replace a result read since
+		LookupCache.Lookup newer = lookup(10);
+		cache.put(CARD, newer, cache.versionOf(CARD));
+		cache.put(CARD, lookup(10), version);
+		assertSame(newer, cache.get(CARD, 10));
+	}
+
+	@Test
+	void expiresResultsAfterTheirTtl() throws InterruptedException {
+
+		LookupCacheProperties properties = new LookupCacheProperties();
+		properties.setTtlMs(50);
+		LookupCache shortLived = new LookupCache(properties, new SimpleMeterRegistry());
+
+		shortLived.put(CARD, lookup(10), shortLived.versionOf(CARD));
+		Thread.sleep(200);
+		assertNull(shortLived.get(CARD, 10));
+	}
+
+	private static LookupCache.Lookup lookup(int txnCount) {
+		return new LookupCache.Lookup(txnCount, new JSONArray(), 0);
+	}
+}
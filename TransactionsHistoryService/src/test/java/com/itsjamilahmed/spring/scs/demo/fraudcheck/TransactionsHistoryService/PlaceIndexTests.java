@@ -0,0 +1,107 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// Purpose: The cards found at a place within the index's sliding window
+//  * Buckets of a minute, over a 10 minute window
+class PlaceIndexTests {
+
+	static final long NOW = TransactionLogTests.DAY_START;
+
+	private final PlaceIndex index = new PlaceIndex(60, 10);
+
+	// Each card visited, as "card@lastEpochSeconds x txnCount"
+	private final List<String> visited = new ArrayList<>();
+
+	@Test
+	void findsEachCardOnceMostRecentFirst() {
+
+		index.add("Shop A", 1, null, NOW - 300, NOW);
+		index.add("Shop A", 2, null, NOW - 200, NOW);
+		index.add("Shop A", 1, null, NOW - 100, NOW);
+		index.add("Shop B", 3, null, NOW - 100, NOW);
+
+		assertEquals(2, cardsSince("Shop A", NOW - 600, 10));
+		assertEquals(List.of("1@" + (NOW - 100) + " x2", "2@" + (NOW - 200) + " x1"), visited);
+		assertEquals(2, index.placeCount());
+	}
+
+	@Test
+	void findsOnlyThoseSinceTheTimeAskedAndUpToTheMost() {
+
+		for (long card = 1; card <= 5; card++) {
+			index.add("Shop A", card, null, NOW - 500 + card * 60, NOW);
+		}
+
+		assertEquals(2, cardsSince("Shop A", NOW - 270, 10));
+		assertEquals(List.of("5@" + (NOW - 200) + " x1", "4@" + (NOW - 260) + " x1"), visited);
+
+		visited.clear();
+		assertEquals(3, cardsSince("Shop A", NOW - 600, 3));
+		assertEquals("5@" + (NOW - 200) + " x1", visited.get(0));
+		assertEquals("3@" + (NOW - 320) + " x1", visited.get(2));
+	}
+
+	@Test
+	void slidesTheWindowOn() {
+
+		index.add("Shop A", 1, null, NOW, NOW);
+		// Twenty minutes on, the first transaction's bucket has been reused
+		long later = NOW + 1_200;
+		index.add("Shop A", 2, null, later, later);
+
+		assertEquals(1, cardsSince("Shop A", NOW - 60, 10));
+		assertEquals("2@" + later + " x1", visited.get(0));
+
+		// Too old for the window now, so not indexed
+		index.add("Shop A", 3, null, NOW + 60, later);
+		visited.clear();
+		assertEquals(1, cardsSince("Shop A", NOW - 60, 10));
+	}
+
+	@Test
+	void takesATransactionFromTheFutureAsNow() {
+
+		index.add("Shop A", 1, null, NOW, NOW);
+		index.add("Shop A", 2, null, NOW + 3_600, NOW);
+
+		// Had it moved the window on an hour, the first would have gone
+		assertEquals(2, cardsSince("Shop A", NOW - 60, 10));
+	}
+
+	@Test
+	void answersWithTheCardNumberAsGivenWithTheLatestTransaction() {
+
+		long card = TransactionLog.keyOf("0012-3456-7890-1234");
+		index.add("Shop A", card, null, NOW - 300, NOW);
+		index.add("Shop A", card, "0012 3456 7890 1234", NOW - 200, NOW);
+		index.add("Shop A", card, "0012-3456-7890-1234", NOW - 100, NOW);
+		index.add("Shop A", 2, null, NOW - 250, NOW);
+
+		List<String> cardNumbers = new ArrayList<>();
+		index.cardsSince("Shop A", NOW - 600, 10, (found, cardNumber, lastEpochSeconds, txnCount) -> cardNumbers.add(cardNumber));
+		// None for a card only indexed without one, e.g. as rebuilt from the log
+		assertEquals(Arrays.asList("0012-3456-7890-1234", null), cardNumbers);
+	}
+
+	@Test
+	void findsNothingAtAnUnknownPlace() {
+
+		assertEquals(0, cardsSince("Shop A", NOW, 10));
+		index.add("Shop A", 1, null, NOW, NOW);
+		index.add("", 2, null, NOW, NOW);
+		assertEquals(0, cardsSince("Shop Z", NOW - 60, 10));
+		assertEquals(0, cardsSince("", NOW - 60, 10));
+	}
+
+	private int cardsSince(String place, long sinceEpochSeconds, int maxCards) {
+		return index.cardsSince(place, sinceEpochSeconds, maxCards,
+				(card, cardNumber, lastEpochSeconds, txnCount) -> visited.add(card + "@" + lastEpochSeconds + " x" + txnCount));
+	}
+}
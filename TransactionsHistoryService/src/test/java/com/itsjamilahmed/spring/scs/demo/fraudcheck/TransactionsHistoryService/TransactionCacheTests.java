@@ -0,0 +1,106 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The columnar hot tier, and when it can answer for a card rather than the transaction log
+//  * 4 transactions per card, in the smallest memory budget
+class TransactionCacheTests {
+
+	static final long CARD = TransactionLogTests.CARD;
+	static final long DAY_START = TransactionLogTests.DAY_START;
+
+	private final TransactionCache cache = new TransactionCache(properties(4), new SimpleMeterRegistry());
+	private final RecentTransactions recent = new RecentTransactions(10);
+
+	@Test
+	void answersForACardItHoldsEveryTransactionOf() {
+
+		append(CARD, 0, 12.34, "Shop A", true);
+		append(CARD, 1, 20, "Shop B", false);
+		append(CARD, 2, 30, "Shop A", false);
+
+		assertEquals(3, cache.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(2, recent.sequences[0]);
+		assertEquals(12.34, recent.amounts[2]);
+		assertEquals("Shop B", recent.merchant(1));
+		// Decoded from the dictionary, so the one String for each name
+		assertSame(recent.merchantNames[0], recent.merchantNames[2]);
+		assertEquals(Float.NaN, recent.latitudes[0]);
+
+		// Only those newer than the one asked from
+		assertEquals(1, cache.readRecent(CARD, 10, 1, recent));
+		assertEquals(2, recent.sequences[0]);
+	}
+
+	@Test
+	void missesForACardWithTransactionsOnlyInTheLog() {
+
+		// The card had transactions before the cache started holding it
+		append(CARD, 10, 10, "Shop A", false);
+		append(CARD, 11, 10, "Shop A", false);
+
+		assertEquals(TransactionCache.NOT_CACHED, cache.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(2, cache.readRecent(CARD, 2, TransactionLog.NO_SEQUENCE, recent));
+		// Or back as far as those asked from
+		assertEquals(1, cache.readRecent(CARD, 10, 10, recent));
+		assertEquals(TransactionCache.NOT_CACHED, cache.readRecent(TransactionLogTests.OTHER_CARD, 1, TransactionLog.NO_SEQUENCE, recent));
+	}
+
+	@Test
+	void keepsOnlyTheLastTransactionsOfACard() {
+
+		for (int i = 0; i < 6; i++) {
+			append(CARD, i, i, "Shop " + i, i == 0);
+		}
+
+		assertEquals(4, cache.readRecent(CARD, 4, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(5, recent.sequences[0]);
+		assertEquals(2, recent.sequences[3]);
+		assertEquals("Shop 2", recent.merchant(3));
+		// The older ones have gone round the ring, so are only in the log
+		assertEquals(TransactionCache.NOT_CACHED, cache.readRecent(CARD, 5, TransactionLog.NO_SEQUENCE, recent));
+	}
+
+	@Test
+	void leavesACardWithAnAmountTooLargeToHoldToTheLog() {
+
+		append(CARD, 0, 10, "Shop A", true);
+		append(CARD, 1, TransactionCache.MAX_AMOUNT * 2, "Shop A", false);
+		assertEquals(TransactionCache.NOT_CACHED, cache.readRecent(CARD, 1, TransactionLog.NO_SEQUENCE, recent));
+
+		// Held again from its next transaction, but no longer as all of its transactions
+		append(CARD, 2, 20, "Shop A", false);
+		assertEquals(1, cache.readRecent(CARD, 1, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(20, recent.amounts[0]);
+		assertEquals(TransactionCache.NOT_CACHED, cache.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+	}
+
+	@Test
+	void makesWayForNewCardsOnceFull() {
+
+		TransactionCache small = new TransactionCache(properties(16), new SimpleMeterRegistry());
+		for (long card = 1; card <= 2_000; card++) {
+			small.append(card, card, DAY_START, 1, "Shop", "London", Double.NaN, Double.NaN, true);
+		}
+		assertTrue(small.size() < 2_000);
+		assertEquals(1, small.readRecent(2_000, 10, TransactionLog.NO_SEQUENCE, recent));
+	}
+
+	private void append(long card, long sequence, double amount, String merchant, boolean firstOfCard) {
+		// A new String each time, as decoded from a payload
+		cache.append(card, sequence, DAY_START + sequence, amount, new String(merchant), "London", Double.NaN, Double.NaN, firstOfCard);
+	}
+
+	private static TransactionCacheProperties properties(int txnsPerCard) {
+		TransactionCacheProperties properties = new TransactionCacheProperties();
+		properties.setMaxMemoryMb(1);
+		properties.setTxnsPerCard(txnsPerCard);
+		return properties;
+	}
+}
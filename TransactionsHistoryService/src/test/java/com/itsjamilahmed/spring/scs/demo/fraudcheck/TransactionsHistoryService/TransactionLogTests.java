@@ -0,0 +1,183 @@
+package com.itsjamilahmed.spring.scs.demo.fraudcheck.TransactionsHistoryService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Purpose: The segment log's chains of card transactions, its checksummed recovery on start-up, and its rolling of segments
+//  * Each log is in a directory of its own, in the smallest segments (1MB, so 8192 records)
+class TransactionLogTests {
+
+	static final long CARD = TransactionLog.keyOf("1234-5678-1234-5688");
+	static final long OTHER_CARD = TransactionLog.keyOf("4000-0000-0000-0002");
+
+	// 01/01/2024 00:00:00 UTC
+	static final long DAY_START = 1_704_067_200L;
+
+	@TempDir
+	Path directory;
+
+	private final List<TransactionLog> opened = new ArrayList<>();
+
+	@AfterEach
+	void close() {
+		opened.forEach(TransactionLog::close);
+	}
+
+	@Test
+	void chainsEachCardsTransactionsNewestFirst() throws IOException {
+
+		TransactionLog txnLog = open(4);
+		long first = txnLog.append(CARD, DAY_START, 10.5, "Shop A", "London", 51.5, -0.12);
+		txnLog.append(OTHER_CARD, DAY_START + 1, 99, "Shop Z", "Paris", Double.NaN, Double.NaN);
+		long second = txnLog.append(CARD, DAY_START + 2, 20, "Shop B", "Paris", Double.NaN, Double.NaN);
+		long third = txnLog.append(CARD, DAY_START + 3, 30, "Shop C", "New York", Double.NaN, Double.NaN);
+
+		RecentTransactions recent = new RecentTransactions(10);
+		assertEquals(3, txnLog.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(third, recent.sequences[0]);
+		assertEquals("Shop C", recent.merchant(0));
+		assertEquals(20.0, recent.amounts[1]);
+		assertEquals("London", recent.location(2));
+		assertTrue(recent.hasCoordinates(2));
+		assertFalse(recent.hasCoordinates(1));
+
+		// Only those newer than the one asked from, and no more than asked for
+		assertEquals(2, txnLog.readRecent(CARD, 10, first, recent));
+		assertEquals(1, txnLog.readRecent(CARD, 1, first, recent));
+		assertEquals(second, txnLog.previousOf(third));
+		assertEquals(TransactionLog.NO_PREVIOUS, txnLog.previousOf(first));
+		assertEquals(2, txnLog.cardCount());
+	}
+
+	@Test
+	void truncatesTextWithoutSplittingACharacter() throws IOException {
+
+		TransactionLog txnLog = open(4);
+		// 34 ASCII bytes, then a 2 byte character that would not fit in the 35
+		String merchant = "A".repeat(34) + "\u00e9";
+		txnLog.append(CARD, DAY_START, 10, merchant, "London", Double.NaN, Double.NaN);
+
+		RecentTransactions recent = new RecentTransactions(1);
+		txnLog.readRecent(CARD, 1, TransactionLog.NO_SEQUENCE, recent);
+		assertEquals("A".repeat(34), recent.merchant(0));
+	}
+
+	@Test
+	void recoversTheLogOnRestart() throws IOException {
+
+		TransactionLog txnLog = open(4);
+		for (int i = 0; i < 5; i++) {
+			txnLog.append(CARD, DAY_START + i, i, "Shop " + i, "London", Double.NaN, Double.NaN);
+		}
+		txnLog.append(OTHER_CARD, DAY_START, 1, "Shop Z", "Paris", Double.NaN, Double.NaN);
+		txnLog.close();
+
+		TransactionLog recovered = open(4);
+		assertEquals(2, recovered.cardCount());
+		RecentTransactions recent = new RecentTransactions(10);
+		assertEquals(5, recovered.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals("Shop 4", recent.merchant(0));
+
+		// Carrying on from the end of the log, chained to the card's recovered transactions
+		assertEquals(6, recovered.append(CARD, DAY_START + 5, 5, "Shop 5", "London", Double.NaN, Double.NaN));
+		assertEquals(6, recovered.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+	}
+
+	@Test
+	void endsTheLogAtARecordFailingItsChecksum() throws IOException {
+
+		TransactionLog txnLog = open(4);
+		for (int i = 0; i < 4; i++) {
+			txnLog.append(CARD, DAY_START + i, i, "Shop " + i, "London", Double.NaN, Double.NaN);
+		}
+		txnLog.close();
+
+		// A torn write of the third record: its amount changed after it was checksummed
+		try (RandomAccessFile segment = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+			segment.seek(2L * TransactionLog.RECORD_BYTES + TransactionLog.OFFSET_AMOUNT);
+			segment.writeDouble(1_000_000);
+		}
+
+		TransactionLog recovered = open(4);
+		RecentTransactions recent = new RecentTransactions(10);
+		assertEquals(2, recovered.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals("Shop 1", recent.merchant(0));
+
+		// The records after it were cleared, so are overwritten rather than taken as part of the log
+		assertEquals(2, recovered.append(CARD, DAY_START + 9, 9, "Shop 9", "London", Double.NaN, Double.NaN));
+		recovered.close();
+		TransactionLog again = open(4);
+		assertEquals(3, again.readRecent(CARD, 10, TransactionLog.NO_SEQUENCE, recent));
+		assertEquals("Shop 9", recent.merchant(0));
+	}
+
+	@Test
+	void rollsSegmentsAndDeletesThoseBeyondTheRetention() throws IOException {
+
+		TransactionLog txnLog = open(2);
+		int recordsPerSegment = (1024 * 1024) / TransactionLog.RECORD_BYTES;
+		for (int i = 0; i < 2 * recordsPerSegment + 10; i++) {
+			txnLog.append(CARD, DAY_START + i, 1, "Shop", "London", Double.NaN, Double.NaN);
+		}
+		assertEquals(2, txnLog.segmentCount());
+		assertEquals(2, segmentFiles().size());
+
+		// The card's chain stops at the oldest record kept
+		RecentTransactions recent = new RecentTransactions(3 * recordsPerSegment);
+		assertEquals(recordsPerSegment + 10, txnLog.readRecent(CARD, recent.capacity(), TransactionLog.NO_SEQUENCE, recent));
+		assertEquals(recordsPerSegment, recent.sequences[recordsPerSegment + 9]);
+	}
+
+	@Test
+	void replaysTheTransactionsSinceATime() throws IOException {
+
+		TransactionLog txnLog = open(4);
+		for (int i = 0; i < 5; i++) {
+			txnLog.append(CARD, DAY_START + i * 60, i, "Shop " + i, "London", Double.NaN, Double.NaN);
+		}
+
+		List<String> replayed = new ArrayList<>();
+		txnLog.replaySince(DAY_START + 120, (card, epochSeconds, merchant, location) -> replayed.add(merchant));
+		assertEquals(List.of("Shop 2", "Shop 3", "Shop 4"), replayed);
+	}
+
+	@Test
+	void formatsAKeyBackToACardNumber() {
+
+		assertEquals("1234-5678-1234-5688", TransactionLog.cardNumberOf(CARD));
+		assertEquals("0000-0012-3456-7890", TransactionLog.cardNumberOf(TransactionLog.keyOf("0000 0012 3456 7890")));
+		assertEquals("1234-5678-9012-3456-789", TransactionLog.cardNumberOf(TransactionLog.keyOf("1234567890123456789")));
+	}
+
+	private TransactionLog open(int retentionSegments) throws IOException {
+
+		TransactionLogProperties properties = new TransactionLogProperties();
+		properties.setDirectory(directory.toString());
+		properties.setSegmentMb(1);
+		properties.setRetentionSegments(retentionSegments);
+		TransactionLog txnLog = new TransactionLog(properties, new SimpleMeterRegistry());
+		opened.add(txnLog);
+		return txnLog;
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(path -> path.toString().endsWith(TransactionLog.SEGMENT_SUFFIX)).sorted().toList();
+		}
+	}
+}